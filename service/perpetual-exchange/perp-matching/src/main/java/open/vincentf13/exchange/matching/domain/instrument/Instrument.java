@@ -1,10 +1,12 @@
 package open.vincentf13.exchange.matching.domain.instrument;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import lombok.Builder;
 import lombok.Getter;
 import lombok.ToString;
 import open.vincentf13.exchange.admin.contract.dto.InstrumentSummaryResponse;
 import open.vincentf13.exchange.common.sdk.enums.AssetSymbol;
+import open.vincentf13.sdk.core.mapper.OpenObjectMapper;
 
 import java.math.BigDecimal;
 
@@ -20,8 +22,13 @@ public class Instrument {
     private final BigDecimal makerFee;
     private final BigDecimal takerFee;
     private final BigDecimal contractSize;
+    /** 價格最小跳動單位，取自 metadata.tick_size；未設定為 null */
+    private final BigDecimal tickSize;
+    /** 數量最小單位，取自 metadata.lot_size；未設定為 null */
+    private final BigDecimal lotSize;
     
     public static Instrument from(InstrumentSummaryResponse dto) {
+        JsonNode metadata = parseMetadata(dto.metadata());
         return Instrument.builder()
                          .instrumentId(dto.instrumentId())
                          .symbol(dto.symbol())
@@ -30,6 +37,32 @@ public class Instrument {
                          .makerFee(dto.makerFeeRate())
                          .takerFee(dto.takerFeeRate())
                          .contractSize(dto.contractSize())
+                         .tickSize(positiveDecimal(metadata, "tick_size"))
+                         .lotSize(positiveDecimal(metadata, "lot_size"))
                          .build();
     }
+    
+    private static JsonNode parseMetadata(String metadata) {
+        if (metadata == null || metadata.isBlank()) {
+            return null;
+        }
+        try {
+            return OpenObjectMapper.readTree(metadata);
+        } catch (RuntimeException ex) {
+            return null;
+        }
+    }
+    
+    private static BigDecimal positiveDecimal(JsonNode metadata,
+                                              String field) {
+        if (metadata == null || !metadata.hasNonNull(field)) {
+            return null;
+        }
+        try {
+            BigDecimal value = new BigDecimal(metadata.get(field).asText());
+            return value.signum() > 0 ? value : null;
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
 }
@@ -31,4 +31,11 @@ public class MatchResult {
     public void addUpdate(OrderUpdate update) {
         updates.add(update);
     }
+    
+    /**
+     taker 被撮合引擎拒絕，未進入撮合 (見 OrderBook#reject)。
+     */
+    public boolean isRejected() {
+        return updates != null && updates.stream().anyMatch(update -> update.isTaker() && update.isRejected());
+    }
 }
@@ -0,0 +1,132 @@
+package open.vincentf13.exchange.matching.domain.order.book;
+
+import open.vincentf13.exchange.common.sdk.model.OrderUpdate;
+import open.vincentf13.exchange.matching.domain.match.result.MatchResult;
+import open.vincentf13.exchange.matching.domain.match.result.Trade;
+import open.vincentf13.sdk.core.values.OpenDecimal;
+
+import java.math.BigDecimal;
+import java.util.*;
+
+/**
+ BigDecimal 價位 TreeMap 訂單簿，價格 / 數量精度不受限。
+ */
+class DecimalOrderBook extends OrderBook {
+    
+    private final TreeMap<BigDecimal, Deque<Order>> asks = new TreeMap<>(BigDecimal::compareTo);
+    // 使用明確的 Comparator 避免潛在的類型推斷問題
+    private final TreeMap<BigDecimal, Deque<Order>> bids = new TreeMap<>((a, b) -> b.compareTo(a));
+    private final Map<Long, Order> orderIndex = new HashMap<>();
+    
+    @Override
+    public MatchResult match(Order taker) {
+        MatchResult result = new MatchResult(taker);
+        BigDecimal remaining = taker.getQuantity();
+        TreeMap<BigDecimal, Deque<Order>> targetBook = taker.isBuy() ? asks : bids;
+        Iterator<Map.Entry<BigDecimal, Deque<Order>>> iterator = targetBook.entrySet().iterator();
+        
+        while (remaining.compareTo(BigDecimal.ZERO) > 0 && iterator.hasNext()) {
+            Map.Entry<BigDecimal, Deque<Order>> entry = iterator.next();
+            BigDecimal price = entry.getKey();
+            if (!isCrossed(taker, price)) {
+                break;
+            }
+            Deque<Order> queue = entry.getValue();
+            Iterator<Order> makerIterator = new ArrayList<>(queue).iterator();
+            while (remaining.compareTo(BigDecimal.ZERO) > 0 && makerIterator.hasNext()) {
+                Order maker = makerIterator.next();
+                BigDecimal fillQty = remaining.min(maker.getQuantity());
+                BigDecimal makerRemaining = maker.getQuantity().subtract(fillQty);
+                BigDecimal takerRemaining = remaining.subtract(fillQty);
+                Trade trade = buildTrade(taker, maker, price, fillQty, makerRemaining, takerRemaining);
+                result.addTrade(trade);
+                
+                result.addUpdate(
+                        OrderUpdate.builder()
+                                   .orderId(maker.getOrderId())
+                                   .price(maker.getPrice())
+                                   .side(maker.getSide())
+                                   .remainingQuantity(
+                                           OpenDecimal.normalizeDecimal(makerRemaining.max(BigDecimal.ZERO)))
+                                   .isTaker(false)
+                                   .build());
+                remaining = takerRemaining;
+            }
+        }
+        
+        result.addUpdate(
+                OrderUpdate.builder()
+                           .orderId(taker.getOrderId())
+                           .price(taker.getPrice())
+                           .side(taker.getSide())
+                           .remainingQuantity(OpenDecimal.normalizeDecimal(remaining.max(BigDecimal.ZERO)))
+                           .isTaker(true)
+                           .build());
+        return result;
+    }
+    
+    @Override
+    public void apply(MatchResult result) {
+        // 根據撮合結果更新簿內訂單：移除成交完畢、保留剩餘量
+        for (OrderUpdate update : result.getUpdates()) {
+            if (update.isTaker()) {
+                if (update.getRemainingQuantity().compareTo(BigDecimal.ZERO) > 0
+                            && result.getTakerOrder().getPrice() != null) {
+                    Order taker = result.getTakerOrder();
+                    taker.setQuantity(update.getRemainingQuantity());
+                    insert(taker);
+                }
+                continue;
+            }
+            Order maker = orderIndex.get(update.getOrderId());
+            if (maker == null) {
+                continue;
+            }
+            maker.setQuantity(update.getRemainingQuantity());
+            if (maker.getQuantity().compareTo(BigDecimal.ZERO) <= 0) {
+                remove(maker);
+            }
+        }
+    }
+    
+    @Override
+    public void insert(Order order) {
+        TreeMap<BigDecimal, Deque<Order>> book = order.isBuy() ? bids : asks;
+        Deque<Order> queue = book.computeIfAbsent(order.getPrice(), key -> new ArrayDeque<>());
+        queue.addLast(order);
+        orderIndex.put(order.getOrderId(), order);
+    }
+    
+    @Override
+    public List<Order> dumpOpenOrders() {
+        List<Order> orders = new ArrayList<>(orderIndex.size());
+        // 先輸出 bids (price DESC) 保持掛單順序，再輸出 asks (price ASC)
+        bids.values().forEach(queue -> orders.addAll(queue));
+        asks.values().forEach(queue -> orders.addAll(queue));
+        return orders;
+    }
+    
+    private void remove(Order order) {
+        TreeMap<BigDecimal, Deque<Order>> book = order.isBuy() ? bids : asks;
+        Deque<Order> queue = book.get(order.getPrice());
+        if (queue == null) {
+            orderIndex.remove(order.getOrderId());
+            return;
+        }
+        queue.removeIf(o -> o.getOrderId().equals(order.getOrderId()));
+        if (queue.isEmpty()) {
+            book.remove(order.getPrice());
+        }
+        orderIndex.remove(order.getOrderId());
+    }
+    
+    private boolean isCrossed(Order taker,
+                              BigDecimal levelPrice) {
+        if (taker.getPrice() == null) {
+            return true;
+        }
+        return taker.isBuy()
+               ? taker.getPrice().compareTo(levelPrice) >= 0
+               : taker.getPrice().compareTo(levelPrice) <= 0;
+    }
+}
@@ -0,0 +1,206 @@
+package open.vincentf13.exchange.matching.domain.order.book;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectRBTreeMap;
+import it.unimi.dsi.fastutil.longs.LongComparator;
+import it.unimi.dsi.fastutil.objects.ObjectBidirectionalIterator;
+import open.vincentf13.exchange.common.sdk.model.OrderUpdate;
+import open.vincentf13.exchange.matching.domain.match.result.MatchResult;
+import open.vincentf13.sdk.core.values.OpenDecimal;
+
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ 定點訂單簿：進入時以商品 tick / lot 將價格、數量轉為 long (ticks / lots)，
+ 價位以 Long2ObjectRBTreeMap 排序、訂單以 Long2ObjectOpenHashMap 索引，撮合全程只做 long 比較與加減；
+ 僅在輸出 Trade / OrderUpdate 時轉回 BigDecimal。撮合語義與 {@link DecimalOrderBook} 相同。
+ <p>
+ 限價單價格須為 tick 整數倍、數量須為 lot 整數倍；不符者 {@link #accepts} 回傳 false，由呼叫端逐筆拒絕。
+ */
+class FixedPointOrderBook extends OrderBook {
+    
+    private static final BigDecimal MAX_UNITS = BigDecimal.valueOf(Long.MAX_VALUE);
+    
+    private final BigDecimal tickSize;
+    private final BigDecimal lotSize;
+    
+    private final Long2ObjectRBTreeMap<ArrayDeque<Resting>> asks = new Long2ObjectRBTreeMap<>();
+    private final Long2ObjectRBTreeMap<ArrayDeque<Resting>> bids =
+            new Long2ObjectRBTreeMap<>((LongComparator) (a, b) -> Long.compare(b, a));
+    private final Long2ObjectOpenHashMap<Resting> orderIndex = new Long2ObjectOpenHashMap<>();
+    
+    FixedPointOrderBook(BigDecimal tickSize,
+                        BigDecimal lotSize) {
+        this.tickSize = tickSize;
+        this.lotSize = lotSize;
+    }
+    
+    @Override
+    public boolean accepts(Order order) {
+        return (order.getPrice() == null || onGrid(order.getPrice(), tickSize))
+               && onGrid(order.getQuantity(), lotSize);
+    }
+    
+    @Override
+    public MatchResult match(Order taker) {
+        MatchResult result = new MatchResult(taker);
+        boolean hasLimit = taker.getPrice() != null;
+        long limitTicks = hasLimit ? toUnits(taker.getPrice(), tickSize, "price") : 0L;
+        long remaining = toUnits(taker.getQuantity(), lotSize, "quantity");
+        Long2ObjectRBTreeMap<ArrayDeque<Resting>> targetBook = taker.isBuy() ? asks : bids;
+        ObjectBidirectionalIterator<Long2ObjectMap.Entry<ArrayDeque<Resting>>> iterator =
+                targetBook.long2ObjectEntrySet().iterator();
+        
+        while (remaining > 0 && iterator.hasNext()) {
+            Long2ObjectMap.Entry<ArrayDeque<Resting>> entry = iterator.next();
+            long levelTicks = entry.getLongKey();
+            if (hasLimit && (taker.isBuy() ? limitTicks < levelTicks : limitTicks > levelTicks)) {
+                break;
+            }
+            // match 不修改簿內狀態，直接走訪佇列即可，無需複製
+            Iterator<Resting> makerIterator = entry.getValue().iterator();
+            while (remaining > 0 && makerIterator.hasNext()) {
+                Resting resting = makerIterator.next();
+                Order maker = resting.order;
+                long fillLots = Math.min(remaining, resting.lots);
+                long makerRemaining = resting.lots - fillLots;
+                long takerRemaining = remaining - fillLots;
+                BigDecimal makerRemainingQty = fromUnits(makerRemaining, lotSize);
+                result.addTrade(
+                        buildTrade(taker, maker, maker.getPrice(), fromUnits(fillLots, lotSize),
+                                   makerRemainingQty, fromUnits(takerRemaining, lotSize)));
+                
+                result.addUpdate(
+                        OrderUpdate.builder()
+                                   .orderId(maker.getOrderId())
+                                   .price(maker.getPrice())
+                                   .side(maker.getSide())
+                                   .remainingQuantity(OpenDecimal.normalizeDecimal(makerRemainingQty))
+                                   .isTaker(false)
+                                   .build());
+                remaining = takerRemaining;
+            }
+        }
+        
+        result.addUpdate(
+                OrderUpdate.builder()
+                           .orderId(taker.getOrderId())
+                           .price(taker.getPrice())
+                           .side(taker.getSide())
+                           .remainingQuantity(OpenDecimal.normalizeDecimal(fromUnits(remaining, lotSize)))
+                           .isTaker(true)
+                           .build());
+        return result;
+    }
+    
+    @Override
+    public void apply(MatchResult result) {
+        for (OrderUpdate update : result.getUpdates()) {
+            if (update.isTaker()) {
+                if (update.getRemainingQuantity().signum() > 0
+                            && result.getTakerOrder().getPrice() != null) {
+                    Order taker = result.getTakerOrder();
+                    taker.setQuantity(update.getRemainingQuantity());
+                    insert(taker);
+                }
+                continue;
+            }
+            Resting resting = orderIndex.get(update.getOrderId().longValue());
+            if (resting == null) {
+                continue;
+            }
+            resting.order.setQuantity(update.getRemainingQuantity());
+            if (update.getRemainingQuantity().signum() <= 0) {
+                remove(resting);
+            } else {
+                resting.lots = toUnits(update.getRemainingQuantity(), lotSize, "quantity");
+            }
+        }
+    }
+    
+    @Override
+    public void insert(Order order) {
+        Resting resting = new Resting(order,
+                                      toUnits(order.getPrice(), tickSize, "price"),
+                                      toUnits(order.getQuantity(), lotSize, "quantity"));
+        Long2ObjectRBTreeMap<ArrayDeque<Resting>> book = order.isBuy() ? bids : asks;
+        ArrayDeque<Resting> queue = book.get(resting.ticks);
+        if (queue == null) {
+            queue = new ArrayDeque<>();
+            book.put(resting.ticks, queue);
+        }
+        queue.addLast(resting);
+        orderIndex.put(order.getOrderId().longValue(), resting);
+    }
+    
+    @Override
+    public List<Order> dumpOpenOrders() {
+        List<Order> orders = new ArrayList<>(orderIndex.size());
+        // 先輸出 bids (price DESC) 保持掛單順序，再輸出 asks (price ASC)
+        bids.values().forEach(queue -> queue.forEach(resting -> orders.add(resting.order)));
+        asks.values().forEach(queue -> queue.forEach(resting -> orders.add(resting.order)));
+        return orders;
+    }
+    
+    private void remove(Resting resting) {
+        Long2ObjectRBTreeMap<ArrayDeque<Resting>> book = resting.order.isBuy() ? bids : asks;
+        ArrayDeque<Resting> queue = book.get(resting.ticks);
+        orderIndex.remove(resting.order.getOrderId().longValue());
+        if (queue == null) {
+            return;
+        }
+        // 完全成交的 maker 幾乎都在隊首，先走 O(1) 路徑
+        if (queue.peekFirst() == resting) {
+            queue.pollFirst();
+        } else {
+            queue.remove(resting);
+        }
+        if (queue.isEmpty()) {
+            book.remove(resting.ticks);
+        }
+    }
+    
+    private static boolean onGrid(BigDecimal value,
+                                  BigDecimal unit) {
+        BigDecimal[] quotientAndRemainder = value.divideAndRemainder(unit);
+        return quotientAndRemainder[1].signum() == 0 && quotientAndRemainder[0].abs().compareTo(MAX_UNITS) <= 0;
+    }
+    
+    private static long toUnits(BigDecimal value,
+                                BigDecimal unit,
+                                String field) {
+        BigDecimal[] quotientAndRemainder = value.divideAndRemainder(unit);
+        if (quotientAndRemainder[1].signum() != 0) {
+            throw new IllegalArgumentException(field + " " + value.toPlainString()
+                                               + " is not a multiple of " + unit.toPlainString());
+        }
+        return quotientAndRemainder[0].longValueExact();
+    }
+    
+    private static BigDecimal fromUnits(long units,
+                                        BigDecimal unit) {
+        return units == 0 ? BigDecimal.ZERO : BigDecimal.valueOf(units).multiply(unit);
+    }
+    
+    /**
+     簿內掛單：價位 ticks 不變，剩餘 lots 於 apply 時更新。
+     */
+    private static final class Resting {
+        private final Order order;
+        private final long ticks;
+        private long lots;
+        
+        private Resting(Order order,
+                        long ticks,
+                        long lots) {
+            this.order = order;
+            this.ticks = ticks;
+            this.lots = lots;
+        }
+    }
+}
@@ -1,159 +1,119 @@
 package open.vincentf13.exchange.matching.domain.order.book;
 
+import lombok.extern.slf4j.Slf4j;
 import open.vincentf13.exchange.common.sdk.enums.AssetSymbol;
 import open.vincentf13.exchange.common.sdk.model.OrderUpdate;
 import open.vincentf13.exchange.matching.domain.instrument.Instrument;
 import open.vincentf13.exchange.matching.domain.match.result.MatchResult;
 import open.vincentf13.exchange.matching.domain.match.result.Trade;
+import open.vincentf13.exchange.matching.infra.MatchingEvent;
 import open.vincentf13.exchange.matching.infra.cache.InstrumentCache;
+import open.vincentf13.sdk.core.log.OpenLog;
 import open.vincentf13.sdk.core.values.OpenDecimal;
 
 import java.math.BigDecimal;
 import java.time.Instant;
-import java.util.*;
+import java.util.List;
 
-public class OrderBook {
+/**
+ 單一商品的訂單簿：價格優先、時間優先 (FIFO) 撮合。
+ 價位結構由子類實作：{@link DecimalOrderBook} (BigDecimal TreeMap)、{@link FixedPointOrderBook} (定點 long)；
+ 依 {@link OrderBookMode} 由 {@link #create} 選擇。已處理訂單 id 的冪等窗口 ({@link ProcessedOrderWindow}) 由本類共用。
+ */
+@Slf4j
+public abstract class OrderBook {
     
     private static final int PROCESSED_CACHE_SIZE = 1_000_000;
-    private final TreeMap<BigDecimal, Deque<Order>> asks = new TreeMap<>(BigDecimal::compareTo);
-    // 使用明確的 Comparator 避免潛在的類型推斷問題
-    private final TreeMap<BigDecimal, Deque<Order>> bids = new TreeMap<>((a, b) -> b.compareTo(a));
-    private final Map<Long, Order> orderIndex = new HashMap<>();
-    private final Map<Long, Boolean> processedOrderIds =
-            new LinkedHashMap<>(1024, 0.75f, true) {
-                @Override
-                protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
-                    return size() > PROCESSED_CACHE_SIZE;
-                }
-            };
+    private final ProcessedOrderWindow processedOrderIds = new ProcessedOrderWindow(PROCESSED_CACHE_SIZE);
     
-    public MatchResult match(Order taker) {
-        MatchResult result = new MatchResult(taker);
-        BigDecimal remaining = taker.getQuantity();
-        TreeMap<BigDecimal, Deque<Order>> targetBook = taker.isBuy() ? asks : bids;
-        Iterator<Map.Entry<BigDecimal, Deque<Order>>> iterator = targetBook.entrySet().iterator();
-        
-        while (remaining.compareTo(BigDecimal.ZERO) > 0 && iterator.hasNext()) {
-            Map.Entry<BigDecimal, Deque<Order>> entry = iterator.next();
-            BigDecimal price = entry.getKey();
-            if (!isCrossed(taker, price)) {
-                break;
-            }
-            Deque<Order> queue = entry.getValue();
-            Iterator<Order> makerIterator = new ArrayList<>(queue).iterator();
-            while (remaining.compareTo(BigDecimal.ZERO) > 0 && makerIterator.hasNext()) {
-                Order maker = makerIterator.next();
-                BigDecimal fillQty = remaining.min(maker.getQuantity());
-                BigDecimal makerRemaining = maker.getQuantity().subtract(fillQty);
-                BigDecimal takerRemaining = remaining.subtract(fillQty);
-                Trade trade = buildTrade(taker, maker, price, fillQty, makerRemaining, takerRemaining);
-                result.addTrade(trade);
-                
-                result.addUpdate(
-                        OrderUpdate.builder()
-                                   .orderId(maker.getOrderId())
-                                   .price(maker.getPrice())
-                                   .side(maker.getSide())
-                                   .remainingQuantity(
-                                           OpenDecimal.normalizeDecimal(makerRemaining.max(BigDecimal.ZERO)))
-                                   .isTaker(false)
-                                   .build());
-                remaining = takerRemaining;
-            }
+    /**
+     FIXED_POINT 需商品設定 tick_size / lot_size，缺少時退回 DECIMAL。
+     */
+    public static OrderBook create(Long instrumentId,
+                                   OrderBookMode mode) {
+        if (mode != OrderBookMode.FIXED_POINT) {
+            return new DecimalOrderBook();
         }
-        
+        Instrument instrument = InstrumentCache.getInstrument(instrumentId);
+        if (instrument == null || instrument.getTickSize() == null || instrument.getLotSize() == null) {
+            OpenLog.warn(log, MatchingEvent.FIXED_POINT_BOOK_UNAVAILABLE, "instrumentId", instrumentId);
+            return new DecimalOrderBook();
+        }
+        return new FixedPointOrderBook(instrument.getTickSize(), instrument.getLotSize());
+    }
+    
+    /**
+     本簿能否表示此訂單的價格 / 數量；回傳 false 的訂單須於 {@link #match} 之前拒絕。
+     */
+    public boolean accepts(Order order) {
+        return true;
+    }
+    
+    /**
+     不進入撮合的拒絕結果：僅含一筆 rejected 的 taker 更新 (剩餘 0)，經 WAL 與撮合結果同路徑發布，apply 時不掛單。
+     */
+    public MatchResult reject(Order taker) {
+        MatchResult result = new MatchResult(taker);
         result.addUpdate(
                 OrderUpdate.builder()
                            .orderId(taker.getOrderId())
                            .price(taker.getPrice())
                            .side(taker.getSide())
-                           .remainingQuantity(OpenDecimal.normalizeDecimal(remaining.max(BigDecimal.ZERO)))
+                           .remainingQuantity(BigDecimal.ZERO)
                            .isTaker(true)
+                           .rejected(true)
                            .build());
         return result;
     }
     
+    /**
+     計算撮合結果，不修改簿內狀態。
+     */
+    public abstract MatchResult match(Order taker);
+    
     /**
      根據撮合結果更新簿內訂單，必須在 WAL 已持久化後才執行，避免未落盤狀態污染記憶體。
      */
-    public void apply(MatchResult result) {
-        // 根據撮合結果更新簿內訂單：移除成交完畢、保留剩餘量
-        for (OrderUpdate update : result.getUpdates()) {
-            if (update.isTaker()) {
-                if (update.getRemainingQuantity().compareTo(BigDecimal.ZERO) > 0
-                            && result.getTakerOrder().getPrice() != null) {
-                    Order taker = result.getTakerOrder();
-                    taker.setQuantity(update.getRemainingQuantity());
-                    insert(taker);
-                }
-                continue;
-            }
-            Order maker = orderIndex.get(update.getOrderId());
-            if (maker == null) {
-                continue;
-            }
-            maker.setQuantity(update.getRemainingQuantity());
-            if (maker.getQuantity().compareTo(BigDecimal.ZERO) <= 0) {
-                remove(maker);
-            }
-        }
-    }
+    public abstract void apply(MatchResult result);
     
-    public void insert(Order order) {
-        TreeMap<BigDecimal, Deque<Order>> book = order.isBuy() ? bids : asks;
-        Deque<Order> queue = book.computeIfAbsent(order.getPrice(), key -> new ArrayDeque<>());
-        queue.addLast(order);
-        orderIndex.put(order.getOrderId(), order);
-    }
+    public abstract void insert(Order order);
     
     public void restore(Order order) {
         insert(order);
     }
     
-    public List<Order> dumpOpenOrders() {
-        List<Order> orders = new ArrayList<>(orderIndex.size());
-        // 先輸出 bids (price DESC) 保持掛單順序，再輸出 asks (price ASC)
-        bids.values().forEach(queue -> orders.addAll(queue));
-        asks.values().forEach(queue -> orders.addAll(queue));
-        return orders;
-    }
+    /**
+     先 bids (price DESC) 後 asks (price ASC)，同價位依掛單順序。
+     */
+    public abstract List<Order> dumpOpenOrders();
     
     public boolean alreadyProcessed(Long orderId) {
-        return orderId != null && processedOrderIds.containsKey(orderId);
+        return orderId != null && processedOrderIds.contains(orderId);
     }
     
     public void markProcessed(Long orderId) {
         if (orderId != null) {
-            processedOrderIds.put(orderId, Boolean.TRUE);
+            processedOrderIds.add(orderId);
         }
     }
     
-    public List<Long> dumpProcessedOrderIds() {
-        return new ArrayList<>(processedOrderIds.keySet());
-    }
-    
-    public void restoreProcessedIds(List<Long> orderIds) {
-        if (orderIds == null || orderIds.isEmpty()) {
-            return;
-        }
-        orderIds.forEach(id -> processedOrderIds.put(id, Boolean.TRUE));
+    /**
+     由舊到新，依此順序 {@link #restoreProcessedIds} 可還原相同的淘汰順序。
+     */
+    public long[] dumpProcessedOrderIds() {
+        return processedOrderIds.toArray();
     }
     
-    private void remove(Order order) {
-        TreeMap<BigDecimal, Deque<Order>> book = order.isBuy() ? bids : asks;
-        Deque<Order> queue = book.get(order.getPrice());
-        if (queue == null) {
-            orderIndex.remove(order.getOrderId());
+    public void restoreProcessedIds(long[] orderIds) {
+        if (orderIds == null) {
             return;
         }
-        queue.removeIf(o -> o.getOrderId().equals(order.getOrderId()));
-        if (queue.isEmpty()) {
-            book.remove(order.getPrice());
+        for (long orderId : orderIds) {
+            processedOrderIds.add(orderId);
         }
-        orderIndex.remove(order.getOrderId());
     }
     
-    private Trade buildTrade(
+    protected Trade buildTrade(
             Order taker,
             Order maker,
             BigDecimal price,
@@ -205,14 +165,4 @@ public class OrderBook {
                     .executedAt(Instant.now())
                     .build();
     }
-    
-    private boolean isCrossed(Order taker,
-                              BigDecimal levelPrice) {
-        if (taker.getPrice() == null) {
-            return true;
-        }
-        return taker.isBuy()
-               ? taker.getPrice().compareTo(levelPrice) >= 0
-               : taker.getPrice().compareTo(levelPrice) <= 0;
-    }
 }
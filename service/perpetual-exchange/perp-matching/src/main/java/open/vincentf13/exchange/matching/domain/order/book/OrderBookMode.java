@@ -0,0 +1,11 @@
+package open.vincentf13.exchange.matching.domain.order.book;
+
+/**
+ 撮合簿實作模式
+ */
+public enum OrderBookMode {
+    /** BigDecimal 價位 TreeMap，價格 / 數量精度不受限 */
+    DECIMAL,
+    /** 依商品 tick / lot 轉為定點 long 撮合，僅在輸出 Trade / OrderUpdate 時轉回 BigDecimal */
+    FIXED_POINT
+}
@@ -0,0 +1,66 @@
+package open.vincentf13.exchange.matching.domain.order.book;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+
+/**
+ 已處理訂單 id 的有界冪等窗口：保留最近 capacity 筆，超出時淘汰最早加入者 (FIFO)。
+ 以 long 環形陣列記錄加入順序、fastutil LongOpenHashSet (open addressing) 判斷存在，
+ 加入 / 查詢 / 淘汰皆不裝箱、不配置；兩者皆隨用量倍增至上限，閒置商品不預先佔用。
+ 僅由所屬商品的撮合執行緒存取，非執行緒安全。
+ */
+final class ProcessedOrderWindow {
+    
+    private static final int INITIAL_CAPACITY = 1024;
+    
+    private final int capacity;
+    private final LongOpenHashSet ids = new LongOpenHashSet(INITIAL_CAPACITY);
+    /** 未滿時依序寫入 [0, size)；滿後 head 指向最早一筆，覆寫即淘汰 */
+    private long[] ring;
+    private int head;
+    private int size;
+    
+    ProcessedOrderWindow(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.ring = new long[Math.min(capacity, INITIAL_CAPACITY)];
+    }
+    
+    boolean contains(long orderId) {
+        return ids.contains(orderId);
+    }
+    
+    void add(long orderId) {
+        if (!ids.add(orderId)) {
+            return;
+        }
+        if (size < capacity) {
+            if (size == ring.length) {
+                long[] grown = new long[(int) Math.min((long) ring.length << 1, capacity)];
+                System.arraycopy(ring, 0, grown, 0, size);
+                ring = grown;
+            }
+            ring[size++] = orderId;
+            return;
+        }
+        ids.remove(ring[head]);
+        ring[head] = orderId;
+        head = head + 1 == capacity ? 0 : head + 1;
+    }
+    
+    int size() {
+        return size;
+    }
+    
+    /**
+     由舊到新複製窗口內容，依此順序重新 add 可還原相同的淘汰順序。
+     */
+    long[] toArray() {
+        long[] copy = new long[size];
+        int tail = size - head;
+        System.arraycopy(ring, head, copy, 0, tail);
+        System.arraycopy(ring, 0, copy, tail, head);
+        return copy;
+    }
+}
@@ -14,11 +14,21 @@ public enum MatchingEvent implements OpenEvent {
     OUTBOX_DUPLICATE_ORDERBOOK("OUTBOX_DUPLICATE_ORDERBOOK", "Outbox duplicate order book event"),
     WAL_LOAD_FAILED("WAL_LOAD_FAILED", "Load WAL file failed"),
     WAL_TRUNCATE_FAILED("WAL_TRUNCATE_FAILED", "Truncate WAL failed"),
+    WAL_TAIL_TRUNCATED("WAL_TAIL_TRUNCATED", "Torn WAL tail truncated"),
+    WAL_LEGACY_CONVERTED("WAL_LEGACY_CONVERTED", "Legacy JSON WAL converted to binary segments"),
+    WAL_CLOSE_TIMEOUT("WAL_CLOSE_TIMEOUT", "Matching executor did not drain before WAL close"),
+    WAL_LEGACY_IGNORED("WAL_LEGACY_IGNORED", "Legacy JSON WAL ignored because binary segments exist"),
     WAL_PROGRESS_LOAD_FAILED("WAL_PROGRESS_LOAD_FAILED", "Load WAL progress failed"),
     WAL_PROGRESS_SAVE_FAILED("WAL_PROGRESS_SAVE_FAILED", "Save WAL progress failed"),
     SNAPSHOT_LOAD_FAILED("SNAPSHOT_LOAD_FAILED", "Load snapshot failed"),
     SNAPSHOT_WRITE_FAILED("SNAPSHOT_WRITE_FAILED", "Write snapshot failed"),
+    SNAPSHOT_CORRUPTED("SNAPSHOT_CORRUPTED", "Snapshot generation corrupted, falling back to older generation"),
+    SNAPSHOT_LEGACY_LOADED("SNAPSHOT_LEGACY_LOADED", "Legacy JSON snapshot loaded"),
+    SNAPSHOT_CLOSE_TIMEOUT("SNAPSHOT_CLOSE_TIMEOUT", "Snapshot writer did not drain before shutdown"),
     WAL_REPLAY_FAILED("WAL_REPLAY_FAILED", "Replay WAL failed"),
+    FIXED_POINT_BOOK_UNAVAILABLE("FIXED_POINT_BOOK_UNAVAILABLE", "Instrument has no tick/lot size, falling back to decimal order book"),
+    FIXED_POINT_BOOK_OFF_GRID_STATE("FIXED_POINT_BOOK_OFF_GRID_STATE", "Snapshot/WAL holds off-grid orders, rebuilding with decimal order book"),
+    ORDER_OFF_GRID_REJECTED("ORDER_OFF_GRID_REJECTED", "Order price/quantity not on instrument tick/lot grid, rejected"),
     ORDER_ROUTING_ERROR("ORDER_ROUTING_ERROR", "Order routed to wrong instrument processor"),
     STARTUP_LOADING_INSTRUMENTS("MatchingStartupLoadingInstruments", "Loading instruments"),
     STARTUP_CACHE_LOAD_PARTIAL("MatchingStartupCacheLoadPartial", "Cache loaded partially"),
@@ -7,6 +7,7 @@ import open.vincentf13.exchange.matching.domain.match.result.Trade;
 import open.vincentf13.exchange.matching.infra.MatchingEvent;
 import open.vincentf13.exchange.matching.infra.persistence.repository.TradeRepository;
 import open.vincentf13.exchange.matching.infra.wal.InstrumentWal;
+import open.vincentf13.exchange.matching.infra.wal.WalCursor;
 import open.vincentf13.exchange.matching.infra.wal.WalEntry;
 import open.vincentf13.exchange.matching.infra.wal.WalProgressStore;
 import open.vincentf13.exchange.matching.sdk.mq.event.OrderBookUpdatedEvent;
@@ -40,12 +41,16 @@ public class WalLoader {
     private final TransactionTemplate transactionTemplate;
     
     private final Map<Long, Long> lastProcessedSeqMap = new ConcurrentHashMap<>();
+    /** 每個商品一個尾隨游標，只讀取上次進度之後的新記錄 */
+    private final Map<Long, WalCursor> cursors = new ConcurrentHashMap<>();
     
     public void init() {
     }
     
     public void reset() {
         lastProcessedSeqMap.clear();
+        cursors.values().forEach(WalCursor::close);
+        cursors.clear();
     }
     
     @Scheduled(fixedDelayString = "${open.vincentf13.exchange.matching.loader-interval-ms:300}")
@@ -61,13 +66,19 @@ public class WalLoader {
                 lastProcessedSeqMap.computeIfAbsent(instrumentId, walProgressStore::loadLastProcessedSeq);
         
         InstrumentWal wal = processor.getWal();
-        List<WalEntry> entries = wal.readFrom(lastSeq + 1);
-        
-        if (entries.isEmpty()) {
-            return;
+        WalCursor cursor = cursors.get(instrumentId);
+        if (cursor == null || cursor.getWal() != wal) {
+            // 首次或引擎重建 processor 後，自持久化進度重新定位
+            if (cursor != null) {
+                cursor.close();
+            }
+            cursor = wal.openCursor(lastSeq + 1);
+            cursors.put(instrumentId, cursor);
         }
         
-        for (WalEntry entry : entries) {
+        long startSeq = lastSeq;
+        WalEntry entry;
+        while ((entry = cursor.next()) != null) {
             try {
                 processEntry(entry);
                 lastSeq = entry.getSeq();
@@ -80,10 +91,16 @@ public class WalLoader {
                         entry.getSeq(),
                         "instrumentId",
                         instrumentId);
+                // 游標已越過失敗記錄，丟棄後下輪自 lastSeq + 1 重讀
+                cursors.remove(instrumentId);
+                cursor.close();
                 break;
             }
         }
         
+        if (lastSeq == startSeq) {
+            return;
+        }
         lastProcessedSeqMap.put(instrumentId, lastSeq);
         walProgressStore.saveLastProcessedSeq(instrumentId, lastSeq);
     }
@@ -2,76 +2,281 @@ package open.vincentf13.exchange.matching.infra.snapshot;
 
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
-import open.vincentf13.exchange.matching.domain.order.book.Order;
+import open.vincentf13.exchange.matching.domain.match.result.MatchResult;
 import open.vincentf13.exchange.matching.domain.order.book.OrderBook;
+import open.vincentf13.exchange.matching.domain.order.book.OrderBookMode;
 import open.vincentf13.exchange.matching.infra.MatchingEvent;
+import open.vincentf13.exchange.matching.infra.wal.InstrumentWal;
+import open.vincentf13.exchange.matching.infra.wal.WalCursor;
+import open.vincentf13.exchange.matching.infra.wal.WalEntry;
 import open.vincentf13.sdk.core.log.OpenLog;
 import open.vincentf13.sdk.core.mapper.OpenObjectMapper;
 
 import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.time.Instant;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
 
+/**
+ 單一商品的撮合快照：data/matching/snapshot-{id}/{lastSeq}.snap，格式見 {@link SnapshotCodec}。
+
+ 撮合執行緒只遞交目標 seq (O(1))，不複製簿內狀態：背景執行緒持有一份影子簿，
+ 以自己的 {@link WalCursor} 回放已 commit 的 WAL 記錄追上目標 seq 後，由影子簿匯出掛單與已處理 id 編碼寫檔，
+ 每次快照的回放量即兩次快照間的增量。影子簿與撮合執行緒的簿不共用物件，代價是常駐一份掛單副本。
+ 寫入中不再擷取新快照，未落盤的區間由 WAL 重播補齊。
+ 每代先寫 .tmp 再 atomic rename，保留最近 {@link #GENERATIONS} 代，載入時 CRC 不符即退回上一代。
+ 舊版 JSON 快照 snapshot-{id}.json 僅在無二進位快照時讀取，首個二進位快照落盤後刪除。
+ */
 @Slf4j
-public class InstrumentSnapshot {
+public class InstrumentSnapshot implements AutoCloseable {
     
+    static final String SNAPSHOT_SUFFIX = ".snap";
+    static final String TEMP_SUFFIX = ".tmp";
+    static final int GENERATIONS = 3;
     private static final long SNAPSHOT_INTERVAL = 1_000L;
-    private final Path snapshotPath;
+    private static final int INITIAL_BUFFER_BYTES = 1 << 20;
+    
+    private final Path snapshotDir;
+    private final Path legacyPath;
     @Getter
     private final Long instrumentId;
     private final AtomicLong lastSnapshotSeq = new AtomicLong(0L);
+    private final AtomicBoolean inFlight = new AtomicBoolean(false);
+    private final InstrumentWal wal;
+    private final ExecutorService writer;
+    /** 以下僅由背景執行緒使用 (load 於 writer 啟動前設定) */
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    private OrderBook shadow;
+    private WalCursor cursor;
+    private long shadowSeq;
     
-    public InstrumentSnapshot(Long instrumentId) {
+    public InstrumentSnapshot(Long instrumentId,
+                              InstrumentWal wal) {
         this.instrumentId = instrumentId;
-        this.snapshotPath = Path.of("data/matching/snapshot-" + instrumentId + ".json");
+        this.wal = wal;
+        this.snapshotDir = Path.of("data/matching/snapshot-" + instrumentId);
+        this.legacyPath = Path.of("data/matching/snapshot-" + instrumentId + ".json");
+        this.writer = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "matching-snapshot-" + instrumentId);
+            thread.setDaemon(true);
+            return thread;
+        });
     }
     
+    /**
+     由新到舊嘗試各代快照，回傳第一個完整者；皆無時讀取舊版 JSON。
+     須於撮合開始前呼叫，同時以載入結果建立影子簿。
+     */
     public SnapshotState load() {
-        if (!Files.exists(snapshotPath)) {
+        SnapshotState state = loadLatest();
+        seedShadow(state);
+        return state;
+    }
+    
+    private SnapshotState loadLatest() {
+        List<Path> generations = listGenerations();
+        for (int i = generations.size() - 1; i >= 0; i--) {
+            Path path = generations.get(i);
+            try {
+                SnapshotState state =
+                        SnapshotCodec.decode(ByteBuffer.wrap(Files.readAllBytes(path)).order(ByteOrder.LITTLE_ENDIAN));
+                lastSnapshotSeq.set(state.getLastSeq());
+                return state;
+            } catch (IOException | RuntimeException ex) {
+                OpenLog.warn(log, MatchingEvent.SNAPSHOT_CORRUPTED, ex, "instrumentId", instrumentId, "path", path);
+            }
+        }
+        return loadLegacy();
+    }
+    
+    /**
+     於撮合執行緒呼叫 (currentSeq 須已 commit)：距上次快照達間隔且無寫入中的快照時，交由背景追上 currentSeq 後寫入。
+     */
+    public void maybeSnapshot(long currentSeq) {
+        if (currentSeq - lastSnapshotSeq.get() < SNAPSHOT_INTERVAL) {
+            return;
+        }
+        if (!inFlight.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            writer.execute(() -> {
+                try {
+                    write(catchUp(currentSeq));
+                } finally {
+                    inFlight.set(false);
+                }
+            });
+        } catch (RuntimeException ex) {
+            inFlight.set(false);
+            OpenLog.error(log, MatchingEvent.SNAPSHOT_WRITE_FAILED, ex, "instrumentId", instrumentId, "seq", currentSeq);
+        }
+    }
+    
+    /**
+     等待寫入中的快照落盤後停止背景執行緒。
+     */
+    @Override
+    public void close() {
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(30, TimeUnit.SECONDS)) {
+                OpenLog.warn(log, MatchingEvent.SNAPSHOT_CLOSE_TIMEOUT, "instrumentId", instrumentId);
+                return;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (cursor != null) {
+            cursor.close();
+        }
+    }
+    
+    /**
+     影子簿自快照狀態起算；訂單逐筆複製，撮合執行緒之後修改自己那份不影響影子簿。
+     */
+    private void seedShadow(SnapshotState state) {
+        shadow = OrderBook.create(instrumentId, OrderBookMode.DECIMAL);
+        shadowSeq = 0L;
+        if (state != null) {
+            if (state.getOpenOrders() != null) {
+                state.getOpenOrders().forEach(order -> shadow.restore(order.toBuilder().build()));
+            }
+            shadow.restoreProcessedIds(state.getProcessedOrderIds());
+            shadowSeq = state.getLastSeq();
+        }
+        if (cursor != null) {
+            cursor.close();
+        }
+        cursor = wal.openCursor(shadowSeq + 1);
+    }
+    
+    /**
+     於背景執行緒回放 WAL 至 targetSeq，規則同撮合啟動回放：拒絕結果不掛單、不列入冪等窗口。
+     */
+    private SnapshotState catchUp(long targetSeq) {
+        if (shadow == null) {
+            seedShadow(null);
+        }
+        WalEntry entry;
+        while (shadowSeq < targetSeq && (entry = cursor.next()) != null) {
+            MatchResult result = entry.getMatchResult();
+            shadowSeq = entry.getSeq();
+            if (result.isRejected()) {
+                continue;
+            }
+            try {
+                shadow.apply(result);
+                shadow.markProcessed(result.getTakerOrder().getOrderId());
+            } catch (RuntimeException ex) {
+                OpenLog.error(log, MatchingEvent.WAL_REPLAY_FAILED, ex, "seq", entry.getSeq(), "instrumentId", instrumentId);
+            }
+        }
+        return SnapshotState.builder()
+                            .lastSeq(shadowSeq)
+                            .openOrders(shadow.dumpOpenOrders())
+                            .processedOrderIds(shadow.dumpProcessedOrderIds())
+                            .createdAt(Instant.now())
+                            .build();
+    }
+    
+    private void write(SnapshotState state) {
+        Path target = snapshotDir.resolve(snapshotName(state.getLastSeq()));
+        Path temp = target.resolveSibling(target.getFileName() + TEMP_SUFFIX);
+        try {
+            encode(state);
+            Files.createDirectories(snapshotDir);
+            try (FileChannel channel = FileChannel.open(temp,
+                                                        StandardOpenOption.CREATE,
+                                                        StandardOpenOption.TRUNCATE_EXISTING,
+                                                        StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            lastSnapshotSeq.set(state.getLastSeq());
+            prune();
+        } catch (IOException | RuntimeException ex) {
+            OpenLog.error(log, MatchingEvent.SNAPSHOT_WRITE_FAILED, ex, "instrumentId", instrumentId, "seq", state.getLastSeq());
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+                // 殘留的 .tmp 不參與載入，下次同名寫入會覆蓋
+            }
+        }
+    }
+    
+    private void encode(SnapshotState state) {
+        while (true) {
+            buffer.clear();
+            try {
+                SnapshotCodec.encode(state, buffer);
+                buffer.flip();
+                return;
+            } catch (BufferOverflowException ex) {
+                buffer = ByteBuffer.allocate(buffer.capacity() << 1).order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+    }
+    
+    private void prune() throws IOException {
+        List<Path> generations = listGenerations();
+        for (int i = 0; i < generations.size() - GENERATIONS; i++) {
+            Files.deleteIfExists(generations.get(i));
+        }
+        Files.deleteIfExists(legacyPath);
+    }
+    
+    private SnapshotState loadLegacy() {
+        if (!Files.exists(legacyPath)) {
             return null;
         }
         try {
-            String json = Files.readString(snapshotPath);
-            SnapshotState state = OpenObjectMapper.fromJson(json, SnapshotState.class);
+            SnapshotState state = OpenObjectMapper.fromJson(Files.readString(legacyPath), SnapshotState.class);
             if (state != null) {
                 lastSnapshotSeq.set(state.getLastSeq());
+                OpenLog.info(log, MatchingEvent.SNAPSHOT_LEGACY_LOADED, "instrumentId", instrumentId, "lastSeq", state.getLastSeq());
             }
             return state;
-        } catch (IOException ex) {
+        } catch (IOException | RuntimeException ex) {
             OpenLog.error(log, MatchingEvent.SNAPSHOT_LOAD_FAILED, ex, "instrumentId", instrumentId);
             return null;
         }
     }
     
-    public void maybeSnapshot(long currentSeq,
-                              OrderBook orderBook) {
-        if (currentSeq - lastSnapshotSeq.get() < SNAPSHOT_INTERVAL) {
-            return;
+    /** 舊 → 新排序的已完成快照，.tmp 不列入 */
+    private List<Path> listGenerations() {
+        if (!Files.isDirectory(snapshotDir)) {
+            return List.of();
         }
-        writeSnapshot(currentSeq, orderBook);
-    }
-    
-    public void writeSnapshot(long currentSeq,
-                              OrderBook orderBook) {
-        List<Order> openOrders = orderBook.dumpOpenOrders();
-        SnapshotState state =
-                SnapshotState.builder()
-                             .lastSeq(currentSeq)
-                             .openOrders(openOrders)
-                             .processedOrderIds(orderBook.dumpProcessedOrderIds())
-                             .createdAt(Instant.now())
-                             .build();
-        try {
-            if (snapshotPath.getParent() != null) {
-                Files.createDirectories(snapshotPath.getParent());
-            }
-            Files.writeString(snapshotPath, OpenObjectMapper.toPrettyJson(state));
-            lastSnapshotSeq.set(currentSeq);
+        try (Stream<Path> stream = Files.list(snapshotDir)) {
+            // 檔名為補零 seq，字典序即 seq 序
+            return stream.filter(path -> path.getFileName().toString().endsWith(SNAPSHOT_SUFFIX))
+                         .sorted()
+                         .toList();
         } catch (IOException ex) {
-            OpenLog.error(log, MatchingEvent.SNAPSHOT_WRITE_FAILED, ex, "instrumentId", instrumentId);
+            OpenLog.error(log, MatchingEvent.SNAPSHOT_LOAD_FAILED, ex, "instrumentId", instrumentId, "action", "list");
+            return List.of();
         }
     }
+    
+    static String snapshotName(long lastSeq) {
+        return String.format("%020d%s", lastSeq, SNAPSHOT_SUFFIX);
+    }
 }
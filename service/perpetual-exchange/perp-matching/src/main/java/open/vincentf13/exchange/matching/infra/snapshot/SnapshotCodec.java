@@ -0,0 +1,134 @@
+package open.vincentf13.exchange.matching.infra.snapshot;
+
+import open.vincentf13.exchange.matching.domain.order.book.Order;
+import open.vincentf13.exchange.matching.infra.wal.WalCodec;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ 快照檔二進位編解碼 (little-endian)：
+ - [0-3] magic, [4-7] 格式版本, [8-15] lastSeq, [16-27] createdAt (epochSecond 8 + nano 4)
+ - [orderCount 4] + 各筆 Order (格式同 WAL，見 {@link WalCodec})
+ - [processedCount 4] + 已處理 orderId (由舊到新)：v2 為與前一筆差值的 zigzag varint，
+   snowflake id 近乎遞增，差值多落在 3~4 bytes；v1 為各筆固定 8 bytes，僅供讀取
+ - 尾端 [crc32c 4] 涵蓋之前所有位元組，載入時 CRC 不符即視為損毀。
+ */
+final class SnapshotCodec {
+    
+    static final int MAGIC = 0x504E_5350; // "PSNP"
+    static final int FORMAT_VERSION = 2;
+    private static final int FORMAT_VERSION_FIXED_IDS = 1;
+    
+    private SnapshotCodec() {
+    }
+    
+    /**
+     編碼至 buffer 目前位置；空間不足時拋出 BufferOverflowException，由呼叫端擴容重試。
+     */
+    static void encode(SnapshotState state,
+                       ByteBuffer buf) {
+        int start = buf.position();
+        buf.putInt(MAGIC).putInt(FORMAT_VERSION).putLong(state.getLastSeq());
+        Instant createdAt = state.getCreatedAt();
+        buf.putLong(createdAt.getEpochSecond()).putInt(createdAt.getNano());
+        List<Order> orders = state.getOpenOrders();
+        int orderCount = orders == null ? 0 : orders.size();
+        buf.putInt(orderCount);
+        for (int i = 0; i < orderCount; i++) {
+            WalCodec.putOrder(buf, orders.get(i));
+        }
+        long[] processed = state.getProcessedOrderIds();
+        int processedCount = processed == null ? 0 : processed.length;
+        buf.putInt(processedCount);
+        long previous = 0L;
+        for (int i = 0; i < processedCount; i++) {
+            putVarLong(buf, zigzag(processed[i] - previous));
+            previous = processed[i];
+        }
+        buf.putInt(crc(buf, start, buf.position()));
+    }
+    
+    /**
+     buf 為整個檔案內容；magic / 版本 / CRC 不符或內容截斷時拋出 IllegalStateException。
+     */
+    static SnapshotState decode(ByteBuffer buf) {
+        int end = buf.limit() - Integer.BYTES;
+        if (end < 28) {
+            throw new IllegalStateException("snapshot too short: " + buf.limit() + " bytes");
+        }
+        if (buf.getInt(end) != crc(buf, 0, end)) {
+            throw new IllegalStateException("snapshot crc mismatch");
+        }
+        int magic = buf.getInt();
+        int version = buf.getInt();
+        if (magic != MAGIC || (version != FORMAT_VERSION && version != FORMAT_VERSION_FIXED_IDS)) {
+            throw new IllegalStateException("unknown snapshot format");
+        }
+        try {
+            long lastSeq = buf.getLong();
+            Instant createdAt = Instant.ofEpochSecond(buf.getLong(), buf.getInt());
+            int orderCount = buf.getInt();
+            List<Order> orders = new ArrayList<>(orderCount);
+            for (int i = 0; i < orderCount; i++) {
+                orders.add(WalCodec.getOrder(buf));
+            }
+            int processedCount = buf.getInt();
+            long[] processed = new long[processedCount];
+            long previous = 0L;
+            for (int i = 0; i < processedCount; i++) {
+                processed[i] = version == FORMAT_VERSION_FIXED_IDS ? buf.getLong() : previous + unzigzag(getVarLong(buf));
+                previous = processed[i];
+            }
+            return SnapshotState.builder()
+                                .lastSeq(lastSeq)
+                                .openOrders(orders)
+                                .processedOrderIds(processed)
+                                .createdAt(createdAt)
+                                .build();
+        } catch (BufferUnderflowException ex) {
+            throw new IllegalStateException("snapshot truncated", ex);
+        }
+    }
+    
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+    
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+    
+    private static void putVarLong(ByteBuffer buf,
+                                   long value) {
+        while ((value & ~0x7FL) != 0) {
+            buf.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buf.put((byte) value);
+    }
+    
+    private static long getVarLong(ByteBuffer buf) {
+        long value = 0L;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            byte b = buf.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("malformed varint");
+    }
+    
+    private static int crc(ByteBuffer buf,
+                           int from,
+                           int to) {
+        CRC32C crc = new CRC32C();
+        crc.update(buf.duplicate().limit(to).position(from));
+        return (int) crc.getValue();
+    }
+}
@@ -16,6 +16,7 @@ import java.util.List;
 public class SnapshotState {
     private long lastSeq;
     private List<Order> openOrders;
-    private List<Long> processedOrderIds;
+    /** 由舊到新 */
+    private long[] processedOrderIds;
     private Instant createdAt;
 }
@@ -5,94 +5,263 @@ import lombok.extern.slf4j.Slf4j;
 import open.vincentf13.exchange.matching.domain.match.result.MatchResult;
 import open.vincentf13.exchange.matching.infra.MatchingEvent;
 import open.vincentf13.sdk.core.log.OpenLog;
-import open.vincentf13.sdk.core.mapper.OpenObjectMapper;
 
 import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
 import java.time.Instant;
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Stream;
 
+/**
+ 單一商品的二進位 WAL：data/matching/wal-{id}/{首筆 seq}.seg 的分段檔序列，格式見 {@link WalSegment}。
+
+ group commit 模式下 append 只寫入 mmap，由 {@link #commit()} 在批次結尾 fsync 一次；
+ 已寫入但尚未 commit 的記錄不會由 {@link WalCursor} 交給下游 (WalLoader)，
+ 確保對外發布的成交必定已落盤。舊版 JSON 行格式 wal-{id}.wal 於首次載入時自動轉換。
+
+ 記錄不常駐 heap：啟動時只掃描 CRC 並建立各段稀疏索引，讀取一律經游標自磁碟解碼。
+ */
 @Slf4j
 public class InstrumentWal {
     
-    private final Path walPath;
+    static final String SEGMENT_SUFFIX = ".seg";
+    private static final int INITIAL_SCRATCH_BYTES = 4096;
+    
+    private final Path walDir;
+    private final Path legacyPath;
+    private final WalOptions options;
     @Getter
     private final Long instrumentId;
-    @Getter
-    private final List<WalEntry> entries = new ArrayList<>();
+    private final ConcurrentSkipListMap<Long, WalSegmentIndex> segments = new ConcurrentSkipListMap<>();
     private final AtomicLong lastSeq = new AtomicLong(0L);
+    @Getter
+    private volatile long committedSeq;
+    private WalSegment active;
+    private WalSegmentIndex activeIndex;
+    private ByteBuffer scratch = ByteBuffer.allocate(INITIAL_SCRATCH_BYTES).order(ByteOrder.LITTLE_ENDIAN);
     
     public InstrumentWal(Long instrumentId) {
+        this(instrumentId, WalOptions.DEFAULT);
+    }
+    
+    public InstrumentWal(Long instrumentId,
+                         WalOptions options) {
         this.instrumentId = instrumentId;
-        this.walPath = Path.of("data/matching/wal-" + instrumentId + ".wal");
+        this.options = options;
+        this.walDir = Path.of("data/matching/wal-" + instrumentId);
+        this.legacyPath = Path.of("data/matching/wal-" + instrumentId + ".wal");
     }
     
     public synchronized void loadExisting() {
-        if (!Files.exists(walPath)) {
-            return;
-        }
-        try (Stream<String> lines = Files.lines(walPath)) {
-            lines
-                    .filter(line -> !line.isBlank())
-                    .map(this::parseEntry)
-                    .forEach(
-                            entry -> {
-                                entries.add(entry);
-                                lastSeq.set(Math.max(lastSeq.get(), entry.getSeq()));
-                            });
+        try {
+            List<Path> files = listSegments();
+            for (int i = 0; i < files.size(); i++) {
+                boolean last = i == files.size() - 1;
+                WalSegment segment = WalSegment.open(files.get(i));
+                WalSegmentIndex index = new WalSegmentIndex(segment.getBaseSeq(), segment.getPath());
+                segments.put(index.getBaseSeq(), index);
+                boolean torn = segment.recover((seq, offset, payload) -> {
+                    index.onRecord(seq, offset);
+                    lastSeq.set(seq);
+                });
+                if (torn) {
+                    if (!last) {
+                        segment.close();
+                        throw new IllegalStateException("Corrupted WAL segment before tail: " + segment.getPath());
+                    }
+                    OpenLog.warn(log, MatchingEvent.WAL_TAIL_TRUNCATED, "instrumentId", instrumentId, "segment", segment.getPath(), "truncatedAt", segment.getPosition());
+                }
+                if (last) {
+                    active = segment;
+                    activeIndex = index;
+                } else {
+                    segment.close();
+                }
+            }
+            committedSeq = lastSeq.get();
+            if (Files.exists(legacyPath)) {
+                if (files.isEmpty()) {
+                    JsonWalConverter.convert(legacyPath, this);
+                } else {
+                    OpenLog.warn(log, MatchingEvent.WAL_LEGACY_IGNORED, "instrumentId", instrumentId, "path", legacyPath);
+                }
+            }
         } catch (IOException ex) {
             OpenLog.error(log, MatchingEvent.WAL_LOAD_FAILED, ex, "instrumentId", instrumentId);
         }
     }
     
+    /**
+     寫入單筆撮合結果；group commit 模式下須於批次結尾呼叫 {@link #commit()}。
+     */
+    public synchronized WalEntry append(MatchResult result) {
+        WalEntry entry =
+                WalEntry.builder().seq(lastSeq.get() + 1).matchResult(result).appendedAt(Instant.now()).build();
+        appendEntry(entry);
+        if (!options.groupCommit()) {
+            commit();
+        }
+        return entry;
+    }
+    
     public synchronized List<WalEntry> appendBatch(List<MatchResult> results) {
         if (results == null || results.isEmpty()) {
             return List.of();
         }
-        StringBuilder sb = new StringBuilder(results.size() * 256);
         List<WalEntry> appended = new ArrayList<>(results.size());
         for (MatchResult result : results) {
-            long nextSeq = lastSeq.incrementAndGet();
-            WalEntry entry =
-                    WalEntry.builder().seq(nextSeq).matchResult(result).appendedAt(Instant.now()).build();
-            sb.append(OpenObjectMapper.toJson(entry)).append(System.lineSeparator());
-            appended.add(entry);
-            entries.add(entry);
+            appended.add(append(result));
         }
-        writeLine(sb.toString());
+        commit();
         return appended;
     }
     
-    public synchronized List<WalEntry> readFrom(long startSeq) {
-        return entries.stream()
-                      .filter(entry -> entry.getSeq() >= startSeq)
-                      .sorted(Comparator.comparingLong(WalEntry::getSeq))
-                      .toList();
+    /**
+     fsync 至目前最後一筆，並讓其對 {@link #readFrom(long)} 可見。
+     */
+    public synchronized void commit() {
+        if (committedSeq == lastSeq.get()) {
+            return;
+        }
+        if (active != null) {
+            active.force();
+        }
+        committedSeq = lastSeq.get();
     }
     
-    private WalEntry parseEntry(String line) {
-        return OpenObjectMapper.fromJson(line, WalEntry.class);
+    /**
+     自 startSeq 起尾隨已 commit 記錄的游標；讀者各自持有，可跨 commit 持續呼叫 next()。
+     */
+    public WalCursor openCursor(long startSeq) {
+        return new WalCursor(this, startSeq);
     }
     
-    private void writeLine(String json) {
+    /**
+     一次讀出 startSeq 之後所有已 commit 記錄，僅供維運 / 測試的小範圍讀取，常規路徑請用游標。
+     */
+    public List<WalEntry> readFrom(long startSeq) {
+        List<WalEntry> result = new ArrayList<>();
+        try (WalCursor cursor = openCursor(startSeq)) {
+            WalEntry entry;
+            while ((entry = cursor.next()) != null) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+    
+    public long getLastSeq() {
+        return lastSeq.get();
+    }
+    
+    public synchronized void close() {
+        commit();
+        if (active != null) {
+            try {
+                active.close();
+            } catch (IOException ex) {
+                OpenLog.error(log, MatchingEvent.WAL_LOAD_FAILED, ex, "instrumentId", instrumentId, "action", "close");
+            }
+            active = null;
+        }
+    }
+    
+    /**
+     以既有 seq 寫入 (轉換舊格式用)，seq 必須大於目前最後一筆。
+     */
+    synchronized void appendEntry(WalEntry entry) {
+        long seq = entry.getSeq();
+        if (seq <= lastSeq.get()) {
+            throw new IllegalArgumentException("WAL seq must increase: " + seq + " <= " + lastSeq.get());
+        }
+        encode(entry);
+        writeRecord(seq);
+        lastSeq.set(seq);
+    }
+    
+    /** 包含 seq 的分段；seq 早於首段時回傳首段 */
+    WalSegmentIndex segmentFor(long seq) {
+        Map.Entry<Long, WalSegmentIndex> floor = segments.floorEntry(seq);
+        if (floor == null) {
+            floor = segments.firstEntry();
+        }
+        return floor == null ? null : floor.getValue();
+    }
+    
+    Map.Entry<Long, WalSegmentIndex> segmentAfter(long baseSeq) {
+        return segments.higherEntry(baseSeq);
+    }
+    
+    synchronized int floorOffset(WalSegmentIndex index,
+                                 long seq) {
+        return index.floorOffset(seq);
+    }
+    
+    private void encode(WalEntry entry) {
+        while (true) {
+            scratch.clear();
+            try {
+                WalCodec.encode(entry.getMatchResult(), entry.getAppendedAt(), scratch);
+                scratch.flip();
+                return;
+            } catch (BufferOverflowException ex) {
+                scratch = ByteBuffer.allocate(scratch.capacity() << 1).order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+    }
+    
+    private void writeRecord(long seq) {
         try {
-            if (walPath.getParent() != null) {
-                Files.createDirectories(walPath.getParent());
+            if (active == null) {
+                createSegment(seq);
+            }
+            int offset = active.getPosition();
+            if (active.append(seq, scratch)) {
+                activeIndex.onRecord(seq, offset);
+                return;
+            }
+            if (scratch.remaining() > active.maxPayload()) {
+                throw new IllegalStateException("WAL record larger than segment: " + scratch.remaining() + " bytes");
             }
-            Files.writeString(
-                    walPath,
-                    json,
-                    StandardOpenOption.CREATE,
-                    StandardOpenOption.APPEND,
-                    StandardOpenOption.SYNC);
+            // 換段前先落盤舊段，commit 只需 force 目前 active 段
+            active.force();
+            active.close();
+            createSegment(seq);
+            active.append(seq, scratch);
+            activeIndex.onRecord(seq, WalSegment.HEADER_LENGTH);
         } catch (IOException ex) {
             throw new IllegalStateException("Failed to append WAL for " + instrumentId, ex);
         }
     }
+    
+    private void createSegment(long baseSeq) throws IOException {
+        Files.createDirectories(walDir);
+        active = WalSegment.create(walDir.resolve(segmentName(baseSeq)), baseSeq, options.segmentBytes());
+        activeIndex = new WalSegmentIndex(baseSeq, active.getPath());
+        segments.put(baseSeq, activeIndex);
+    }
+    
+    private List<Path> listSegments() throws IOException {
+        if (!Files.isDirectory(walDir)) {
+            return List.of();
+        }
+        try (Stream<Path> stream = Files.list(walDir)) {
+            // 檔名為補零 seq，字典序即 seq 序
+            return stream.filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                         .sorted()
+                         .toList();
+        }
+    }
+    
+    static String segmentName(long baseSeq) {
+        return String.format("%020d%s", baseSeq, SEGMENT_SUFFIX);
+    }
 }
@@ -0,0 +1,58 @@
+package open.vincentf13.exchange.matching.infra.wal;
+
+import lombok.extern.slf4j.Slf4j;
+import open.vincentf13.exchange.matching.infra.MatchingEvent;
+import open.vincentf13.sdk.core.log.OpenLog;
+import open.vincentf13.sdk.core.mapper.OpenObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ 舊版 JSON 行格式 WAL (wal-{id}.wal) → 二進位分段 WAL。
+ 保留原 seq 與 appendedAt，WalLoader / 快照的 seq 進度無需調整；
+ 完成並 fsync 後將舊檔改名為 .migrated 保留備查，不再參與啟動掃描。
+ */
+@Slf4j
+final class JsonWalConverter {
+    
+    static final String MIGRATED_SUFFIX = ".migrated";
+    
+    private JsonWalConverter() {
+    }
+    
+    static void convert(Path legacyPath,
+                        InstrumentWal target) throws IOException {
+        long converted = 0L;
+        long skipped = 0L;
+        try (BufferedReader reader = Files.newBufferedReader(legacyPath)) {
+            String line;
+            long lastSeq = 0L;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                WalEntry entry = OpenObjectMapper.fromJson(line, WalEntry.class);
+                if (entry == null || entry.getMatchResult() == null || entry.getSeq() <= lastSeq) {
+                    skipped++;
+                    continue;
+                }
+                target.appendEntry(entry);
+                lastSeq = entry.getSeq();
+                converted++;
+            }
+        }
+        target.commit();
+        Files.move(legacyPath,
+                   legacyPath.resolveSibling(legacyPath.getFileName() + MIGRATED_SUFFIX),
+                   StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+        OpenLog.info(log, MatchingEvent.WAL_LEGACY_CONVERTED,
+                     "instrumentId", target.getInstrumentId(),
+                     "converted", converted,
+                     "skipped", skipped);
+    }
+}
@@ -0,0 +1,293 @@
+package open.vincentf13.exchange.matching.infra.wal;
+
+import open.vincentf13.exchange.common.sdk.enums.AssetSymbol;
+import open.vincentf13.exchange.common.sdk.enums.OrderSide;
+import open.vincentf13.exchange.common.sdk.enums.OrderType;
+import open.vincentf13.exchange.common.sdk.enums.PositionIntentType;
+import open.vincentf13.exchange.common.sdk.enums.TradeType;
+import open.vincentf13.exchange.common.sdk.model.OrderUpdate;
+import open.vincentf13.exchange.matching.domain.match.result.MatchResult;
+import open.vincentf13.exchange.matching.domain.match.result.Trade;
+import open.vincentf13.exchange.matching.domain.order.book.Order;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ WAL 記錄二進位編解碼：WalEntry (不含 seq，seq 存於記錄頭) ↔ payload。
+ 可為 null 的欄位皆帶標記；enum 以 ordinal 儲存，因此 enum 常數只能在尾端新增。
+ BigDecimal 以 scale + unscaled 儲存，unscaled 落在 long 範圍內時走 8 bytes 快路徑。
+ Order 編解碼亦供快照檔共用。
+ */
+public final class WalCodec {
+    
+    private static final byte NULL = -1;
+    private static final byte PRESENT = 1;
+    private static final int NULL_SCALE = Integer.MIN_VALUE;
+    /** OrderUpdate 旗標位元組：舊記錄僅有 0 / 1 (isTaker)，新增位元向下相容 */
+    private static final int UPDATE_TAKER = 1;
+    private static final int UPDATE_REJECTED = 1 << 1;
+    
+    private static final AssetSymbol[] ASSET_SYMBOLS = AssetSymbol.values();
+    private static final OrderSide[] ORDER_SIDES = OrderSide.values();
+    private static final OrderType[] ORDER_TYPES = OrderType.values();
+    private static final PositionIntentType[] INTENTS = PositionIntentType.values();
+    private static final TradeType[] TRADE_TYPES = TradeType.values();
+    
+    private WalCodec() {
+    }
+    
+    /**
+     編碼至 buffer 目前位置；空間不足時拋出 BufferOverflowException，由呼叫端擴容重試。
+     */
+    static void encode(MatchResult result,
+                       Instant appendedAt,
+                       ByteBuffer buf) {
+        putInstant(buf, appendedAt);
+        putOrder(buf, result.getTakerOrder());
+        List<Trade> trades = result.getTrades();
+        int tradeCount = trades == null ? 0 : trades.size();
+        buf.putInt(tradeCount);
+        for (int i = 0; i < tradeCount; i++) {
+            putTrade(buf, trades.get(i));
+        }
+        List<OrderUpdate> updates = result.getUpdates();
+        int updateCount = updates == null ? 0 : updates.size();
+        buf.putInt(updateCount);
+        for (int i = 0; i < updateCount; i++) {
+            putUpdate(buf, updates.get(i));
+        }
+    }
+    
+    static WalEntry decode(long seq,
+                           ByteBuffer buf) {
+        Instant appendedAt = getInstant(buf);
+        MatchResult result = new MatchResult(getOrder(buf));
+        int tradeCount = buf.getInt();
+        for (int i = 0; i < tradeCount; i++) {
+            result.addTrade(getTrade(buf));
+        }
+        int updateCount = buf.getInt();
+        for (int i = 0; i < updateCount; i++) {
+            result.addUpdate(getUpdate(buf));
+        }
+        return WalEntry.builder().seq(seq).matchResult(result).appendedAt(appendedAt).build();
+    }
+    
+    // ========== 領域物件 ==========
+    
+    public static void putOrder(ByteBuffer buf,
+                                Order order) {
+        if (order == null) {
+            buf.put(NULL);
+            return;
+        }
+        buf.put(PRESENT);
+        putLong(buf, order.getOrderId());
+        putLong(buf, order.getUserId());
+        putLong(buf, order.getInstrumentId());
+        putEnum(buf, order.getSide());
+        putEnum(buf, order.getType());
+        putEnum(buf, order.getIntent());
+        putEnum(buf, order.getTradeType());
+        putDecimal(buf, order.getPrice());
+        putDecimal(buf, order.getQuantity());
+        putDecimal(buf, order.getOriginalQuantity());
+        putString(buf, order.getClientOrderId());
+        putInstant(buf, order.getSubmittedAt());
+    }
+    
+    public static Order getOrder(ByteBuffer buf) {
+        if (buf.get() == NULL) {
+            return null;
+        }
+        return Order.builder()
+                    .orderId(getLong(buf))
+                    .userId(getLong(buf))
+                    .instrumentId(getLong(buf))
+                    .side(getEnum(buf, ORDER_SIDES))
+                    .type(getEnum(buf, ORDER_TYPES))
+                    .intent(getEnum(buf, INTENTS))
+                    .tradeType(getEnum(buf, TRADE_TYPES))
+                    .price(getDecimal(buf))
+                    .quantity(getDecimal(buf))
+                    .originalQuantity(getDecimal(buf))
+                    .clientOrderId(getString(buf))
+                    .submittedAt(getInstant(buf))
+                    .build();
+    }
+    
+    private static void putTrade(ByteBuffer buf,
+                                 Trade trade) {
+        putLong(buf, trade.getTradeId());
+        putLong(buf, trade.getInstrumentId());
+        putEnum(buf, trade.getQuoteAsset());
+        putLong(buf, trade.getMakerUserId());
+        putLong(buf, trade.getTakerUserId());
+        putLong(buf, trade.getOrderId());
+        putLong(buf, trade.getCounterpartyOrderId());
+        putDecimal(buf, trade.getOrderQuantity());
+        putDecimal(buf, trade.getOrderFilledQuantity());
+        putDecimal(buf, trade.getCounterpartyOrderQuantity());
+        putDecimal(buf, trade.getCounterpartyOrderFilledQuantity());
+        putEnum(buf, trade.getOrderSide());
+        putEnum(buf, trade.getCounterpartyOrderSide());
+        putEnum(buf, trade.getMakerIntent());
+        putEnum(buf, trade.getTakerIntent());
+        putEnum(buf, trade.getTradeType());
+        putDecimal(buf, trade.getPrice());
+        putDecimal(buf, trade.getQuantity());
+        putDecimal(buf, trade.getTotalValue());
+        putDecimal(buf, trade.getMakerFee());
+        putDecimal(buf, trade.getTakerFee());
+        putInstant(buf, trade.getExecutedAt());
+        putInstant(buf, trade.getCreatedAt());
+    }
+    
+    private static Trade getTrade(ByteBuffer buf) {
+        return Trade.builder()
+                    .tradeId(getLong(buf))
+                    .instrumentId(getLong(buf))
+                    .quoteAsset(getEnum(buf, ASSET_SYMBOLS))
+                    .makerUserId(getLong(buf))
+                    .takerUserId(getLong(buf))
+                    .orderId(getLong(buf))
+                    .counterpartyOrderId(getLong(buf))
+                    .orderQuantity(getDecimal(buf))
+                    .orderFilledQuantity(getDecimal(buf))
+                    .counterpartyOrderQuantity(getDecimal(buf))
+                    .counterpartyOrderFilledQuantity(getDecimal(buf))
+                    .orderSide(getEnum(buf, ORDER_SIDES))
+                    .counterpartyOrderSide(getEnum(buf, ORDER_SIDES))
+                    .makerIntent(getEnum(buf, INTENTS))
+                    .takerIntent(getEnum(buf, INTENTS))
+                    .tradeType(getEnum(buf, TRADE_TYPES))
+                    .price(getDecimal(buf))
+                    .quantity(getDecimal(buf))
+                    .totalValue(getDecimal(buf))
+                    .makerFee(getDecimal(buf))
+                    .takerFee(getDecimal(buf))
+                    .executedAt(getInstant(buf))
+                    .createdAt(getInstant(buf))
+                    .build();
+    }
+    
+    private static void putUpdate(ByteBuffer buf,
+                                  OrderUpdate update) {
+        putLong(buf, update.getOrderId());
+        putDecimal(buf, update.getPrice());
+        putEnum(buf, update.getSide());
+        putDecimal(buf, update.getRemainingQuantity());
+        buf.put((byte) ((update.isTaker() ? UPDATE_TAKER : 0) | (update.isRejected() ? UPDATE_REJECTED : 0)));
+    }
+    
+    private static OrderUpdate getUpdate(ByteBuffer buf) {
+        OrderUpdate update = OrderUpdate.builder()
+                                        .orderId(getLong(buf))
+                                        .price(getDecimal(buf))
+                                        .side(getEnum(buf, ORDER_SIDES))
+                                        .remainingQuantity(getDecimal(buf))
+                                        .build();
+        byte flags = buf.get();
+        update.setTaker((flags & UPDATE_TAKER) != 0);
+        update.setRejected((flags & UPDATE_REJECTED) != 0);
+        return update;
+    }
+    
+    // ========== 基本型別 ==========
+    
+    private static void putLong(ByteBuffer buf,
+                                Long value) {
+        if (value == null) {
+            buf.put(NULL);
+            return;
+        }
+        buf.put(PRESENT).putLong(value);
+    }
+    
+    private static Long getLong(ByteBuffer buf) {
+        return buf.get() == NULL ? null : buf.getLong();
+    }
+    
+    private static void putEnum(ByteBuffer buf,
+                                Enum<?> value) {
+        buf.put(value == null ? NULL : (byte) value.ordinal());
+    }
+    
+    private static <E extends Enum<E>> E getEnum(ByteBuffer buf,
+                                                 E[] values) {
+        byte ordinal = buf.get();
+        return ordinal == NULL ? null : values[ordinal];
+    }
+    
+    private static void putDecimal(ByteBuffer buf,
+                                   BigDecimal value) {
+        if (value == null) {
+            buf.putInt(NULL_SCALE);
+            return;
+        }
+        buf.putInt(value.scale());
+        BigInteger unscaled = value.unscaledValue();
+        if (unscaled.bitLength() < Long.SIZE) {
+            buf.put((byte) 0).putLong(unscaled.longValue());
+            return;
+        }
+        byte[] bytes = unscaled.toByteArray();
+        buf.put((byte) bytes.length).put(bytes);
+    }
+    
+    private static BigDecimal getDecimal(ByteBuffer buf) {
+        int scale = buf.getInt();
+        if (scale == NULL_SCALE) {
+            return null;
+        }
+        int length = buf.get() & 0xFF;
+        if (length == 0) {
+            return BigDecimal.valueOf(buf.getLong(), scale);
+        }
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return new BigDecimal(new BigInteger(bytes), scale);
+    }
+    
+    private static void putInstant(ByteBuffer buf,
+                                   Instant value) {
+        if (value == null) {
+            buf.put(NULL);
+            return;
+        }
+        buf.put(PRESENT).putLong(value.getEpochSecond()).putInt(value.getNano());
+    }
+    
+    private static Instant getInstant(ByteBuffer buf) {
+        if (buf.get() == NULL) {
+            return null;
+        }
+        long seconds = buf.getLong();
+        return Instant.ofEpochSecond(seconds, buf.getInt());
+    }
+    
+    private static void putString(ByteBuffer buf,
+                                  String value) {
+        if (value == null) {
+            buf.putInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buf.putInt(bytes.length).put(bytes);
+    }
+    
+    private static String getString(ByteBuffer buf) {
+        int length = buf.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,98 @@
+package open.vincentf13.exchange.matching.infra.wal;
+
+import lombok.Getter;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+/**
+ WAL 尾隨游標：直接讀取磁碟分段 (唯讀 mmap)，只解碼游標之後且已 commit 的記錄。
+ 每個讀者 (WalLoader、啟動回放) 各持有一個，非執行緒安全；寫入端可同時 append。
+
+ 可見性：只在 nextSeq ≤ committedSeq (volatile) 時讀取檔案，該筆記錄的 bytes 必已於 commit 前寫完。
+ */
+public final class WalCursor implements AutoCloseable {
+    
+    @Getter
+    private final InstrumentWal wal;
+    /** 下一筆要回傳的最小 seq */
+    @Getter
+    private long nextSeq;
+    private WalSegmentIndex segment;
+    private MappedByteBuffer map;
+    private int position;
+    
+    WalCursor(InstrumentWal wal,
+              long startSeq) {
+        this.wal = wal;
+        this.nextSeq = Math.max(1L, startSeq);
+    }
+    
+    /**
+     @return 下一筆已 commit 的記錄；目前無新記錄時回傳 null，之後可再次呼叫繼續尾隨
+     */
+    public WalEntry next() {
+        if (nextSeq > wal.getCommittedSeq()) {
+            return null;
+        }
+        if (map == null && !seek()) {
+            return null;
+        }
+        while (true) {
+            if (position + WalSegment.RECORD_HEADER_LENGTH <= map.capacity()) {
+                int length = map.getInt(position);
+                if (length > 0) {
+                    long seq = map.getLong(position + 8);
+                    int payload = position + WalSegment.RECORD_HEADER_LENGTH;
+                    position = payload + length;
+                    if (seq < nextSeq) {
+                        // 自稀疏索引點向前掃到目標 seq
+                        continue;
+                    }
+                    map.limit(payload + length).position(payload);
+                    WalEntry entry = WalCodec.decode(seq, map);
+                    map.clear();
+                    nextSeq = seq + 1;
+                    return entry;
+                }
+            }
+            Map.Entry<Long, WalSegmentIndex> following = wal.segmentAfter(segment.getBaseSeq());
+            if (following == null) {
+                return null;
+            }
+            open(following.getValue(), WalSegment.HEADER_LENGTH);
+        }
+    }
+    
+    private boolean seek() {
+        WalSegmentIndex target = wal.segmentFor(nextSeq);
+        if (target == null) {
+            return false;
+        }
+        open(target, wal.floorOffset(target, nextSeq));
+        return true;
+    }
+    
+    private void open(WalSegmentIndex target,
+                      int offset) {
+        try (FileChannel channel = FileChannel.open(target.getPath(), StandardOpenOption.READ)) {
+            // mapping 於 channel 關閉後仍有效
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            map.order(ByteOrder.LITTLE_ENDIAN);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Failed to open WAL segment " + target.getPath(), ex);
+        }
+        segment = target;
+        position = offset;
+    }
+    
+    @Override
+    public void close() {
+        map = null;
+        segment = null;
+    }
+}
@@ -0,0 +1,19 @@
+package open.vincentf13.exchange.matching.infra.wal;
+
+/**
+ WAL 寫入參數。
+
+ @param groupCommit  true：整批撮合結束才 fsync 一次；false：每筆記錄各自 fsync
+ @param segmentBytes 單一分段檔預先配置的大小
+ */
+public record WalOptions(boolean groupCommit,
+                         int segmentBytes) {
+    
+    public static final WalOptions DEFAULT = new WalOptions(true, 64 << 20);
+    
+    public WalOptions {
+        if (segmentBytes < 1 << 20) {
+            throw new IllegalArgumentException("segmentBytes must be at least 1 MiB: " + segmentBytes);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package open.vincentf13.exchange.matching.infra.wal;
+
+import lombok.Getter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ WAL 分段檔：建立時即預先配置固定長度並整段 mmap，append 只是記憶體寫入，force 才落盤。
+
+ 檔案佈局 (little-endian)：
+ - [0-3] magic, [4-7] 格式版本, [8-15] 本段首筆 seq, [16-31] 保留
+ - 之後為連續記錄：[length 4][crc32c 4][seq 8][payload length bytes]
+ CRC 涵蓋 seq + payload；length 為 0 代表資料結尾 (預配置區為全 0)。
+ 寫入順序為 seq/payload → crc → length，崩潰後以 CRC 判定殘缺尾端。
+ */
+final class WalSegment implements AutoCloseable {
+    
+    static final int MAGIC = 0x4C41_5750; // "PWAL"
+    static final int FORMAT_VERSION = 1;
+    static final int HEADER_LENGTH = 32;
+    static final int RECORD_HEADER_LENGTH = 16;
+    
+    private static final int BASE_SEQ_OFFSET = 8;
+    
+    @FunctionalInterface
+    interface RecordVisitor {
+        void onRecord(long seq, int offset, ByteBuffer payload);
+    }
+    
+    @Getter
+    private final Path path;
+    @Getter
+    private final long baseSeq;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    /** 供 CRC 計算 / 讀取使用的獨立 position-limit 視圖，避免每筆 slice 配置 */
+    private final ByteBuffer view;
+    private final CRC32C crc = new CRC32C();
+    @Getter
+    private int position = HEADER_LENGTH;
+    
+    private WalSegment(Path path,
+                       long baseSeq,
+                       FileChannel channel,
+                       MappedByteBuffer buffer) {
+        this.path = path;
+        this.baseSeq = baseSeq;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.view = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+    
+    static WalSegment create(Path path,
+                             long baseSeq,
+                             int size) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, FORMAT_VERSION);
+            buffer.putLong(BASE_SEQ_OFFSET, baseSeq);
+            buffer.force();
+            return new WalSegment(path, baseSeq, channel, buffer);
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+    
+    static WalSegment open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long size = channel.size();
+            if (size < HEADER_LENGTH || size > Integer.MAX_VALUE) {
+                throw new IOException("Invalid WAL segment size " + size + ": " + path);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION) {
+                throw new IOException("Unrecognized WAL segment header: " + path);
+            }
+            return new WalSegment(path, buffer.getLong(BASE_SEQ_OFFSET), channel, buffer);
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+    
+    /**
+     掃描全段並將寫入位置定位於最後一筆完整記錄之後。
+     遇到長度越界、CRC 不符或 seq 未遞增即視為殘缺尾端：截斷並清零其後區域。
+     
+     @return 是否發現殘缺尾端
+     */
+    boolean recover(RecordVisitor visitor) {
+        int pos = HEADER_LENGTH;
+        long prevSeq = baseSeq - 1;
+        boolean torn = false;
+        while (pos + RECORD_HEADER_LENGTH <= buffer.capacity()) {
+            int length = buffer.getInt(pos);
+            if (length == 0) {
+                break;
+            }
+            long seq = buffer.getLong(pos + 8);
+            if (length < 0
+                        || pos + RECORD_HEADER_LENGTH + length > buffer.capacity()
+                        || seq <= prevSeq
+                        || checksum(pos + 8, 8 + length) != buffer.getInt(pos + 4)) {
+                torn = true;
+                break;
+            }
+            view.limit(pos + RECORD_HEADER_LENGTH + length).position(pos + RECORD_HEADER_LENGTH);
+            visitor.onRecord(seq, pos, view);
+            view.clear();
+            prevSeq = seq;
+            pos += RECORD_HEADER_LENGTH + length;
+        }
+        position = pos;
+        if (torn) {
+            for (int i = pos; i < buffer.capacity(); i++) {
+                buffer.put(i, (byte) 0);
+            }
+            buffer.force();
+        }
+        return torn;
+    }
+    
+    /**
+     寫入 payload 的 [position, limit) 區段；剩餘空間不足時回傳 false，不寫入任何 byte。
+     */
+    boolean append(long seq,
+                   ByteBuffer payload) {
+        int length = payload.remaining();
+        if (position + RECORD_HEADER_LENGTH + length > buffer.capacity()) {
+            return false;
+        }
+        int pos = position;
+        buffer.putLong(pos + 8, seq);
+        buffer.put(pos + RECORD_HEADER_LENGTH, payload, payload.position(), length);
+        buffer.putInt(pos + 4, checksum(pos + 8, 8 + length));
+        buffer.putInt(pos, length);
+        position = pos + RECORD_HEADER_LENGTH + length;
+        return true;
+    }
+    
+    /** 可容納的最大單筆 payload */
+    int maxPayload() {
+        return buffer.capacity() - HEADER_LENGTH - RECORD_HEADER_LENGTH;
+    }
+    
+    void force() {
+        buffer.force();
+    }
+    
+    private int checksum(int offset,
+                         int length) {
+        crc.reset();
+        view.limit(offset + length).position(offset);
+        crc.update(view);
+        view.clear();
+        return (int) crc.getValue();
+    }
+    
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,56 @@
+package open.vincentf13.exchange.matching.infra.wal;
+
+import lombok.Getter;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ 單一分段的稀疏 seq → 檔內 offset 索引：每 {@link #INTERVAL} 筆記錄一個索引點，
+ 64 MiB 分段約千餘點，常駐記憶體與 WAL 歷史長度解耦 (記錄本身只在磁碟 / page cache)。
+ 由 {@link InstrumentWal} 的鎖保護。
+ */
+final class WalSegmentIndex {
+    
+    static final int INTERVAL = 256;
+    
+    @Getter
+    private final long baseSeq;
+    @Getter
+    private final Path path;
+    private long[] seqs = new long[64];
+    private int[] offsets = new int[64];
+    private int size;
+    private long records;
+    
+    WalSegmentIndex(long baseSeq,
+                    Path path) {
+        this.baseSeq = baseSeq;
+        this.path = path;
+    }
+    
+    void onRecord(long seq,
+                  int offset) {
+        if (records++ % INTERVAL != 0) {
+            return;
+        }
+        if (size == seqs.length) {
+            seqs = Arrays.copyOf(seqs, size << 1);
+            offsets = Arrays.copyOf(offsets, size << 1);
+        }
+        seqs[size] = seq;
+        offsets[size] = offset;
+        size++;
+    }
+    
+    /**
+     seq 之前 (含) 最近索引點的 offset；無索引點時回到段首。
+     */
+    int floorOffset(long seq) {
+        int idx = Arrays.binarySearch(seqs, 0, size, seq);
+        if (idx < 0) {
+            idx = -idx - 2;
+        }
+        return idx < 0 ? WalSegment.HEADER_LENGTH : offsets[idx];
+    }
+}
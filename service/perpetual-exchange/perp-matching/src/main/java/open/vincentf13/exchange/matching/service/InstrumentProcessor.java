@@ -6,11 +6,14 @@ import open.vincentf13.exchange.common.sdk.ExchangeMetric;
 import open.vincentf13.exchange.matching.domain.match.result.MatchResult;
 import open.vincentf13.exchange.matching.domain.order.book.Order;
 import open.vincentf13.exchange.matching.domain.order.book.OrderBook;
+import open.vincentf13.exchange.matching.domain.order.book.OrderBookMode;
 import open.vincentf13.exchange.matching.infra.MatchingEvent;
 import open.vincentf13.exchange.matching.infra.snapshot.InstrumentSnapshot;
 import open.vincentf13.exchange.matching.infra.snapshot.SnapshotState;
 import open.vincentf13.exchange.matching.infra.wal.InstrumentWal;
+import open.vincentf13.exchange.matching.infra.wal.WalCursor;
 import open.vincentf13.exchange.matching.infra.wal.WalEntry;
+import open.vincentf13.exchange.matching.infra.wal.WalOptions;
 import open.vincentf13.sdk.core.log.OpenLog;
 import open.vincentf13.sdk.core.metrics.MCounter;
 import open.vincentf13.sdk.core.metrics.MGauge;
@@ -22,6 +25,7 @@ import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 @Slf4j
 public class InstrumentProcessor {
@@ -31,17 +35,25 @@ public class InstrumentProcessor {
     @Getter
     private final InstrumentWal wal;
     private final InstrumentSnapshot snapshotStore;
-    private final OrderBook orderBook;
+    private final OrderBookMode orderBookMode;
+    private OrderBook orderBook;
     @Getter
     private final ExecutorService executor;
     
     private SnapshotState snapshotState;
     
     public InstrumentProcessor(Long instrumentId) {
+        this(instrumentId, WalOptions.DEFAULT, OrderBookMode.DECIMAL);
+    }
+    
+    public InstrumentProcessor(Long instrumentId,
+                               WalOptions walOptions,
+                               OrderBookMode orderBookMode) {
         this.instrumentId = instrumentId;
-        this.wal = new InstrumentWal(instrumentId);
-        this.snapshotStore = new InstrumentSnapshot(instrumentId);
-        this.orderBook = new OrderBook();
+        this.wal = new InstrumentWal(instrumentId, walOptions);
+        this.snapshotStore = new InstrumentSnapshot(instrumentId, wal);
+        this.orderBookMode = orderBookMode;
+        this.orderBook = OrderBook.create(instrumentId, orderBookMode);
         // 使用 newFixedThreadPool 代替 newSingleThreadExecutor 以便 Micrometer 能取得 ThreadPoolExecutor 的內部指標
         // (active, queued, etc.)
         ExecutorService rawExecutor =
@@ -53,10 +65,15 @@ public class InstrumentProcessor {
     }
     
     public void init() {
-        snapshotState = snapshotStore.load();
-        restoreSnapshot();
         wal.loadExisting();
-        replayWal();
+        snapshotState = snapshotStore.load();
+        if (!restoreSnapshot() || !replayWal()) {
+            // 升級前以 DECIMAL 撮合留下的掛單 / WAL 不在 tick / lot 格點上，定點簿無法表示，此商品整體退回 DECIMAL 重建
+            OpenLog.warn(log, MatchingEvent.FIXED_POINT_BOOK_OFF_GRID_STATE, "instrumentId", instrumentId, "mode", orderBookMode);
+            orderBook = OrderBook.create(instrumentId, OrderBookMode.DECIMAL);
+            restoreSnapshot();
+            replayWal();
+        }
     }
     
     public void processBatch(List<Order> batch) {
@@ -69,87 +86,146 @@ public class InstrumentProcessor {
                 ExchangeMetric.MATCHING_LATENCY,
                 () -> {
                     long lastSeq = -1L;
-                    for (Order order : batch) {
-                        if (!Objects.equals(order.getInstrumentId(), instrumentId)) {
-                            OpenLog.warn(
-                                    log,
-                                    MatchingEvent.ORDER_ROUTING_ERROR,
-                                    "expected",
-                                    instrumentId,
-                                    "actual",
-                                    order.getInstrumentId());
-                            continue;
-                        }
-                        Objects.requireNonNull(order, "order batch item must not be null");
-                        OpenValidator.validateOrThrow(order);
-                        
-                        if (orderBook.alreadyProcessed(order.getOrderId())) {
-                            continue;
-                        }
-                        
-                        // 1. Calculate Match
-                        MatchResult result = orderBook.match(order);
-                        
-                        // 2. Persist to WAL (Sequentially)
-                        List<WalEntry> appended = wal.appendBatch(List.of(result));
-                        if (appended.isEmpty()) {
-                            continue;
-                        }
-                        
-                        // 3. Apply to OrderBook (Update State)
-                        orderBook.apply(result);
-                        orderBook.markProcessed(result.getTakerOrder().getOrderId());
-                        lastSeq = appended.get(0).getSeq();
-                        
-                        // 埋點：如果成交，增加成交次數
-                        if (result.getTrades() != null && !result.getTrades().isEmpty()) {
-                            MCounter.inc(
-                                    ExchangeMetric.MATCHING_TRADE,
-                                    result.getTrades().size(),
-                                    "symbol",
-                                    String.valueOf(instrumentId));
+                    try {
+                        for (Order order : batch) {
+                            if (!Objects.equals(order.getInstrumentId(), instrumentId)) {
+                                OpenLog.warn(
+                                        log,
+                                        MatchingEvent.ORDER_ROUTING_ERROR,
+                                        "expected",
+                                        instrumentId,
+                                        "actual",
+                                        order.getInstrumentId());
+                                continue;
+                            }
+                            Objects.requireNonNull(order, "order batch item must not be null");
+                            OpenValidator.validateOrThrow(order);
+                            
+                            if (orderBook.alreadyProcessed(order.getOrderId())) {
+                                continue;
+                            }
+                            // 1. Calculate Match：定點簿無法表示的價格 / 數量逐筆拒絕，拒絕結果同樣寫入 WAL 並發布，不中斷同批其餘訂單
+                            MatchResult result;
+                            if (orderBook.accepts(order)) {
+                                result = orderBook.match(order);
+                            } else {
+                                OpenLog.warn(
+                                        log,
+                                        MatchingEvent.ORDER_OFF_GRID_REJECTED,
+                                        "instrumentId",
+                                        instrumentId,
+                                        "orderId",
+                                        order.getOrderId(),
+                                        "price",
+                                        order.getPrice(),
+                                        "quantity",
+                                        order.getQuantity());
+                                result = orderBook.reject(order);
+                            }
+                            
+                            // 2. Persist to WAL (Sequentially, fsync deferred to group commit)
+                            WalEntry appended = wal.append(result);
+                            
+                            // 3. Apply to OrderBook (Update State)
+                            orderBook.apply(result);
+                            markProcessed(result);
+                            lastSeq = appended.getSeq();
+                            
+                            // 埋點：如果成交，增加成交次數
+                            if (result.getTrades() != null && !result.getTrades().isEmpty()) {
+                                MCounter.inc(
+                                        ExchangeMetric.MATCHING_TRADE,
+                                        result.getTrades().size(),
+                                        "symbol",
+                                        String.valueOf(instrumentId));
+                            }
                         }
+                    } finally {
+                        // 4. Group commit (Once per batch)：批次中途拋錯時，已 append 並 apply 的記錄仍須落盤並對 WalLoader 可見
+                        wal.commit();
                     }
                     
-                    // 4. Snapshot Check (Once per batch)
+                    // 5. Snapshot Check (Once per batch)
                     if (lastSeq > 0) {
-                        snapshotStore.maybeSnapshot(lastSeq, orderBook);
+                        snapshotStore.maybeSnapshot(lastSeq);
                     }
                 },
                 "symbol",
                 String.valueOf(instrumentId));
     }
     
-    private void restoreSnapshot() {
-        if (snapshotState != null) {
-            if (snapshotState.getOpenOrders() != null) {
-                snapshotState.getOpenOrders().forEach(orderBook::restore);
+    /**
+     拒絕結果不列入冪等窗口：修正後以同一 orderId 重送仍可撮合；重複投遞僅會再產生一筆拒絕記錄。
+     */
+    private void markProcessed(MatchResult result) {
+        if (!result.isRejected()) {
+            orderBook.markProcessed(result.getTakerOrder().getOrderId());
+        }
+    }
+    
+    /**
+     @return false 表示快照含本簿無法表示的掛單，須改用 DECIMAL 重建
+     */
+    private boolean restoreSnapshot() {
+        if (snapshotState == null) {
+            return true;
+        }
+        if (snapshotState.getOpenOrders() != null) {
+            for (Order order : snapshotState.getOpenOrders()) {
+                if (!orderBook.accepts(order)) {
+                    return false;
+                }
+                orderBook.restore(order);
             }
-            orderBook.restoreProcessedIds(snapshotState.getProcessedOrderIds());
         }
+        orderBook.restoreProcessedIds(snapshotState.getProcessedOrderIds());
+        return true;
     }
     
-    private void replayWal() {
+    /**
+     @return false 表示 WAL 含本簿無法表示的已撮合訂單，須改用 DECIMAL 重建
+     */
+    private boolean replayWal() {
         long startSeq = snapshotState != null ? snapshotState.getLastSeq() + 1 : 1L;
-        List<WalEntry> entries = wal.readFrom(startSeq);
-        for (WalEntry entry : entries) {
-            try {
-                orderBook.apply(entry.getMatchResult());
-                orderBook.markProcessed(entry.getMatchResult().getTakerOrder().getOrderId());
-            } catch (Exception ex) {
-                OpenLog.error(
-                        log,
-                        MatchingEvent.WAL_REPLAY_FAILED,
-                        ex,
-                        "seq",
-                        entry.getSeq(),
-                        "instrumentId",
-                        instrumentId);
+        // 經游標自磁碟逐筆解碼，只讀快照之後的記錄
+        try (WalCursor cursor = wal.openCursor(startSeq)) {
+            WalEntry entry;
+            while ((entry = cursor.next()) != null) {
+                MatchResult result = entry.getMatchResult();
+                if (result.isRejected()) {
+                    continue;
+                }
+                if (!orderBook.accepts(result.getTakerOrder())) {
+                    return false;
+                }
+                try {
+                    orderBook.apply(result);
+                    markProcessed(result);
+                } catch (Exception ex) {
+                    OpenLog.error(
+                            log,
+                            MatchingEvent.WAL_REPLAY_FAILED,
+                            ex,
+                            "seq",
+                            entry.getSeq(),
+                            "instrumentId",
+                            instrumentId);
+                }
             }
         }
+        return true;
     }
     
     public void shutdown() {
         executor.shutdown();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                OpenLog.warn(log, MatchingEvent.WAL_CLOSE_TIMEOUT, "instrumentId", instrumentId);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        snapshotStore.close();
+        wal.close();
     }
 }
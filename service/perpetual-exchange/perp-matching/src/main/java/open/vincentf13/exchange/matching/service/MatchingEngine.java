@@ -4,8 +4,11 @@ import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import open.vincentf13.exchange.matching.domain.order.book.Order;
+import open.vincentf13.exchange.matching.domain.order.book.OrderBookMode;
 import open.vincentf13.exchange.matching.infra.MatchingEvent;
+import open.vincentf13.exchange.matching.infra.wal.WalOptions;
 import open.vincentf13.sdk.core.log.OpenLog;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.nio.file.Files;
@@ -24,6 +27,15 @@ public class MatchingEngine {
     
     private final Map<Long, InstrumentProcessor> processors = new ConcurrentHashMap<>();
     
+    @Value("${open.vincentf13.exchange.matching.wal.group-commit:true}")
+    private boolean walGroupCommit;
+    
+    @Value("${open.vincentf13.exchange.matching.wal.segment-size-mb:64}")
+    private int walSegmentSizeMb;
+    
+    @Value("${open.vincentf13.exchange.matching.order-book.mode:DECIMAL}")
+    private OrderBookMode orderBookMode;
+    
     public void init() {
         scanAndLoadInstruments();
     }
@@ -66,7 +78,10 @@ public class MatchingEngine {
     }
     
     private InstrumentProcessor createProcessor(Long instrumentId) {
-        InstrumentProcessor processor = new InstrumentProcessor(instrumentId);
+        InstrumentProcessor processor =
+                new InstrumentProcessor(instrumentId,
+                                        new WalOptions(walGroupCommit, walSegmentSizeMb << 20),
+                                        orderBookMode);
         processor.init();
         return processor;
     }
@@ -81,12 +96,14 @@ public class MatchingEngine {
             return;
         }
         try (Stream<Path> stream = Files.list(dir)) {
+            // 二進位分段目錄 wal-{id}/ 或尚未轉換的舊版 JSON 檔 wal-{id}.wal
             stream
-                    .filter(Files::isRegularFile)
+                    .filter(path -> Files.isDirectory(path) || path.getFileName().toString().endsWith(".wal"))
                     .map(Path::getFileName)
                     .map(Path::toString)
-                    .filter(name -> name.startsWith("wal-") && name.endsWith(".wal"))
-                    .map(name -> name.substring(4, name.length() - 4))
+                    .filter(name -> name.startsWith("wal-"))
+                    .map(name -> name.endsWith(".wal") ? name.substring(4, name.length() - 4) : name.substring(4))
+                    .filter(id -> !id.isEmpty() && id.chars().allMatch(Character::isDigit))
                     .map(Long::parseLong)
                     .distinct()
                     .forEach(instrumentId -> processors.computeIfAbsent(instrumentId, this::createProcessor));
@@ -0,0 +1,147 @@
+package open.vincentf13.exchange.matching.domain.order.book;
+
+import open.vincentf13.exchange.common.sdk.enums.AssetSymbol;
+import open.vincentf13.exchange.common.sdk.enums.OrderSide;
+import open.vincentf13.exchange.common.sdk.enums.OrderType;
+import open.vincentf13.exchange.common.sdk.model.OrderUpdate;
+import open.vincentf13.exchange.matching.domain.instrument.Instrument;
+import open.vincentf13.exchange.matching.domain.match.result.MatchResult;
+import open.vincentf13.exchange.matching.domain.match.result.Trade;
+import open.vincentf13.exchange.matching.infra.cache.InstrumentCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ 定點訂單簿與 BigDecimal 訂單簿的撮合結果須逐筆一致
+ */
+class FixedPointOrderBookTest {
+    
+    private static final Long INSTRUMENT_ID = 999998L;
+    private static final BigDecimal TICK = new BigDecimal("0.5");
+    private static final BigDecimal LOT = new BigDecimal("0.001");
+    
+    @BeforeEach
+    void setup() {
+        new InstrumentCache().putAllDomain(List.of(
+                Instrument.builder()
+                          .instrumentId(INSTRUMENT_ID).symbol("FP-USDT").baseAsset(AssetSymbol.BTC).quoteAsset(AssetSymbol.USDT)
+                          .contractSize(BigDecimal.ONE).makerFee(new BigDecimal("0.0002")).takerFee(new BigDecimal("0.0005"))
+                          .tickSize(TICK).lotSize(LOT)
+                          .build()));
+    }
+    
+    @Test
+    void matchesLikeDecimalBook() {
+        OrderBook decimal = new DecimalOrderBook();
+        OrderBook fixed = new FixedPointOrderBook(TICK, LOT);
+        Random random = new Random(42);
+        
+        for (long orderId = 1; orderId <= 2_000; orderId++) {
+            OrderSide side = random.nextBoolean() ? OrderSide.BUY : OrderSide.SELL;
+            boolean market = random.nextInt(20) == 0;
+            BigDecimal price = market ? null : TICK.multiply(BigDecimal.valueOf(190 + random.nextInt(21)));
+            BigDecimal quantity = LOT.multiply(BigDecimal.valueOf(1 + random.nextInt(5_000)));
+            
+            MatchResult expected = decimal.match(order(orderId, side, price, quantity));
+            MatchResult actual = fixed.match(order(orderId, side, price, quantity));
+            assertSameResult(actual, expected);
+            
+            decimal.apply(expected);
+            fixed.apply(actual);
+        }
+        
+        List<Order> expectedOrders = decimal.dumpOpenOrders();
+        List<Order> actualOrders = fixed.dumpOpenOrders();
+        assertThat(actualOrders).extracting(Order::getOrderId)
+                                .containsExactlyElementsOf(expectedOrders.stream().map(Order::getOrderId).toList());
+        for (int i = 0; i < expectedOrders.size(); i++) {
+            assertThat(actualOrders.get(i).getQuantity()).isEqualByComparingTo(expectedOrders.get(i).getQuantity());
+        }
+    }
+    
+    @Test
+    void restoredOrdersKeepPriceTimePriority() {
+        OrderBook fixed = OrderBook.create(INSTRUMENT_ID, OrderBookMode.FIXED_POINT);
+        assertThat(fixed).isInstanceOf(FixedPointOrderBook.class);
+        fixed.restore(order(1L, OrderSide.SELL, new BigDecimal("101"), new BigDecimal("1")));
+        fixed.restore(order(2L, OrderSide.SELL, new BigDecimal("100.5"), new BigDecimal("1")));
+        fixed.restore(order(3L, OrderSide.SELL, new BigDecimal("100.5"), new BigDecimal("1")));
+        
+        MatchResult result = fixed.match(order(4L, OrderSide.BUY, new BigDecimal("101"), new BigDecimal("2.5")));
+        
+        assertThat(result.getTrades()).extracting(Trade::getOrderId).containsExactly(2L, 3L, 1L);
+        assertThat(result.getTrades().get(2).getQuantity()).isEqualByComparingTo("0.5");
+    }
+    
+    @Test
+    void rejectsOffGridPriceBeforeMatching() {
+        OrderBook fixed = new FixedPointOrderBook(TICK, LOT);
+        
+        assertThat(fixed.accepts(order(1L, OrderSide.BUY, new BigDecimal("100.5"), new BigDecimal("0.002")))).isTrue();
+        assertThat(fixed.accepts(order(1L, OrderSide.BUY, null, new BigDecimal("0.002")))).isTrue();
+        assertThat(fixed.accepts(order(1L, OrderSide.BUY, new BigDecimal("100.3"), BigDecimal.ONE))).isFalse();
+        assertThat(fixed.accepts(order(2L, OrderSide.BUY, new BigDecimal("100"), new BigDecimal("0.0005")))).isFalse();
+        assertThat(new DecimalOrderBook().accepts(order(1L, OrderSide.BUY, new BigDecimal("100.3"), BigDecimal.ONE))).isTrue();
+        
+        assertThatThrownBy(() -> fixed.match(order(1L, OrderSide.BUY, new BigDecimal("100.3"), BigDecimal.ONE)))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> fixed.match(order(2L, OrderSide.BUY, new BigDecimal("100"), new BigDecimal("0.0005"))))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+    
+    @Test
+    void fallsBackToDecimalWithoutTickSize() {
+        assertThat(OrderBook.create(-1L, OrderBookMode.FIXED_POINT)).isInstanceOf(DecimalOrderBook.class);
+        assertThat(OrderBook.create(INSTRUMENT_ID, OrderBookMode.DECIMAL)).isInstanceOf(DecimalOrderBook.class);
+    }
+    
+    private static void assertSameResult(MatchResult actual,
+                                         MatchResult expected) {
+        assertThat(actual.getTrades()).hasSameSizeAs(expected.getTrades());
+        for (int i = 0; i < expected.getTrades().size(); i++) {
+            Trade e = expected.getTrades().get(i);
+            Trade a = actual.getTrades().get(i);
+            assertThat(a.getOrderId()).isEqualTo(e.getOrderId());
+            assertThat(a.getPrice()).isEqualByComparingTo(e.getPrice());
+            assertThat(a.getQuantity()).isEqualByComparingTo(e.getQuantity());
+            assertThat(a.getOrderFilledQuantity()).isEqualByComparingTo(e.getOrderFilledQuantity());
+            assertThat(a.getCounterpartyOrderFilledQuantity()).isEqualByComparingTo(e.getCounterpartyOrderFilledQuantity());
+            assertThat(a.getTotalValue()).isEqualByComparingTo(e.getTotalValue());
+            assertThat(a.getMakerFee()).isEqualByComparingTo(e.getMakerFee());
+            assertThat(a.getTakerFee()).isEqualByComparingTo(e.getTakerFee());
+        }
+        assertThat(actual.getUpdates()).hasSameSizeAs(expected.getUpdates());
+        for (int i = 0; i < expected.getUpdates().size(); i++) {
+            OrderUpdate e = expected.getUpdates().get(i);
+            OrderUpdate a = actual.getUpdates().get(i);
+            assertThat(a.getOrderId()).isEqualTo(e.getOrderId());
+            assertThat(a.isTaker()).isEqualTo(e.isTaker());
+            assertThat(a.getRemainingQuantity()).isEqualByComparingTo(e.getRemainingQuantity());
+        }
+    }
+    
+    private static Order order(Long orderId,
+                               OrderSide side,
+                               BigDecimal price,
+                               BigDecimal quantity) {
+        return Order.builder()
+                    .orderId(orderId)
+                    .userId(orderId % 7)
+                    .instrumentId(INSTRUMENT_ID)
+                    .side(side)
+                    .type(price == null ? OrderType.MARKET : OrderType.LIMIT)
+                    .price(price)
+                    .quantity(quantity)
+                    .originalQuantity(quantity)
+                    .submittedAt(Instant.now())
+                    .build();
+    }
+}
@@ -0,0 +1,48 @@
+package open.vincentf13.exchange.matching.domain.order.book;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ 冪等窗口：FIFO 淘汰、由舊到新匯出、依匯出順序還原後淘汰順序一致
+ */
+class ProcessedOrderWindowTest {
+    
+    @Test
+    void evictsOldestOnceFull() {
+        ProcessedOrderWindow window = new ProcessedOrderWindow(3);
+        window.add(30L);
+        window.add(10L);
+        window.add(20L);
+        window.add(10L); // 重複加入不改變順序
+        window.add(40L);
+        
+        assertThat(window.contains(30L)).isFalse();
+        assertThat(window.contains(10L)).isTrue();
+        assertThat(window.size()).isEqualTo(3);
+        assertThat(window.toArray()).containsExactly(10L, 20L, 40L);
+    }
+    
+    @Test
+    void growsPastInitialCapacityAndRestoresInOrder() {
+        int capacity = 5_000;
+        ProcessedOrderWindow window = new ProcessedOrderWindow(capacity);
+        for (long id = 1; id <= 12_345; id++) {
+            window.add(id * 7 % 100_003);
+        }
+        long[] dumped = window.toArray();
+        assertThat(dumped).hasSize(capacity);
+        
+        ProcessedOrderWindow restored = new ProcessedOrderWindow(capacity);
+        for (long id : dumped) {
+            restored.add(id);
+        }
+        assertThat(restored.toArray()).containsExactly(dumped);
+        
+        restored.add(-1L);
+        assertThat(restored.contains(dumped[0])).isFalse();
+        assertThat(restored.contains(dumped[1])).isTrue();
+        assertThat(restored.contains(-1L)).isTrue();
+    }
+}
@@ -0,0 +1,166 @@
+package open.vincentf13.exchange.matching.infra.snapshot;
+
+import open.vincentf13.exchange.common.sdk.enums.OrderSide;
+import open.vincentf13.exchange.common.sdk.enums.OrderType;
+import open.vincentf13.exchange.matching.domain.match.result.MatchResult;
+import open.vincentf13.exchange.matching.domain.order.book.Order;
+import open.vincentf13.exchange.matching.domain.order.book.OrderBook;
+import open.vincentf13.exchange.matching.domain.order.book.OrderBookMode;
+import open.vincentf13.exchange.matching.infra.wal.InstrumentWal;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ 背景二進位快照：影子簿回放 WAL 追上快照點、不受撮合端後續修改影響、已處理 id 差值編碼、保留代數、損毀時退回上一代
+ */
+class InstrumentSnapshotTest {
+    
+    private static final Long INSTRUMENT_ID = 999997L;
+    private static final Path SNAPSHOT_DIR = Path.of("data/matching/snapshot-" + INSTRUMENT_ID);
+    private static final Path WAL_DIR = Path.of("data/matching/wal-" + INSTRUMENT_ID);
+    private static final int SNAPSHOT_INTERVAL = 1_000;
+    
+    @BeforeEach
+    @AfterEach
+    void cleanup() throws IOException {
+        for (Path dir : List.of(SNAPSHOT_DIR, WAL_DIR)) {
+            if (Files.exists(dir)) {
+                try (Stream<Path> walk = Files.walk(dir)) {
+                    for (Path path : walk.sorted(Comparator.reverseOrder()).toList()) {
+                        Files.deleteIfExists(path);
+                    }
+                }
+            }
+        }
+    }
+    
+    @Test
+    void shadowBookIsIsolatedFromLaterMatching() {
+        InstrumentWal wal = new InstrumentWal(INSTRUMENT_ID);
+        wal.loadExisting();
+        InstrumentSnapshot snapshot = new InstrumentSnapshot(INSTRUMENT_ID, wal);
+        snapshot.load();
+        OrderBook book = OrderBook.create(INSTRUMENT_ID, OrderBookMode.DECIMAL);
+        
+        Order resting = order(1L, new BigDecimal("100.5"), new BigDecimal("3"));
+        process(wal, book, resting);
+        // 非遞增 id 驗證差值編碼的負數路徑
+        process(wal, book, order(900_000_000_000L, new BigDecimal("99"), BigDecimal.ONE));
+        process(wal, book, order(5L, new BigDecimal("98"), BigDecimal.ONE));
+        padWithRejects(wal, book, SNAPSHOT_INTERVAL - 3);
+        wal.commit();
+        
+        snapshot.maybeSnapshot(SNAPSHOT_INTERVAL);
+        // 撮合端的簿在快照後繼續變動，影子簿只依 WAL 回放
+        resting.setQuantity(BigDecimal.ONE);
+        process(wal, book, order(6L, new BigDecimal("97"), BigDecimal.ONE));
+        wal.commit();
+        snapshot.close();
+        wal.close();
+        
+        SnapshotState loaded = reload();
+        assertThat(loaded.getLastSeq()).isEqualTo(SNAPSHOT_INTERVAL);
+        assertThat(loaded.getProcessedOrderIds()).containsExactly(1L, 900_000_000_000L, 5L);
+        assertThat(loaded.getOpenOrders()).extracting(Order::getOrderId).containsExactly(1L, 900_000_000_000L, 5L);
+        assertThat(loaded.getOpenOrders().get(0)).satisfies(o -> {
+            assertThat(o.getPrice()).isEqualByComparingTo("100.5");
+            assertThat(o.getQuantity()).isEqualByComparingTo("3");
+        });
+    }
+    
+    @Test
+    void keepsLastGenerationsAndFallsBackOnCorruption() throws IOException {
+        InstrumentWal wal = new InstrumentWal(INSTRUMENT_ID);
+        wal.loadExisting();
+        OrderBook book = OrderBook.create(INSTRUMENT_ID, OrderBookMode.DECIMAL);
+        for (long seq = SNAPSHOT_INTERVAL; seq <= 5L * SNAPSHOT_INTERVAL; seq += SNAPSHOT_INTERVAL) {
+            padWithRejects(wal, book, SNAPSHOT_INTERVAL - 1);
+            process(wal, book, order(seq, new BigDecimal("100"), BigDecimal.ONE));
+            wal.commit();
+            // 每代以新實例自上一代快照起算回放
+            InstrumentSnapshot snapshot = new InstrumentSnapshot(INSTRUMENT_ID, wal);
+            snapshot.load();
+            snapshot.maybeSnapshot(seq);
+            snapshot.close();
+        }
+        wal.close();
+        
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(SNAPSHOT_DIR)) {
+            files = stream.sorted().toList();
+        }
+        assertThat(files).extracting(path -> path.getFileName().toString())
+                         .containsExactly(InstrumentSnapshot.snapshotName(3_000L),
+                                          InstrumentSnapshot.snapshotName(4_000L),
+                                          InstrumentSnapshot.snapshotName(5_000L));
+        
+        // 最新一代中段位元翻轉，CRC 不符應退回上一代
+        Path latest = files.get(files.size() - 1);
+        byte[] bytes = Files.readAllBytes(latest);
+        bytes[bytes.length / 2] ^= 0x5A;
+        Files.write(latest, bytes);
+        
+        SnapshotState loaded = reload();
+        assertThat(loaded.getLastSeq()).isEqualTo(4_000L);
+        assertThat(loaded.getProcessedOrderIds()).containsExactly(1_000L, 2_000L, 3_000L, 4_000L);
+    }
+    
+    private static SnapshotState reload() {
+        InstrumentWal wal = new InstrumentWal(INSTRUMENT_ID);
+        wal.loadExisting();
+        InstrumentSnapshot snapshot = new InstrumentSnapshot(INSTRUMENT_ID, wal);
+        try {
+            return snapshot.load();
+        } finally {
+            snapshot.close();
+            wal.close();
+        }
+    }
+    
+    /** 同撮合執行緒：撮合、寫 WAL、套用 */
+    private static void process(InstrumentWal wal,
+                                OrderBook book,
+                                Order order) {
+        MatchResult result = book.match(order);
+        wal.append(result);
+        book.apply(result);
+        book.markProcessed(order.getOrderId());
+    }
+    
+    /** 拒絕結果只推進 seq，不影響掛單與已處理 id */
+    private static void padWithRejects(InstrumentWal wal,
+                                       OrderBook book,
+                                       int count) {
+        for (int i = 0; i < count; i++) {
+            wal.append(book.reject(order(-1L - i, new BigDecimal("100"), BigDecimal.ONE)));
+        }
+    }
+    
+    private static Order order(Long orderId,
+                               BigDecimal price,
+                               BigDecimal quantity) {
+        return Order.builder()
+                    .orderId(orderId)
+                    .userId(1L)
+                    .instrumentId(INSTRUMENT_ID)
+                    .side(OrderSide.BUY)
+                    .type(OrderType.LIMIT)
+                    .price(price)
+                    .quantity(quantity)
+                    .originalQuantity(quantity)
+                    .submittedAt(Instant.now())
+                    .build();
+    }
+}
@@ -0,0 +1,211 @@
+package open.vincentf13.exchange.matching.infra.wal;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import open.vincentf13.exchange.common.sdk.enums.AssetSymbol;
+import open.vincentf13.exchange.common.sdk.enums.OrderSide;
+import open.vincentf13.exchange.common.sdk.enums.OrderType;
+import open.vincentf13.exchange.common.sdk.enums.PositionIntentType;
+import open.vincentf13.exchange.common.sdk.enums.TradeType;
+import open.vincentf13.exchange.common.sdk.model.OrderUpdate;
+import open.vincentf13.exchange.matching.domain.match.result.MatchResult;
+import open.vincentf13.exchange.matching.domain.match.result.Trade;
+import open.vincentf13.exchange.matching.domain.order.book.Order;
+import open.vincentf13.sdk.core.mapper.ObjectMapperConfig;
+import open.vincentf13.sdk.core.mapper.OpenObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ 二進位分段 WAL：編解碼、殘缺尾端截斷、換段、group commit 可見性與舊版 JSON 轉換
+ */
+class InstrumentWalTest {
+    
+    private static final Long INSTRUMENT_ID = 999998L;
+    private static final Path WAL_DIR = Path.of("data/matching/wal-" + INSTRUMENT_ID);
+    private static final Path LEGACY_PATH = Path.of("data/matching/wal-" + INSTRUMENT_ID + ".wal");
+    private static final Path MIGRATED_PATH = Path.of("data/matching/wal-" + INSTRUMENT_ID + ".wal.migrated");
+    
+    @BeforeEach
+    void setup() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        Method customizeMethod = ObjectMapperConfig.class.getDeclaredMethod("customize", ObjectMapper.class);
+        customizeMethod.setAccessible(true);
+        customizeMethod.invoke(null, objectMapper);
+        OpenObjectMapper.register(objectMapper);
+        cleanup();
+    }
+    
+    @AfterEach
+    void cleanup() throws IOException {
+        if (Files.exists(WAL_DIR)) {
+            try (Stream<Path> walk = Files.walk(WAL_DIR)) {
+                for (Path path : walk.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+        Files.deleteIfExists(LEGACY_PATH);
+        Files.deleteIfExists(MIGRATED_PATH);
+    }
+    
+    @Test
+    void roundTripAndTornTailTruncation() throws IOException {
+        InstrumentWal wal = new InstrumentWal(INSTRUMENT_ID);
+        wal.loadExisting();
+        List<MatchResult> results = List.of(matchResult(1L, ""), matchResult(2L, null), matchResult(3L, "c-3"));
+        wal.appendBatch(results);
+        wal.close();
+        
+        // 模擬寫到一半崩潰：最後一筆之後留下長度已寫但 CRC 不符的殘缺記錄
+        Path segment = singleSegment();
+        int tail;
+        try (WalSegment reader = WalSegment.open(segment)) {
+            reader.recover((seq, offset, payload) -> {
+            });
+            tail = reader.getPosition();
+        }
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            ByteBuffer garbage = ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+            garbage.putInt(8).putInt(0xDEAD).putLong(4L).putLong(42L).flip();
+            channel.write(garbage, tail);
+        }
+        
+        InstrumentWal recovered = new InstrumentWal(INSTRUMENT_ID);
+        recovered.loadExisting();
+        List<WalEntry> entries = recovered.readFrom(1L);
+        assertThat(entries).extracting(WalEntry::getSeq).containsExactly(1L, 2L, 3L);
+        for (int i = 0; i < results.size(); i++) {
+            assertThat(entries.get(i).getMatchResult())
+                    .usingRecursiveComparison()
+                    .withComparatorForType(BigDecimal::compareTo, BigDecimal.class)
+                    .isEqualTo(results.get(i));
+        }
+        
+        assertThat(recovered.append(matchResult(4L, null)).getSeq()).isEqualTo(4L);
+        recovered.close();
+        InstrumentWal reopened = new InstrumentWal(INSTRUMENT_ID);
+        reopened.loadExisting();
+        assertThat(reopened.readFrom(1L)).extracting(WalEntry::getSeq).containsExactly(1L, 2L, 3L, 4L);
+        reopened.close();
+    }
+    
+    @Test
+    void cursorTailsAcrossSegmentsAndHidesUncommittedRecords() throws IOException {
+        WalOptions options = new WalOptions(true, 1 << 20);
+        InstrumentWal wal = new InstrumentWal(INSTRUMENT_ID, options);
+        wal.loadExisting();
+        WalCursor tail = wal.openCursor(1L);
+        assertThat(tail.next()).isNull();
+        
+        String padding = "x".repeat(16 * 1024);
+        for (long i = 1; i <= 100; i++) {
+            wal.append(matchResult(i, padding));
+        }
+        assertThat(tail.next()).isNull();
+        wal.commit();
+        for (long i = 1; i <= 100; i++) {
+            assertThat(tail.next().getSeq()).isEqualTo(i);
+        }
+        assertThat(tail.next()).isNull();
+        
+        wal.appendBatch(List.of(matchResult(101L, null)));
+        assertThat(tail.next().getMatchResult().getTakerOrder().getOrderId()).isEqualTo(101L);
+        tail.close();
+        wal.close();
+        
+        try (Stream<Path> files = Files.list(WAL_DIR)) {
+            assertThat(files.count()).isGreaterThan(1L);
+        }
+        InstrumentWal reopened = new InstrumentWal(INSTRUMENT_ID, options);
+        reopened.loadExisting();
+        // 跨段且落在稀疏索引點之間的起點
+        List<WalEntry> entries = reopened.readFrom(51L);
+        assertThat(entries).hasSize(51);
+        assertThat(entries.get(0).getMatchResult().getTakerOrder().getOrderId()).isEqualTo(51L);
+        reopened.close();
+    }
+    
+    @Test
+    void convertsLegacyJsonWal() throws IOException {
+        List<MatchResult> results = List.of(matchResult(1L, "a"), matchResult(2L, null));
+        StringBuilder sb = new StringBuilder();
+        long seq = 10L;
+        for (MatchResult result : results) {
+            WalEntry entry = WalEntry.builder().seq(seq++).matchResult(result).appendedAt(Instant.now()).build();
+            sb.append(OpenObjectMapper.toJson(entry)).append(System.lineSeparator());
+        }
+        Files.createDirectories(LEGACY_PATH.getParent());
+        Files.writeString(LEGACY_PATH, sb.toString());
+        
+        InstrumentWal wal = new InstrumentWal(INSTRUMENT_ID);
+        wal.loadExisting();
+        assertThat(Files.exists(LEGACY_PATH)).isFalse();
+        assertThat(Files.exists(MIGRATED_PATH)).isTrue();
+        assertThat(wal.append(matchResult(3L, null)).getSeq()).isEqualTo(12L);
+        wal.close();
+        
+        InstrumentWal reopened = new InstrumentWal(INSTRUMENT_ID);
+        reopened.loadExisting();
+        List<WalEntry> entries = reopened.readFrom(0L);
+        assertThat(entries).extracting(WalEntry::getSeq).containsExactly(10L, 11L, 12L);
+        assertThat(entries.get(0).getMatchResult())
+                .usingRecursiveComparison()
+                .withComparatorForType(BigDecimal::compareTo, BigDecimal.class)
+                .isEqualTo(results.get(0));
+        reopened.close();
+    }
+    
+    private Path singleSegment() throws IOException {
+        try (Stream<Path> files = Files.list(WAL_DIR)) {
+            List<Path> segments = files.toList();
+            assertThat(segments).hasSize(1);
+            return segments.get(0);
+        }
+    }
+    
+    private MatchResult matchResult(long orderId,
+                                    String clientOrderId) {
+        Order taker = Order.builder()
+                           .orderId(orderId).userId(7L).instrumentId(INSTRUMENT_ID)
+                           .side(OrderSide.SELL).type(OrderType.LIMIT).intent(PositionIntentType.INCREASE)
+                           .price(new BigDecimal("20000.123456789012345678")).quantity(new BigDecimal("1.5"))
+                           .originalQuantity(new BigDecimal("2")).clientOrderId(clientOrderId)
+                           .submittedAt(Instant.ofEpochSecond(1_700_000_000L, 123_456_789)).build();
+        MatchResult result = new MatchResult(taker);
+        result.addTrade(Trade.builder()
+                             .instrumentId(INSTRUMENT_ID).quoteAsset(AssetSymbol.USDT)
+                             .makerUserId(8L).takerUserId(7L).orderId(orderId + 1_000).counterpartyOrderId(orderId)
+                             .orderQuantity(new BigDecimal("0.5")).orderFilledQuantity(new BigDecimal("0.5"))
+                             .counterpartyOrderQuantity(new BigDecimal("2")).counterpartyOrderFilledQuantity(new BigDecimal("0.5"))
+                             .orderSide(OrderSide.BUY).counterpartyOrderSide(OrderSide.SELL)
+                             .takerIntent(PositionIntentType.INCREASE).tradeType(TradeType.NORMAL)
+                             .price(new BigDecimal("20000.123456789012345678")).quantity(new BigDecimal("0.5"))
+                             .totalValue(new BigDecimal("10000.061728394506172839"))
+                             .makerFee(new BigDecimal("10.000061728394506172839")).takerFee(new BigDecimal("10.000061728394506172839"))
+                             .executedAt(Instant.ofEpochSecond(1_700_000_001L, 5)).build());
+        result.addUpdate(OrderUpdate.builder()
+                                    .orderId(orderId + 1_000).price(new BigDecimal("20000.123456789012345678"))
+                                    .side(OrderSide.BUY).remainingQuantity(BigDecimal.ZERO).isTaker(false).build());
+        result.addUpdate(OrderUpdate.builder()
+                                    .orderId(orderId).price(new BigDecimal("20000.123456789012345678"))
+                                    .side(OrderSide.SELL).remainingQuantity(new BigDecimal("1.0")).isTaker(true).build());
+        return result;
+    }
+}
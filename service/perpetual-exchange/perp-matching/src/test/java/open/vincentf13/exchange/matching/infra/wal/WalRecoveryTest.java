@@ -8,6 +8,7 @@ import open.vincentf13.exchange.common.sdk.enums.OrderType;
 import open.vincentf13.exchange.matching.domain.instrument.Instrument;
 import open.vincentf13.exchange.matching.domain.order.book.Order;
 import open.vincentf13.exchange.matching.domain.order.book.OrderBook;
+import open.vincentf13.exchange.matching.domain.order.book.OrderBookMode;
 import open.vincentf13.exchange.matching.infra.cache.InstrumentCache;
 import open.vincentf13.exchange.matching.service.InstrumentProcessor;
 import open.vincentf13.sdk.core.mapper.ObjectMapperConfig;
@@ -26,8 +27,10 @@ import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 /**
  撮合引擎核心災難恢復整合測試 (高覆蓋率版 V2.1)
@@ -37,8 +40,8 @@ class WalRecoveryTest {
     
     private static final Long INSTRUMENT_ID = 999999L;
     
-    private static final Path WAL_PATH = Path.of("data/matching/wal-" + INSTRUMENT_ID + ".wal");
-    private static final Path SNAPSHOT_PATH = Path.of("data/matching/snapshot-" + INSTRUMENT_ID + ".json");
+    private static final Path WAL_DIR = Path.of("data/matching/wal-" + INSTRUMENT_ID);
+    private static final Path SNAPSHOT_DIR = Path.of("data/matching/snapshot-" + INSTRUMENT_ID);
     
     @BeforeEach
     void setup() throws Exception {
@@ -61,8 +64,15 @@ class WalRecoveryTest {
     }
     
     void cleanup() throws IOException {
-        Files.deleteIfExists(WAL_PATH);
-        Files.deleteIfExists(SNAPSHOT_PATH);
+        for (Path dir : List.of(WAL_DIR, SNAPSHOT_DIR)) {
+            if (Files.exists(dir)) {
+                try (Stream<Path> walk = Files.walk(dir)) {
+                    for (Path path : walk.sorted(Comparator.reverseOrder()).toList()) {
+                        Files.deleteIfExists(path);
+                    }
+                }
+            }
+        }
     }
     
     @Test
@@ -185,12 +195,152 @@ class WalRecoveryTest {
             assertOrderListsMatch(finalOrders, expectedFinalOrders);
             
             System.out.println("所有高覆蓋率測試場景驗證通過。");
+        
+        } finally {
+            cleanup();
+        }
+    }
+    
+    @Test
+    void testBatchFailureStillCommitsAppendedEntries() throws IOException {
+        InstrumentProcessor processor = new InstrumentProcessor(INSTRUMENT_ID);
+        try {
+            processor.init();
+            Order valid = Order.builder()
+                               .orderId(1L).userId(1L).instrumentId(INSTRUMENT_ID).side(OrderSide.BUY).type(OrderType.LIMIT)
+                               .price(new BigDecimal("100")).quantity(BigDecimal.ONE).originalQuantity(BigDecimal.ONE)
+                               .submittedAt(Instant.now()).build();
+            // 缺少 userId，驗證失敗使批次中斷
+            Order invalid = Order.builder()
+                                 .orderId(2L).instrumentId(INSTRUMENT_ID).side(OrderSide.BUY).type(OrderType.LIMIT)
+                                 .price(new BigDecimal("100")).quantity(BigDecimal.ONE).originalQuantity(BigDecimal.ONE)
+                                 .submittedAt(Instant.now()).build();
+            
+            assertThatThrownBy(() -> processor.processBatch(List.of(valid, invalid))).isInstanceOf(RuntimeException.class);
+            
+            // 中斷前已 append 的記錄必須已 commit，WalLoader 才讀得到
+            assertThat(processor.getWal().getCommittedSeq()).isEqualTo(1L);
+            assertThat(processor.getWal().readFrom(1L)).hasSize(1);
+        } finally {
+            processor.shutdown();
+            cleanup();
+        }
+    }
+    
+    @Test
+    void testOffGridOrderRejectedWithoutDroppingBatch() throws IOException {
+        useTickAndLotGrid();
+        InstrumentProcessor processor = new InstrumentProcessor(INSTRUMENT_ID, WalOptions.DEFAULT, OrderBookMode.FIXED_POINT);
+        try {
+            processor.init();
+            Order offGrid = limitBuy(1L, "100.3");
+            Order onGrid = limitBuy(2L, "100.5");
+            
+            processor.processBatch(List.of(offGrid, onGrid));
+            
+            OrderBook book = (OrderBook) ReflectionTestUtils.getField(processor, "orderBook");
+            assertThat(book.dumpOpenOrders()).extracting(Order::getOrderId).containsExactly(2L);
+            // 拒絕結果與撮合結果同樣寫入 WAL，由 WalLoader 發布
+            assertThat(processor.getWal().getCommittedSeq()).isEqualTo(2L);
+            List<WalEntry> entries = processor.getWal().readFrom(1L);
+            assertThat(entries.get(0).getMatchResult().isRejected()).isTrue();
+            assertThat(entries.get(0).getMatchResult().getUpdates()).singleElement()
+                                                                 .satisfies(update -> {
+                                                                     assertThat(update.getOrderId()).isEqualTo(1L);
+                                                                     assertThat(update.getRemainingQuantity()).isEqualByComparingTo("0");
+                                                                 });
+            assertThat(entries.get(1).getMatchResult().isRejected()).isFalse();
+            
+            // 被拒絕的 orderId 不列入冪等窗口，修正後重送可正常掛單
+            processor.processBatch(List.of(limitBuy(1L, "100")));
+            assertThat(book.dumpOpenOrders()).extracting(Order::getOrderId).containsExactly(1L, 2L);
+        } finally {
+            processor.shutdown();
+            cleanup();
+        }
+    }
+    
+    @Test
+    void testOffGridWalStateFallsBackToDecimalBook() throws IOException {
+        try {
+            // 升級前以 DECIMAL 撮合，掛單價格不在之後設定的 tick 上
+            InstrumentProcessor legacy = new InstrumentProcessor(INSTRUMENT_ID);
+            legacy.init();
+            legacy.processBatch(List.of(limitBuy(1L, "100.3")));
+            legacy.shutdown();
+            
+            useTickAndLotGrid();
+            InstrumentProcessor processor = new InstrumentProcessor(INSTRUMENT_ID, WalOptions.DEFAULT, OrderBookMode.FIXED_POINT);
+            processor.init();
+            OrderBook book = (OrderBook) ReflectionTestUtils.getField(processor, "orderBook");
+            assertThat(book.dumpOpenOrders()).extracting(Order::getOrderId).containsExactly(1L);
+            assertThat(book.accepts(limitBuy(3L, "100.3"))).isTrue();
             
+            // 退回 DECIMAL 後仍可繼續撮合舊掛單
+            processor.processBatch(List.of(limitSell(2L, "100.3")));
+            assertThat(book.dumpOpenOrders()).isEmpty();
+            processor.shutdown();
         } finally {
             cleanup();
         }
     }
     
+    @Test
+    void testOffGridSnapshotStateFallsBackToDecimalBook() throws IOException {
+        try {
+            // 升級前以 DECIMAL 撮合 1000 筆觸發快照，掛單價格不在之後設定的 tick 上
+            InstrumentProcessor legacy = new InstrumentProcessor(INSTRUMENT_ID);
+            legacy.init();
+            List<Order> legacyOrders = new ArrayList<>();
+            for (long id = 1; id <= 1000; id++) {
+                legacyOrders.add(limitBuy(id, "100.3"));
+            }
+            legacy.processBatch(legacyOrders);
+            legacy.shutdown();
+            try (Stream<Path> files = Files.list(SNAPSHOT_DIR)) {
+                assertThat(files).isNotEmpty();
+            }
+            
+            useTickAndLotGrid();
+            InstrumentProcessor processor = new InstrumentProcessor(INSTRUMENT_ID, WalOptions.DEFAULT, OrderBookMode.FIXED_POINT);
+            processor.init();
+            OrderBook book = (OrderBook) ReflectionTestUtils.getField(processor, "orderBook");
+            assertThat(book.dumpOpenOrders()).hasSize(1000);
+            assertThat(book.alreadyProcessed(1L)).isTrue();
+            processor.shutdown();
+        } finally {
+            cleanup();
+        }
+    }
+    
+    private static void useTickAndLotGrid() {
+        new InstrumentCache().putAllDomain(List.of(
+                Instrument.builder()
+                          .instrumentId(INSTRUMENT_ID).symbol("TEST-USDT").baseAsset(AssetSymbol.BTC).quoteAsset(AssetSymbol.USDT)
+                          .contractSize(BigDecimal.ONE).makerFee(new BigDecimal("0.001")).takerFee(new BigDecimal("0.001"))
+                          .tickSize(new BigDecimal("0.5")).lotSize(new BigDecimal("0.001"))
+                          .build()));
+    }
+    
+    private static Order limitBuy(Long orderId,
+                                  String price) {
+        return limit(orderId, OrderSide.BUY, price);
+    }
+    
+    private static Order limitSell(Long orderId,
+                                   String price) {
+        return limit(orderId, OrderSide.SELL, price);
+    }
+    
+    private static Order limit(Long orderId,
+                               OrderSide side,
+                               String price) {
+        return Order.builder()
+                    .orderId(orderId).userId(1L).instrumentId(INSTRUMENT_ID).side(side).type(OrderType.LIMIT)
+                    .price(new BigDecimal(price)).quantity(BigDecimal.ONE).originalQuantity(BigDecimal.ONE)
+                    .submittedAt(Instant.now()).build();
+    }
+    
     private void assertOrderListsMatch(List<Order> actual,
                                        List<Order> expected) {
         // 1. 驗證順序 (Sequence Verification)
@@ -28,4 +28,7 @@ public class OrderUpdate {
     private BigDecimal remainingQuantity;
     
     private boolean isTaker;
+    
+    /** 撮合引擎拒絕此訂單 (未進入撮合、不掛單)，此時 remainingQuantity 為 0 */
+    private boolean rejected;
 }
@@ -0,0 +1,102 @@
+package open.vincentf13.service.spot.matching.engine;
+
+import open.vincentf13.service.spot.model.command.AbstractSbeModel;
+import open.vincentf13.service.spot.sbe.MessageHeaderEncoder;
+import open.vincentf13.service.spot.sbe.OrderCancelEncoder;
+import open.vincentf13.service.spot.sbe.OrderCreateEncoder;
+import open.vincentf13.service.spot.sbe.OrderType;
+import open.vincentf13.service.spot.sbe.Side;
+import open.vincentf13.service.spot.sbe.TimeInForce;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.SplittableRandom;
+
+import static open.vincentf13.service.spot.infra.Constants.MsgType;
+import static open.vincentf13.service.spot.matching.engine.OrderBookBenchmark.*;
+
+/**
+ * 指令路由基準 (CommandRouter.route)
+ *
+ * 以 gateway 傳入的 frame 佈局（32 bytes header + SBE body）預先編碼於堆外緩衝，每次呼叫就地改寫欄位：
+ * 未成交限價單下單後立即撤單，量測 flyweight 解碼 + 分派 + 完整下單 / 撤單處理的每筆指令成本。
+ * 簿上預掛 {@link #LEVELS} × {@link #ORDERS_PER_LEVEL} 筆雙邊掛單。
+ */
+@State(Scope.Thread)
+public class CommandRouterBenchmark extends MatchingBenchmarkBase {
+    private static final int LEVELS = 200;
+    private static final int ORDERS_PER_LEVEL = 10;
+
+    private final UnsafeBuffer createFrame = new UnsafeBuffer(ByteBuffer.allocateDirect(128));
+    private final UnsafeBuffer cancelFrame = new UnsafeBuffer(ByteBuffer.allocateDirect(128));
+    private final MessageHeaderEncoder headerEncoder = new MessageHeaderEncoder();
+    private final OrderCreateEncoder createEncoder = new OrderCreateEncoder();
+    private final OrderCancelEncoder cancelEncoder = new OrderCancelEncoder();
+    private final int createLength = AbstractSbeModel.BODY_OFFSET + OrderCreateEncoder.BLOCK_LENGTH;
+    private final int cancelLength = AbstractSbeModel.BODY_OFFSET + OrderCancelEncoder.BLOCK_LENGTH;
+    private final SplittableRandom random = new SplittableRandom(42);
+
+    private ShardFixture fixture;
+    private CommandRouter router;
+    private long clientOrderId;
+    private boolean buy;
+
+    @Setup(Level.Trial)
+    public void encode() {
+        ShardFixture.prepareDataDirs();
+        createFrame.putInt(AbstractSbeModel.TYPE_OFFSET, MsgType.ORDER_CREATE, ByteOrder.LITTLE_ENDIAN);
+        createEncoder.wrapAndApplyHeader(createFrame, AbstractSbeModel.SBE_HEADER_OFFSET, headerEncoder)
+                .symbolId(ShardFixture.SYMBOL_ID).qty(QTY).orderType(OrderType.LIMIT).timeInForce(TimeInForce.GTC);
+        cancelFrame.putInt(AbstractSbeModel.TYPE_OFFSET, MsgType.ORDER_CANCEL, ByteOrder.LITTLE_ENDIAN);
+        cancelEncoder.wrapAndApplyHeader(cancelFrame, AbstractSbeModel.SBE_HEADER_OFFSET, headerEncoder);
+    }
+
+    /** 每個 iteration 重建，理由同 {@link OrderBookBenchmark#seed()} */
+    @Setup(Level.Iteration)
+    public void seed() {
+        fixture = new ShardFixture();
+        router = fixture.router;
+        for (long u = 1; u <= MAKERS + TAKERS; u++) fixture.fund(u);
+        for (int level = 1; level <= LEVELS; level++) {
+            for (int n = 0; n < ORDERS_PER_LEVEL; n++) {
+                fixture.place(1 + random.nextInt(MAKERS), Side.BUY, MID - level * TICK, QTY, ++clientOrderId);
+                fixture.place(1 + random.nextInt(MAKERS), Side.SELL, MID + level * TICK, QTY, ++clientOrderId);
+            }
+        }
+        fixture.rotateAll();
+    }
+
+    @TearDown(Level.Iteration)
+    public void close() {
+        fixture.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public void createAndCancel() {
+        long user = 1 + random.nextInt(MAKERS);
+        long offset = (1 + random.nextInt(LEVELS)) * TICK;
+        buy = !buy;
+        long now = System.nanoTime();
+        createEncoder.timestamp(now).userId(user).price(buy ? MID - offset : MID + offset)
+                .side(buy ? Side.BUY : Side.SELL).clientOrderId(++clientOrderId);
+        long orderId = fixture.progress.getOrderIdCounter();
+        route(MsgType.ORDER_CREATE, createFrame, createLength, now);
+
+        cancelEncoder.timestamp(now).userId(user).orderId(orderId);
+        route(MsgType.ORDER_CANCEL, cancelFrame, cancelLength, now);
+    }
+
+    private void route(int msgType, UnsafeBuffer frame, int length, long now) {
+        router.route(msgType, frame, 0, length, fixture.nextSeq(), now, fixture.progress);
+        fixture.afterCommand();
+    }
+}
@@ -0,0 +1,53 @@
+package open.vincentf13.service.spot.matching.engine;
+
+import open.vincentf13.service.spot.infra.util.DecimalUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.SplittableRandom;
+
+/**
+ * 定點數乘法基準 (DecimalUtil.mulFloor / mulCeil)
+ *
+ * 每筆成交與凍結計算各呼叫一至兩次。輸入預先產生，避免常數折疊：
+ * - retail：價格 1 ~ 100,000、數量 0.0001 ~ 10，含 8 位小數
+ * - whale：名目金額接近 long 上限（仍不觸發 BigInteger 降級），量測 multiplyExact 溢位檢查路徑
+ */
+@State(Scope.Thread)
+public class DecimalUtilBenchmark extends MatchingBenchmarkBase {
+    private static final int SIZE = 1 << 12;
+
+    @Param({"retail", "whale"})
+    public String amounts;
+
+    private final long[] prices = new long[SIZE];
+    private final long[] qtys = new long[SIZE];
+    private int cursor;
+
+    @Setup
+    public void setup() {
+        SplittableRandom random = new SplittableRandom(42);
+        boolean whale = amounts.equals("whale");
+        for (int i = 0; i < SIZE; i++) {
+            prices[i] = whale ? random.nextLong(50_000L, 100_000L) * DecimalUtil.SCALE + random.nextLong(DecimalUtil.SCALE)
+                              : random.nextLong(DecimalUtil.SCALE, 100_000L * DecimalUtil.SCALE);
+            qtys[i] = whale ? random.nextLong(10_000L, 90_000L) * DecimalUtil.SCALE + random.nextLong(DecimalUtil.SCALE)
+                            : random.nextLong(DecimalUtil.SCALE / 10_000, 10L * DecimalUtil.SCALE);
+        }
+    }
+
+    @Benchmark
+    public long mulFloor() {
+        int i = cursor++ & (SIZE - 1);
+        return DecimalUtil.mulFloor(prices[i], qtys[i]);
+    }
+
+    @Benchmark
+    public long mulCeil() {
+        int i = cursor++ & (SIZE - 1);
+        return DecimalUtil.mulCeil(prices[i], qtys[i]);
+    }
+}
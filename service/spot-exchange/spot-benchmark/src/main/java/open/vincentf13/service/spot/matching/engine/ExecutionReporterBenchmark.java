@@ -0,0 +1,74 @@
+package open.vincentf13.service.spot.matching.engine;
+
+import open.vincentf13.service.spot.infra.Constants.OrderSide;
+import open.vincentf13.service.spot.model.Order;
+import open.vincentf13.service.spot.model.Trade;
+import open.vincentf13.service.spot.sbe.OrderStatus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import static open.vincentf13.service.spot.matching.engine.OrderBookBenchmark.*;
+
+/**
+ * 回報編碼基準 (ExecutionReporter SBE encoding)
+ *
+ * 以批次模式量測：回報經 fill 方法寫入 staging 緩衝（與 Aeron claim 時相同的編碼），
+ * endBatch 時回報器靜默，不建立 publication、不含 Aeron claim 與複製成本。
+ * sweep 模擬一筆 taker 連續成交 {@link #SWEEP_FILLS} 個 maker 後的回報量。
+ */
+@State(Scope.Thread)
+public class ExecutionReporterBenchmark extends MatchingBenchmarkBase {
+    private static final int SWEEP_FILLS = 20;
+
+    private final ExecutionReporter reporter = new ExecutionReporter();
+    private final Order taker = new Order();
+    private final Order maker = new Order();
+    private final Trade trade = new Trade();
+
+    @Setup
+    public void setup() {
+        reporter.setMuted(true);
+        taker.fill(1_000_001L, 1_001L, 1001, MID + TICK, 20 * QTY, OrderSide.BUY, 42L, System.nanoTime(), 1L, 0L);
+        taker.setFilled(QTY);
+        taker.setStatus((byte) OrderStatus.PARTIALLY_FILLED.value());
+        maker.fill(1_000L, 7L, 1001, MID + TICK, QTY, OrderSide.SELL, 7L, System.nanoTime(), 1L, 0L);
+        maker.setFilled(QTY);
+        maker.setStatus((byte) OrderStatus.FILLED.value());
+        trade.setTradeId(1L);
+        trade.setOrderId(maker.getOrderId());
+        trade.setPrice(MID + TICK);
+        trade.setQty(QTY);
+    }
+
+    @Benchmark
+    public void accepted() {
+        reporter.beginBatch();
+        reporter.reportAccepted(taker);
+        reporter.endBatch();
+    }
+
+    @Benchmark
+    public void match() {
+        reporter.beginBatch();
+        reporter.reportMatch(taker, maker, trade);
+        reporter.endBatch();
+    }
+
+    @Benchmark
+    public void canceled() {
+        reporter.beginBatch();
+        reporter.reportCanceled(taker);
+        reporter.endBatch();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SWEEP_FILLS)
+    public void sweep() {
+        reporter.beginBatch();
+        for (int i = 0; i < SWEEP_FILLS; i++) reporter.reportMatch(taker, maker, trade);
+        reporter.endBatch();
+    }
+}
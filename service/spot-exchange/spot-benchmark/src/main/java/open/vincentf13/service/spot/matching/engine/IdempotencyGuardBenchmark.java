@@ -0,0 +1,91 @@
+package open.vincentf13.service.spot.matching.engine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.SplittableRandom;
+
+/**
+ * 冪等檢查基準 (IdempotencyGuard.isDuplicate)
+ *
+ * recorded 筆映射已落盤至世代段，另有 {@link #RECENT} 筆仍在 active 緩衝：
+ * - fresh：新 clientOrderId，正常下單的主路徑，預期多數由 Bloom filter 直接排除
+ * - recentDuplicate：剛送出的重送，命中內存緩衝
+ * - persistedDuplicate：較早訂單的重送，Bloom 命中後查 ChronicleMap 段
+ */
+@State(Scope.Thread)
+public class IdempotencyGuardBenchmark extends MatchingBenchmarkBase {
+    private static final int USERS = 10_000;
+    private static final int RECENT = 1_000;
+    private static final int CHUNK = 32_768;
+    private static final int QUERIES = 1 << 16;
+
+    @Param({"100000", "1000000"})
+    public int recorded;
+
+    private ShardFixture fixture;
+    private IdempotencyGuard guard;
+    private long nextOrderId;
+    private final long[] persistedCids = new long[QUERIES];
+    private final long[] recentCids = new long[QUERIES];
+    private int cursor;
+    private long freshCid;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        ShardFixture.prepareDataDirs();
+        fixture = new ShardFixture();
+        guard = fixture.orderProcessor.getIdempotencyGuard();
+        nextOrderId = fixture.progress.getOrderIdCounter();
+        long cid = 0;
+        // 分段 record 後同步落盤，不觸發 active 緩衝滿時的自動翻轉
+        while (cid < recorded) {
+            for (int i = 0; i < CHUNK && cid < recorded; i++) record(++cid);
+            guard.flushInlineForRecovery();
+        }
+        for (int i = 0; i < RECENT; i++) record(++cid);
+        freshCid = cid;
+
+        SplittableRandom random = new SplittableRandom(42);
+        for (int i = 0; i < QUERIES; i++) {
+            persistedCids[i] = 1 + random.nextInt(recorded);
+            recentCids[i] = recorded + 1 + random.nextInt(RECENT);
+        }
+    }
+
+    private void record(long cid) {
+        guard.record(userOf(cid), cid, nextOrderId++);
+    }
+
+    private static long userOf(long cid) {
+        return 1 + cid % USERS;
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        fixture.close();
+    }
+
+    @Benchmark
+    public boolean fresh() {
+        long cid = ++freshCid;
+        return guard.isDuplicate(userOf(cid), cid, nextOrderId);
+    }
+
+    @Benchmark
+    public boolean recentDuplicate() {
+        long cid = recentCids[cursor++ & (QUERIES - 1)];
+        return guard.isDuplicate(userOf(cid), cid, nextOrderId);
+    }
+
+    @Benchmark
+    public boolean persistedDuplicate() {
+        long cid = persistedCids[cursor++ & (QUERIES - 1)];
+        return guard.isDuplicate(userOf(cid), cid, nextOrderId);
+    }
+}
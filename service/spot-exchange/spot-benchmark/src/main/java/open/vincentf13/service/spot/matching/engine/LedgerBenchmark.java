@@ -0,0 +1,67 @@
+package open.vincentf13.service.spot.matching.engine;
+
+import open.vincentf13.service.spot.infra.Constants.OrderSide;
+import open.vincentf13.service.spot.infra.util.DecimalUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.SplittableRandom;
+
+/**
+ * 成交結算基準 (Ledger.settleTrade)
+ *
+ * 每筆成交變更 maker / taker 各兩個資產與平台手續費帳戶，量測 BalanceTable 查找、落盤緩衝登記與資產索引更新。
+ * accounts 控制活躍帳戶數：小集合貼近熱門做市商，大集合使餘額槽位超出 cache 容量。
+ * 預先凍結半數資金，量測期間不再凍結，單次呼叫即單筆 settleTrade。
+ */
+@State(Scope.Thread)
+public class LedgerBenchmark extends MatchingBenchmarkBase {
+    private static final long PRICE = 50_000L * DecimalUtil.SCALE + 12_345_678L;
+    private static final long QTY = DecimalUtil.SCALE / 100 + 7;
+
+    @Param({"1000", "100000"})
+    public int accounts;
+
+    private ShardFixture fixture;
+    private Ledger ledger;
+    private final SplittableRandom random = new SplittableRandom(42);
+    private long seq, tradeId;
+    private boolean takerBuys;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        ShardFixture.prepareDataDirs();
+        fixture = new ShardFixture();
+        ledger = fixture.ledger;
+        for (long u = 1; u <= accounts; u++) {
+            fixture.fund(u);
+            long s = fixture.nextSeq();
+            ledger.freezeBalance(u, ShardFixture.BASE_ASSET, ShardFixture.FUND_BASE / 2, s);
+            ledger.freezeBalance(u, ShardFixture.QUOTE_ASSET, ShardFixture.FUND_QUOTE / 2, s);
+        }
+        fixture.rotateAll();
+        seq = fixture.nextSeq();
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        fixture.close();
+    }
+
+    @Benchmark
+    public void settleTrade() {
+        long maker = 1 + random.nextInt(accounts);
+        long taker = maker % accounts + 1;
+        boolean buy = takerBuys = !takerBuys;
+        long ceil = DecimalUtil.mulCeil(PRICE, QTY);
+        // 買方凍結報價資產（向上取整），賣方凍結基礎資產
+        ledger.settleTrade(maker, taker, PRICE, QTY, buy ? OrderSide.BUY : OrderSide.SELL,
+                buy ? QTY : ceil, buy ? ceil : QTY, ++seq, ShardFixture.BASE_ASSET, ShardFixture.QUOTE_ASSET, ++tradeId);
+        if ((tradeId & (ShardFixture.ROTATE_EVERY - 1)) == 0) fixture.rotateAll();
+    }
+}
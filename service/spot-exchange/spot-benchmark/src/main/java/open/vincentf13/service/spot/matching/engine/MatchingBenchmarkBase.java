@@ -0,0 +1,43 @@
+package open.vincentf13.service.spot.matching.engine;
+
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 撮合基準測試共用設定 (Matching Benchmark Defaults)
+ *
+ * 子類與撮合元件同 package 以存取 package-private 的訂單簿實作。
+ * JVM 參數沿用 doc/jvm/matching-low-latency.args 的 Chronicle 存取權限與 GC 設定，heap 縮小至 2G。
+ * 建議搭配 -prof gc 執行：熱路徑的 gc.alloc.rate.norm 應為 0 B/op。
+ */
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(value = 1, jvmArgsAppend = {
+        "--add-exports=java.base/jdk.internal.misc=ALL-UNNAMED",
+        "--add-exports=java.base/sun.nio.ch=ALL-UNNAMED",
+        "--add-exports=java.base/jdk.internal.ref=ALL-UNNAMED",
+        "--add-exports=java.base/jdk.internal.access=ALL-UNNAMED",
+        "--add-opens=java.base/jdk.internal.access=ALL-UNNAMED",
+        "--add-opens=java.base/jdk.internal.misc=ALL-UNNAMED",
+        "--add-opens=java.base/jdk.internal.ref=ALL-UNNAMED",
+        "--add-opens=java.base/sun.nio.ch=ALL-UNNAMED",
+        "--add-opens=java.base/java.lang=ALL-UNNAMED",
+        "--add-opens=java.base/java.lang.reflect=ALL-UNNAMED",
+        "--add-opens=java.base/java.io=ALL-UNNAMED",
+        "--add-opens=java.base/java.util=ALL-UNNAMED",
+        "--add-opens=java.base/java.nio=ALL-UNNAMED",
+        "-XX:+UseZGC", "-XX:-ZProactive",
+        "-Xms2G", "-Xmx2G", "-XX:MaxDirectMemorySize=1G",
+        "-XX:-RestrictContended",
+        "-Dchronicle.column.padding=64"
+})
+public abstract class MatchingBenchmarkBase {
+}
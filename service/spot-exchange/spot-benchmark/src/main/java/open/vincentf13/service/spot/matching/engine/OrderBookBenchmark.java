@@ -0,0 +1,148 @@
+package open.vincentf13.service.spot.matching.engine;
+
+import open.vincentf13.service.spot.infra.util.DecimalUtil;
+import open.vincentf13.service.spot.sbe.Side;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.SplittableRandom;
+
+/**
+ * 訂單簿下單 / 撤單基準 (OrderBook handleCreate / cancel)
+ *
+ * 經 OrderProcessor 驅動（凍結、冪等、撮合、結算、回報編碼與正式路徑一致），每次呼叫為一個維持簿形穩定的步驟：
+ * - DEEP：少數價位、每價位長佇列；吃掉最優價隊首一筆後同價補單
+ * - MANY_LEVELS：大量稀疏價位；隨機撤一筆、於隨機價位補掛，價位頻繁建立 / 移除
+ * - CANCEL_HEAVY：撤最舊掛單、於最優價附近重掛（做市商報價閃爍）
+ * - SWEEP_HEAVY：taker 一次掃過 {@link #SWEEP_LEVELS} 個價位，再補回被吃掉的掛單
+ * book = tree / ladder 分別對應 TreeOrderBook 與 LadderOrderBook。
+ */
+@State(Scope.Thread)
+public class OrderBookBenchmark extends MatchingBenchmarkBase {
+    static final long MID = 50_000L * DecimalUtil.SCALE;
+    static final long TICK = DecimalUtil.SCALE / 100;
+    static final long QTY = DecimalUtil.SCALE / 100;
+    static final int LADDER_LEVELS = 1 << 16;
+    static final int MAKERS = 1_000;
+    static final int TAKERS = 100;
+    static final int SWEEP_LEVELS = 5;
+    static final int NEAR_TOUCH_LEVELS = 20;
+
+    public enum Shape {
+        DEEP(10, 2_000), MANY_LEVELS(5_000, 4), CANCEL_HEAVY(500, 40), SWEEP_HEAVY(100, 20);
+
+        final int levels, ordersPerLevel;
+
+        Shape(int levels, int ordersPerLevel) {
+            this.levels = levels;
+            this.ordersPerLevel = ordersPerLevel;
+        }
+    }
+
+    @Param({"DEEP", "MANY_LEVELS", "CANCEL_HEAVY", "SWEEP_HEAVY"})
+    public Shape shape;
+
+    @Param({"tree", "ladder"})
+    public String book;
+
+    private ShardFixture fixture;
+    private final SplittableRandom random = new SplittableRandom(42);
+    // 可撤掛單（MANY_LEVELS / CANCEL_HEAVY）：同索引為同一筆，撤後原位補入新單，兩側數量不變
+    private long[] restingIds, restingUsers;
+    private boolean[] restingBuy;
+    private int cursor;
+    private long clientOrderId;
+    private boolean takerBuys;
+
+    @Setup(Level.Trial)
+    public void configure() {
+        // 須早於 Symbol 初始化
+        if (book.equals("ladder")) {
+            System.setProperty("spot.book.ladder.BTCUSDT",
+                    (MID - (LADDER_LEVELS / 2) * TICK) + "," + TICK + "," + LADDER_LEVELS);
+        }
+        ShardFixture.prepareDataDirs();
+    }
+
+    /** 每個 iteration 重建：orders Map 容量固定，避免長時間量測累積超出 */
+    @Setup(Level.Iteration)
+    public void seed() {
+        fixture = new ShardFixture();
+        for (long u = 1; u <= MAKERS + TAKERS; u++) fixture.fund(u);
+
+        int total = 2 * shape.levels * shape.ordersPerLevel;
+        restingIds = new long[total];
+        restingUsers = new long[total];
+        restingBuy = new boolean[total];
+        int i = 0;
+        for (int level = 1; level <= shape.levels; level++) {
+            for (int n = 0; n < shape.ordersPerLevel; n++) {
+                i = rest(i, true, MID - level * TICK);
+                i = rest(i, false, MID + level * TICK);
+            }
+        }
+        cursor = 0;
+        fixture.rotateAll();
+    }
+
+    @TearDown(Level.Iteration)
+    public void close() {
+        fixture.close();
+    }
+
+    private int rest(int slot, boolean buy, long price) {
+        long user = maker();
+        restingIds[slot] = fixture.place(user, buy ? Side.BUY : Side.SELL, price, QTY, ++clientOrderId);
+        restingUsers[slot] = user;
+        restingBuy[slot] = buy;
+        return slot + 1;
+    }
+
+    private long maker() {
+        return 1 + random.nextInt(MAKERS);
+    }
+
+    private long taker() {
+        return MAKERS + 1 + random.nextInt(TAKERS);
+    }
+
+    @Benchmark
+    public void step() {
+        switch (shape) {
+            case DEEP -> takeTop(1);
+            case MANY_LEVELS -> replace(random.nextInt(restingIds.length), shape.levels);
+            case CANCEL_HEAVY -> {
+                replace(cursor, NEAR_TOUCH_LEVELS);
+                if (++cursor == restingIds.length) cursor = 0;
+            }
+            case SWEEP_HEAVY -> takeTop(SWEEP_LEVELS);
+        }
+    }
+
+    /** taker 吃掉最優 levels 個價位的掛單量（DEEP 只吃隊首一筆），再同價補回；買賣方向交替避免資金單向漂移 */
+    private void takeTop(int levels) {
+        boolean buy = takerBuys = !takerBuys;
+        long perLevel = levels == 1 ? 1 : shape.ordersPerLevel;
+        long limit = buy ? MID + levels * TICK : MID - levels * TICK;
+        fixture.place(taker(), buy ? Side.BUY : Side.SELL, limit, perLevel * levels * QTY, ++clientOrderId);
+        for (int level = 1; level <= levels; level++) {
+            long price = buy ? MID + level * TICK : MID - level * TICK;
+            for (long n = 0; n < perLevel; n++) {
+                fixture.place(maker(), buy ? Side.SELL : Side.BUY, price, QTY, ++clientOrderId);
+            }
+        }
+    }
+
+    /** 撤 slot 上的掛單，於同側前 levels 檔內隨機價位補掛 */
+    private void replace(int slot, int levels) {
+        fixture.cancel(restingUsers[slot], restingIds[slot]);
+        boolean buy = restingBuy[slot];
+        long offset = (1 + random.nextInt(levels)) * TICK;
+        rest(slot, buy, buy ? MID - offset : MID + offset);
+    }
+}
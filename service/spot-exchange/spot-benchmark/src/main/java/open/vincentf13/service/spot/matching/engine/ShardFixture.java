@@ -0,0 +1,148 @@
+package open.vincentf13.service.spot.matching.engine;
+
+import open.vincentf13.service.spot.infra.chronicle.Storage;
+import open.vincentf13.service.spot.model.WalProgress;
+import open.vincentf13.service.spot.sbe.OrderType;
+import open.vincentf13.service.spot.sbe.Side;
+import open.vincentf13.service.spot.sbe.TimeInForce;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static open.vincentf13.service.spot.infra.Constants.*;
+
+/**
+ * 基準測試用撮合分片 (Benchmark Shard Fixture)
+ *
+ * 裝配順序同 MatchingShard：物件池、訂單簿、帳本、回報器、處理器、路由器，皆屬 shard 0。
+ * 回報器靜默（不建立 Aeron publication）；dirty state 由 AsyncDiskFlusher 背景落盤，
+ * matching thread 每 {@link #ROTATE_EVERY} 筆指令翻轉一次緩衝，對應 Engine 的 poll cycle 邊界。
+ * Chronicle 檔案寫入獨立暫存目錄，需於任何 Constants 存取前呼叫 {@link #prepareDataDirs()}；
+ * close 時清空目錄，orders Map 容量有限，建立大量訂單的基準應每個 iteration 重建 fixture。
+ */
+final class ShardFixture implements AutoCloseable {
+    static final int SHARD_ID = 0;
+    static final int SYMBOL_ID = Symbol.BTCUSDT.getId();
+    static final int BASE_ASSET = Asset.BTC.getId();
+    static final int QUOTE_ASSET = Asset.USDT.getId();
+    /** 每用戶初始資金：足以支撐長時間量測的雙向成交漂移 */
+    static final long FUND_BASE = 1_000_000L * 100_000_000L;
+    static final long FUND_QUOTE = 10_000_000_000L * 100_000_000L;
+    static final int ROTATE_EVERY = 256;
+
+    private static Path dataDir;
+
+    final MatchingPool pool = new MatchingPool();
+    final OrderBooks books = new OrderBooks(SHARD_ID, pool);
+    final Ledger ledger = new Ledger(SHARD_ID);
+    final ExecutionReporter reporter = new ExecutionReporter();
+    final OrderProcessor orderProcessor;
+    final CommandRouter router;
+    final WalProgress progress = new WalProgress();
+    final OrderBook book;
+
+    private final AsyncDiskFlusher flusher = new AsyncDiskFlusher();
+    private volatile boolean booksDraining;
+    private int sinceRotate;
+    private long seq;
+
+    /** 建立暫存資料目錄並指向 SPOT_*_DIR；已由 -D 指定時沿用 */
+    static synchronized void prepareDataDirs() {
+        if (dataDir != null || System.getProperty("SPOT_MAP_DIR") != null) return;
+        try {
+            dataDir = Files.createTempDirectory("spot-bench-");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        System.setProperty("SPOT_MAP_DIR", dataDir.resolve("map") + "/");
+        System.setProperty("SPOT_WAL_DIR", dataDir.resolve("wal") + "/");
+        System.setProperty("SPOT_TRADE_DIR", dataDir.resolve("trades") + "/");
+        System.setProperty("SPOT_SNAPSHOT_DIR", dataDir.resolve("snapshot") + "/");
+        dataDir.toFile().deleteOnExit();
+    }
+
+    ShardFixture() {
+        ledger.init();
+        reporter.setMuted(true);
+        orderProcessor = new OrderProcessor(SHARD_ID, books, ledger, reporter);
+        router = new CommandRouter(orderProcessor, new AuthProcessor(ledger, reporter),
+                new DepositProcessor(ledger, reporter), new TransferProcessor(SHARD_ID, ledger, reporter, new ShardHandoff(1)));
+        books.initOwnedSymbols();
+        book = books.get(SYMBOL_ID);
+
+        flusher.register(orderProcessor.getIdempotencyGuard());
+        flusher.register(new BookSink());
+        flusher.register(ledger);
+        flusher.start();
+    }
+
+    long nextSeq() {
+        return ++seq;
+    }
+
+    void fund(long userId) {
+        ledger.increaseAvailable(userId, BASE_ASSET, FUND_BASE, nextSeq());
+        ledger.increaseAvailable(userId, QUOTE_ASSET, FUND_QUOTE, nextSeq());
+        afterCommand();
+    }
+
+    /** 限價 GTC 單；回傳配發的 orderId（被拒時狀態不變，呼叫端以價格保證不會被拒） */
+    long place(long userId, Side side, long price, long qty, long clientOrderId) {
+        long orderId = progress.getOrderIdCounter();
+        orderProcessor.processCreateCommand(userId, SYMBOL_ID, price, qty, side, OrderType.LIMIT, TimeInForce.GTC,
+                clientOrderId, nextSeq(), System.nanoTime(), progress);
+        afterCommand();
+        return orderId;
+    }
+
+    void cancel(long userId, long orderId) {
+        orderProcessor.processCancelCommand(userId, orderId, nextSeq());
+        afterCommand();
+    }
+
+    /** 指令結束：丟棄待發布行情（不量測行情發布），按 poll cycle 頻率翻轉落盤緩衝 */
+    void afterCommand() {
+        book.discardMarketData();
+        if (++sinceRotate >= ROTATE_EVERY) rotateAll();
+    }
+
+    void rotateAll() {
+        sinceRotate = 0;
+        orderProcessor.getIdempotencyGuard().rotate();
+        if (!booksDraining && book.rotate()) booksDraining = true;
+        ledger.rotate();
+    }
+
+    @Override
+    public void close() {
+        rotateAll();
+        flusher.stop();
+        reporter.close();
+        Storage.self().close();
+        wipeDataDir();
+    }
+
+    /** Constants 已固定目錄路徑：只清空內容，下一個 fixture 於同目錄重建 Storage */
+    private static synchronized void wipeDataDir() {
+        if (dataDir == null) return;
+        try (Stream<Path> files = Files.walk(dataDir)) {
+            files.sorted(Comparator.reverseOrder()).filter(p -> !p.equals(dataDir)).forEach(p -> p.toFile().delete());
+        } catch (IOException ignored) {
+            // 暫存目錄清理失敗不影響量測結果
+        }
+    }
+
+    /** 同 Engine.OrderBookDiskSink，略去成交日誌追加 */
+    private final class BookSink implements DiskSink {
+        @Override public boolean rotate() { return false; }
+        @Override public void drainToDisk() {
+            if (!booksDraining) return;
+            book.drainToDisk();
+            booksDraining = false;
+        }
+    }
+}
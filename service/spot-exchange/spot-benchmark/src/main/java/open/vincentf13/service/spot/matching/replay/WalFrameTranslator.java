@@ -0,0 +1,113 @@
+package open.vincentf13.service.spot.matching.replay;
+
+import net.openhft.chronicle.bytes.Bytes;
+import open.vincentf13.service.spot.model.command.AbstractSbeModel;
+import open.vincentf13.service.spot.sbe.*;
+import org.agrona.MutableDirectBuffer;
+
+import java.nio.ByteOrder;
+
+import static open.vincentf13.service.spot.infra.Constants.MsgType;
+
+/**
+ * gateway WAL 紀錄 → 撮合 frame 轉譯 (WAL Frame Translator)
+ *
+ * 解析 WalSender 寫入的 binary 紀錄（msgType、arrivalTimeNs、userId、timestamp + 各類型欄位），
+ * 以與 GatewaySender.fillAeronBuffer 相同的佈局編碼：32 bytes frame header + SBE body，seq 為 walIndex、gwTime 為到達時間。
+ * 直接自 WAL bytes 串流編碼批次 group，不經中介陣列；單線程獨佔，零分配。
+ *
+ * 與 gateway RESUME 重播的差異：AUTH 紀錄一併轉譯（gateway 重播略過），維持與 live 路徑相同的指令流。
+ */
+final class WalFrameTranslator {
+    private final int gatewayId;
+    private final MessageHeaderEncoder headerEncoder = new MessageHeaderEncoder();
+    private final OrderCreateEncoder orderCreateEncoder = new OrderCreateEncoder();
+    private final OrderCancelEncoder orderCancelEncoder = new OrderCancelEncoder();
+    private final DepositEncoder depositEncoder = new DepositEncoder();
+    private final AuthEncoder authEncoder = new AuthEncoder();
+    private final TransferEncoder transferEncoder = new TransferEncoder();
+    private final OrderCreateBatchEncoder orderCreateBatchEncoder = new OrderCreateBatchEncoder();
+    private final OrderCancelBatchEncoder orderCancelBatchEncoder = new OrderCancelBatchEncoder();
+    private final CancelAllEncoder cancelAllEncoder = new CancelAllEncoder();
+
+    WalFrameTranslator(int gatewayId) {
+        this.gatewayId = gatewayId;
+    }
+
+    /** 轉譯一筆紀錄至 buf 起點，回傳 frame 長度；非指令類型回傳 0（呼叫端略過） */
+    int translate(Bytes<?> bytes, long walIndex, MutableDirectBuffer buf) {
+        int msgType = bytes.readInt();
+        long gwTime = bytes.readLong();
+        long userId = bytes.readLong();
+        long timestamp = bytes.readLong();
+        buf.putInt(AbstractSbeModel.TYPE_OFFSET, msgType, ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(AbstractSbeModel.GATEWAY_ID_OFFSET, gatewayId, ByteOrder.LITTLE_ENDIAN);
+        buf.putLong(AbstractSbeModel.SEQ_OFFSET, walIndex, ByteOrder.LITTLE_ENDIAN);
+        buf.putLong(AbstractSbeModel.GATEWAY_TIME_OFFSET, gwTime, ByteOrder.LITTLE_ENDIAN);
+
+        final int sbeOff = AbstractSbeModel.SBE_HEADER_OFFSET;
+        return switch (msgType) {
+            case MsgType.ORDER_CREATE -> {
+                OrderCreateEncoder e = orderCreateEncoder.wrapAndApplyHeader(buf, sbeOff, headerEncoder)
+                        .timestamp(timestamp).userId(userId).symbolId(bytes.readInt())
+                        .price(bytes.readLong()).qty(bytes.readLong()).side(Side.get((short) bytes.readUnsignedByte()))
+                        .clientOrderId(bytes.readLong());
+                // 舊版 WAL 紀錄無 orderType / timeInForce，缺省 LIMIT + GTC
+                boolean extended = bytes.readRemaining() >= 2;
+                e.orderType(OrderType.get(extended ? (short) bytes.readUnsignedByte() : 0))
+                 .timeInForce(TimeInForce.get(extended ? (short) bytes.readUnsignedByte() : 0));
+                yield AbstractSbeModel.BODY_OFFSET + OrderCreateEncoder.BLOCK_LENGTH;
+            }
+            case MsgType.ORDER_CANCEL -> {
+                orderCancelEncoder.wrapAndApplyHeader(buf, sbeOff, headerEncoder)
+                        .timestamp(timestamp).userId(userId).orderId(bytes.readLong());
+                yield AbstractSbeModel.BODY_OFFSET + OrderCancelEncoder.BLOCK_LENGTH;
+            }
+            case MsgType.DEPOSIT -> {
+                depositEncoder.wrapAndApplyHeader(buf, sbeOff, headerEncoder)
+                        .timestamp(timestamp).userId(userId).assetId(bytes.readInt()).amount(bytes.readLong());
+                yield AbstractSbeModel.BODY_OFFSET + DepositEncoder.BLOCK_LENGTH;
+            }
+            case MsgType.AUTH -> {
+                authEncoder.wrapAndApplyHeader(buf, sbeOff, headerEncoder).timestamp(timestamp).userId(userId);
+                yield AbstractSbeModel.BODY_OFFSET + AuthEncoder.BLOCK_LENGTH;
+            }
+            case MsgType.TRANSFER -> {
+                transferEncoder.wrapAndApplyHeader(buf, sbeOff, headerEncoder)
+                        .timestamp(timestamp).userId(userId).assetId(bytes.readInt()).amount(bytes.readLong())
+                        .fromShard((short) bytes.readUnsignedByte()).toShard((short) bytes.readUnsignedByte());
+                yield AbstractSbeModel.BODY_OFFSET + TransferEncoder.BLOCK_LENGTH;
+            }
+            case MsgType.ORDER_CREATE_BATCH -> {
+                OrderCreateBatchEncoder e = orderCreateBatchEncoder.wrapAndApplyHeader(buf, sbeOff, headerEncoder)
+                        .timestamp(timestamp).userId(userId).symbolId(bytes.readInt());
+                int count = bytes.readInt();
+                OrderCreateBatchEncoder.OrdersEncoder g = e.ordersCount(count);
+                for (int i = 0; i < count; i++) {
+                    g.next().price(bytes.readLong()).qty(bytes.readLong()).side(Side.get((short) bytes.readUnsignedByte()))
+                            .clientOrderId(bytes.readLong())
+                            .orderType(OrderType.get((short) bytes.readUnsignedByte())).timeInForce(TimeInForce.get((short) bytes.readUnsignedByte()));
+                }
+                yield AbstractSbeModel.BODY_OFFSET + OrderCreateBatchEncoder.BLOCK_LENGTH
+                        + OrderCreateBatchEncoder.OrdersEncoder.sbeHeaderSize()
+                        + count * OrderCreateBatchEncoder.OrdersEncoder.sbeBlockLength();
+            }
+            case MsgType.ORDER_CANCEL_BATCH -> {
+                // WAL 只記錄本分片擁有的 orderId
+                int count = bytes.readInt();
+                OrderCancelBatchEncoder.OrdersEncoder g = orderCancelBatchEncoder.wrapAndApplyHeader(buf, sbeOff, headerEncoder)
+                        .timestamp(timestamp).userId(userId).ordersCount(count);
+                for (int i = 0; i < count; i++) g.next().orderId(bytes.readLong());
+                yield AbstractSbeModel.BODY_OFFSET + OrderCancelBatchEncoder.BLOCK_LENGTH
+                        + OrderCancelBatchEncoder.OrdersEncoder.sbeHeaderSize()
+                        + count * OrderCancelBatchEncoder.OrdersEncoder.sbeBlockLength();
+            }
+            case MsgType.CANCEL_ALL -> {
+                cancelAllEncoder.wrapAndApplyHeader(buf, sbeOff, headerEncoder)
+                        .timestamp(timestamp).userId(userId).symbolId(bytes.readInt());
+                yield AbstractSbeModel.BODY_OFFSET + CancelAllEncoder.BLOCK_LENGTH;
+            }
+            default -> 0;
+        };
+    }
+}
@@ -0,0 +1,248 @@
+package open.vincentf13.service.spot.matching.replay;
+
+import io.aeron.Aeron;
+import io.aeron.driver.MediaDriver;
+import io.aeron.driver.ThreadingMode;
+import net.openhft.chronicle.queue.ChronicleQueue;
+import net.openhft.chronicle.queue.ExcerptTailer;
+import net.openhft.chronicle.queue.impl.single.SingleChronicleQueueBuilder;
+import net.openhft.chronicle.wire.DocumentContext;
+import open.vincentf13.service.spot.infra.aeron.AeronConstants;
+import open.vincentf13.service.spot.infra.aeron.AeronUtil;
+import open.vincentf13.service.spot.infra.chronicle.Storage;
+import open.vincentf13.service.spot.matching.engine.AsyncDiskFlusher;
+import open.vincentf13.service.spot.matching.engine.Engine;
+import open.vincentf13.service.spot.matching.engine.ShardHandoff;
+import open.vincentf13.service.spot.matching.shard.MatchingShard;
+import open.vincentf13.service.spot.model.command.AbstractSbeModel;
+import org.HdrHistogram.Histogram;
+import org.agrona.concurrent.UnsafeBuffer;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static open.vincentf13.service.spot.infra.Constants.MatchingConfig;
+import static open.vincentf13.service.spot.infra.Constants.MsgType;
+
+/**
+ * 離線確定性重播 (Offline Deterministic WAL Replay)
+ *
+ * 讀取擷取下來的 gateway WAL（gatewaySenderWal 目錄），轉譯為撮合 frame 後直接呼叫 {@link Engine#onAeronMessage}，
+ * 略過 Aeron 傳輸與 MatchingReceiver；每 {@link AeronConstants#AERON_POLL_LIMIT} 筆（或依錄製節奏需等待時）呼叫一次 onPollCycle，
+ * 對應 receiver 的 poll 邊界。輸出吞吐、各指令類型 onAeronMessage 延遲分佈與最終狀態雜湊，
+ * 相同 WAL 多次重播的雜湊應一致，可用於核對撮合邏輯改動前後的行為。
+ *
+ * 隔離：Storage 指向獨立暫存目錄（結束時刪除），以 follower 角色啟動使回報 / 行情靜默，
+ * 內嵌 Media Driver 僅供回報器與行情發布器建立 publication，不送出任何訊息。
+ * 單一 gateway、單一分片（shard 0）。
+ *
+ * 用法：
+ * <pre>
+ * java -cp spot-benchmark/target/benchmarks.jar open.vincentf13.service.spot.matching.replay.WalReplay \
+ *      --wal /data/spot-exchange/wal/gw-sender [--pacing max|recorded] [--speed 1.0] [--max-gap-ms 1000] [--limit N] [--keep-data]
+ * </pre>
+ * 需與撮合服務相同的 JVM 參數（--add-opens 等 Chronicle 所需選項）。
+ */
+public final class WalReplay {
+    /** 涵蓋 IPC MTU (8K) 內任一 frame */
+    private static final int FRAME_CAPACITY = 1 << 16;
+    private static final int TYPE_SLOTS = 128;
+
+    private final Options options;
+    private final Histogram[] latencies = new Histogram[TYPE_SLOTS];
+    private final Histogram pollCycleLatency = new Histogram(3);
+    private final UnsafeBuffer frame = new UnsafeBuffer(ByteBuffer.allocateDirect(FRAME_CAPACITY));
+    private final WalFrameTranslator translator;
+    private Engine engine;
+    private long[] latestSeqs;
+    private int inCycle;
+    private long replayed, skipped;
+
+    private WalReplay(Options options) {
+        this.options = options;
+        this.translator = new WalFrameTranslator(options.gatewayId);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        Path dataDir = Files.createTempDirectory("spot-replay-");
+        // 須早於任何 Constants 存取：固定資料目錄並以 follower 角色靜默回報 / 行情
+        System.setProperty("SPOT_MAP_DIR", dataDir.resolve("map") + "/");
+        System.setProperty("SPOT_WAL_DIR", dataDir.resolve("wal") + "/");
+        System.setProperty("SPOT_TRADE_DIR", dataDir.resolve("trades") + "/");
+        System.setProperty("SPOT_SNAPSHOT_DIR", dataDir.resolve("snapshot") + "/");
+        System.setProperty("spot.matching.role", "follower");
+        System.setProperty("spot.replication.enabled", "false");
+
+        MediaDriver.Context driverContext = new MediaDriver.Context()
+                .threadingMode(ThreadingMode.SHARED)
+                .dirDeleteOnStart(true)
+                .dirDeleteOnShutdown(true);
+        driverContext.aeronDirectoryName(dataDir.resolve("aeron").toString());
+        try (MediaDriver driver = MediaDriver.launchEmbedded(driverContext);
+             Aeron aeron = Aeron.connect(new Aeron.Context().aeronDirectoryName(driver.aeronDirectoryName()))) {
+            AeronUtil.setAeron(aeron);
+            new WalReplay(options).run(System.out);
+        } finally {
+            if (options.keepData) System.out.println("資料目錄保留於 " + dataDir);
+            else deleteRecursively(dataDir);
+        }
+    }
+
+    private void run(PrintStream out) {
+        if (options.gatewayId >= MatchingConfig.GATEWAY_COUNT) {
+            throw new IllegalArgumentException("--gateway-id 超出 spot.gateway.count: " + options.gatewayId);
+        }
+        MatchingShard shard = new MatchingShard(0, new ShardHandoff(1));
+        engine = shard.getEngine();
+        AsyncDiskFlusher flusher = new AsyncDiskFlusher();
+        engine.registerDiskSinks(flusher);
+        flusher.start();
+        engine.onStart();
+        latestSeqs = new long[MatchingConfig.GATEWAY_COUNT];
+        for (int g = 0; g < latestSeqs.length; g++) latestSeqs[g] = engine.getNetworkProgress(g).getLastProcessedSeq();
+
+        long startNs = System.nanoTime();
+        try (ChronicleQueue wal = SingleChronicleQueueBuilder.single(options.wal.toString()).readOnly(true).build()) {
+            replay(wal.createTailer());
+        }
+        endCycle();
+        long elapsedNs = System.nanoTime() - startNs;
+        long stateHash = engine.stateHash();
+
+        engine.onStop();
+        flusher.stop();
+        Storage.self().close();
+        report(out, elapsedNs, stateHash);
+    }
+
+    private void replay(ExcerptTailer tailer) {
+        long prevGwTime = 0, dueNs = 0;
+        while (replayed < options.limit) {
+            long walIndex;
+            int length;
+            try (DocumentContext dc = tailer.readingDocument()) {
+                if (!dc.isPresent()) break;
+                walIndex = dc.index();
+                length = translator.translate(dc.wire().bytes(), walIndex, frame);
+            }
+            if (length == 0) { skipped++; continue; }
+
+            if (options.recorded) {
+                // 依 gateway 到達時間差重現節奏；間隔截斷於 max-gap（gateway 重啟時 nanoTime 不連續）
+                long gwTime = frame.getLong(AbstractSbeModel.GATEWAY_TIME_OFFSET, ByteOrder.LITTLE_ENDIAN);
+                long now = System.nanoTime();
+                if (prevGwTime == 0) {
+                    dueNs = now;
+                } else {
+                    long gap = Math.min(Math.max(gwTime - prevGwTime, 0L), options.maxGapNs);
+                    dueNs += (long) (gap / options.speed);
+                }
+                prevGwTime = gwTime;
+                if (now < dueNs) {
+                    endCycle(); // 下一筆尚未到達：receiver 此輪 poll 結束
+                    while (System.nanoTime() < dueNs) Thread.onSpinWait();
+                }
+            }
+
+            int msgType = frame.getInt(AbstractSbeModel.TYPE_OFFSET, ByteOrder.LITTLE_ENDIAN);
+            long t0 = System.nanoTime();
+            engine.onAeronMessage(msgType, frame, 0, length);
+            latency(msgType).recordValue(System.nanoTime() - t0);
+            latestSeqs[options.gatewayId] = walIndex;
+            replayed++;
+            if (++inCycle >= AeronConstants.AERON_POLL_LIMIT) endCycle();
+        }
+    }
+
+    private void endCycle() {
+        if (inCycle == 0) return;
+        long t0 = System.nanoTime();
+        engine.onPollCycle(inCycle, latestSeqs);
+        pollCycleLatency.recordValue(System.nanoTime() - t0);
+        inCycle = 0;
+    }
+
+    private Histogram latency(int msgType) {
+        Histogram h = latencies[msgType];
+        if (h == null) latencies[msgType] = h = new Histogram(3);
+        return h;
+    }
+
+    private void report(PrintStream out, long elapsedNs, long stateHash) {
+        double seconds = elapsedNs / 1e9;
+        out.printf("WAL 重播完成：%s（pacing=%s）%n", options.wal, options.recorded ? "recorded x" + options.speed : "max");
+        out.printf("指令 %,d 筆（略過 %,d），耗時 %.3f s，吞吐 %,.0f msgs/sec%n", replayed, skipped, seconds, replayed / seconds);
+        out.printf("%-20s %12s %10s %10s %10s %10s %12s  (ns)%n", "type", "count", "mean", "p50", "p99", "p99.9", "max");
+        for (int t = 0; t < TYPE_SLOTS; t++) {
+            if (latencies[t] != null) printRow(out, typeName(t), latencies[t]);
+        }
+        printRow(out, "POLL_CYCLE", pollCycleLatency);
+        out.printf("最終狀態雜湊 = %016x%n", stateHash);
+    }
+
+    private static void printRow(PrintStream out, String name, Histogram h) {
+        out.printf("%-20s %,12d %,10.0f %,10d %,10d %,10d %,12d%n", name, h.getTotalCount(), h.getMean(),
+                h.getValueAtPercentile(50), h.getValueAtPercentile(99), h.getValueAtPercentile(99.9), h.getMaxValue());
+    }
+
+    private static String typeName(int msgType) {
+        return switch (msgType) {
+            case MsgType.ORDER_CREATE -> "ORDER_CREATE";
+            case MsgType.ORDER_CANCEL -> "ORDER_CANCEL";
+            case MsgType.DEPOSIT -> "DEPOSIT";
+            case MsgType.AUTH -> "AUTH";
+            case MsgType.TRANSFER -> "TRANSFER";
+            case MsgType.ORDER_CREATE_BATCH -> "ORDER_CREATE_BATCH";
+            case MsgType.ORDER_CANCEL_BATCH -> "ORDER_CANCEL_BATCH";
+            case MsgType.CANCEL_ALL -> "CANCEL_ALL";
+            default -> "TYPE_" + msgType;
+        };
+    }
+
+    private static void deleteRecursively(Path dir) {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** 命令列參數 */
+    private record Options(Path wal, boolean recorded, double speed, long maxGapNs, long limit, int gatewayId, boolean keepData) {
+        static Options parse(String[] args) {
+            Path wal = null;
+            boolean recorded = false, keepData = false;
+            double speed = 1.0;
+            long maxGapMs = 1_000L, limit = Long.MAX_VALUE;
+            int gatewayId = 0;
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--wal" -> wal = Path.of(args[++i]);
+                    case "--pacing" -> recorded = switch (args[++i]) {
+                        case "max" -> false;
+                        case "recorded" -> true;
+                        default -> throw new IllegalArgumentException("--pacing 僅支援 max | recorded: " + args[i]);
+                    };
+                    case "--speed" -> speed = Double.parseDouble(args[++i]);
+                    case "--max-gap-ms" -> maxGapMs = Long.parseLong(args[++i]);
+                    case "--limit" -> limit = Long.parseLong(args[++i]);
+                    case "--gateway-id" -> gatewayId = Integer.parseInt(args[++i]);
+                    case "--keep-data" -> keepData = true;
+                    default -> throw new IllegalArgumentException("未知參數: " + args[i]);
+                }
+            }
+            if (wal == null || !Files.isDirectory(wal)) throw new IllegalArgumentException("--wal 須指向 gateway WAL 目錄: " + wal);
+            if (speed <= 0) throw new IllegalArgumentException("--speed 須大於 0: " + speed);
+            return new Options(wal, recorded, speed, TimeUnit.MILLISECONDS.toNanos(maxGapMs), limit, gatewayId, keepData);
+        }
+    }
+}
@@ -30,6 +30,70 @@ public class Constants {
         public static final int INITIAL_BOOK_ORDER_COUNT = 200_000;
         public static final int INITIAL_BOOK_LEVEL_CAPACITY = 4096;
         public static final int STARTUP_PRE_ALLOCATE_COUNT = 1000;
+        /** 帳本 off-heap 餘額表初始槽數 (-Dspot.ledger.capacity)，每槽 64 bytes，負載過半時倍增 */
+        public static final int LEDGER_INITIAL_CAPACITY = Math.max(1024, Integer.getInteger("spot.ledger.capacity", 1 << 18));
+
+        /**
+         * 撮合分片數 (-Dspot.matching.shards=N，Gateway 與 Matching 必須一致)。
+         * 1 = 單執行緒模式，行為與檔案佈局皆與未分片前相同。
+         */
+        public static final int SHARD_COUNT = Math.max(1, Math.min(Integer.getInteger("spot.matching.shards", 1), 64));
+        /** 資金分片：DEPOSIT 一律入帳於此分片，其餘分片的資金由 TRANSFER 劃轉取得 */
+        public static final int FUNDING_SHARD = 0;
+        /** orderId / tradeId 高 8 bits 編碼所屬分片，shard 0 與舊資料完全相容 */
+        public static final int SHARD_ID_SHIFT = 56;
+
+        /**
+         * 引擎狀態快照間隔 (-Dspot.snapshot.intervalMs，0 = 停用)。
+         * 冷啟動載入最新快照後僅需重播 Gateway WAL 尾段，重啟時間不隨歷史資料成長。
+         */
+        public static final long SNAPSHOT_INTERVAL_MS = Math.max(0L, Long.getLong("spot.snapshot.intervalMs", 60_000L));
+
+        /**
+         * clientOrderId 去重世代大小 (-Dspot.cid.generationOrders)：以 orderId 區間劃分世代，每世代一個 CID 段檔 + Bloom filter。
+         * 去重窗口為當前 + 前一世代（至少最近 N 筆、至多 2N 筆訂單），更舊的段整檔刪除；以 orderId 而非時間劃分，重播判定不變。
+         */
+        public static final int CID_GENERATION_ORDERS = Math.max(1 << 16, Integer.getInteger("spot.cid.generationOrders", 2_000_000));
+
+        /** 批次下單 / 撤單單筆訊息最大筆數：Gateway 預分配 slot 容量，超出整批丟棄 */
+        public static final int MAX_BATCH_SIZE = 64;
+
+        /** 公開行情 L2 快照間隔 (-Dspot.marketdata.snapshotMs，0 = 停用)，Gateway 以最新快照 + 其後增量服務晚加入的訂閱者 */
+        public static final long MD_SNAPSHOT_INTERVAL_MS = Math.max(0L, Long.getLong("spot.marketdata.snapshotMs", 1_000L));
+        /** L2 快照每側檔數：2 × 檔數 × 17 bytes 需小於 REPORT_FLOW MTU */
+        public static final int MD_SNAPSHOT_DEPTH = 100;
+
+        /** Gateway 上限：進度 Key 以 (gateway, shard) 編碼於單一 byte */
+        public static final int MAX_GATEWAYS = 8;
+        /**
+         * 上游 Gateway 數 (-Dspot.gateway.count=N，Matching 端)。
+         * 每個 gateway 擁有獨立指令流、序號空間、進度紀錄與 RESUME 握手；1 = 單 gateway，行為與檔案佈局不變。
+         */
+        public static final int GATEWAY_COUNT = Math.max(1, Math.min(Integer.getInteger("spot.gateway.count", 1), MAX_GATEWAYS));
+        /** 本 Gateway ID (-Dspot.gateway.id，Gateway 端，0 ≤ id < 撮合端 GATEWAY_COUNT) */
+        public static final int GATEWAY_ID = Math.max(0, Math.min(Integer.getInteger("spot.gateway.id", 0), MAX_GATEWAYS - 1));
+
+        /**
+         * 熱備角色 (-Dspot.matching.role=leader|follower)。
+         * follower 只訂閱 leader 的複製流並靜默套用指令（不發回報 / 行情、不發 RESUME），收到 PROMOTE 後接手 gateway 指令流。
+         */
+        public static final boolean REPLICA_FOLLOWER = "follower".equalsIgnoreCase(System.getProperty("spot.matching.role", "leader"));
+        /** 轉發已處理指令至複製流 (-Dspot.replication.enabled，leader 端；follower 升主後亦可續供下一個 follower) */
+        public static final boolean REPLICATION_ENABLED = Boolean.getBoolean("spot.replication.enabled");
+        /** 狀態雜湊比對間隔 (-Dspot.replication.hashIntervalMs，0 = 停用)：成本 O(訂單 + 帳戶)，於 matching thread 計算 */
+        public static final long REPLICA_HASH_INTERVAL_MS = Math.max(0L, Long.getLong("spot.replication.hashIntervalMs", 10_000L));
+
+        /**
+         * WAL 確認間隔 (-Dspot.wal.ackIntervalMs，0 = 停用)：leader 經控制流回報各 gateway 的持久化接收進度 (WAL_ACK)，
+         * gateway 據此釋放整段早於該位點的 WAL cycle。
+         */
+        public static final long WAL_ACK_INTERVAL_MS = Math.max(0L, Long.getLong("spot.wal.ackIntervalMs", 1_000L));
+
+        /**
+         * 查詢副本資料流 (-Dspot.query.enabled)：flusher 將每輪落盤的訂單 / 餘額另行發布至查詢流，
+         * 由獨立 spot-query 進程維護讀取模型，查詢流量不觸及撮合主機的 ChronicleMap 與 CPU。
+         */
+        public static final boolean QUERY_FEED_ENABLED = Boolean.getBoolean("spot.query.enabled");
     }
 
     public static class MetaDataKey {
@@ -46,6 +110,31 @@ public class Constants {
             public static final byte MATCHING_ENGINE_POINT = 1;
             public static final byte WS_PUSH_TO_CLIENT_POINT = 2;
         }
+
+        /** 分片 (shard > 0) 進度 Key 起點：shard 0 沿用上方舊 Key */
+        private static final int SHARD_KEY_BASE = 32;
+
+        /** 分片專屬的撮合進度 Key（walMetadata 與 msgMetadata 共用此編碼） */
+        public static byte matchingPoint(int shardId) {
+            return shardId == 0 ? Wal.MATCHING_ENGINE_POINT : (byte) (SHARD_KEY_BASE + shardId);
+        }
+
+        public static byte matchingReceive(int shardId) {
+            return shardId == 0 ? MsgProgress.MATCHING_ENGINE_RECEIVE : (byte) (SHARD_KEY_BASE + shardId);
+        }
+
+        /** Gateway (gatewayId > 0) 接收進度 Key 起點：每個 gateway 佔 GATEWAY_KEY_STRIDE 個分片 slot */
+        private static final int GATEWAY_KEY_BASE = 128;
+        private static final int GATEWAY_KEY_STRIDE = 16;
+
+        /** 分片 × Gateway 專屬的接收進度 Key：gateway 0 沿用 {@link #matchingReceive(int)} */
+        public static byte matchingReceive(int shardId, int gatewayId) {
+            if (gatewayId == 0) return matchingReceive(shardId);
+            if (shardId >= GATEWAY_KEY_STRIDE) {
+                throw new IllegalArgumentException("Multi-gateway mode supports at most %d shards, shard=%d".formatted(GATEWAY_KEY_STRIDE, shardId));
+            }
+            return (byte) (GATEWAY_KEY_BASE + (gatewayId - 1) * GATEWAY_KEY_STRIDE + shardId);
+        }
     }
 
     /** 
@@ -63,7 +152,22 @@ public class Constants {
         public static final int ORDER_CANCELED = 109;
         public static final int ORDER_MATCHED = 110;
         public static final int DEPOSIT_REPORT = 111;
+        public static final int TRANSFER = 112; // 跨分片資金劃轉
+        public static final int ORDER_CREATE_BATCH = 113;
+        public static final int ORDER_CANCEL_BATCH = 114;
+        public static final int CANCEL_ALL = 115;
+        public static final int MD_SUBSCRIBE = 116;   // 行情訂閱（Gateway 本地處理，不進 WAL）
+        public static final int MD_DEPTH_UPDATE = 120;
+        public static final int MD_TRADE = 121;
+        public static final int MD_SNAPSHOT = 122;
         public static final int RESUME = 200;
+        public static final int STATE_HASH = 201;     // 複製流：leader 狀態雜湊，follower 於同一流位置比對
+        public static final int PROMOTE = 202;        // 升主控制：follower 接手 gateway 指令流
+        public static final int WAL_ACK = 203;        // 控制流：撮合已持久化的 gateway 接收進度，gateway 據此釋放 WAL
+        public static final int QUERY_ORDERS = 204;   // 查詢流：一批訂單最新狀態
+        public static final int QUERY_BALANCES = 205; // 查詢流：一批餘額切片最新狀態
+        public static final int QUERY_RESYNC = 206;   // 查詢控制流：查詢端請求全量重送
+        public static final int QUERY_SYNCED = 207;   // 查詢流：全量重送完成，其後皆為增量
     }
 
     /** 
@@ -89,13 +193,51 @@ public class Constants {
       交易對 ID (Symbol) 與其對應資產
      */
     @Getter
-    @RequiredArgsConstructor
     public enum Symbol {
         BTCUSDT(1001, Asset.BTC.getId(), Asset.USDT.getId());
         
         private final int id;
         private final int baseAssetId;
         private final int quoteAssetId;
+        /**
+          價格階梯訂單簿參數 (Price Ladder)：ladderLevels == 0 時使用 RB-Tree 訂單簿；
+          可由 -Dspot.book.ladder.{SYMBOL}=minPrice,tick,levels 覆寫（皆為 SCALE 後的原始單位）
+         */
+        private final long ladderMinPrice;
+        private final long ladderTick;
+        private final int ladderLevels;
+        /** 自成交防護模式，可由 -Dspot.stp.{SYMBOL}=CANCEL_NEWEST|CANCEL_OLDEST|CANCEL_BOTH|DECREMENT 覆寫 */
+        private final StpMode stpMode;
+
+        Symbol(int id, int baseAssetId, int quoteAssetId) {
+            this(id, baseAssetId, quoteAssetId, 0L, 0L, 0);
+        }
+
+        Symbol(int id, int baseAssetId, int quoteAssetId, long ladderMinPrice, long ladderTick, int ladderLevels) {
+            this.id = id;
+            this.baseAssetId = baseAssetId;
+            this.quoteAssetId = quoteAssetId;
+            String override = System.getProperty("spot.book.ladder." + name());
+            if (override != null) {
+                String[] p = override.split(",");
+                if (p.length != 3) throw new IllegalArgumentException("spot.book.ladder." + name() + " expects minPrice,tick,levels");
+                ladderMinPrice = Long.parseLong(p[0].trim());
+                ladderTick = Long.parseLong(p[1].trim());
+                ladderLevels = Integer.parseInt(p[2].trim());
+            }
+            if (ladderLevels < 0 || (ladderLevels > 0 && (ladderTick <= 0 || ladderMinPrice < 0))) {
+                throw new IllegalArgumentException("Invalid ladder config for " + name());
+            }
+            this.ladderMinPrice = ladderMinPrice;
+            this.ladderTick = ladderTick;
+            this.ladderLevels = ladderLevels;
+            this.stpMode = StpMode.valueOf(System.getProperty("spot.stp." + name(), StpMode.CANCEL_NEWEST.name()).trim());
+        }
+
+        /** 是否使用陣列價格階梯訂單簿 */
+        public boolean usesLadder() {
+            return ladderLevels > 0;
+        }
         
         public static Symbol of(int id) {
             for (Symbol s : values()) {
@@ -105,6 +247,20 @@ public class Constants {
         }
     }
 
+    /**
+      自成交防護 (Self-Trade Prevention)：taker 與同用戶 maker 相遇時的處理，皆不產生成交
+     */
+    public enum StpMode {
+        /** 撤銷 taker 剩餘部分，maker 保留 */
+        CANCEL_NEWEST,
+        /** 撤銷 maker，taker 繼續撮合 */
+        CANCEL_OLDEST,
+        /** 雙方皆撤銷 */
+        CANCEL_BOTH,
+        /** 雙方同減 min(剩餘量)，減至 0 的一方撤銷 */
+        DECREMENT
+    }
+
     public static class Matching {
         public static final int ENGINE_BATCH_SIZE = 500;
     }
@@ -128,6 +284,33 @@ public class Constants {
         public static final long ORDER_PROCESSED_COUNT = 14L;
         public static final long REPORT_RECV_COUNT = 16L;
         public static final long MATCHING_REPORT_BACKPRESSURE = 18L;
+        public static final long SHARD_TRANSFER_COUNT = 20L;
+        public static final long SHARD_TRANSFER_REJECTED_COUNT = 21L;
+        public static final long MD_PUBLISH_COUNT = 22L;     // Matching 發布的公開行情訊息數（增量 + 成交 + 快照）
+        public static final long MD_FANOUT_COUNT = 23L;      // Gateway 推送給訂閱者的行情 frame 數
+        // Gateway ingress ring 指標：per-worker 模式以 forShard(key, ringIndex) 區分各 ring
+        public static final long GATEWAY_INGRESS_RING_DEPTH = 24L; // gauge：已發布未消費 slot 數
+        public static final long GATEWAY_INGRESS_DROP_COUNT = 25L; // ring 滿載丟棄數
+        public static final long SELF_TRADE_PREVENTED_COUNT = 26L; // 觸發自成交防護的 maker 次數
+        // 熱備複製指標
+        public static final long REPLICA_FORWARD_DROP_COUNT = 27L;   // leader 複製流背壓逾時丟棄數（follower 將轉為 stale）
+        public static final long REPLICA_HASH_CHECK_COUNT = 28L;     // follower 狀態雜湊比對次數
+        public static final long REPLICA_HASH_MISMATCH_COUNT = 29L;  // follower 狀態雜湊不一致次數
+        // Gateway WAL 保留指標（forShard 區分各分片 WAL）
+        public static final long GATEWAY_WAL_DISK_BYTES = 30L;       // gauge：WAL cycle 檔總大小
+        public static final long GATEWAY_WAL_REPLAY_LAG = 31L;       // gauge：撮合確認位點之後的 WAL 筆數（重連時最多需重播的筆數）
+        public static final long GATEWAY_WAL_RELEASED_CYCLES = 32L;  // 已釋放（刪除 / 歸檔）的 cycle 數
+        // Gateway 慢速連線回報指標
+        public static final long REPORT_SLOW_SESSIONS = 33L;         // gauge：超過 outbound 高水位、回報改入待送佇列的連線數
+        public static final long REPORT_BACKLOG_TOTAL = 34L;         // gauge：所有慢速連線待送回報總數
+        public static final long REPORT_BACKLOG_MAX = 35L;           // gauge：單一連線最大待送回報數
+        public static final long REPORT_CONFLATED_COUNT = 36L;       // 同訂單非終態回報被合併取代數
+        public static final long REPORT_DROPPED_COUNT = 37L;         // 慢速期間丟棄的非終態回報數
+        public static final long REPORT_SLOW_DISCONNECT_COUNT = 38L; // 待送佇列滿載斷線數
+        // 查詢副本資料流指標（matching flusher 端）
+        public static final long QUERY_FEED_RECORD_COUNT = 39L;      // 已發布的訂單 / 餘額記錄數
+        public static final long QUERY_FEED_DROP_COUNT = 40L;        // 發送失敗次數（改待全量重送）
+        public static final long QUERY_FEED_RESYNC_COUNT = 41L;      // 全量重送次數
 
         // 延遲分佈指標 (Latencies - Nanoseconds)
         public static final long LATENCY_MATCHING = 10L;
@@ -190,6 +373,13 @@ public class Constants {
         public static final long MATCHING_GC_HISTORY_START = 400L;
         public static final long GATEWAY_GC_HISTORY_START = 500L;
         public static final int GC_HISTORY_MAX_KEEP = 100;
+
+        /** 分片指標 Key 間距：shard 0 沿用原 Key，shard N 為 key + N * stride */
+        public static final long SHARD_KEY_STRIDE = 10_000L;
+
+        public static long forShard(long key, int shardId) {
+            return key + shardId * SHARD_KEY_STRIDE;
+        }
     }
 
     /**
@@ -198,14 +388,32 @@ public class Constants {
     public static class ChronicleMapEnum {
         public static final String DEFAULT_BASE_DIR = System.getProperty("SPOT_MAP_DIR", "C:/iProject/open.vincentf13/data/spot-exchange/map/");
         public static final String WAL_BASE_DIR = System.getProperty("SPOT_WAL_DIR", "C:/iProject/open.vincentf13/data/spot-exchange/wal/");
+        /** 成交日誌獨立目錄：歷史隨時間成長，不納入啟動預熱 */
+        public static final String TRADE_BASE_DIR = System.getProperty("SPOT_TRADE_DIR", "C:/iProject/open.vincentf13/data/spot-exchange/trades/");
         
         public static final String BALANCES = "balances";
         public static final String USER_ASSETS = "user-assets";
         public static final String ORDERS = "orders";
         public static final String ACTIVE_ORDERS = "active-idx";
         public static final String TRADES = "trades";
+        public static final String TRADE_INDEX = "trade-idx";
         public static final String CIDS = "cid-idx";
         public static final String METADATA = "metadata";
+        public static final String SHARD_TRANSFERS = "shard-transfers";
+        public static final String ENGINE_SNAPSHOT = "engine-snapshot";
+        /** 多 gateway 合併順序日誌（撮合端，每分片一份） */
+        public static final String INGRESS_SEQUENCE = "ingress-seq";
+        public static final String SNAPSHOT_BASE_DIR = System.getProperty("SPOT_SNAPSHOT_DIR", DEFAULT_BASE_DIR + "snapshot/");
+
+        /** 分片專屬檔名：shard 0 沿用原檔名 */
+        public static String forShard(String name, int shardId) {
+            return shardId == 0 ? name : name + "-s" + shardId;
+        }
+
+        /** Gateway 專屬檔名：gateway 0 沿用原檔名，同機多 gateway 的 WAL 互不覆寫 */
+        public static String forGateway(String name, int gatewayId) {
+            return gatewayId == 0 ? name : name + "-g" + gatewayId;
+        }
     }
 
     /** 
@@ -223,11 +431,11 @@ public class Constants {
       Aeron 頻道與串流配置
      */
     public static class AeronChannel {
-        /** 指令流 (Gateway -> Matching) 使用 IPC，加大 Term Buffer 至 256MB */
-        public static final String MATCHING_FLOW = "aeron:ipc?term-length=256M";
+        /** 指令流 (Gateway -> Matching) 使用 IPC，加大 Term Buffer 至 256MB；MTU 8K 讓批次指令仍為單一 fragment */
+        public static final String MATCHING_FLOW = "aeron:ipc?term-length=256M|mtu=8k";
         
-        /** 回報流 (Matching -> Gateway) 使用 IPC，加大 Term Buffer 至 256MB */
-        public static final String REPORT_FLOW = "aeron:ipc?term-length=256M";
+        /** 回報流 (Matching -> Gateway) 使用 IPC，加大 Term Buffer 至 256MB；MTU 8K 容納批次合併回報 */
+        public static final String REPORT_FLOW = "aeron:ipc?term-length=256M|mtu=8k";
         
         /** 統一數據流 ID */
         public static final int DATA_STREAM_ID = 10;
@@ -235,6 +443,49 @@ public class Constants {
         public static final int CONTROL_STREAM_ID = 11;
         /** 回報流 ID (Matching → Gateway 執行回報) */
         public static final int REPORT_STREAM_ID = 12;
+        /** 公開行情流 ID (Matching → Gateway L2 增量 / 成交 / 快照)，與私有回報隔離 */
+        public static final int MARKET_DATA_STREAM_ID = 13;
+        /** 升主控制流 ID (運維 → Follower Matching PROMOTE) */
+        public static final int FAILOVER_CONTROL_STREAM_ID = 14;
+        /** 分片指令流 ID 起點：shard 0 沿用 DATA_STREAM_ID，shard N 為 base + N */
+        public static final int SHARD_DATA_STREAM_BASE = 100;
+        /** Gateway (gatewayId > 0) 回報流 ID 起點：gateway G 為 base + G */
+        public static final int GATEWAY_REPORT_STREAM_BASE = 200;
+        /** Gateway (gatewayId > 0) 指令流 ID 起點：gateway G 的 shard N 為 base + G × 100 + N */
+        public static final int GATEWAY_DATA_STREAM_BASE = 1000;
+        /** 複製流 ID 起點 (Leader → Follower)：shard N 為 base + N */
+        public static final int REPLICATION_STREAM_BASE = 300;
+
+        /** 複製流 (Leader Matching → Follower Matching)：同機預設 IPC，跨主機以 -Dspot.replication.channel 指定 UDP channel */
+        public static final String REPLICATION_FLOW = System.getProperty("spot.replication.channel", "aeron:ipc?term-length=256M|mtu=8k");
+
+        /**
+         * 查詢副本流 (Matching flusher → spot-query)：同機預設 IPC；跨主機以 -Dspot.query.channel 指定查詢主機的 UDP endpoint，
+         * -Dspot.query.control-channel 指定撮合主機的 UDP endpoint（RESYNC 請求）
+         */
+        public static final String QUERY_FLOW = System.getProperty("spot.query.channel", "aeron:ipc?term-length=64M|mtu=8k");
+        public static final String QUERY_CONTROL_FLOW = System.getProperty("spot.query.control-channel", "aeron:ipc?term-length=1M");
+        /** 查詢副本資料流 ID */
+        public static final int QUERY_STREAM_ID = 15;
+        /** 查詢副本控制流 ID (spot-query → Matching RESYNC) */
+        public static final int QUERY_CONTROL_STREAM_ID = 16;
+
+        public static int dataStreamId(int shardId) {
+            return shardId == 0 ? DATA_STREAM_ID : SHARD_DATA_STREAM_BASE + shardId;
+        }
+
+        /** 每個 gateway 對每個分片一條獨立指令流，序號空間互不干擾 */
+        public static int dataStreamId(int shardId, int gatewayId) {
+            return gatewayId == 0 ? dataStreamId(shardId) : GATEWAY_DATA_STREAM_BASE + gatewayId * SHARD_DATA_STREAM_BASE + shardId;
+        }
+
+        public static int reportStreamId(int gatewayId) {
+            return gatewayId == 0 ? REPORT_STREAM_ID : GATEWAY_REPORT_STREAM_BASE + gatewayId;
+        }
+
+        public static int replicationStreamId(int shardId) {
+            return REPLICATION_STREAM_BASE + shardId;
+        }
     }
 
     /**
@@ -12,7 +12,24 @@ public class AeronConstants {
     public static final int AERON_POLL_LIMIT = 1024;
 
     /** RESUME 握手信號的總長度 */
-    public static final int RESUME_SIGNAL_LENGTH = 16;
+    public static final int RESUME_SIGNAL_LENGTH = 20;
+
+    /** RESUME 信號中發起方撮合分片 ID 的偏移量 (佔用原 padding) */
+    public static final int RESUME_SHARD_OFFSET = 4;
+
+    /** RESUME 信號中目標 Gateway ID 的偏移量：控制流由所有 gateway 共用，各自只響應自己的 RESUME */
+    public static final int RESUME_GATEWAY_OFFSET = 16;
+
+    /** WAL_ACK 訊號與 RESUME 同佈局：[0-3] type | [4-7] shard | [8-15] 已持久化 walIndex | [16-19] gateway */
+    public static final int WAL_ACK_SIGNAL_LENGTH = RESUME_SIGNAL_LENGTH;
+
+    /** 複製流 STATE_HASH 訊號長度：[0-3] type | [4-7] shard | [8-15] hash */
+    public static final int STATE_HASH_SIGNAL_LENGTH = 16;
+
+    /** PROMOTE 訊號長度：[0-3] type | [4-7] shard (-1 = 全部分片) | [8-11] force (1 = 忽略雜湊不一致) */
+    public static final int PROMOTE_SIGNAL_LENGTH = 12;
+    public static final int PROMOTE_SHARD_OFFSET = 4;
+    public static final int PROMOTE_FORCE_OFFSET = 8;
 
     /** RESUME 握手信號發送間隔 (ms) */
     public static final int RESUME_SIGNAL_INTERVAL_MS = 200;
@@ -0,0 +1,81 @@
+package open.vincentf13.service.spot.infra.aeron;
+
+import open.vincentf13.service.spot.model.Order;
+import org.agrona.MutableDirectBuffer;
+
+import java.nio.ByteOrder;
+
+/**
+ * 查詢副本流訊息佈局 (Query Feed Layout)，matching flusher 與 spot-query 共用
+ *
+ * 批次訊息：[0-3] type | [4-7] shard | [8-11] count | [12-15] 保留 | count × 固定長度記錄，單一訊息不超過 publication MTU。
+ * - QUERY_ORDERS：訂單記錄 72 bytes；shard 僅供觀測（全量重送為 -1，訂單分片由 orderId 高位決定）
+ * - QUERY_BALANCES：餘額切片記錄 48 bytes，與帳本落盤記錄同序：key (userId << 32 | assetId) | available | frozen | version | lastSeq | lastTradeId
+ * - QUERY_SYNCED：僅 header，count = 0
+ * 控制訊息 QUERY_RESYNC：[0-3] type | [4-7] 保留。
+ *
+ * 所有欄位 little-endian；接收端以 version 單調判斷新舊，重送與增量重疊時可冪等套用。
+ */
+public final class QueryFeedLayout {
+    public static final int HEADER_LENGTH = 16;
+    public static final int SHARD_OFFSET = 4;
+    public static final int COUNT_OFFSET = 8;
+    public static final int RESYNC_SIGNAL_LENGTH = 8;
+
+    // 訂單記錄
+    public static final int ORDER_RECORD_LENGTH = 72;
+    public static final int ORDER_ID = 0;
+    public static final int ORDER_USER_ID = 8;
+    public static final int ORDER_PRICE = 16;
+    public static final int ORDER_QTY = 24;
+    public static final int ORDER_FILLED = 32;
+    public static final int ORDER_VERSION = 40;
+    public static final int ORDER_TIMESTAMP = 48;
+    public static final int ORDER_CLIENT_ORDER_ID = 56;
+    public static final int ORDER_SYMBOL_ID = 64;
+    public static final int ORDER_SIDE = 68;
+    public static final int ORDER_STATUS = 69;
+
+    // 餘額切片記錄
+    public static final int BALANCE_RECORD_LENGTH = 48;
+    public static final int BALANCE_KEY = 0;
+    public static final int BALANCE_AVAILABLE = 8;
+    public static final int BALANCE_FROZEN = 16;
+    public static final int BALANCE_VERSION = 24;
+
+    private static final ByteOrder LE = ByteOrder.LITTLE_ENDIAN;
+
+    public static void putHeader(MutableDirectBuffer buf, int type, int shard, int count) {
+        buf.putInt(0, type, LE);
+        buf.putInt(SHARD_OFFSET, shard, LE);
+        buf.putInt(COUNT_OFFSET, count, LE);
+        buf.putInt(COUNT_OFFSET + 4, 0, LE);
+    }
+
+    public static void putOrder(MutableDirectBuffer buf, int off, Order o) {
+        buf.putLong(off + ORDER_ID, o.getOrderId(), LE);
+        buf.putLong(off + ORDER_USER_ID, o.getUserId(), LE);
+        buf.putLong(off + ORDER_PRICE, o.getPrice(), LE);
+        buf.putLong(off + ORDER_QTY, o.getQty(), LE);
+        buf.putLong(off + ORDER_FILLED, o.getFilled(), LE);
+        buf.putLong(off + ORDER_VERSION, o.getVersion(), LE);
+        buf.putLong(off + ORDER_TIMESTAMP, o.getTimestamp(), LE);
+        buf.putLong(off + ORDER_CLIENT_ORDER_ID, o.getClientOrderId(), LE);
+        buf.putInt(off + ORDER_SYMBOL_ID, o.getSymbolId(), LE);
+        buf.putByte(off + ORDER_SIDE, o.getSide());
+        buf.putByte(off + ORDER_STATUS, o.getStatus());
+        buf.putShort(off + ORDER_STATUS + 1, (short) 0, LE);
+    }
+
+    public static void putBalance(MutableDirectBuffer buf, int off, long key, long available, long frozen,
+                                  long version, long lastSeq, long lastTradeId) {
+        buf.putLong(off + BALANCE_KEY, key, LE);
+        buf.putLong(off + BALANCE_AVAILABLE, available, LE);
+        buf.putLong(off + BALANCE_FROZEN, frozen, LE);
+        buf.putLong(off + BALANCE_VERSION, version, LE);
+        buf.putLong(off + 32, lastSeq, LE);
+        buf.putLong(off + 40, lastTradeId, LE);
+    }
+
+    private QueryFeedLayout() {}
+}
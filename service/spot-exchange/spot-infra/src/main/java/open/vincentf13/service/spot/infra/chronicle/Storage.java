@@ -7,11 +7,16 @@ import net.openhft.chronicle.queue.ChronicleQueue;
 import net.openhft.chronicle.queue.impl.single.SingleChronicleQueueBuilder;
 import open.vincentf13.service.spot.infra.Constants.ChronicleMapEnum;
 import open.vincentf13.service.spot.infra.Constants.ChronicleQueueEnum;
+import open.vincentf13.service.spot.infra.Constants.MatchingConfig;
 import open.vincentf13.service.spot.infra.util.PreTouchUtil;
+import open.vincentf13.service.spot.infra.util.ShardUtil;
 import open.vincentf13.service.spot.model.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 系統存儲中心 (Storage Hub) - 穩定版
@@ -29,46 +34,70 @@ public class Storage {
     }
 
     private final ChronicleMap<LongValue, Order> orders;
-    private final ChronicleMap<LongValue, Trade> trades;
-    private final ChronicleMap<BalanceKey, Balance> balances;
-    private final ChronicleMap<LongValue, LongValue> userAssets;
+    private final TradeJournal[] tradeJournals; // 成交按分片寫入獨立 append-only 日誌
+    // 帳本按撮合分片切分：shard 0 沿用原檔名，shard N 為 "-sN" 後綴
+    private final ChronicleMap<BalanceKey, Balance>[] balances;
+    private final ChronicleMap<LongValue, LongValue>[] userAssets;
+    private final ChronicleMap<LongValue, ShardTransfer> shardTransfers;
     // value 用 LongValue 而非 Boolean — Boolean 不是 BytesMarshallable，
     // ChronicleMap.put 會 fallback Java Serialization 每次 alloc ObjectOutputStream + byte[]
     private final ChronicleMap<LongValue, LongValue> activeOrders;
-    private final ChronicleMap<CidKey, LongValue> cids;
+    // 冪等索引按分片 × 世代 (generation) 切段：clientOrderId 唯一性以分片與去重窗口為界，過期世代整檔刪除
+    private final Map<String, ChronicleMap<CidKey, LongValue>> cidSegments = new ConcurrentHashMap<>();
     private final ChronicleMap<Byte, MsgProgress> msgMetadata;
     private final ChronicleMap<Byte, WalProgress> walMetadata;
     private final ChronicleMap<Long, Long> latestMetrics;
     private final ChronicleMap<Long, Long> tpsHistory;
     private final ChronicleMap<Long, Long> latencyHistory;
+    private final ChronicleMap<Long, byte[]> latencyHistogramHistory;
     private final ChronicleMap<Long, Long> dutyCycleHistory;
     private final ChronicleMap<Long, Long> counterHistory;
     private final ChronicleMap<Long, String> gcEventHistory;
 
-    private final ChronicleQueue gatewaySenderWal;
+    private final ChronicleQueue[] gatewaySenderWal;
+    private final ChronicleQueue[] ingressJournals; // 多 gateway 時撮合端的合併順序日誌，單 gateway 為 null
 
     private Storage() {
         this.closed = false;
         log.info(">>> [STORAGE] 正在啟動 Chronicle 資源加載...");
         try {
             this.orders = createMap(ChronicleMapEnum.ORDERS, LongValue.class, Order.class, 5_000_000, 128);
-            this.trades = createMap(ChronicleMapEnum.TRADES, LongValue.class, Trade.class, 5_000_000, 64);
-            this.balances = createMap(ChronicleMapEnum.BALANCES, BalanceKey.class, Balance.class, 5_000_000, 16, 64);
-            this.userAssets = createMap(ChronicleMapEnum.USER_ASSETS, LongValue.class, LongValue.class, 500_000, 8);
+            this.balances = newMapArray(MatchingConfig.SHARD_COUNT);
+            this.userAssets = newMapArray(MatchingConfig.SHARD_COUNT);
+            for (int shard = 0; shard < MatchingConfig.SHARD_COUNT; shard++) {
+                this.balances[shard] = createMap(ChronicleMapEnum.forShard(ChronicleMapEnum.BALANCES, shard), BalanceKey.class, Balance.class, 5_000_000, 16, 64);
+                this.userAssets[shard] = createMap(ChronicleMapEnum.forShard(ChronicleMapEnum.USER_ASSETS, shard), LongValue.class, LongValue.class, 500_000, 8);
+            }
+            this.shardTransfers = createMap(ChronicleMapEnum.SHARD_TRANSFERS, LongValue.class, ShardTransfer.class, 1_000_000, 64);
             this.activeOrders = createMap(ChronicleMapEnum.ACTIVE_ORDERS, LongValue.class, LongValue.class, 5_000_000, 8);
-            this.cids = createMap(ChronicleMapEnum.CIDS, CidKey.class, LongValue.class, 5_000_000, 16, 8);
-            this.msgMetadata = createMap("msg-" + ChronicleMapEnum.METADATA, Byte.class, MsgProgress.class, 10, 32);
-            this.walMetadata = createMap("wal-" + ChronicleMapEnum.METADATA, Byte.class, WalProgress.class, 10, 32);
+            this.msgMetadata = createMap("msg-" + ChronicleMapEnum.METADATA, Byte.class, MsgProgress.class, 128, 32);
+            this.walMetadata = createMap("wal-" + ChronicleMapEnum.METADATA, Byte.class, WalProgress.class, 128, 32);
             
             // 重要：這些 Map 如果在 Windows 上被多個 Java 進程同時訪問且沒有設置正確的 entries 空間，會拋出 Exception
             this.latestMetrics = createMap("metrics-latest", Long.class, Long.class, 8192, 8, 8);
             this.tpsHistory = createMap("metrics-tps-history", Long.class, Long.class, 86400, 8, 8);
             this.latencyHistory = createMap("metrics-latency-history", Long.class, Long.class, 86400, 8, 8);
+            this.latencyHistogramHistory = createMap("metrics-latency-histogram", Long.class, byte[].class, 86400, 8, 512);
             this.dutyCycleHistory = createMap("metrics-duty-cycle-history", Long.class, Long.class, 86400, 8, 8);
             this.counterHistory = createMap("metrics-counter-history", Long.class, Long.class, 86400, 8, 8);
             this.gcEventHistory = createMap("metrics-gc-event-history", Long.class, String.class, 4096, 8, 256);
             
-            this.gatewaySenderWal = createQueue(ChronicleQueueEnum.CLIENT_TO_GW);
+            this.gatewaySenderWal = new ChronicleQueue[MatchingConfig.SHARD_COUNT];
+            for (int shard = 0; shard < MatchingConfig.SHARD_COUNT; shard++) {
+                this.gatewaySenderWal[shard] = createQueue(ChronicleMapEnum.forShard(
+                        ChronicleMapEnum.forGateway(ChronicleQueueEnum.CLIENT_TO_GW.getPath(), MatchingConfig.GATEWAY_ID), shard));
+            }
+            this.ingressJournals = new ChronicleQueue[MatchingConfig.SHARD_COUNT];
+            if (MatchingConfig.GATEWAY_COUNT > 1) {
+                for (int shard = 0; shard < MatchingConfig.SHARD_COUNT; shard++) {
+                    this.ingressJournals[shard] = createIngressJournal(shard);
+                }
+            }
+            this.tradeJournals = new TradeJournal[MatchingConfig.SHARD_COUNT];
+            for (int shard = 0; shard < MatchingConfig.SHARD_COUNT; shard++) {
+                this.tradeJournals[shard] = createTradeJournal(shard);
+            }
+            migrateLegacyTrades();
 
             // 預熱：讀取所有 mmap 頁面，強迫 OS 分配實體 RAM，消除運行時 Page Fault
             preTouchAll();
@@ -80,20 +109,72 @@ public class Storage {
     }
 
     public ChronicleMap<LongValue, Order> orders() { return orders; }
-    public ChronicleMap<LongValue, Trade> trades() { return trades; }
-    public ChronicleMap<BalanceKey, Balance> balances() { return balances; }
-    public ChronicleMap<LongValue, LongValue> userAssets() { return userAssets; }
+    public TradeJournal tradeJournal(int shardId) { return tradeJournals[shardId]; }
+    public ChronicleMap<BalanceKey, Balance> balances() { return balances[0]; }
+    public ChronicleMap<BalanceKey, Balance> balances(int shardId) { return balances[shardId]; }
+    public ChronicleMap<LongValue, LongValue> userAssets() { return userAssets[0]; }
+    public ChronicleMap<LongValue, LongValue> userAssets(int shardId) { return userAssets[shardId]; }
+    public ChronicleMap<LongValue, ShardTransfer> shardTransfers() { return shardTransfers; }
     public ChronicleMap<LongValue, LongValue> activeOrders() { return activeOrders; }
-    public ChronicleMap<CidKey, LongValue> clientOrderIdMap() { return cids; }
     public ChronicleMap<Byte, MsgProgress> msgProgressMetadata() { return msgMetadata; }
     public ChronicleMap<Byte, WalProgress> walMetadata() { return walMetadata; }
     public ChronicleMap<Long, Long> latestMetrics() { return latestMetrics; }
     public ChronicleMap<Long, Long> tpsHistory() { return tpsHistory; }
     public ChronicleMap<Long, Long> latencyHistory() { return latencyHistory; }
+    public ChronicleMap<Long, byte[]> latencyHistogramHistory() { return latencyHistogramHistory; }
     public ChronicleMap<Long, Long> dutyCycleHistory() { return dutyCycleHistory; }
     public ChronicleMap<Long, Long> counterHistory() { return counterHistory; }
     public ChronicleMap<Long, String> gcEventHistory() { return gcEventHistory; }
-    public ChronicleQueue gatewaySenderWal() { return gatewaySenderWal; }
+    public ChronicleQueue gatewaySenderWal() { return gatewaySenderWal[0]; }
+    public ChronicleQueue gatewaySenderWal(int shardId) { return gatewaySenderWal[shardId]; }
+    public ChronicleQueue ingressJournal(int shardId) { return ingressJournals[shardId]; }
+
+    // ========== 冪等 CID 世代段 ==========
+
+    private static String cidSegmentPrefix(int shardId) {
+        return ChronicleMapEnum.forShard(ChronicleMapEnum.CIDS, shardId) + "-gen";
+    }
+
+    /** 開啟（不存在則建立）指定世代段；每段容量即世代的訂單數上限 */
+    public ChronicleMap<CidKey, LongValue> cidSegment(int shardId, long generation) {
+        return cidSegments.compute(cidSegmentPrefix(shardId) + generation, (name, map) ->
+                map != null && !map.isClosed() && map.file().exists() ? map
+                        : createMap(name, CidKey.class, LongValue.class, MatchingConfig.CID_GENERATION_ORDERS, 16, 8));
+    }
+
+    /** 磁碟上現存的世代段（升序） */
+    public long[] cidSegmentGenerations(int shardId) {
+        String prefix = cidSegmentPrefix(shardId);
+        String[] names = new File(ChronicleMapEnum.DEFAULT_BASE_DIR).list((dir, name) -> name.startsWith(prefix));
+        if (names == null) return new long[0];
+        return Arrays.stream(names).map(n -> n.substring(prefix.length()))
+                .filter(n -> !n.isEmpty() && n.chars().allMatch(Character::isDigit))
+                .mapToLong(Long::parseLong).sorted().toArray();
+    }
+
+    /** 關閉並刪除世代段（已超出去重窗口） */
+    public void dropCidSegment(int shardId, long generation) {
+        String name = cidSegmentPrefix(shardId) + generation;
+        ChronicleMap<CidKey, LongValue> map = cidSegments.remove(name);
+        safeClose(map);
+        File file = new File(ChronicleMapEnum.DEFAULT_BASE_DIR + name);
+        if (file.exists() && !file.delete()) log.warn("無法刪除過期 CID 世代段: {}", file.getAbsolutePath());
+    }
+
+    /** 查詢用途：由新至舊查詢各世代段 */
+    public LongValue findClientOrderId(int shardId, CidKey key) {
+        long[] generations = cidSegmentGenerations(shardId);
+        for (int i = generations.length - 1; i >= 0; i--) {
+            LongValue orderId = cidSegment(shardId, generations[i]).get(key);
+            if (orderId != null) return orderId;
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> ChronicleMap<K, V>[] newMapArray(int size) {
+        return (ChronicleMap<K, V>[]) new ChronicleMap[size];
+    }
 
     // 輔助方法：5 個引數的重載
     private <K, V> ChronicleMap<K, V> createMap(Object name, Class<K> keyCls, Class<V> valCls, int entries, int valSize) {
@@ -129,16 +210,79 @@ public class Storage {
         }
     }
 
-    private ChronicleQueue createQueue(ChronicleQueueEnum q) {
+    private ChronicleQueue createQueue(String path) {
         String dir = ChronicleMapEnum.WAL_BASE_DIR;
         new File(dir).mkdirs();
-        return SingleChronicleQueueBuilder.single(dir + q.getPath())
+        return SingleChronicleQueueBuilder.single(dir + path)
                 .rollCycle(net.openhft.chronicle.queue.RollCycles.FAST_DAILY)
                 .blockSize(512 << 20) // 512MB 預分配塊，覆蓋整個 benchmark 週期避免 block 切換 page fault
                 .syncMode(SyncMode.SYNC) // 每筆 appender close 時 msync+fsync，保證 crash durability
                 .build();
     }
 
+    /** 成交日誌不需逐筆 fsync：崩潰遺失的尾段由快照恢復後重播重新產生 */
+    private TradeJournal createTradeJournal(int shardId) {
+        String dir = ChronicleMapEnum.TRADE_BASE_DIR;
+        new File(dir).mkdirs();
+        ChronicleQueue queue = SingleChronicleQueueBuilder.single(dir + ChronicleMapEnum.forShard(ChronicleMapEnum.TRADES, shardId))
+                .rollCycle(net.openhft.chronicle.queue.RollCycles.FAST_DAILY)
+                .blockSize(64 << 20)
+                .build();
+        // 稀疏索引：每 bucket 一筆，1M bucket 覆蓋 40 億筆成交
+        ChronicleMap<LongValue, LongValue> index = createMap(ChronicleMapEnum.forShard(ChronicleMapEnum.TRADE_INDEX, shardId),
+                LongValue.class, LongValue.class, 1_000_000, 8);
+        return new TradeJournal(shardId, queue, index);
+    }
+
+    /**
+     * 升級遷移：舊版逐筆 ChronicleMap (map 目錄下的 trades) 依 tradeId 遞增匯入各分片成交日誌，完成後改名為 .migrated。
+     * 只排序 tradeId，成交逐筆以 getUsing 讀出；日誌略過 ≤ 尾端的 tradeId，中途崩潰後重啟可接續。
+     * 匯入後 tradeId 計數器下限與單筆查詢皆涵蓋舊成交。
+     */
+    private void migrateLegacyTrades() {
+        File legacyFile = new File(ChronicleMapEnum.DEFAULT_BASE_DIR + ChronicleMapEnum.TRADES);
+        if (!legacyFile.isFile()) return;
+        long t0 = System.nanoTime();
+        long imported = 0;
+        ChronicleMap<LongValue, Trade> legacy = createMap(ChronicleMapEnum.TRADES, LongValue.class, Trade.class, 5_000_000, 64);
+        try {
+            long[][] idsByShard = new long[MatchingConfig.SHARD_COUNT][];
+            int[] counts = new int[MatchingConfig.SHARD_COUNT];
+            Arrays.setAll(idsByShard, i -> new long[1024]);
+            legacy.forEach((k, t) -> {
+                int shard = ShardUtil.shardOfOrder(t.getTradeId());
+                if (counts[shard] == idsByShard[shard].length) idsByShard[shard] = Arrays.copyOf(idsByShard[shard], counts[shard] << 1);
+                idsByShard[shard][counts[shard]++] = t.getTradeId();
+            });
+            LongValue key = new LongValue();
+            Trade trade = new Trade();
+            for (int shard = 0; shard < MatchingConfig.SHARD_COUNT; shard++) {
+                long[] ids = idsByShard[shard];
+                Arrays.sort(ids, 0, counts[shard]);
+                for (int i = 0; i < counts[shard]; i++) {
+                    key.set(ids[i]);
+                    if (legacy.getUsing(key, trade) != null && tradeJournals[shard].append(trade)) imported++;
+                }
+                tradeJournals[shard].releaseAppender();
+            }
+        } finally {
+            safeClose(legacy);
+        }
+        File migrated = new File(legacyFile.getPath() + ".migrated");
+        if (!legacyFile.renameTo(migrated)) log.warn("舊版成交 Map 無法改名，下次啟動將再次略過已匯入成交: {}", legacyFile.getAbsolutePath());
+        log.info(">>> [STORAGE] 舊版成交 Map 已匯入成交日誌：{} 筆，耗時 {}ms", imported, (System.nanoTime() - t0) / 1_000_000);
+    }
+
+    /** 合併順序日誌由 matching thread 逐筆追加，不逐筆 fsync：與 ChronicleMap 狀態同為 mmap 耐久等級，狀態不會超前日誌 */
+    private ChronicleQueue createIngressJournal(int shardId) {
+        String dir = ChronicleMapEnum.WAL_BASE_DIR;
+        new File(dir).mkdirs();
+        return SingleChronicleQueueBuilder.single(dir + ChronicleMapEnum.forShard(ChronicleMapEnum.INGRESS_SEQUENCE, shardId))
+                .rollCycle(net.openhft.chronicle.queue.RollCycles.FAST_DAILY)
+                .blockSize(64 << 20)
+                .build();
+    }
+
     private void preTouchAll() {
         long t0 = System.nanoTime();
         File mapDir = new File(ChronicleMapEnum.DEFAULT_BASE_DIR);
@@ -155,11 +299,16 @@ public class Storage {
         synchronized (this) {
             if (closed) return;
             closed = true;
-            safeClose(orders); safeClose(trades); safeClose(balances); safeClose(userAssets);
-            safeClose(activeOrders); safeClose(cids);
+            safeClose(orders);
+            for (var m : balances) safeClose(m);
+            for (var m : userAssets) safeClose(m);
+            for (var m : cidSegments.values()) safeClose(m);
+            safeClose(shardTransfers); safeClose(activeOrders);
             safeClose(msgMetadata); safeClose(walMetadata); safeClose(latestMetrics);
-            safeClose(tpsHistory); safeClose(latencyHistory); safeClose(dutyCycleHistory); safeClose(counterHistory); safeClose(gcEventHistory);
-            if (gatewaySenderWal != null) gatewaySenderWal.close();
+            safeClose(tpsHistory); safeClose(latencyHistory); safeClose(latencyHistogramHistory); safeClose(dutyCycleHistory); safeClose(counterHistory); safeClose(gcEventHistory);
+            for (ChronicleQueue q : gatewaySenderWal) if (q != null) q.close();
+            for (ChronicleQueue q : ingressJournals) if (q != null) q.close();
+            for (TradeJournal j : tradeJournals) if (j != null) j.close();
             INSTANCE = null;
         }
     }
@@ -0,0 +1,122 @@
+package open.vincentf13.service.spot.infra.chronicle;
+
+import net.openhft.chronicle.map.ChronicleMap;
+import net.openhft.chronicle.queue.ChronicleQueue;
+import net.openhft.chronicle.queue.ExcerptAppender;
+import net.openhft.chronicle.queue.ExcerptTailer;
+import net.openhft.chronicle.queue.TailerDirection;
+import net.openhft.chronicle.wire.DocumentContext;
+import open.vincentf13.service.spot.infra.util.ShardUtil;
+import open.vincentf13.service.spot.model.Trade;
+
+/**
+ * 成交日誌 (Trade Journal)
+ *
+ * 成交只追加不修改：每分片一個 Chronicle Queue（每日滾動），由 flusher thread 依 tradeId 遞增順序寫入固定 48-byte 記錄，
+ * 取代每筆成交一次 ChronicleMap 雜湊寫入與固定 entries 上限。
+ *
+ * - 稀疏索引：每 {@code 1 << INDEX_SHIFT} 個 tradeId 記錄一次 bucket → queue index，查詢最多順掃兩個 bucket
+ * - 冪等：快照恢復後重播重新產生的成交 (tradeId ≤ 尾端) 直接略過，與原 Map 覆寫語義一致
+ * - 尾端 tradeId 為 O(1) 反向讀取，供冷啟動對齊 tradeId 計數器
+ *
+ * 升級時舊版 trades Map 由 {@link Storage} 於啟動執行緒匯入（flusher 啟動前），之後即無舊資料讀取路徑。
+ *
+ * 寫入端 (append) 僅限 flusher thread；查詢端 (find / readLastTradeId) 每次建立獨立 tailer，可跨執行緒 / 跨進程。
+ */
+public class TradeJournal {
+    private static final int INDEX_SHIFT = 12; // 4096 筆一個 bucket
+
+    private final int shardId;
+    private final ChronicleQueue queue;
+    private final ChronicleMap<LongValue, LongValue> index;
+
+    // flusher thread 專用
+    private ExcerptAppender appender;
+    private long lastTradeId;
+    private long lastIndexedBucket;
+    private final LongValue indexKey = new LongValue();
+    private final LongValue indexValue = new LongValue();
+
+    TradeJournal(int shardId, ChronicleQueue queue, ChronicleMap<LongValue, LongValue> index) {
+        this.shardId = shardId;
+        this.queue = queue;
+        this.index = index;
+        this.lastTradeId = readLastTradeId();
+        // 尾端 bucket 若因崩潰未寫入索引，保持未索引狀態：查詢會退回前一 bucket 起點
+        long tailBucket = bucketOf(lastTradeId);
+        indexKey.set(tailBucket);
+        this.lastIndexedBucket = lastTradeId > ShardUtil.idBase(shardId) && index.containsKey(indexKey) ? tailBucket : -1;
+    }
+
+    // ========== 寫入 (flusher thread) ==========
+
+    /** 依 tradeId 遞增順序呼叫；已落盤的 tradeId 略過，回傳是否寫入 */
+    public boolean append(Trade t) {
+        long tradeId = t.getTradeId();
+        if (tradeId <= lastTradeId) return false;
+        if (appender == null) appender = queue.acquireAppender();
+        long queueIndex;
+        try (DocumentContext dc = appender.writingDocument()) {
+            t.writeMarshallable(dc.wire().bytes());
+            queueIndex = dc.index();
+        }
+        lastTradeId = tradeId;
+        long bucket = bucketOf(tradeId);
+        if (bucket != lastIndexedBucket) {
+            indexKey.set(bucket);
+            indexValue.set(queueIndex);
+            ChronicleMapUtil.putNoRead(index, indexKey, indexValue);
+            lastIndexedBucket = bucket;
+        }
+        return true;
+    }
+
+    /** 啟動執行緒匯入舊資料後呼叫：appender 綁定取得它的執行緒，留給 flusher 自行取得 */
+    void releaseAppender() {
+        appender = null;
+    }
+
+    // ========== 查詢 ==========
+
+    /** 日誌尾端 tradeId；空日誌回傳 0 */
+    public long readLastTradeId() {
+        ExcerptTailer tailer = queue.createTailer().direction(TailerDirection.BACKWARD).toEnd();
+        try (DocumentContext dc = tailer.readingDocument()) {
+            return dc.isPresent() ? dc.wire().bytes().readLong() : 0L;
+        } finally {
+            tailer.close();
+        }
+    }
+
+    /** 以 tradeId 查詢成交，找到時填入 out 並回傳 true（查詢用途，非熱路徑） */
+    public boolean find(long tradeId, Trade out) {
+        if (!ShardUtil.ownsId(shardId, tradeId)) return false;
+        long bucket = bucketOf(tradeId);
+        LongValue start = index.get(new LongValue(bucket));
+        // 本 bucket 未索引（崩潰遺失）時退回前一 bucket 起點，兩者皆無則自頭掃描
+        if (start == null && bucket > 0) start = index.get(new LongValue(bucket - 1));
+        ExcerptTailer tailer = queue.createTailer();
+        try {
+            if (start == null || !tailer.moveToIndex(start.getValue())) tailer.toStart();
+            while (true) {
+                try (DocumentContext dc = tailer.readingDocument()) {
+                    if (!dc.isPresent()) return false;
+                    out.readMarshallable(dc.wire().bytes());
+                }
+                if (out.getTradeId() == tradeId) return true;
+                if (out.getTradeId() > tradeId) return false;
+            }
+        } finally {
+            tailer.close();
+        }
+    }
+
+    private long bucketOf(long tradeId) {
+        return (tradeId - ShardUtil.idBase(shardId)) >>> INDEX_SHIFT;
+    }
+
+    void close() {
+        queue.close();
+        if (!index.isClosed()) index.close();
+    }
+}
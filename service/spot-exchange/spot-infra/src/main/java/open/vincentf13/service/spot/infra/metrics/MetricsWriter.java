@@ -4,10 +4,14 @@ import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import net.openhft.chronicle.map.ChronicleMap;
+import open.vincentf13.service.spot.infra.Constants.MatchingConfig;
 import open.vincentf13.service.spot.infra.Constants.MetricsKey;
 import open.vincentf13.service.spot.infra.chronicle.Storage;
+import org.HdrHistogram.Histogram;
 import org.springframework.stereotype.Component;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -28,6 +32,9 @@ public class MetricsWriter {
     // 延遲歷史 key 編碼：metricKey * KEY_UNIT + percentile * PERCENTILE_UNIT + epochSecond
     private static final long KEY_UNIT = 1_000_000_000_000_000L;
     private static final long PERCENTILE_UNIT = 1_000_000_000_000L;
+    // 直方圖歷史 key 編碼：metricKey * HISTOGRAM_KEY_UNIT + epochSecond
+    public static final long HISTOGRAM_KEY_UNIT = 1_000_000_000_000L;
+    private ByteBuffer histogramBuffer = ByteBuffer.allocate(8192); // 僅 metrics-writer 線程存取
 
     // Duty cycle 歷史 key 編碼：dutyCycleKey * DUTY_KEY_UNIT + epochSecond
     private static final long DUTY_KEY_UNIT = 1_000_000_000_000L;
@@ -49,6 +56,8 @@ public class MetricsWriter {
         MetricsKey.ORDER_REJECTED_COUNT,
         MetricsKey.ORDER_DUPLICATE_COUNT,
         MetricsKey.REPORT_RECV_COUNT,
+        MetricsKey.SHARD_TRANSFER_COUNT,
+        MetricsKey.SHARD_TRANSFER_REJECTED_COUNT,
     };
 
     private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
@@ -86,16 +95,27 @@ public class MetricsWriter {
     private void flushLatencies(Storage s, long now) {
         long epochSec = now / 1000;
         ChronicleMap<Long, Long> map = s.latencyHistory();
-        StaticMetricsHolder.snapshotLatencyAndReset().forEach((key, snap) -> {
+        ChronicleMap<Long, byte[]> histograms = s.latencyHistogramHistory();
+        StaticMetricsHolder.drainLatency((key, h) -> {
             long base = key * KEY_UNIT;
-            map.put(base + MetricsKey.P50 * PERCENTILE_UNIT + epochSec, snap.p50());
-            map.put(base + MetricsKey.P90 * PERCENTILE_UNIT + epochSec, snap.p90());
-            map.put(base + MetricsKey.P99 * PERCENTILE_UNIT + epochSec, snap.p99());
-            map.put(base + MetricsKey.P999 * PERCENTILE_UNIT + epochSec, snap.p999());
-            map.put(base + MetricsKey.MAX * PERCENTILE_UNIT + epochSec, snap.max());
+            map.put(base + MetricsKey.P50 * PERCENTILE_UNIT + epochSec, h.getValueAtPercentile(50.0));
+            map.put(base + MetricsKey.P90 * PERCENTILE_UNIT + epochSec, h.getValueAtPercentile(90.0));
+            map.put(base + MetricsKey.P99 * PERCENTILE_UNIT + epochSec, h.getValueAtPercentile(99.0));
+            map.put(base + MetricsKey.P999 * PERCENTILE_UNIT + epochSec, h.getValueAtPercentile(99.9));
+            map.put(base + MetricsKey.MAX * PERCENTILE_UNIT + epochSec, h.getMaxValue());
+            // 完整直方圖：壓縮後落盤，供跨秒 / 跨節點合併後重算任意分位數
+            histograms.put(key * HISTOGRAM_KEY_UNIT + epochSec, encode(h));
         });
     }
 
+    private byte[] encode(Histogram h) {
+        int capacity = h.getNeededByteBufferCapacity();
+        if (histogramBuffer.capacity() < capacity) histogramBuffer = ByteBuffer.allocate(capacity);
+        histogramBuffer.clear();
+        int len = h.encodeIntoCompressedByteBuffer(histogramBuffer);
+        return Arrays.copyOf(histogramBuffer.array(), len);
+    }
+
     private void flushTps(Storage s, long now) {
         AtomicLong count = StaticMetricsHolder.values().get(MetricsKey.ORDER_PROCESSED_COUNT);
         if (count != null) s.tpsHistory().put(now, count.get());
@@ -104,9 +124,13 @@ public class MetricsWriter {
     private void flushDutyCycles(Storage s, long now) {
         long epochSec = now / 1000;
         ChronicleMap<Long, Long> map = s.dutyCycleHistory();
-        for (long dutyKey : DUTY_CYCLE_KEYS) {
-            AtomicLong v = StaticMetricsHolder.values().get(dutyKey);
-            if (v != null) map.put(dutyKey * DUTY_KEY_UNIT + epochSec, v.get());
+        for (long baseKey : DUTY_CYCLE_KEYS) {
+            // 分片 Worker 的 duty key 為 baseKey + shard * stride，未啟用的分片無值自動略過
+            for (int shard = 0; shard < MatchingConfig.SHARD_COUNT; shard++) {
+                long dutyKey = MetricsKey.forShard(baseKey, shard);
+                AtomicLong v = StaticMetricsHolder.values().get(dutyKey);
+                if (v != null) map.put(dutyKey * DUTY_KEY_UNIT + epochSec, v.get());
+            }
         }
     }
 
@@ -1,23 +1,29 @@
 package open.vincentf13.service.spot.infra.metrics;
 
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.SingleWriterRecorder;
+
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.zip.DataFormatException;
 
 /**
  * 指標靜態門面
  * 直接持有 AtomicLong Map，消除 Spring 初始化時序問題。
- * 延遲指標使用 lock-free 環形緩衝區，消除 synchronized 與 array resize GC。
+ * 延遲指標使用每執行緒 HdrHistogram 記錄器，預先註冊取得 handle，記錄路徑無 Map 查詢、無鎖、不分配。
  */
 public class StaticMetricsHolder {
 
     private static final ConcurrentHashMap<Long, AtomicLong> VALUES = new ConcurrentHashMap<>();
-    private static final ConcurrentHashMap<Long, LatencyWindow> LATENCY_WINDOWS = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Long, LatencyChannel> LATENCY_CHANNELS = new ConcurrentHashMap<>();
 
     // GC 事件緩衝：GC notification thread 寫入，MetricsWriter 批次刷盤
     public record GcEvent(long key, String meta) {}
@@ -48,75 +54,71 @@ public class StaticMetricsHolder {
         setGauge(currentKey, cpuId);
     }
 
-    public static void recordLatency(long key, long nanos) {
-        LATENCY_WINDOWS.computeIfAbsent(key, k -> new LatencyWindow()).record(nanos);
+    /**
+     * 取得延遲記錄器 handle：於 hot thread 擁有者建構時呼叫一次並持有，記錄路徑不再查 Map。
+     * 同一 key 可由多個執行緒（如各分片 sender）各自註冊，快照時合併。
+     */
+    public static LatencyRecorder latencyRecorder(long key) {
+        LatencyRecorder recorder = new LatencyRecorder();
+        LATENCY_CHANNELS.computeIfAbsent(key, k -> new LatencyChannel()).recorders.add(recorder);
+        return recorder;
     }
 
     public static Map<Long, AtomicLong> values() { return VALUES; }
 
-    public static Map<Long, LatencySnapshot> snapshotLatencyAndReset() {
-        Map<Long, LatencySnapshot> snapshots = new HashMap<>();
-        LATENCY_WINDOWS.forEach((key, window) -> {
-            LatencySnapshot snapshot = window.snapshotAndReset();
-            if (snapshot != null) {
-                snapshots.put(key, snapshot);
-            }
+    /**
+     * 交換所有記錄器的區間直方圖，按 key 合併後交給 consumer（僅含本區間有樣本的 key）。
+     * Histogram 為各 key 重用的合併緩衝，僅於回呼內有效；加鎖保證 reset 與週期上報不會交錯。
+     */
+    public static synchronized void drainLatency(BiConsumer<Long, Histogram> consumer) {
+        LATENCY_CHANNELS.forEach((key, channel) -> {
+            Histogram merged = channel.swapAndMerge();
+            if (merged != null) consumer.accept(key, merged);
         });
-        return snapshots;
     }
 
-    public record LatencySnapshot(long p50, long p90, long p99, long p999, long max) {}
+    /** 解碼 MetricsWriter 落盤的壓縮直方圖，可跨秒 / 跨節點以 {@link Histogram#add} 合併 */
+    public static Histogram decodeHistogram(byte[] compressed) {
+        try {
+            return Histogram.decodeFromCompressedByteBuffer(ByteBuffer.wrap(compressed), 0);
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupted latency histogram", e);
+        }
+    }
 
     /**
-     * Lock-free 環形延遲採樣窗口
+     * 單寫者延遲記錄器 (HdrHistogram SingleWriterRecorder)
      *
-     * record() 由單一 hot-path 線程調用 (matching/gateway worker)，無鎖。
-     * snapshotAndReset() 由 metrics 上報線程每秒調用一次。
-     * 透過 volatile writePos 保證跨線程可見性，消除 synchronized。
-     * 固定 64K slots 預分配，消除 array resize GC。
+     * record() 由持有 handle 的單一 hot thread 調用，wait-free 且不分配；
+     * 區間交換由 metrics 上報線程執行，回收上一輪直方圖重用。
+     * 記錄範圍 0 ~ {@link #HIGHEST_TRACKABLE_NS}，2 位有效數字（相對誤差 1%），超出範圍截斷。
      */
-    static class LatencyWindow {
-        private static final int CAPACITY = 1 << 16; // 65536
-        private static final int MASK = CAPACITY - 1;
-        private final long[] ring = new long[CAPACITY];
-        private final long[] reusableSnapshot = new long[CAPACITY]; // 預配 snapshot 緩衝，避免每秒 new long[]
-        private volatile int writePos = 0;
-        private int snapshotPos = 0; // 僅 snapshot 線程寫入
-
-        void record(long nanos) {
-            ring[writePos & MASK] = nanos;
-            writePos++; // volatile write，確保 snapshot 線程可見
-        }
+    public static final class LatencyRecorder {
+        static final long HIGHEST_TRACKABLE_NS = TimeUnit.SECONDS.toNanos(60);
+        static final int SIGNIFICANT_DIGITS = 2;
 
-        LatencySnapshot snapshotAndReset() {
-            int wp = writePos;
-            int count = wp - snapshotPos;
-            if (count <= 0) return null;
-            if (count > CAPACITY) {
-                // 溢出：僅取最近 CAPACITY 筆
-                snapshotPos = wp - CAPACITY;
-                count = CAPACITY;
-            }
+        private final SingleWriterRecorder recorder = new SingleWriterRecorder(HIGHEST_TRACKABLE_NS, SIGNIFICANT_DIGITS);
+        private Histogram interval; // 僅 snapshot 線程存取
 
-            // 重用預配 buffer；只排序與訪問 [0, count) 範圍，避免每秒 new long[]
-            long[] copy = reusableSnapshot;
-            for (int i = 0; i < count; i++) {
-                copy[i] = ring[(snapshotPos + i) & MASK];
-            }
-            snapshotPos = wp;
-
-            Arrays.sort(copy, 0, count);
-            return new LatencySnapshot(
-                    percentile(copy, count, 0.50d),
-                    percentile(copy, count, 0.90d),
-                    percentile(copy, count, 0.99d),
-                    percentile(copy, count, 0.999d),
-                    copy[count - 1]);
+        private LatencyRecorder() {}
+
+        public void record(long nanos) {
+            recorder.recordValue(nanos < 0 ? 0 : Math.min(nanos, HIGHEST_TRACKABLE_NS));
         }
+    }
+
+    /** 同一 key 的所有記錄器與其合併緩衝 */
+    private static final class LatencyChannel {
+        final List<LatencyRecorder> recorders = new CopyOnWriteArrayList<>();
+        final Histogram merged = new Histogram(LatencyRecorder.HIGHEST_TRACKABLE_NS, LatencyRecorder.SIGNIFICANT_DIGITS);
 
-        private static long percentile(long[] sorted, int len, double ratio) {
-            int index = (int) Math.ceil(len * ratio) - 1;
-            return sorted[Math.max(0, Math.min(index, len - 1))];
+        Histogram swapAndMerge() {
+            merged.reset();
+            for (LatencyRecorder r : recorders) {
+                r.interval = r.recorder.getIntervalHistogram(r.interval);
+                merged.add(r.interval);
+            }
+            return merged.getTotalCount() > 0 ? merged : null;
         }
     }
 }
@@ -35,6 +35,10 @@ public class ThreadContext {
     private OrderCreateCommand orderCreateCommand;
     private OrderCancelCommand orderCancelCommand;
     private DepositCommand depositCommand;
+    private TransferCommand transferCommand;
+    private OrderCreateBatchCommand orderCreateBatchCommand;
+    private OrderCancelBatchCommand orderCancelBatchCommand;
+    private CancelAllCommand cancelAllCommand;
 
     private ThreadContext() {
         PointerBytesStore pbs = new PointerBytesStore();
@@ -46,4 +50,8 @@ public class ThreadContext {
     public OrderCreateCommand getOrderCreateCommand() { if (orderCreateCommand == null) orderCreateCommand = new OrderCreateCommand(); return orderCreateCommand; }
     public OrderCancelCommand getOrderCancelCommand() { if (orderCancelCommand == null) orderCancelCommand = new OrderCancelCommand(); return orderCancelCommand; }
     public DepositCommand getDepositCommand() { if (depositCommand == null) depositCommand = new DepositCommand(); return depositCommand; }
+    public TransferCommand getTransferCommand() { if (transferCommand == null) transferCommand = new TransferCommand(); return transferCommand; }
+    public OrderCreateBatchCommand getOrderCreateBatchCommand() { if (orderCreateBatchCommand == null) orderCreateBatchCommand = new OrderCreateBatchCommand(); return orderCreateBatchCommand; }
+    public OrderCancelBatchCommand getOrderCancelBatchCommand() { if (orderCancelBatchCommand == null) orderCancelBatchCommand = new OrderCancelBatchCommand(); return orderCancelBatchCommand; }
+    public CancelAllCommand getCancelAllCommand() { if (cancelAllCommand == null) cancelAllCommand = new CancelAllCommand(); return cancelAllCommand; }
 }
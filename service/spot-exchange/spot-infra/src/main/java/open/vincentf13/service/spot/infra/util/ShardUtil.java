@@ -0,0 +1,37 @@
+package open.vincentf13.service.spot.infra.util;
+
+import open.vincentf13.service.spot.infra.Constants.MatchingConfig;
+import open.vincentf13.service.spot.infra.Constants.Symbol;
+
+/**
+ * 撮合分片路由 (Shard Routing)
+ *
+ * Gateway 與 Matching 共用同一套純函數，保證兩端對「指令屬於哪個分片」判斷一致：
+ * - 交易對依 Symbol 宣告順序輪轉分配 (ordinal % SHARD_COUNT)
+ * - orderId / tradeId 高 8 bits 為分片 ID，撤單僅憑 orderId 即可路由
+ */
+public class ShardUtil {
+
+    /** 交易對所屬分片；未知交易對交給 shard 0，由撮合端回報拒絕 */
+    public static int shardOfSymbol(int symbolId) {
+        Symbol s = Symbol.of(symbolId);
+        return s == null ? 0 : s.ordinal() % MatchingConfig.SHARD_COUNT;
+    }
+
+    /** 由 orderId 高位解出所屬分片；超出範圍 (偽造 ID) 交給 shard 0 判定不存在 */
+    public static int shardOfOrder(long orderId) {
+        int shardId = (int) (orderId >>> MatchingConfig.SHARD_ID_SHIFT);
+        return shardId < MatchingConfig.SHARD_COUNT ? shardId : 0;
+    }
+
+    /** 分片 ID 空間起點：shard N 配發的 orderId / tradeId 皆大於此值 */
+    public static long idBase(int shardId) {
+        return (long) shardId << MatchingConfig.SHARD_ID_SHIFT;
+    }
+
+    public static boolean ownsId(int shardId, long id) {
+        return (id >>> MatchingConfig.SHARD_ID_SHIFT) == shardId;
+    }
+
+    private ShardUtil() {}
+}
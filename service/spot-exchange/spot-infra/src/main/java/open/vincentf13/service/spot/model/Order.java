@@ -1,6 +1,8 @@
 package open.vincentf13.service.spot.model;
 
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
 import net.openhft.chronicle.bytes.BytesIn;
 import net.openhft.chronicle.bytes.BytesMarshallable;
 import net.openhft.chronicle.bytes.BytesOut;
@@ -24,6 +26,12 @@ public class Order implements BytesMarshallable {
     private byte side; // 0=BUY, 1=SELL
     private byte status; // 0=NEW, 1=PARTIAL, 2=FILLED, 3=CANCELED
 
+    // 價格階梯訂單簿的侵入式雙向鏈結（僅內存，不落盤、不參與 copyFrom）
+    @EqualsAndHashCode.Exclude @ToString.Exclude
+    private transient Order levelPrev;
+    @EqualsAndHashCode.Exclude @ToString.Exclude
+    private transient Order levelNext;
+
     public void fill(long orderId, long userId, int symbolId, long price, long qty, byte side, long clientOrderId, long timestamp, long gwSeq, long frozen) {
         this.orderId = orderId;
         this.userId = userId;
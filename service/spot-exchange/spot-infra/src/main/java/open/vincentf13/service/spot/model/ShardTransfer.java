@@ -0,0 +1,62 @@
+package open.vincentf13.service.spot.model;
+
+import lombok.Data;
+import net.openhft.chronicle.bytes.BytesIn;
+import net.openhft.chronicle.bytes.BytesMarshallable;
+import net.openhft.chronicle.bytes.BytesOut;
+
+/**
+ 跨分片資金劃轉日誌 (Shard Transfer Journal Entry)
+
+ 來源分片扣款後寫入 PENDING，目標分片入帳後改為 CREDITED 並記錄入帳後的餘額版本；
+ 冷啟動時以 creditVersion 對照磁碟餘額判斷入帳是否已落盤，保證 exactly-once 交接。
+ */
+@Data
+public class ShardTransfer implements BytesMarshallable {
+    public static final byte PENDING = 0;
+    public static final byte CREDITED = 1;
+
+    private long transferId;
+    private long userId;
+    private int assetId;
+    private long amount;
+    private byte fromShard;
+    private byte toShard;
+    private byte status;
+    private long creditVersion; // 目標分片入帳後的 Balance.version
+
+    public void fill(long transferId, long userId, int assetId, long amount, int fromShard, int toShard) {
+        this.transferId = transferId;
+        this.userId = userId;
+        this.assetId = assetId;
+        this.amount = amount;
+        this.fromShard = (byte) fromShard;
+        this.toShard = (byte) toShard;
+        this.status = PENDING;
+        this.creditVersion = 0;
+    }
+
+    @Override
+    public void writeMarshallable(BytesOut<?> bytes) {
+        bytes.writeLong(transferId);
+        bytes.writeLong(userId);
+        bytes.writeInt(assetId);
+        bytes.writeLong(amount);
+        bytes.writeByte(fromShard);
+        bytes.writeByte(toShard);
+        bytes.writeByte(status);
+        bytes.writeLong(creditVersion);
+    }
+
+    @Override
+    public void readMarshallable(BytesIn<?> bytes) {
+        transferId = bytes.readLong();
+        userId = bytes.readLong();
+        assetId = bytes.readInt();
+        amount = bytes.readLong();
+        fromShard = bytes.readByte();
+        toShard = bytes.readByte();
+        status = bytes.readByte();
+        creditVersion = bytes.readLong();
+    }
+}
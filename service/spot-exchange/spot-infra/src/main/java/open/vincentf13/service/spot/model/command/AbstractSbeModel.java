@@ -12,15 +12,18 @@ import org.agrona.concurrent.UnsafeBuffer;
  * 內部 SBE 解碼器自動刷新，子類透過 getter 提供型別安全的欄位存取。
  *
  * 記憶體佈局 (32 bytes Header):
- * [0-3] MsgType | [4-7] Padding | [8-15] Seq | [16-23] GatewayTime | [24-31] SBE Header | [32+] Body
+ * [0-3] MsgType | [4-7] GatewayId | [8-15] Seq | [16-23] GatewayTime | [24-31] SBE Header | [32+] Body
+ * 所有指令 body 皆以 timestamp | userId 開頭。
  */
 @Data
 public abstract class AbstractSbeModel {
     public static final int TYPE_OFFSET = 0;
+    public static final int GATEWAY_ID_OFFSET = 4;
     public static final int SEQ_OFFSET = 8;
     public static final int GATEWAY_TIME_OFFSET = 16;
     public static final int SBE_HEADER_OFFSET = 24;
     public static final int BODY_OFFSET = 32;
+    public static final int USER_ID_OFFSET = BODY_OFFSET + 8;
 
     protected final UnsafeBuffer unsafeBuffer = new UnsafeBuffer(0, 0);
     protected final MessageHeaderDecoder headerDecoder = new MessageHeaderDecoder();
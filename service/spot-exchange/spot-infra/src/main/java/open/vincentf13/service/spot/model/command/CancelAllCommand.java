@@ -0,0 +1,17 @@
+package open.vincentf13.service.spot.model.command;
+
+import open.vincentf13.service.spot.sbe.CancelAllDecoder;
+import org.agrona.DirectBuffer;
+
+/** CANCEL_ALL 指令解碼器 (Flyweight)；symbolId = 0 表示所有交易對 */
+public class CancelAllCommand extends AbstractSbeModel {
+    private final CancelAllDecoder decoder = new CancelAllDecoder();
+
+    @Override protected void decoderReWrap(DirectBuffer buffer, int offset, int blockLength, int version) {
+        decoder.wrap(buffer, offset, blockLength, version);
+    }
+
+    public long getUserId() { return decoder.userId(); }
+    public int getSymbolId() { return decoder.symbolId(); }
+    public long getTimestamp() { return decoder.timestamp(); }
+}
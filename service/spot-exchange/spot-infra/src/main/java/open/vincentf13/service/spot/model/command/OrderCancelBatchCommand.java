@@ -0,0 +1,18 @@
+package open.vincentf13.service.spot.model.command;
+
+import open.vincentf13.service.spot.sbe.OrderCancelBatchDecoder;
+import org.agrona.DirectBuffer;
+
+/** ORDER_CANCEL_BATCH 指令解碼器 (Flyweight)；orders() 為可重用的 repeating group 迭代器 */
+public class OrderCancelBatchCommand extends AbstractSbeModel {
+    private final OrderCancelBatchDecoder decoder = new OrderCancelBatchDecoder();
+
+    @Override protected void decoderReWrap(DirectBuffer buffer, int offset, int blockLength, int version) {
+        decoder.wrap(buffer, offset, blockLength, version);
+    }
+
+    public long getUserId() { return decoder.userId(); }
+    public long getTimestamp() { return decoder.timestamp(); }
+    /** 每次 wrap 後只能呼叫一次（SBE group 依序解碼） */
+    public OrderCancelBatchDecoder.OrdersDecoder orders() { return decoder.orders(); }
+}
@@ -0,0 +1,19 @@
+package open.vincentf13.service.spot.model.command;
+
+import open.vincentf13.service.spot.sbe.OrderCreateBatchDecoder;
+import org.agrona.DirectBuffer;
+
+/** ORDER_CREATE_BATCH 指令解碼器 (Flyweight)；orders() 為可重用的 repeating group 迭代器 */
+public class OrderCreateBatchCommand extends AbstractSbeModel {
+    private final OrderCreateBatchDecoder decoder = new OrderCreateBatchDecoder();
+
+    @Override protected void decoderReWrap(DirectBuffer buffer, int offset, int blockLength, int version) {
+        decoder.wrap(buffer, offset, blockLength, version);
+    }
+
+    public long getUserId() { return decoder.userId(); }
+    public int getSymbolId() { return decoder.symbolId(); }
+    public long getTimestamp() { return decoder.timestamp(); }
+    /** 每次 wrap 後只能呼叫一次（SBE group 依序解碼） */
+    public OrderCreateBatchDecoder.OrdersDecoder orders() { return decoder.orders(); }
+}
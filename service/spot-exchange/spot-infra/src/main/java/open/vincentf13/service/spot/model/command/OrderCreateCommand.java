@@ -1,7 +1,9 @@
 package open.vincentf13.service.spot.model.command;
 
 import open.vincentf13.service.spot.sbe.OrderCreateDecoder;
+import open.vincentf13.service.spot.sbe.OrderType;
 import open.vincentf13.service.spot.sbe.Side;
+import open.vincentf13.service.spot.sbe.TimeInForce;
 import org.agrona.DirectBuffer;
 
 /** ORDER_CREATE 指令解碼器 (Flyweight) */
@@ -18,5 +20,7 @@ public class OrderCreateCommand extends AbstractSbeModel {
     public long getQty() { return decoder.qty(); }
     public Side getSide() { return decoder.side(); }
     public long getClientOrderId() { return decoder.clientOrderId(); }
+    public OrderType getOrderType() { return decoder.orderType(); }
+    public TimeInForce getTimeInForce() { return decoder.timeInForce(); }
     public long getTimestamp() { return decoder.timestamp(); }
 }
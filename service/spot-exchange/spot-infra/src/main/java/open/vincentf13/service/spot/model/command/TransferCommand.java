@@ -0,0 +1,20 @@
+package open.vincentf13.service.spot.model.command;
+
+import open.vincentf13.service.spot.sbe.TransferDecoder;
+import org.agrona.DirectBuffer;
+
+/** TRANSFER 指令解碼器 (Flyweight) */
+public class TransferCommand extends AbstractSbeModel {
+    private final TransferDecoder decoder = new TransferDecoder();
+
+    @Override protected void decoderReWrap(DirectBuffer buffer, int offset, int blockLength, int version) {
+        decoder.wrap(buffer, offset, blockLength, version);
+    }
+
+    public long getUserId() { return decoder.userId(); }
+    public int getAssetId() { return decoder.assetId(); }
+    public long getAmount() { return decoder.amount(); }
+    public int getFromShard() { return decoder.fromShard(); }
+    public int getToShard() { return decoder.toShard(); }
+    public long getTimestamp() { return decoder.timestamp(); }
+}
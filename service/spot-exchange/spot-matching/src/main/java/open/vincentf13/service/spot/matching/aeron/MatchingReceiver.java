@@ -4,8 +4,6 @@ import io.aeron.Publication;
 import io.aeron.Subscription;
 import io.aeron.logbuffer.FragmentHandler;
 import io.aeron.logbuffer.Header;
-import jakarta.annotation.PostConstruct;
-import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import open.vincentf13.service.spot.infra.aeron.*;
 import open.vincentf13.service.spot.infra.aeron.AeronConstants.AeronState;
@@ -16,9 +14,9 @@ import open.vincentf13.service.spot.infra.thread.Worker;
 import open.vincentf13.service.spot.infra.util.Clock;
 import open.vincentf13.service.spot.matching.engine.Engine;
 import open.vincentf13.service.spot.model.MsgProgress;
+import open.vincentf13.service.spot.model.command.AbstractSbeModel;
 import net.openhft.chronicle.queue.RollCycles;
 import org.agrona.DirectBuffer;
-import org.springframework.stereotype.Component;
 
 import static open.vincentf13.service.spot.infra.Constants.*;
 
@@ -28,126 +26,288 @@ import static open.vincentf13.service.spot.infra.Constants.*;
  * 新增：線性一致性檢查 (Continuity Check)
  * 若 seq 非 lastProcessed + 1 且非合法的 cycle 邊界跳躍，
  * 判定為數據空洞 (Data Hole)，透過 RESUME 通知上游重定位 Tailer。
+ *
+ * 每個撮合分片一個實例（獨立綁核 thread + 獨立 Aeron stream），由 MatchingShards 管理生命週期。
+ *
+ * 多 Gateway：每個 gateway 一條獨立指令流 ({@link Upstream})，各自維護序號、狀態機與 RESUME 握手，
+ * 於同一 matching thread 依序輪詢合併；合併日誌重播期間只 poll {@link Engine#replayGateway} 指定的 gateway。
+ *
+ * 熱備 follower ({@link MatchingConfig#REPLICA_FOLLOWER})：不訂閱 gateway、不發 RESUME，只訂閱 leader 複製流，
+ * 依 frame 的 gateway ID 交給對應 {@link Upstream} 做連續性檢查後套用；出現空洞即轉為 stale（不再套用、略過雜湊比對）。
+ * 收到本分片 PROMOTE 後關閉複製流、訂閱 gateway 指令流並以已套用進度發 RESUME，gateway 自其 WAL 補齊尾段後接續即時流。
+ * 雜湊曾不一致時拒絕升主（PROMOTE force=1 可覆寫）。升主前須確認原 leader 已停止。
+ *
+ * WAL 確認：leader 每 {@link MatchingConfig#WAL_ACK_INTERVAL_MS} 經控制流發送各 gateway 的 WAL_ACK（{@link Engine#walReleaseSeq}），
+ * 位點前進時才發送；follower 不發送（其 RESUME 位點落後 leader，由 gateway 保留 cycle 數涵蓋）。
  */
 @Slf4j
-@Component
 public class MatchingReceiver extends Worker {
     private static final RollCycles ROLL_CYCLE = RollCycles.FAST_DAILY;
 
     private final Engine engine;
-    private final MsgProgress progress = new MsgProgress();
+    private final Upstream[] upstreams = new Upstream[MatchingConfig.GATEWAY_COUNT];
+    // 各 gateway 最後處理的 gwSeq，每輪交給 Engine.onPollCycle（index = gatewayId）
+    private final long[] receivedSeqs = new long[MatchingConfig.GATEWAY_COUNT];
 
-    private Subscription subscription;
     private Publication controlPub;
-    private FragmentHandler fragmentHandler;
 
-    private AeronState currentState = AeronState.WAITING;
-    private long lastResumeTime = 0;
-    private long lastMsgReceivedTime = 0;
+    // 熱備 follower 狀態
+    private boolean following;
+    private boolean replicaStale, replicaDiverged, leaderConnected;
+    private Subscription replicationSub, promoteSub;
+    private final FragmentHandler replicationHandler = this::onReplicated;
+    private final FragmentHandler promoteHandler = this::onPromote;
+
+    // WAL_ACK：各 gateway 最後一次確認的位點
+    private final long[] ackedSeqs = new long[MatchingConfig.GATEWAY_COUNT];
+    private long lastAckTime;
 
     // 熱路徑採樣：減少 state check / volatile read 頻率
     private long iterCounter = 0;
     private static final long STATE_CHECK_MASK = 0xFF; // 每 256 次 iter 檢查一次 state
 
-    /** @param aeron 僅用於建立 Spring Bean 依賴順序 */
-    public MatchingReceiver(@SuppressWarnings("unused") io.aeron.Aeron aeron, Engine engine) {
-        super("matching-receiver", MetricsKey.CPU_ID_AERON_RECEIVER, MetricsKey.CPU_ID_CURRENT_AERON_RECEIVER, MetricsKey.MATCHING_AERON_RECEVIER_WORKER_DUTY_CYCLE);
+    public MatchingReceiver(Engine engine) {
+        super(engine.getShardId() == 0 ? "matching-receiver" : "matching-receiver-" + engine.getShardId(),
+              MetricsKey.forShard(MetricsKey.CPU_ID_AERON_RECEIVER, engine.getShardId()),
+              MetricsKey.forShard(MetricsKey.CPU_ID_CURRENT_AERON_RECEIVER, engine.getShardId()),
+              MetricsKey.forShard(MetricsKey.MATCHING_AERON_RECEVIER_WORKER_DUTY_CYCLE, engine.getShardId()));
         this.engine = engine;
+        java.util.Arrays.fill(ackedSeqs, MSG_SEQ_NONE);
     }
 
-    @PostConstruct @Override public void start() { super.start(); }
-    @PreDestroy @Override public void stop() { super.stop(); }
-
     @Override
     protected void onStart() {
         PreTouchUtil.touchDirectory(new java.io.File(ChronicleMapEnum.DEFAULT_BASE_DIR));
         engine.onStart();
-        subscription = AeronUtil.aeron().addSubscription(AeronChannel.MATCHING_FLOW, AeronChannel.DATA_STREAM_ID);
         controlPub = AeronUtil.aeron().addPublication(AeronChannel.REPORT_FLOW, AeronChannel.CONTROL_STREAM_ID);
-        // 所有 SBE 訊息 <100B，遠小於 IPC MTU，不需 FragmentAssembler 重組
-        fragmentHandler = this::onFragment;
+        for (int g = 0; g < upstreams.length; g++) {
+            Upstream up = new Upstream(g);
+            up.progress.setLastProcessedSeq(engine.getNetworkProgress(g).getLastProcessedSeq());
+            receivedSeqs[g] = up.progress.getLastProcessedSeq();
+            upstreams[g] = up;
+        }
+        following = engine.isFollowing();
+        if (following) {
+            replicationSub = AeronUtil.aeron().addSubscription(AeronChannel.REPLICATION_FLOW, AeronChannel.replicationStreamId(engine.getShardId()));
+            promoteSub = AeronUtil.aeron().addSubscription(AeronChannel.REPORT_FLOW, AeronChannel.FAILOVER_CONTROL_STREAM_ID);
+            log.info("MatchingReceiver[shard={}] 以 follower 啟動，訂閱 leader 複製流 stream={}", engine.getShardId(),
+                    AeronChannel.replicationStreamId(engine.getShardId()));
+        } else {
+            subscribeGateways();
+        }
+    }
 
-        progress.setLastProcessedSeq(engine.getNetworkProgress().getLastProcessedSeq());
-        log.info("MatchingReceiver 啟動，進度: {}，等待恢復...", progress.getLastProcessedSeq());
-        sendResume();
+    /** leader（或升主後）：訂閱各 gateway 指令流並以已套用進度發 RESUME */
+    private void subscribeGateways() {
+        // 單筆 SBE 訊息 <100B、批次訊息上限 MAX_BATCH_SIZE 筆 (<2KB)，皆小於 IPC MTU (8K)，不需 FragmentAssembler 重組
+        for (Upstream up : upstreams) {
+            up.subscription = AeronUtil.aeron().addSubscription(AeronChannel.MATCHING_FLOW, AeronChannel.dataStreamId(engine.getShardId(), up.gatewayId));
+            up.currentState = AeronState.WAITING;
+            log.info("MatchingReceiver[shard={}, gateway={}] 啟動，進度: {}，等待恢復...", engine.getShardId(), up.gatewayId, up.progress.getLastProcessedSeq());
+            up.sendResume();
+        }
     }
 
     @Override
     protected int doWork() {
-        // 熱路徑 (SENDING state)：只 poll + onPollCycle，state 檢查採樣
-        if (currentState == AeronState.SENDING) {
-            int done = subscription.poll(fragmentHandler, AeronConstants.AERON_POLL_LIMIT);
-            engine.onPollCycle(done, progress.getLastProcessedSeq());
-            // 每 256 iter 檢查一次連線與 stall timeout
-            if ((++iterCounter & STATE_CHECK_MASK) == 0) {
-                if (!subscription.isConnected()) {
-                    currentState = AeronState.WAITING;
-                } else if (lastMsgReceivedTime > 0
-                        && Clock.now() - lastMsgReceivedTime > AeronConstants.RECEIVER_STALL_TIMEOUT_MS) {
-                    log.warn("MatchingReceiver 超時 {}ms 未收到數據，重置為 WAITING 以重發 RESUME", AeronConstants.RECEIVER_STALL_TIMEOUT_MS);
-                    currentState = AeronState.WAITING;
-                }
-            }
-            return done;
+        boolean checkState = (++iterCounter & STATE_CHECK_MASK) == 0;
+        if (following) return followWork(checkState);
+        int replayGateway = engine.replayGateway();
+        int done = 0;
+        for (Upstream up : upstreams) {
+            // 合併日誌重播：嚴格依日誌順序逐筆取用，其餘 gateway 暫不 poll（訊息留在 Aeron term buffer）
+            boolean gated = replayGateway >= 0 && up.gatewayId != replayGateway;
+            done += gated ? up.idle() : up.poll(replayGateway >= 0 ? 1 : AeronConstants.AERON_POLL_LIMIT, checkState);
         }
-
-        // WAITING state 路徑 (低頻)
-        if (Clock.now() - lastResumeTime > AeronConstants.RESUME_SIGNAL_INTERVAL_MS) sendResume();
-        int done = subscription.poll(fragmentHandler, AeronConstants.AERON_POLL_LIMIT);
-        engine.onPollCycle(done, progress.getLastProcessedSeq());
+        done += engine.pollHandoff();
+        engine.onPollCycle(done, receivedSeqs);
+        if (checkState && MatchingConfig.WAL_ACK_INTERVAL_MS > 0 && Clock.now() - lastAckTime >= MatchingConfig.WAL_ACK_INTERVAL_MS) sendWalAcks();
         return done;
     }
 
-    private void sendResume() {
-        AeronUtil.send(controlPub, AeronConstants.RESUME_SIGNAL_LENGTH, (buffer, offset) -> {
-            buffer.putInt(offset, MsgType.RESUME, java.nio.ByteOrder.LITTLE_ENDIAN);
-            buffer.putLong(offset + AeronConstants.MSG_SEQ_OFFSET, progress.getLastProcessedSeq(), java.nio.ByteOrder.LITTLE_ENDIAN);
-        });
-        lastResumeTime = Clock.now();
+    /** 低頻：回報各 gateway 已持久化的接收進度，gateway 據此釋放 WAL */
+    private void sendWalAcks() {
+        lastAckTime = Clock.now();
+        for (int g = 0; g < ackedSeqs.length; g++) {
+            long seq = engine.walReleaseSeq(g);
+            if (seq == MSG_SEQ_NONE || seq == ackedSeqs[g]) continue;
+            int gatewayId = g;
+            int result = AeronUtil.send(controlPub, AeronConstants.WAL_ACK_SIGNAL_LENGTH, (buffer, offset) -> {
+                buffer.putInt(offset, MsgType.WAL_ACK, java.nio.ByteOrder.LITTLE_ENDIAN);
+                buffer.putInt(offset + AeronConstants.RESUME_SHARD_OFFSET, engine.getShardId(), java.nio.ByteOrder.LITTLE_ENDIAN);
+                buffer.putLong(offset + AeronConstants.MSG_SEQ_OFFSET, seq, java.nio.ByteOrder.LITTLE_ENDIAN);
+                buffer.putInt(offset + AeronConstants.RESUME_GATEWAY_OFFSET, gatewayId, java.nio.ByteOrder.LITTLE_ENDIAN);
+            });
+            if (result == AeronUtil.SEND_OK) ackedSeqs[g] = seq;
+        }
     }
 
-    private void onFragment(DirectBuffer buffer, int offset, int length, Header header) {
-        long seq = buffer.getLong(offset + 8, java.nio.ByteOrder.LITTLE_ENDIAN);
-        long last = progress.getLastProcessedSeq();
-        long expected = last + 1;
-
-        // 1. WAITING 狀態：嚴格對齊 expected，否則丟棄 stale in-flight 訊息
-        //    只有 sender 重定位後送來的 last+1（或初次啟動 / cycle 邊界）才能轉 SENDING
-        if (currentState == AeronState.WAITING) {
-            boolean aligned = (last == MSG_SEQ_NONE)
-                           || (seq == expected)
-                           || isValidCycleBoundary(last, seq);
-            if (!aligned) {
-                // stale in-flight 訊息，靜默忽略，繼續等待對齊
-                StaticMetricsHolder.addCounter(MetricsKey.AERON_DROPPED_COUNT, 1);
-                return;
+    // ========== 熱備 follower ==========
+
+    private int followWork(boolean checkState) {
+        int done = replicationSub.poll(replicationHandler, AeronConstants.AERON_POLL_LIMIT);
+        done += engine.pollHandoff();
+        engine.onPollCycle(done, receivedSeqs);
+        if (checkState) {
+            boolean connected = replicationSub.isConnected();
+            if (connected != leaderConnected) {
+                if (connected) log.info("MatchingReceiver[shard={}] leader 複製流已連線", engine.getShardId());
+                else log.warn("MatchingReceiver[shard={}] leader 複製流中斷，等待 PROMOTE", engine.getShardId());
+                leaderConnected = connected;
             }
-            log.info("MatchingReceiver 對齊成功，seq={}, expected={}", seq, expected);
-            currentState = AeronState.SENDING;
+            promoteSub.poll(promoteHandler, 1);
         }
+        return done;
+    }
+
+    private void onReplicated(DirectBuffer buffer, int offset, int length, Header header) {
+        int msgType = buffer.getInt(offset, java.nio.ByteOrder.LITTLE_ENDIAN);
+        if (msgType == MsgType.STATE_HASH) {
+            // stale 後狀態必然落後，比對無意義
+            if (!replicaStale && !engine.verifyStateHash(buffer.getLong(offset + AeronConstants.MSG_SEQ_OFFSET, java.nio.ByteOrder.LITTLE_ENDIAN))) {
+                replicaDiverged = true;
+            }
+            return;
+        }
+        int gatewayId = buffer.getInt(offset + AbstractSbeModel.GATEWAY_ID_OFFSET, java.nio.ByteOrder.LITTLE_ENDIAN);
+        if (gatewayId < 0 || gatewayId >= upstreams.length) {
+            markStale("未配置的 gateway=" + gatewayId);
+            return;
+        }
+        if (replicaStale) return;
+        upstreams[gatewayId].onFragment(buffer, offset, length, header);
+    }
+
+    private void markStale(String reason) {
+        if (replicaStale) return;
+        replicaStale = true;
+        log.error("MatchingReceiver[shard={}] 熱備轉為 stale ({})：停止套用複製流，升主時由 gateway WAL 自已套用進度補齊",
+                engine.getShardId(), reason);
+    }
 
-        // 2. 冗余冪等（sender 正常不應重送，保險用）
-        if (seq < expected) {
-            StaticMetricsHolder.addCounter(MetricsKey.AERON_DROPPED_COUNT, 1);
+    private void onPromote(DirectBuffer buffer, int offset, int length, Header header) {
+        if (buffer.getInt(offset, java.nio.ByteOrder.LITTLE_ENDIAN) != MsgType.PROMOTE) return;
+        int shard = buffer.getInt(offset + AeronConstants.PROMOTE_SHARD_OFFSET, java.nio.ByteOrder.LITTLE_ENDIAN);
+        if (shard != -1 && shard != engine.getShardId()) return;
+        boolean force = buffer.getInt(offset + AeronConstants.PROMOTE_FORCE_OFFSET, java.nio.ByteOrder.LITTLE_ENDIAN) == 1;
+        if (replicaDiverged && !force) {
+            log.error("MatchingReceiver[shard={}] 狀態雜湊曾不一致，拒絕升主（force=1 可覆寫）", engine.getShardId());
             return;
         }
+        promote();
+    }
+
+    private void promote() {
+        long start = Clock.now();
+        following = false;
+        replicationSub.close();
+        promoteSub.close();
+        replicationSub = promoteSub = null;
+        engine.promote();
+        subscribeGateways();
+        log.warn("MatchingReceiver[shard={}] 升主完成 (stale={})，耗時 {}ms", engine.getShardId(), replicaStale, Clock.now() - start);
+    }
+
+    /** 單一 gateway 的指令流：獨立序號空間、狀態機與 RESUME 握手 */
+    private final class Upstream {
+        final int gatewayId;
+        final MsgProgress progress = new MsgProgress();
+        final FragmentHandler fragmentHandler = this::onFragment;
+        Subscription subscription;
+
+        AeronState currentState = AeronState.WAITING;
+        long lastResumeTime = 0;
+        long lastMsgReceivedTime = 0;
+
+        Upstream(int gatewayId) {
+            this.gatewayId = gatewayId;
+        }
+
+        int poll(int fragmentLimit, boolean checkState) {
+            // 熱路徑 (SENDING state)：只 poll，state 檢查採樣
+            if (currentState == AeronState.SENDING) {
+                int done = subscription.poll(fragmentHandler, fragmentLimit);
+                // 每 256 iter 檢查一次連線與 stall timeout
+                if (checkState) {
+                    if (!subscription.isConnected()) {
+                        currentState = AeronState.WAITING;
+                    } else if (lastMsgReceivedTime > 0
+                            && Clock.now() - lastMsgReceivedTime > AeronConstants.RECEIVER_STALL_TIMEOUT_MS) {
+                        log.warn("MatchingReceiver[gateway={}] 超時 {}ms 未收到數據，重置為 WAITING 以重發 RESUME",
+                                gatewayId, AeronConstants.RECEIVER_STALL_TIMEOUT_MS);
+                        currentState = AeronState.WAITING;
+                    }
+                }
+                return done;
+            }
 
-        // 3. 線性一致性檢查：發現空洞立即暫停，等待 RESUME 重定位
-        if (last != MSG_SEQ_NONE && seq != expected && !isValidCycleBoundary(last, seq)) {
-            long gap = seq - expected;
-            log.error("數據空洞！expected={}, actual={}, gap={}。暫停消費等待 RESUME 重定位。",
-                      expected, seq, gap);
-            StaticMetricsHolder.addCounter(MetricsKey.AERON_DROPPED_COUNT, 1);
-            currentState = AeronState.WAITING;
-            sendResume();
-            return;  // 不處理、不更新 last，保持狀態機一致性
+            // WAITING state 路徑 (低頻)
+            if (Clock.now() - lastResumeTime > AeronConstants.RESUME_SIGNAL_INTERVAL_MS) sendResume();
+            return subscription.poll(fragmentHandler, fragmentLimit);
         }
 
-        // 4. 正常處理
-        engine.onAeronMessage(buffer.getInt(offset, java.nio.ByteOrder.LITTLE_ENDIAN), buffer, offset, length);
-        progress.setLastProcessedSeq(seq);
-        lastMsgReceivedTime = Clock.now();
-        StaticMetricsHolder.addCounter(MetricsKey.AERON_RECV_COUNT, 1);
+        /** 重播期間未輪到的 gateway：不 poll，僅維持 RESUME 握手讓上游就緒 */
+        int idle() {
+            if (currentState == AeronState.WAITING && Clock.now() - lastResumeTime > AeronConstants.RESUME_SIGNAL_INTERVAL_MS) sendResume();
+            return 0;
+        }
+
+        void sendResume() {
+            AeronUtil.send(controlPub, AeronConstants.RESUME_SIGNAL_LENGTH, (buffer, offset) -> {
+                buffer.putInt(offset, MsgType.RESUME, java.nio.ByteOrder.LITTLE_ENDIAN);
+                buffer.putInt(offset + AeronConstants.RESUME_SHARD_OFFSET, engine.getShardId(), java.nio.ByteOrder.LITTLE_ENDIAN);
+                buffer.putLong(offset + AeronConstants.MSG_SEQ_OFFSET, progress.getLastProcessedSeq(), java.nio.ByteOrder.LITTLE_ENDIAN);
+                buffer.putInt(offset + AeronConstants.RESUME_GATEWAY_OFFSET, gatewayId, java.nio.ByteOrder.LITTLE_ENDIAN);
+            });
+            lastResumeTime = Clock.now();
+        }
+
+        private void onFragment(DirectBuffer buffer, int offset, int length, Header header) {
+            long seq = buffer.getLong(offset + 8, java.nio.ByteOrder.LITTLE_ENDIAN);
+            long last = progress.getLastProcessedSeq();
+            long expected = last + 1;
+
+            // 1. WAITING 狀態：嚴格對齊 expected，否則丟棄 stale in-flight 訊息
+            //    只有 sender 重定位後送來的 last+1（或初次啟動 / cycle 邊界）才能轉 SENDING
+            if (currentState == AeronState.WAITING) {
+                boolean aligned = (last == MSG_SEQ_NONE)
+                               || (seq == expected)
+                               || isValidCycleBoundary(last, seq);
+                if (!aligned) {
+                    // stale in-flight 訊息，靜默忽略，繼續等待對齊；follower 無 RESUME 可重定位，直接轉 stale
+                    StaticMetricsHolder.addCounter(MetricsKey.AERON_DROPPED_COUNT, 1);
+                    if (following) markStale("gateway=" + gatewayId + " 起點未對齊 expected=" + expected + " actual=" + seq);
+                    return;
+                }
+                log.info("MatchingReceiver[gateway={}] 對齊成功，seq={}, expected={}", gatewayId, seq, expected);
+                currentState = AeronState.SENDING;
+            }
+
+            // 2. 冗余冪等（sender 正常不應重送，保險用）
+            if (seq < expected) {
+                StaticMetricsHolder.addCounter(MetricsKey.AERON_DROPPED_COUNT, 1);
+                return;
+            }
+
+            // 3. 線性一致性檢查：發現空洞立即暫停，等待 RESUME 重定位
+            if (last != MSG_SEQ_NONE && seq != expected && !isValidCycleBoundary(last, seq)) {
+                long gap = seq - expected;
+                log.error("數據空洞！gateway={}, expected={}, actual={}, gap={}。暫停消費等待 RESUME 重定位。",
+                          gatewayId, expected, seq, gap);
+                StaticMetricsHolder.addCounter(MetricsKey.AERON_DROPPED_COUNT, 1);
+                currentState = AeronState.WAITING;
+                if (following) markStale("gateway=" + gatewayId + " 序號空洞");
+                else sendResume();
+                return;  // 不處理、不更新 last，保持狀態機一致性
+            }
+
+            // 4. 正常處理
+            engine.onAeronMessage(buffer.getInt(offset, java.nio.ByteOrder.LITTLE_ENDIAN), buffer, offset, length);
+            progress.setLastProcessedSeq(seq);
+            receivedSeqs[gatewayId] = seq;
+            lastMsgReceivedTime = Clock.now();
+            StaticMetricsHolder.addCounter(MetricsKey.AERON_RECV_COUNT, 1);
+        }
     }
 
     /**
@@ -164,7 +324,9 @@ public class MatchingReceiver extends Worker {
     @Override
     protected void onStop() {
         engine.onStop();
-        if (subscription != null) subscription.close();
+        for (Upstream up : upstreams) if (up != null && up.subscription != null) up.subscription.close();
+        if (replicationSub != null) replicationSub.close();
+        if (promoteSub != null) promoteSub.close();
         if (controlPub != null) controlPub.close();
         ThreadContext.cleanup();
         AeronUtil.cleanupThreadLocal();
@@ -35,6 +35,18 @@ public class AsyncDiskFlusher {
         return t;
     });
 
+    // 查詢副本資料流（-Dspot.query.enabled），由各 sink 於落盤時發布
+    private volatile QueryFeed queryFeed;
+
+    /** 須於 Engine.registerDiskSinks 之前設定 */
+    public void attachQueryFeed(QueryFeed feed) {
+        this.queryFeed = feed;
+    }
+
+    public QueryFeed queryFeed() {
+        return queryFeed;
+    }
+
     public void register(DiskSink sink) {
         sinks.add(sink);
         log.info("AsyncDiskFlusher 註冊 sink: {}", sink.getClass().getSimpleName());
@@ -47,6 +59,14 @@ public class AsyncDiskFlusher {
     }
 
     private void tick() {
+        QueryFeed feed = queryFeed;
+        if (feed != null) {
+            try {
+                feed.onTick();
+            } catch (Exception e) {
+                log.error("query feed tick failed: {}", e.getMessage(), e);
+            }
+        }
         for (DiskSink s : sinks) {
             try {
                 s.drainToDisk();
@@ -68,6 +88,7 @@ public class AsyncDiskFlusher {
         for (DiskSink s : sinks) {
             try { s.drainToDisk(); } catch (Exception e) { log.error("final drain failed", e); }
         }
+        if (queryFeed != null) queryFeed.close();
         log.info("AsyncDiskFlusher 已停止");
     }
 }
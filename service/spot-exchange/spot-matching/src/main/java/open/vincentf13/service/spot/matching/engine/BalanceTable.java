@@ -0,0 +1,178 @@
+package open.vincentf13.service.spot.matching.engine;
+
+import org.agrona.BufferUtil;
+import org.agrona.DirectBuffer;
+import org.agrona.MutableDirectBuffer;
+import org.agrona.collections.Hashing;
+import org.agrona.concurrent.UnsafeBuffer;
+
+/**
+ * Off-heap 帳戶餘額表 (Balance Table)
+ *
+ * 以 (userId, assetId) 組合 key 開放定址 (linear probing)，每槽固定 64 bytes（對齊 cache line）：
+ * <pre>
+ * [0-7] key | [8-15] available | [16-23] frozen | [24-31] version | [32-39] lastSeq | [40-47] lastTradeId
+ * [48-55] appliedSeq | [56-59] stagedRound | [60-63] stagedIndex
+ * </pre>
+ * appliedSeq 為本進程最後一次實際套用變更的 seq（不落盤）：同一指令內對同一餘額的多次變更共用 seq，據此與重播區分。
+ * stagedRound / stagedIndex 記錄本輪落盤緩衝內的記錄位置，供同輪重複變更原地覆寫。
+ * 帳戶數不再轉為堆上 Balance 物件，GC 掃描量與帳戶數無關；只增不刪，負載超過 1/2 時倍增重建。
+ * 容量上限 {@link #MAX_CAPACITY} 槽（1 GiB，約 800 萬帳戶餘額）：DirectBuffer 以 int 定址，超過即拋錯而非溢位。
+ *
+ * 槽位 offset 於下一次 insert 前有效（擴容會搬移），呼叫端不可跨 insert 持有。僅由 matching thread 存取。
+ */
+final class BalanceTable {
+    static final int SLOT_BYTES = 64;
+    /** 最大 2 的冪容量，使 capacity * SLOT_BYTES 不超過 int 定址範圍；槽位 offset 因此恆為非負 int */
+    static final int MAX_CAPACITY = Integer.highestOneBit(Integer.MAX_VALUE / SLOT_BYTES);
+    static final int NONE = -1;
+    private static final long EMPTY_KEY = -1L;
+
+    private static final int KEY = 0;
+    private static final int AVAILABLE = 8;
+    private static final int FROZEN = 16;
+    private static final int VERSION = 24;
+    private static final int LAST_SEQ = 32;
+    private static final int LAST_TRADE_ID = 40;
+    private static final int APPLIED_SEQ = 48;
+    private static final int STAGED_ROUND = 56;
+    private static final int STAGED_INDEX = 60;
+
+    /** 落盤記錄：key + 5 個持久化欄位 (與 Balance 序列化欄位一致) */
+    static final int RECORD_BYTES = 6 * Long.BYTES;
+
+    private UnsafeBuffer slots;
+    private int mask;
+    private int size;
+    private int resizeThreshold;
+
+    BalanceTable(int initialCapacity) {
+        allocate(Long.highestOneBit(Math.max(1024L, initialCapacity - 1L) << 1));
+    }
+
+    private void allocate(long capacity) {
+        long bytes = capacity * SLOT_BYTES;
+        if (capacity > MAX_CAPACITY) {
+            throw new IllegalStateException("BalanceTable 超出容量上限：capacity=" + capacity + " (" + bytes
+                    + " bytes)，上限 " + MAX_CAPACITY + " 槽，請增加撮合分片數");
+        }
+        slots = new UnsafeBuffer(BufferUtil.allocateDirectAligned((int) bytes, SLOT_BYTES));
+        slots.setMemory(0, (int) bytes, (byte) 0xFF); // 全部 key = EMPTY_KEY
+        mask = (int) capacity - 1;
+        resizeThreshold = (int) (capacity >>> 1);
+        size = 0;
+    }
+
+    static long combine(long userId, int assetId) {
+        return (userId << 32) | (assetId & 0xFFFFFFFFL);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** 回傳槽位 offset，不存在回傳 {@link #NONE} */
+    int find(long key) {
+        int i = Hashing.hash(key, mask);
+        while (true) {
+            int off = offsetOf(i);
+            long k = slots.getLong(off + KEY);
+            if (k == key) return off;
+            if (k == EMPTY_KEY) return NONE;
+            i = (i + 1) & mask;
+        }
+    }
+
+    /** 新增空帳戶（呼叫端已確認不存在）：lastSeq = -1，回傳槽位 offset */
+    int insert(long key) {
+        if (size >= resizeThreshold) rehash();
+        int i = Hashing.hash(key, mask);
+        int off;
+        while (slots.getLong((off = offsetOf(i)) + KEY) != EMPTY_KEY) i = (i + 1) & mask;
+        slots.putLong(off + KEY, key);
+        slots.putLong(off + AVAILABLE, 0);
+        slots.putLong(off + FROZEN, 0);
+        slots.putLong(off + VERSION, 0);
+        slots.putLong(off + LAST_SEQ, -1);
+        slots.putLong(off + LAST_TRADE_ID, 0);
+        slots.putLong(off + APPLIED_SEQ, Long.MIN_VALUE);
+        slots.putInt(off + STAGED_ROUND, 0);
+        slots.putInt(off + STAGED_INDEX, 0);
+        size++;
+        return off;
+    }
+
+    void clear() {
+        slots.setMemory(0, slots.capacity(), (byte) 0xFF);
+        size = 0;
+    }
+
+    private void rehash() {
+        UnsafeBuffer old = slots;
+        long oldBytes = (long) (mask + 1) * SLOT_BYTES;
+        allocate((long) (mask + 1) << 1);
+        for (int off = 0; off < oldBytes; off += SLOT_BYTES) {
+            long key = old.getLong(off + KEY);
+            if (key == EMPTY_KEY) continue;
+            int i = Hashing.hash(key, mask);
+            int dst;
+            while (slots.getLong((dst = offsetOf(i)) + KEY) != EMPTY_KEY) i = (i + 1) & mask;
+            slots.putBytes(dst, old, off, SLOT_BYTES);
+            size++;
+        }
+        BufferUtil.free(old.byteBuffer());
+    }
+
+    /** 槽位序號 → offset：以 long 計算，容量受 {@link #MAX_CAPACITY} 限制，結果必落在 int 範圍 */
+    private static int offsetOf(int slot) {
+        return (int) ((long) slot * SLOT_BYTES);
+    }
+
+    // ========== 遍歷：for (int off = first(); off != NONE; off = next(off)) ==========
+
+    int first() {
+        return next(-SLOT_BYTES);
+    }
+
+    int next(int off) {
+        long limit = (long) (mask + 1) * SLOT_BYTES;
+        for (off += SLOT_BYTES; off < limit; off += SLOT_BYTES) {
+            if (slots.getLong(off + KEY) != EMPTY_KEY) return off;
+        }
+        return NONE;
+    }
+
+    // ========== 欄位存取 ==========
+
+    long key(int off) { return slots.getLong(off + KEY); }
+    long available(int off) { return slots.getLong(off + AVAILABLE); }
+    long frozen(int off) { return slots.getLong(off + FROZEN); }
+    long version(int off) { return slots.getLong(off + VERSION); }
+    long lastSeq(int off) { return slots.getLong(off + LAST_SEQ); }
+    long lastTradeId(int off) { return slots.getLong(off + LAST_TRADE_ID); }
+    long appliedSeq(int off) { return slots.getLong(off + APPLIED_SEQ); }
+    int stagedRound(int off) { return slots.getInt(off + STAGED_ROUND); }
+    int stagedIndex(int off) { return slots.getInt(off + STAGED_INDEX); }
+
+    void available(int off, long v) { slots.putLong(off + AVAILABLE, v); }
+    void frozen(int off, long v) { slots.putLong(off + FROZEN, v); }
+    void version(int off, long v) { slots.putLong(off + VERSION, v); }
+    void lastSeq(int off, long v) { slots.putLong(off + LAST_SEQ, v); }
+    void lastTradeId(int off, long v) { slots.putLong(off + LAST_TRADE_ID, v); }
+    void appliedSeq(int off, long v) { slots.putLong(off + APPLIED_SEQ, v); }
+
+    void staged(int off, int round, int index) {
+        slots.putInt(off + STAGED_ROUND, round);
+        slots.putInt(off + STAGED_INDEX, index);
+    }
+
+    /** 持久化欄位 (key, available, frozen, version, lastSeq, lastTradeId) 連續 48 bytes，單次複製至落盤記錄 */
+    void copyRecord(int off, MutableDirectBuffer dst, int dstOffset) {
+        dst.putBytes(dstOffset, slots, off, RECORD_BYTES);
+    }
+
+    /** 自落盤記錄 / 快照（同 RECORD_BYTES 佈局）載入持久化欄位 */
+    void loadRecord(int off, DirectBuffer src, int srcOffset) {
+        slots.putBytes(off + AVAILABLE, src, srcOffset + AVAILABLE, RECORD_BYTES - AVAILABLE);
+    }
+}
@@ -5,10 +5,13 @@ import lombok.extern.slf4j.Slf4j;
 import open.vincentf13.service.spot.infra.thread.ThreadContext;
 import open.vincentf13.service.spot.model.WalProgress;
 import open.vincentf13.service.spot.model.command.AuthCommand;
+import open.vincentf13.service.spot.model.command.CancelAllCommand;
 import open.vincentf13.service.spot.model.command.DepositCommand;
+import open.vincentf13.service.spot.model.command.OrderCancelBatchCommand;
 import open.vincentf13.service.spot.model.command.OrderCancelCommand;
+import open.vincentf13.service.spot.model.command.OrderCreateBatchCommand;
 import open.vincentf13.service.spot.model.command.OrderCreateCommand;
-import org.springframework.stereotype.Component;
+import open.vincentf13.service.spot.model.command.TransferCommand;
 
 import org.agrona.DirectBuffer;
 
@@ -19,15 +22,18 @@ import static open.vincentf13.service.spot.infra.Constants.*;
  徹底移除對 Chronicle Wire 的依賴，直接在 DirectBuffer 上進行 SBE 解碼分發。
  */
 @Slf4j
-@Component
 @RequiredArgsConstructor
 public class CommandRouter {
     private final OrderProcessor orderProcessor;
     private final AuthProcessor authProcessor;
     private final DepositProcessor depositProcessor;
+    private final TransferProcessor transferProcessor;
 
-    /** 從 RingBuffer 讀取並分發：直接處理 DirectBuffer */
-    public long route(int msgType, DirectBuffer buffer, int offset, int length, long timestamp, WalProgress progress) {
+    /**
+     * 從 RingBuffer 讀取並分發：直接處理 DirectBuffer。
+     * seq 為引擎序號（單 gateway 即 frame 內 gwSeq，多 gateway 由 {@link IngressSequencer} 定序），作為各處理器的冪等水位。
+     */
+    public long route(int msgType, DirectBuffer buffer, int offset, int length, long seq, long timestamp, WalProgress progress) {
         if (length <= 0) return MSG_SEQ_NONE;
 
         final long address = buffer.addressOffset() + offset;
@@ -37,26 +43,52 @@ public class CommandRouter {
             case MsgType.AUTH -> {
                 AuthCommand cmd = ctx.getAuthCommand();
                 cmd.wrap(address, length);
-                authProcessor.handleAuth(cmd.getUserId(), cmd.getSeq());
-                yield cmd.getSeq();
+                authProcessor.handleAuth(cmd.getUserId(), seq);
+                yield seq;
             }
             case MsgType.ORDER_CREATE -> {
                 OrderCreateCommand cmd = ctx.getOrderCreateCommand();
                 cmd.wrap(address, length);
-                orderProcessor.processCreateCommand(cmd.getUserId(), cmd.getSymbolId(), cmd.getPrice(), cmd.getQty(), cmd.getSide(), cmd.getClientOrderId(), cmd.getSeq(), timestamp, progress);
-                yield cmd.getSeq();
+                orderProcessor.processCreateCommand(cmd.getUserId(), cmd.getSymbolId(), cmd.getPrice(), cmd.getQty(), cmd.getSide(),
+                        cmd.getOrderType(), cmd.getTimeInForce(), cmd.getClientOrderId(), seq, timestamp, progress);
+                yield seq;
             }
             case MsgType.ORDER_CANCEL -> {
                 OrderCancelCommand cmd = ctx.getOrderCancelCommand();
                 cmd.wrap(address, length);
-                orderProcessor.processCancelCommand(cmd.getUserId(), cmd.getOrderId(), cmd.getSeq());
-                yield cmd.getSeq();
+                orderProcessor.processCancelCommand(cmd.getUserId(), cmd.getOrderId(), seq);
+                yield seq;
+            }
+            case MsgType.ORDER_CREATE_BATCH -> {
+                OrderCreateBatchCommand cmd = ctx.getOrderCreateBatchCommand();
+                cmd.wrap(address, length);
+                orderProcessor.processCreateBatch(cmd.getUserId(), cmd.getSymbolId(), cmd.orders(), seq, timestamp, progress);
+                yield seq;
+            }
+            case MsgType.ORDER_CANCEL_BATCH -> {
+                OrderCancelBatchCommand cmd = ctx.getOrderCancelBatchCommand();
+                cmd.wrap(address, length);
+                orderProcessor.processCancelBatch(cmd.getUserId(), cmd.orders(), seq);
+                yield seq;
+            }
+            case MsgType.CANCEL_ALL -> {
+                CancelAllCommand cmd = ctx.getCancelAllCommand();
+                cmd.wrap(address, length);
+                orderProcessor.processCancelAll(cmd.getUserId(), cmd.getSymbolId(), seq);
+                yield seq;
             }
             case MsgType.DEPOSIT -> {
                 DepositCommand cmd = ctx.getDepositCommand();
                 cmd.wrap(address, length);
-                depositProcessor.handleDeposit(cmd.getUserId(), cmd.getAssetId(), cmd.getAmount(), cmd.getSeq());
-                yield cmd.getSeq();
+                depositProcessor.handleDeposit(cmd.getUserId(), cmd.getAssetId(), cmd.getAmount(), seq);
+                yield seq;
+            }
+            case MsgType.TRANSFER -> {
+                TransferCommand cmd = ctx.getTransferCommand();
+                cmd.wrap(address, length);
+                transferProcessor.handleTransfer(cmd.getUserId(), cmd.getAssetId(), cmd.getAmount(),
+                        cmd.getFromShard(), cmd.getToShard(), seq);
+                yield seq;
             }
             default -> {
                 log.warn("[ROUTER] 收到未知訊息類型: {}, len={}", msgType, length);
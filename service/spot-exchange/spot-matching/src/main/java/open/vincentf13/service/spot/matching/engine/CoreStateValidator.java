@@ -2,19 +2,18 @@ package open.vincentf13.service.spot.matching.engine;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.stereotype.Component;
 
 @Slf4j
-@Component
 @RequiredArgsConstructor
 public class CoreStateValidator {
     private final Ledger ledger;
+    private final OrderBooks books;
 
     public void validateOnRecovery() {
         try {
             ledger.validateState();
-            for (OrderBook book : OrderBook.getInstances()) book.validateState();
-            log.info("冷啟動基礎自校驗完成，orderBooks={}", OrderBook.getInstances().length);
+            for (OrderBook book : books.all()) book.validateState();
+            log.info("冷啟動基礎自校驗完成，orderBooks={}", books.all().length);
         } catch (RuntimeException ex) {
             log.warn("冷啟動自校驗未通過，改由 WAL 重放收斂最終一致性: {}", ex.getMessage(), ex);
         }
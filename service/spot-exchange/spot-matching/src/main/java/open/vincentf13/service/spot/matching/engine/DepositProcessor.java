@@ -2,7 +2,6 @@ package open.vincentf13.service.spot.matching.engine;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.stereotype.Component;
 
 import static open.vincentf13.service.spot.infra.Constants.*;
 
@@ -11,7 +10,6 @@ import static open.vincentf13.service.spot.infra.Constants.*;
  職責：處理資金存入指令，並具備冪等性保護
  */
 @Slf4j
-@Component
 @RequiredArgsConstructor
 public class DepositProcessor {
     private final Ledger ledger;
@@ -1,16 +1,21 @@
 package open.vincentf13.service.spot.matching.engine;
 
-import jakarta.annotation.PostConstruct;
 import lombok.Getter;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import net.openhft.chronicle.map.ChronicleMap;
 import open.vincentf13.service.spot.infra.thread.ThreadContext;
 import open.vincentf13.service.spot.infra.chronicle.Storage;
+import open.vincentf13.service.spot.infra.chronicle.TradeJournal;
 import open.vincentf13.service.spot.infra.metrics.StaticMetricsHolder;
+import open.vincentf13.service.spot.infra.util.Clock;
 import open.vincentf13.service.spot.model.MsgProgress;
+import open.vincentf13.service.spot.model.Order;
+import open.vincentf13.service.spot.model.Trade;
 import open.vincentf13.service.spot.model.WalProgress;
-import org.springframework.stereotype.Component;
+import open.vincentf13.service.spot.model.command.AbstractSbeModel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
 
 import static open.vincentf13.service.spot.infra.Constants.*;
 
@@ -22,56 +27,132 @@ import static open.vincentf13.service.spot.infra.Constants.*;
  *
  * 全非同步 Flush：
  * - matching thread 只做 rotate() 指針翻轉（ns 級）
- * - AsyncDiskFlusher 接手所有 ChronicleMap.put（Orders/Trades/Idempotency/Balance/Bitmask/Progress）
+ * - AsyncDiskFlusher 接手所有 ChronicleMap.put（Orders/Idempotency/Balance/Bitmask/Progress）與成交日誌追加
  * - 目標：matching 端到端延遲 µs 級，無 disk I/O 阻塞
+ *
+ * 狀態快照：按 {@link MatchingConfig#SNAPSHOT_INTERVAL_MS} 於 poll cycle 邊界擷取 {@link EngineSnapshot}，
+ * 冷啟動載入後只重播 WAL 尾段。
+ *
+ * 公開行情：每筆指令結束後由 {@link MarketDataPublisher} 發布成交與 L2 增量，週期性發布 L2 快照。
+ *
+ * 分片模式：每個分片一個 Engine 實例，由 {@link MatchingShard} 組裝，進度寫入分片專屬 metadata key。
+ *
+ * 多 Gateway：每個 gateway 一份接收進度（分片 × gateway 專屬 key），指令經 {@link IngressSequencer} 定序後處理；
+ * frame header 的 gateway ID 綁定用戶歸屬，回報據此路由回對應 gateway。
+ *
+ * 熱備：leader 經 {@link ReplicationPublisher} 轉發已處理指令與週期狀態雜湊；follower 靜默套用（回報 / 行情不送出），
+ * 於雜湊訊號位置比對狀態，{@link #promote} 後恢復發布。
  */
 @Slf4j
-@Component
-@RequiredArgsConstructor
 public class Engine {
     private final ChronicleMap<Byte, WalProgress> walMetadata = Storage.self().walMetadata();
     private final ChronicleMap<Byte, MsgProgress> msgMetadata = Storage.self().msgProgressMetadata();
+    @Getter private final int shardId;
     private final CommandRouter router;
     private final OrderProcessor orderProcessor;
     private final Ledger ledger;
+    private final OrderBooks books;
+    private final TransferProcessor transferProcessor;
     private final ExecutionReporter reporter;
+    private final MarketDataPublisher marketData;
     private final CoreStateValidator coreStateValidator;
-    private final AsyncDiskFlusher diskFlusher;
+    private final EngineSnapshot snapshot;
+
+    // 分片專屬 key 與延遲記錄器（單寫者，由本分片 matching thread 記錄）
+    private final byte walProgressKey;
+    private final byte[] msgProgressKeys = new byte[MatchingConfig.GATEWAY_COUNT];
+    private final StaticMetricsHolder.LatencyRecorder transportLatency, matchingLatency;
 
     private final WalProgress progress = new WalProgress();
-    @Getter private final MsgProgress networkProgress = new MsgProgress();
+    // 各 gateway 接收進度（index = gatewayId）
+    private final MsgProgress[] networkProgress = newProgressArray();
+    private final IngressSequencer sequencer;
+    private final ReplicationPublisher replication;
+    private boolean following = MatchingConfig.REPLICA_FOLLOWER;
 
     // Progress snapshot（matching 填入，flusher 讀出寫盤）
     private final WalProgress progressSnap = new WalProgress();
-    private final MsgProgress netProgressSnap = new MsgProgress();
+    private final MsgProgress[] netProgressSnap = newProgressArray();
     private volatile boolean progressReady = false;
+    // 已寫入 metadata 的各 gateway 接收進度：flusher 寫入，值單調遞增，matching 讀到舊值只會延後 WAL 釋放
+    private final long[] durableNetSeq = new long[MatchingConfig.GATEWAY_COUNT];
+
+    // OrderBook 整組翻轉：各 book 的成交交錯分配 tradeId，flusher 須一次看到同一輪全部 draining 才能合併為遞增序
+    private volatile boolean booksDraining = false;
+    private final TradeJournal tradeJournal;
+    private int[] mergeCursors = new int[0]; // flusher thread 專用
+    private QueryFeed queryFeed;             // flusher thread 專用，未啟用為 null
+    private volatile boolean recovered;
 
     private long pendingFlushSeq = MSG_SEQ_NONE;
-    private long lastReceivedSeq = MSG_SEQ_NONE;
+    private final long[] lastReceivedSeq = new long[MatchingConfig.GATEWAY_COUNT];
+    private final long[] snapshotNetSeq = new long[MatchingConfig.GATEWAY_COUNT];
 
     // 本地計數器：避免 per-message ConcurrentHashMap.computeIfAbsent + AtomicLong.addAndGet
     private long localProcessedCount;
 
+    public Engine(int shardId, CommandRouter router, OrderProcessor orderProcessor, Ledger ledger, OrderBooks books,
+                  TransferProcessor transferProcessor, ExecutionReporter reporter, MarketDataPublisher marketData,
+                  CoreStateValidator coreStateValidator) {
+        this.shardId = shardId;
+        this.router = router;
+        this.orderProcessor = orderProcessor;
+        this.ledger = ledger;
+        this.books = books;
+        this.transferProcessor = transferProcessor;
+        this.reporter = reporter;
+        this.marketData = marketData;
+        this.coreStateValidator = coreStateValidator;
+        this.snapshot = new EngineSnapshot(shardId, orderProcessor.getIdempotencyGuard());
+        this.tradeJournal = Storage.self().tradeJournal(shardId);
+        this.walProgressKey = MetaDataKey.matchingPoint(shardId);
+        for (int g = 0; g < msgProgressKeys.length; g++) msgProgressKeys[g] = MetaDataKey.matchingReceive(shardId, g);
+        Arrays.fill(lastReceivedSeq, MSG_SEQ_NONE);
+        Arrays.fill(durableNetSeq, MSG_SEQ_NONE);
+        this.sequencer = new IngressSequencer(shardId);
+        this.replication = MatchingConfig.REPLICATION_ENABLED ? new ReplicationPublisher(shardId) : null;
+        this.transportLatency = StaticMetricsHolder.latencyRecorder(MetricsKey.forShard(MetricsKey.LATENCY_TRANSPORT, shardId));
+        this.matchingLatency = StaticMetricsHolder.latencyRecorder(MetricsKey.forShard(MetricsKey.LATENCY_MATCHING, shardId));
+    }
+
     // ========== 生命週期 ==========
 
-    @PostConstruct
-    public void registerDiskSinks() {
+    public void registerDiskSinks(AsyncDiskFlusher diskFlusher) {
+        queryFeed = diskFlusher.queryFeed();
+        ledger.setQueryFeed(queryFeed);
         diskFlusher.register(orderProcessor.getIdempotencyGuard());
         diskFlusher.register(new OrderBookDiskSink());
         diskFlusher.register(ledger);
         diskFlusher.register(new ProgressDiskSink());
+        diskFlusher.register(snapshot);
     }
 
     public void onStart() {
         pendingFlushSeq = MSG_SEQ_NONE;
         reporter.init();
-        EngineRecovery.recover(progress, networkProgress, orderProcessor, ledger, coreStateValidator);
+        reporter.setMuted(following);
+        marketData.init();
+        if (replication != null) replication.init();
+        EngineRecovery.recover(shardId, progress, networkProgress, orderProcessor, ledger, books, transferProcessor,
+                coreStateValidator, snapshot);
+        orderProcessor.getIdempotencyGuard().openGenerations(progress.getOrderIdCounter());
+        sequencer.recover(progress.getLastProcessedMsgSeq(), networkProgress);
+        // 重建期間的變動不發布：行情 seq 自 0 重新起算，訂閱端以此快照重新同步
+        for (OrderBook book : books.all()) book.discardMarketData();
+        if (!following) marketData.publishSnapshots(books, Clock.now());
+        recovered = true;
     }
 
+    /** 冷啟動恢復完成（任意 thread 可讀） */
+    public boolean isRecovered() { return recovered; }
+
     public void onStop() {
         rotateAll();
+        captureSnapshot();      // 關機快照：下次啟動免重播
         prepareProgressSnap();  // 最後一次 snapshot，讓 flusher 最終排空時寫出
         reporter.close();
+        marketData.close();
+        if (replication != null) replication.close();
         ThreadContext.cleanup();
     }
 
@@ -79,13 +160,26 @@ public class Engine {
 
     public void onAeronMessage(int msgType, org.agrona.DirectBuffer buffer, int offset, int length) {
         final long arrivalTimeNs = System.nanoTime();
-        final long gatewayTimeNs = buffer.getLong(offset + 16, java.nio.ByteOrder.LITTLE_ENDIAN);
+        final long gatewayTimeNs = buffer.getLong(offset + AbstractSbeModel.GATEWAY_TIME_OFFSET, java.nio.ByteOrder.LITTLE_ENDIAN);
+        final long gwSeq = buffer.getLong(offset + AbstractSbeModel.SEQ_OFFSET, java.nio.ByteOrder.LITTLE_ENDIAN);
 
-        long seq = router.route(msgType, buffer, offset, length, gatewayTimeNs, progress);
+        long engineSeq = gwSeq;
+        if (MatchingConfig.GATEWAY_COUNT > 1) {
+            int gatewayId = buffer.getInt(offset + AbstractSbeModel.GATEWAY_ID_OFFSET, java.nio.ByteOrder.LITTLE_ENDIAN);
+            engineSeq = sequencer.sequence(gatewayId, gwSeq);
+            reporter.bindGateway(buffer.getLong(offset + AbstractSbeModel.USER_ID_OFFSET, java.nio.ByteOrder.LITTLE_ENDIAN), gatewayId);
+        }
+        long seq = router.route(msgType, buffer, offset, length, engineSeq, gatewayTimeNs, progress);
 
         // 使用最後一個 report 的 writeFrameHeader nanoTime 作為 matching 結束時間
         // 確保 matching 和 report_delivery 在同一個時間點切分，緊貼不交疊
         recordMessageMetrics(msgType, arrivalTimeNs, gatewayTimeNs, reporter.getMatchingEndNs());
+        if (following) {
+            for (OrderBook book : books.all()) book.discardMarketData();
+        } else {
+            marketData.publishChanges(books);
+            if (replication != null) replication.forward(buffer, offset, length);
+        }
         if (seq != MSG_SEQ_NONE) {
             long previousSeq = pendingFlushSeq != MSG_SEQ_NONE ? pendingFlushSeq : progress.getLastProcessedMsgSeq();
             if (previousSeq != MSG_SEQ_NONE && seq <= previousSeq) {
@@ -95,9 +189,39 @@ public class Engine {
         }
     }
 
-    public void onPollCycle(int done, long latestSeq) {
+    /** 跨分片交接：每輪 poll 排空本分片信箱，回傳處理筆數計入 work */
+    public int pollHandoff() {
+        return MatchingConfig.SHARD_COUNT == 1 ? 0 : transferProcessor.pollHandoff();
+    }
+
+    /** 各 gateway 接收進度（receiver 啟動時據此發送 RESUME） */
+    public MsgProgress getNetworkProgress(int gatewayId) {
+        return networkProgress[gatewayId];
+    }
+
+    /**
+     * gateway WAL 可釋放位點：冷啟動 RESUME 不會早於此序號（無持久化進度時回傳 MSG_SEQ_NONE）。
+     * 啟用快照時冷啟動自保留的快照世代之一重播，以最舊保留世代的位點為準；否則以 metadata 進度為準。
+     */
+    public long walReleaseSeq(int gatewayId) {
+        return MatchingConfig.SNAPSHOT_INTERVAL_MS > 0 ? snapshot.durableNetSeq(gatewayId) : durableNetSeq[gatewayId];
+    }
+
+    /** 合併日誌重播中：下一筆指令所屬 gateway，receiver 只 poll 該 gateway；-1 表示即時模式 */
+    public int replayGateway() {
+        return sequencer.replayGateway();
+    }
+
+    /** latestSeqs：receiver 各 gateway 最後處理的 gwSeq（index = gatewayId） */
+    public void onPollCycle(int done, long[] latestSeqs) {
+        // 閒置時仍按間隔發布行情快照，確保新訂閱者可取得基準
+        long nowMs = Clock.now();
+        if (!following) {
+            if (marketData.isSnapshotDue(nowMs)) marketData.publishSnapshots(books, nowMs);
+            if (replication != null && replication.isHashDue(nowMs)) replication.publishHash(stateHash(), nowMs);
+        }
         if (done == 0) return;
-        lastReceivedSeq = latestSeq;
+        System.arraycopy(latestSeqs, 0, lastReceivedSeq, 0, lastReceivedSeq.length);
         // flush 本地計數器（批次化，避免 per-message atomic ops）
         if (localProcessedCount > 0) {
             StaticMetricsHolder.addCounter(MetricsKey.ORDER_PROCESSED_COUNT, localProcessedCount);
@@ -105,18 +229,73 @@ public class Engine {
         }
         long bp = reporter.drainLocalBackpressure();
         if (bp > 0) StaticMetricsHolder.addCounter(MetricsKey.MATCHING_REPORT_BACKPRESSURE, bp);
+        long md = marketData.drainPublishedCount();
+        if (md > 0) StaticMetricsHolder.addCounter(MetricsKey.MD_PUBLISH_COUNT, md);
         rotateAll();
+        if (snapshot.isDue(nowMs)) captureSnapshot();
         prepareProgressSnap();
     }
 
+    // ========== 熱備 ==========
+
+    public boolean isFollowing() {
+        return following;
+    }
+
+    /** follower 於複製流 STATE_HASH 位置呼叫：此時已套用的指令與 leader 計算雜湊時相同 */
+    public boolean verifyStateHash(long leaderHash) {
+        long local = stateHash();
+        StaticMetricsHolder.addCounter(MetricsKey.REPLICA_HASH_CHECK_COUNT, 1);
+        if (local == leaderHash) return true;
+        StaticMetricsHolder.addCounter(MetricsKey.REPLICA_HASH_MISMATCH_COUNT, 1);
+        log.error("熱備狀態雜湊不一致 shard={}, leader={}, local={}, lastSeq={}", shardId,
+                Long.toHexString(leaderHash), Long.toHexString(local), pendingFlushSeq != MSG_SEQ_NONE ? pendingFlushSeq : progress.getLastProcessedMsgSeq());
+        return false;
+    }
+
+    /** 升主：恢復回報與行情發布，行情以新快照重置訂閱端基準 */
+    public void promote() {
+        following = false;
+        reporter.setMuted(false);
+        for (OrderBook book : books.all()) book.discardMarketData();
+        marketData.publishSnapshots(books, Clock.now());
+        log.warn("Engine[shard={}] 已升主，引擎序號={}", shardId,
+                pendingFlushSeq != MSG_SEQ_NONE ? pendingFlushSeq : progress.getLastProcessedMsgSeq());
+    }
+
+    /**
+     * 訂單簿 + ID 計數器（+ 單分片時的帳本）順序無關雜湊。
+     * 多分片時帳本受跨分片交接到達時序影響（不在指令流內），不納入比對。
+     * 僅限 matching thread 呼叫（熱備比對、離線重播結果核對）。
+     */
+    public long stateHash() {
+        long h = StateHash.entry(shardId, progress.getOrderIdCounter(), progress.getTradeIdCounter());
+        for (OrderBook book : books.all()) h = StateHash.mix(h) + book.stateHash(); // books.all() 順序由交易對設定決定
+        if (MatchingConfig.SHARD_COUNT == 1) h += ledger.stateHash();
+        return h;
+    }
+
     // ========== 內部 ==========
 
     private void rotateAll() {
         orderProcessor.getIdempotencyGuard().rotate();
-        for (OrderBook book : OrderBook.getInstances()) book.rotate();
+        if (!booksDraining) {
+            boolean rotated = false;
+            for (OrderBook book : books.all()) rotated |= book.rotate();
+            if (rotated) booksDraining = true; // volatile store：發布本輪所有 book 的 draining
+        }
         ledger.rotate();
     }
 
+    /** matching thread 呼叫：poll cycle 邊界擷取狀態快照，快照點為已作用於內存的最後序號 */
+    private void captureSnapshot() {
+        long msgSeq = pendingFlushSeq != MSG_SEQ_NONE ? pendingFlushSeq : progress.getLastProcessedMsgSeq();
+        for (int g = 0; g < snapshotNetSeq.length; g++) {
+            snapshotNetSeq[g] = lastReceivedSeq[g] != MSG_SEQ_NONE ? lastReceivedSeq[g] : networkProgress[g].getLastProcessedSeq();
+        }
+        snapshot.capture(msgSeq, snapshotNetSeq, progress, books, ledger, Clock.now());
+    }
+
     /** matching thread 呼叫：若 flusher 已寫完上一輪 progress，copy 當前 progress 給 flusher */
     private void prepareProgressSnap() {
         if (progressReady) return; // flusher 尚未寫完上一輪
@@ -124,36 +303,76 @@ public class Engine {
             progress.commitLastProcessedMsgSeq(pendingFlushSeq);
             pendingFlushSeq = MSG_SEQ_NONE;
         }
-        if (lastReceivedSeq != MSG_SEQ_NONE) {
-            networkProgress.setLastProcessedSeq(lastReceivedSeq);
+        for (int g = 0; g < networkProgress.length; g++) {
+            if (lastReceivedSeq[g] != MSG_SEQ_NONE) networkProgress[g].setLastProcessedSeq(lastReceivedSeq[g]);
+            netProgressSnap[g].copyFrom(networkProgress[g]);
         }
         progressSnap.copyFrom(progress);
-        netProgressSnap.copyFrom(networkProgress);
         progressReady = true;  // volatile 發布快照
     }
 
     private void recordMessageMetrics(int msgType, long arrivalTimeNs, long gatewayTimeNs, long endNs) {
-        if (msgType != MsgType.ORDER_CREATE && msgType != MsgType.ORDER_CANCEL) return;
+        if (msgType != MsgType.ORDER_CREATE && msgType != MsgType.ORDER_CANCEL
+                && msgType != MsgType.ORDER_CREATE_BATCH && msgType != MsgType.ORDER_CANCEL_BATCH) return;
         localProcessedCount++;
-        StaticMetricsHolder.recordLatency(MetricsKey.LATENCY_TRANSPORT, arrivalTimeNs - gatewayTimeNs);
-        StaticMetricsHolder.recordLatency(MetricsKey.LATENCY_MATCHING, endNs - arrivalTimeNs);
+        transportLatency.record(arrivalTimeNs - gatewayTimeNs);
+        matchingLatency.record(endNs - arrivalTimeNs);
     }
 
-    /** 遍歷所有 OrderBook 實例執行 drainToDisk，由 AsyncDiskFlusher 呼叫 */
-    private static class OrderBookDiskSink implements DiskSink {
+    /** 遍歷本分片所有 OrderBook 實例：成交合併寫入 TradeJournal 後執行 drainToDisk，由 AsyncDiskFlusher 呼叫 */
+    private class OrderBookDiskSink implements DiskSink {
         @Override public boolean rotate() { return false; }
         @Override public void drainToDisk() {
-            for (OrderBook book : OrderBook.getInstances()) book.drainToDisk();
+            if (!booksDraining) return;
+            OrderBook[] all = books.all();
+            journalTrades(all);
+            for (OrderBook book : all) {
+                if (queryFeed != null) {
+                    ArrayList<Order> dO = book.getDrainingOrders();
+                    if (dO != null) queryFeed.publishOrders(shardId, dO);
+                }
+                book.drainToDisk();
+            }
+            booksDraining = false;  // 釋放給 matching 下一輪整組 rotate
         }
+
+        /** 各 book 的 draining 成交各自遞增，k 路合併後依 tradeId 全域遞增追加 */
+        private void journalTrades(OrderBook[] all) {
+            if (mergeCursors.length < all.length) mergeCursors = new int[all.length];
+            Arrays.fill(mergeCursors, 0, all.length, 0);
+            while (true) {
+                Trade next = null;
+                int from = -1;
+                for (int i = 0; i < all.length; i++) {
+                    ArrayList<Trade> dT = all[i].getDrainingTrades();
+                    if (dT == null || mergeCursors[i] >= dT.size()) continue;
+                    Trade t = dT.get(mergeCursors[i]);
+                    if (next == null || t.getTradeId() < next.getTradeId()) { next = t; from = i; }
+                }
+                if (next == null) return;
+                tradeJournal.append(next);
+                mergeCursors[from]++;
+            }
+        }
+    }
+
+    private static MsgProgress[] newProgressArray() {
+        MsgProgress[] arr = new MsgProgress[MatchingConfig.GATEWAY_COUNT];
+        for (int g = 0; g < arr.length; g++) arr[g] = new MsgProgress();
+        return arr;
     }
 
-    /** Progress/NetworkProgress 快照寫入 ChronicleMap，由 AsyncDiskFlusher 呼叫 */
+    /**
+     * Progress/NetworkProgress 快照寫入 ChronicleMap，由 AsyncDiskFlusher 呼叫。
+     * gateway 進度先於引擎序號寫入：崩潰於兩者之間時引擎序號只會落後，重播由 {@link IngressSequencer} 略過已套用記錄。
+     */
     private class ProgressDiskSink implements DiskSink {
         @Override public boolean rotate() { return false; }
         @Override public void drainToDisk() {
             if (!progressReady) return;
-            walMetadata.put(MetaDataKey.Wal.MATCHING_ENGINE_POINT, progressSnap);
-            msgMetadata.put(MetaDataKey.MsgProgress.MATCHING_ENGINE_RECEIVE, netProgressSnap);
+            for (int g = 0; g < msgProgressKeys.length; g++) msgMetadata.put(msgProgressKeys[g], netProgressSnap[g]);
+            walMetadata.put(walProgressKey, progressSnap);
+            for (int g = 0; g < durableNetSeq.length; g++) durableNetSeq[g] = netProgressSnap[g].getLastProcessedSeq();
             progressReady = false;  // 釋放給 matching 準備下一輪快照
         }
     }
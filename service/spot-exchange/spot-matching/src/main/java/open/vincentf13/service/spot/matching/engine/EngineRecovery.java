@@ -2,9 +2,11 @@ package open.vincentf13.service.spot.matching.engine;
 
 import lombok.extern.slf4j.Slf4j;
 import open.vincentf13.service.spot.infra.chronicle.Storage;
+import open.vincentf13.service.spot.infra.util.ShardUtil;
 import open.vincentf13.service.spot.model.*;
 
 import static open.vincentf13.service.spot.infra.Constants.MatchingConfig;
+import static open.vincentf13.service.spot.infra.Constants.MetaDataKey;
 
 /**
  * 引擎冷啟動與預熱 (Engine Recovery)
@@ -16,31 +18,55 @@ import static open.vincentf13.service.spot.infra.Constants.MatchingConfig;
 public class EngineRecovery {
 
     /**
-     * 冷啟動：恢復 WalProgress / MsgProgress，重建 Ledger 與 OrderBook，驗證一致性。
+     * 冷啟動：優先載入 {@link EngineSnapshot}，由 RESUME 重播快照點之後的 WAL 尾段；
+     * 無可用快照時退回全量磁碟掃描。補入跨分片劃轉後驗證一致性。
+     * 各分片於自己的 matching thread 並行執行，只觸碰本分片擁有的狀態。
      */
-    public static void recover(WalProgress progress, MsgProgress networkProgress,
-                               OrderProcessor orderProcessor, Ledger ledger, CoreStateValidator validator) {
-        log.info("執行冷啟動最小重建...");
+    public static void recover(int shardId, WalProgress progress, MsgProgress[] networkProgress,
+                               OrderProcessor orderProcessor, Ledger ledger, OrderBooks books,
+                               TransferProcessor transferProcessor, CoreStateValidator validator,
+                               EngineSnapshot snapshot) {
+        long t0 = System.nanoTime();
+        if (snapshot.restore(progress, networkProgress, orderProcessor, ledger)) {
+            if (MatchingConfig.SHARD_COUNT > 1) transferProcessor.recoverIncoming();
+            long idFloor = ShardUtil.idBase(shardId);
+            progress.alignNextIds(idFloor, idFloor);
+            finishRecovery(shardId, progress, books, validator, t0);
+            return;
+        }
+
+        log.info("執行冷啟動最小重建 (shard={})...", shardId);
 
         var walMetadata = Storage.self().walMetadata();
         var msgMetadata = Storage.self().msgProgressMetadata();
 
-        WalProgress savedWal = walMetadata.get(open.vincentf13.service.spot.infra.Constants.MetaDataKey.Wal.MATCHING_ENGINE_POINT);
+        WalProgress savedWal = walMetadata.get(MetaDataKey.matchingPoint(shardId));
         if (savedWal != null) progress.copyFrom(savedWal);
 
-        MsgProgress savedMsg = msgMetadata.get(open.vincentf13.service.spot.infra.Constants.MetaDataKey.MsgProgress.MATCHING_ENGINE_RECEIVE);
-        if (savedMsg != null) networkProgress.copyFrom(savedMsg);
+        for (int g = 0; g < networkProgress.length; g++) {
+            MsgProgress savedMsg = msgMetadata.get(MetaDataKey.matchingReceive(shardId, g));
+            if (savedMsg != null) networkProgress[g].copyFrom(savedMsg);
+        }
 
         ledger.rebuildAssetIndexes();
+        if (MatchingConfig.SHARD_COUNT > 1) transferProcessor.recoverIncoming();
         long maxOrderId = orderProcessor.coldStartRebuild();
-        progress.alignNextIds(maxOrderId, rebuildTradeCounterFloor());
+        // 分片 ID 空間：shard N 的 orderId / tradeId 一律落在 idBase(N) 之上
+        long idFloor = ShardUtil.idBase(shardId);
+        progress.alignNextIds(Math.max(idFloor, maxOrderId), Math.max(idFloor, rebuildTradeCounterFloor(shardId)));
+
+        finishRecovery(shardId, progress, books, validator, t0);
+    }
 
+    private static void finishRecovery(int shardId, WalProgress progress, OrderBooks books,
+                                       CoreStateValidator validator, long startNs) {
         validator.validateOnRecovery();
-        OrderBook.get(1001); // 確保預設交易對已初始化
+        books.initOwnedSymbols(); // 確保本分片交易對已初始化
 
         warmupJit();
-        log.info("Engine 啟動完成，durableSeq={}, nextOrderId={}, nextTradeId={}",
-                progress.getLastProcessedMsgSeq(), progress.getOrderIdCounter(), progress.getTradeIdCounter());
+        log.info("Engine[shard={}] 啟動完成，durableSeq={}, nextOrderId={}, nextTradeId={}, 耗時={}ms",
+                shardId, progress.getLastProcessedMsgSeq(), progress.getOrderIdCounter(), progress.getTradeIdCounter(),
+                (System.nanoTime() - startNs) / 1_000_000);
     }
 
     /**
@@ -70,12 +96,9 @@ public class EngineRecovery {
         log.info("JIT 預熱完成 ({} iterations)", iterations);
     }
 
-    private static long rebuildTradeCounterFloor() {
-        final long[] maxTradeId = new long[1];
-        Storage.self().trades().forEach((k, trade) -> {
-            if (trade != null) maxTradeId[0] = Math.max(maxTradeId[0], trade.getTradeId());
-        });
-        return maxTradeId[0];
+    /** 成交日誌依 tradeId 遞增追加，尾端即最大值：O(1) 反向讀取 */
+    private static long rebuildTradeCounterFloor(int shardId) {
+        return Storage.self().tradeJournal(shardId).readLastTradeId();
     }
 
     private EngineRecovery() {}
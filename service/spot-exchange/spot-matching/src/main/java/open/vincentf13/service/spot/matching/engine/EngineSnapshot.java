@@ -0,0 +1,382 @@
+package open.vincentf13.service.spot.matching.engine;
+
+import lombok.extern.slf4j.Slf4j;
+import open.vincentf13.service.spot.model.MsgProgress;
+import open.vincentf13.service.spot.model.Order;
+import open.vincentf13.service.spot.model.WalProgress;
+import org.agrona.DirectBuffer;
+import org.agrona.ExpandableDirectByteBuffer;
+import org.agrona.MutableDirectBuffer;
+import org.agrona.concurrent.UnsafeBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+import static open.vincentf13.service.spot.infra.Constants.*;
+
+/**
+ * 引擎狀態快照 (Engine Snapshot)
+ *
+ * 週期性將分片的活躍狀態（掛單、帳本二級緩存、冪等窗口、ID 計數器）序列化為單一二進位檔，
+ * 標記快照點的 lastProcessedMsgSeq；冷啟動載入後只需經 RESUME 重播 Gateway WAL 尾段，
+ * 取代對 orders / trades 全表掃描，重啟時間與歷史資料量無關。
+ *
+ * 雙執行緒分工（同 {@link DiskSink}）：
+ * - matching thread：capture() 於 poll cycle 邊界將狀態寫入預配緩衝（狀態一致的唯一時點）
+ * - flusher thread：drainToDisk() 附加 Bloom filter 與 CRC，寫入暫存檔後原子 rename
+ *
+ * 世代保留：檔名帶快照點 seq（name-{seq}.bin），保留最新 {@link #KEEP_GENERATIONS} 份。
+ * 載入時由新到舊逐份校驗（CRC + 標頭 + 區段結構），最新一份不可用即退回上一世代；
+ * 損壞者改名為 .corrupt 不再參與輪替。WAL 釋放位點取最舊保留世代，確保退回後仍可重播。
+ *
+ * 檔案格式 (native byte order)：
+ * header | gateway 進度 | orders | balances | cid 窗口 | bloom | crc32c
+ */
+@Slf4j
+public class EngineSnapshot implements DiskSink {
+    private static final int MAGIC = 0x534E4150; // "SNAP"
+    private static final int FORMAT_VERSION = 3; // v2：各 gateway 接收進度；v3：CID 世代 Bloom
+    private static final int ORDER_BYTES = 10 * Long.BYTES + Integer.BYTES + 2;
+    private static final int KEEP_GENERATIONS = 2;
+    private static final String CONFIG_MISMATCH = "格式或分片 / gateway 配置不符";
+
+    private final int shardId;
+    private final Path dir;
+    private final String name;
+    private final Path legacyFile; // 舊版單檔快照，僅作最舊一份候選
+    private final Path tmpFile;
+    private final IdempotencyGuard idempotencyGuard;
+
+    // matching 寫入、flusher 讀出；ready 為 happens-before 門檻
+    private final ExpandableDirectByteBuffer buffer = new ExpandableDirectByteBuffer(4 << 20);
+    private int length;
+    private volatile boolean ready = false;
+    private long lastCaptureMs;
+    // 最舊保留世代的各 gateway 接收進度：flusher 於 rename 成功後寫入，值單調遞增，讀到舊值只會延後 WAL 釋放
+    private final long[] durableNetSeqs = new long[MatchingConfig.GATEWAY_COUNT];
+    // 最新一份已落盤快照的接收進度：下一份落盤後成為上一世代，轉入 durableNetSeqs
+    private final long[] latestNetSeqs = new long[MatchingConfig.GATEWAY_COUNT];
+
+    // flusher thread 專用
+    private final ByteBuffer bloomBuffer = ByteBuffer.allocateDirect(IdempotencyGuard.bloomBytes()).order(ByteOrder.nativeOrder());
+    private final ByteBuffer crcBuffer = ByteBuffer.allocateDirect(Integer.BYTES).order(ByteOrder.nativeOrder());
+    private final CRC32C crc = new CRC32C();
+
+    public EngineSnapshot(int shardId, IdempotencyGuard idempotencyGuard) {
+        this.shardId = shardId;
+        this.idempotencyGuard = idempotencyGuard;
+        this.name = ChronicleMapEnum.forShard(ChronicleMapEnum.ENGINE_SNAPSHOT, shardId);
+        this.dir = Path.of(ChronicleMapEnum.SNAPSHOT_BASE_DIR);
+        this.legacyFile = dir.resolve(name + ".bin");
+        this.tmpFile = dir.resolve(name + ".tmp");
+        this.lastCaptureMs = System.currentTimeMillis();
+        Arrays.fill(durableNetSeqs, MSG_SEQ_NONE);
+        Arrays.fill(latestNetSeqs, MSG_SEQ_NONE);
+    }
+
+    /** 最舊保留世代的 gateway 接收進度：以任一保留快照冷啟動時 RESUME 皆不會早於該序號 */
+    public long durableNetSeq(int gatewayId) {
+        return durableNetSeqs[gatewayId];
+    }
+
+    // ========== 擷取 (matching thread) ==========
+
+    /** 是否到達快照間隔且上一份已落盤 */
+    public boolean isDue(long nowMs) {
+        return MatchingConfig.SNAPSHOT_INTERVAL_MS > 0 && !ready && nowMs - lastCaptureMs >= MatchingConfig.SNAPSHOT_INTERVAL_MS;
+    }
+
+    /**
+     * 擷取快照點狀態。必須於 poll cycle 邊界呼叫：此時 msgSeq 之前的指令已全部作用於內存。
+     * 成本與活躍狀態大小成正比（掛單 + 帳戶數），不隨歷史成長。
+     */
+    public boolean capture(long msgSeq, long[] netSeqs, WalProgress progress, OrderBooks books, Ledger ledger, long nowMs) {
+        if (ready || msgSeq == MSG_SEQ_NONE) return false;
+        MutableDirectBuffer buf = buffer;
+        int offset = 0;
+        buf.putInt(offset, MAGIC);
+        buf.putInt(offset + 4, FORMAT_VERSION);
+        buf.putInt(offset + 8, shardId);
+        buf.putInt(offset + 12, MatchingConfig.SHARD_COUNT);
+        buf.putLong(offset + 16, msgSeq);
+        buf.putLong(offset + 24, netSeqs[0]);
+        buf.putLong(offset + 32, progress.getLastProcessedIndex());
+        buf.putLong(offset + 40, progress.getOrderIdCounter());
+        buf.putLong(offset + 48, progress.getTradeIdCounter());
+        buf.putLong(offset + 56, nowMs);
+        offset += 64;
+        buf.putInt(offset, netSeqs.length);
+        offset += Integer.BYTES;
+        for (int g = 1; g < netSeqs.length; g++, offset += Long.BYTES) buf.putLong(offset, netSeqs[g]);
+
+        int countOffset = offset;
+        offset += Integer.BYTES;
+        int count = 0;
+        for (OrderBook book : books.all()) {
+            for (Order o : book.activeOrders()) {
+                offset = putOrder(buf, offset, o);
+                count++;
+            }
+        }
+        buf.putInt(countOffset, count);
+        offset = ledger.snapshotTo(buf, offset);
+        offset = idempotencyGuard.snapshotTo(buf, offset);
+
+        length = offset;
+        lastCaptureMs = nowMs;
+        ready = true; // volatile 發布給 flusher
+        return true;
+    }
+
+    // ========== 落盤 (flusher thread) ==========
+
+    @Override
+    public boolean rotate() { return false; }
+
+    @Override
+    public void drainToDisk() {
+        if (!ready) return;
+        try {
+            Files.createDirectories(dir);
+            ByteBuffer payload = buffer.byteBuffer().duplicate();
+            payload.limit(length).position(0);
+            bloomBuffer.clear();
+            idempotencyGuard.writeBloomTo(bloomBuffer);
+            bloomBuffer.flip();
+
+            crc.reset();
+            crc.update(payload.duplicate());
+            crc.update(bloomBuffer.duplicate());
+            crcBuffer.clear();
+            crcBuffer.putInt((int) crc.getValue()).flip();
+
+            try (FileChannel ch = FileChannel.open(tmpFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (payload.hasRemaining()) ch.write(payload);
+                while (bloomBuffer.hasRemaining()) ch.write(bloomBuffer);
+                while (crcBuffer.hasRemaining()) ch.write(crcBuffer);
+                ch.force(true);
+            }
+            long msgSeq = buffer.getLong(16);
+            Files.move(tmpFile, generationFile(msgSeq), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            // 上一份成為保留的最舊世代：WAL 只可釋放到它的位點
+            System.arraycopy(latestNetSeqs, 0, durableNetSeqs, 0, latestNetSeqs.length);
+            latestNetSeqs[0] = buffer.getLong(24);
+            for (int g = 1; g < latestNetSeqs.length; g++) latestNetSeqs[g] = buffer.getLong(64 + Integer.BYTES + (g - 1) * Long.BYTES);
+            pruneGenerations();
+            log.info("Engine snapshot 已落盤 (shard={}, seq={}, bytes={})", shardId, msgSeq, length + bloomBuffer.limit() + Integer.BYTES);
+        } catch (IOException e) {
+            // 快照失敗不影響撮合正確性：下次冷啟動退回上一份快照或全量掃描
+            log.error("Engine snapshot 落盤失敗 (shard={}): {}", shardId, e.getMessage(), e);
+        } finally {
+            ready = false; // 釋放緩衝給 matching 下一輪擷取
+        }
+    }
+
+    /** 依快照點保留最新 KEEP_GENERATIONS 份；舊版單檔於新世代補滿後刪除 */
+    private void pruneGenerations() throws IOException {
+        List<Path> generations = listGenerations();
+        for (int i = KEEP_GENERATIONS; i < generations.size(); i++) Files.deleteIfExists(generations.get(i));
+        if (generations.size() >= KEEP_GENERATIONS) Files.deleteIfExists(legacyFile);
+    }
+
+    private Path generationFile(long msgSeq) {
+        return dir.resolve("%s-%020d.bin".formatted(name, msgSeq));
+    }
+
+    /** 本分片帶 seq 的快照世代，由新到舊（shard 0 的前綴也會列到其他分片檔，以純數字 seq 過濾） */
+    private List<Path> listGenerations() throws IOException {
+        List<Path> generations = new ArrayList<>();
+        if (!Files.isDirectory(dir)) return generations;
+        String prefix = name + "-";
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, prefix + "*.bin")) {
+            for (Path p : stream) {
+                String fileName = p.getFileName().toString();
+                String seq = fileName.substring(prefix.length(), fileName.length() - ".bin".length());
+                if (!seq.isEmpty() && seq.chars().allMatch(Character::isDigit)) generations.add(p);
+            }
+        }
+        generations.sort(Comparator.comparing((Path p) -> p.getFileName().toString()).reversed()); // seq 固定寬度，字典序即數值序
+        return generations;
+    }
+
+    // ========== 載入 (recovery) ==========
+
+    /**
+     * 冷啟動：由新到舊嘗試各保留世代，載入第一份通過校驗者並恢復各元件狀態。
+     * 校驗於覆寫任何內存狀態之前完成，退回上一世代不受失敗世代影響。
+     * 全部世代不可用或分片 / gateway 配置不符時回傳 false，由呼叫端退回全量掃描。
+     */
+    public boolean restore(WalProgress progress, MsgProgress[] networkProgress, OrderProcessor orderProcessor, Ledger ledger) {
+        List<Path> candidates;
+        try {
+            candidates = listGenerations();
+        } catch (IOException e) {
+            log.warn("Engine snapshot 目錄讀取失敗，退回全量掃描 (shard={}): {}", shardId, e.getMessage());
+            return false;
+        }
+        if (Files.isRegularFile(legacyFile)) candidates.add(legacyFile);
+        for (int i = 0; i < candidates.size(); i++) {
+            Path candidate = candidates.get(i);
+            byte[] bytes;
+            try {
+                bytes = Files.readAllBytes(candidate);
+            } catch (IOException e) {
+                log.warn("Engine snapshot 讀取失敗，嘗試上一世代 (shard={}, file={}): {}", shardId, candidate.getFileName(), e.getMessage());
+                continue;
+            }
+            String reason = validate(bytes, networkProgress.length);
+            if (reason == null) {
+                apply(new UnsafeBuffer(bytes), bytes.length - Integer.BYTES, progress, networkProgress, orderProcessor, ledger);
+                if (i + 1 < candidates.size()) retainPrevious(candidates.get(i + 1), networkProgress.length);
+                return true;
+            }
+            log.warn("Engine snapshot {}，嘗試上一世代 (shard={}, file={})", reason, shardId, candidate.getFileName());
+            if (!CONFIG_MISMATCH.equals(reason)) quarantine(candidate); // 配置不符非損壞，保留原檔
+        }
+        if (!candidates.isEmpty()) log.warn("Engine snapshot 無可用世代，退回全量掃描 (shard={})", shardId);
+        return false;
+    }
+
+    /** 校驗整份快照，通過回傳 null，否則回傳原因 */
+    private String validate(byte[] bytes, int gatewayCount) {
+        if (bytes.length < 64 + 2 * Integer.BYTES) return "長度不足";
+        UnsafeBuffer buf = new UnsafeBuffer(bytes);
+        int bodyLength = bytes.length - Integer.BYTES;
+        crc.reset();
+        crc.update(bytes, 0, bodyLength);
+        if ((int) crc.getValue() != buf.getInt(bodyLength)) return "CRC 校驗失敗";
+        if (buf.getInt(0) != MAGIC || buf.getInt(4) != FORMAT_VERSION
+                || buf.getInt(8) != shardId || buf.getInt(12) != MatchingConfig.SHARD_COUNT
+                || buf.getInt(64) != gatewayCount) {
+            return CONFIG_MISMATCH;
+        }
+        if (!validLayout(buf, bodyLength, gatewayCount)) return "區段結構不符";
+        return null;
+    }
+
+    /** 結構校驗：依各區段計數走訪，須恰好結束於 CRC 之前（CRC 正確但內容損壞的快照在此攔下） */
+    private static boolean validLayout(DirectBuffer buf, int bodyLength, int gatewayCount) {
+        long offset = 64 + Integer.BYTES + (long) (gatewayCount - 1) * Long.BYTES;
+        offset = skipSection(buf, offset, bodyLength, ORDER_BYTES);
+        offset = skipSection(buf, offset, bodyLength, BalanceTable.RECORD_BYTES);
+        offset = skipSection(buf, offset, bodyLength, IdempotencyGuard.SNAPSHOT_ENTRY_BYTES);
+        if (offset < 0 || offset + Integer.BYTES > bodyLength) return false;
+        int segments = buf.getInt((int) offset);
+        offset += Integer.BYTES;
+        for (int n = 0; n < segments; n++) {
+            if (offset + Long.BYTES + Integer.BYTES > bodyLength) return false;
+            int words = buf.getInt((int) offset + Long.BYTES);
+            if (words < 0) return false;
+            offset += Long.BYTES + Integer.BYTES + (long) words * Long.BYTES;
+        }
+        return offset == bodyLength;
+    }
+
+    private static long skipSection(DirectBuffer buf, long offset, int bodyLength, int entryBytes) {
+        if (offset < 0 || offset + Integer.BYTES > bodyLength) return -1;
+        int count = buf.getInt((int) offset);
+        return count < 0 ? -1 : offset + Integer.BYTES + (long) count * entryBytes;
+    }
+
+    /** 載入世代之前仍保留的上一世代可用時，WAL 釋放位點退至其位點，使其維持可退回 */
+    private void retainPrevious(Path previous, int gatewayCount) {
+        try {
+            byte[] bytes = Files.readAllBytes(previous);
+            if (validate(bytes, gatewayCount) != null) return;
+            UnsafeBuffer buf = new UnsafeBuffer(bytes);
+            durableNetSeqs[0] = buf.getLong(24);
+            for (int g = 1; g < durableNetSeqs.length; g++) durableNetSeqs[g] = buf.getLong(64 + Integer.BYTES + (g - 1) * Long.BYTES);
+        } catch (IOException e) {
+            log.warn("Engine snapshot 上一世代讀取失敗 (shard={}, file={}): {}", shardId, previous.getFileName(), e.getMessage());
+        }
+    }
+
+    /** 校驗失敗的世代改名保留供排查，不再參與載入與輪替 */
+    private void quarantine(Path candidate) {
+        try {
+            Files.move(candidate, candidate.resolveSibling(candidate.getFileName() + ".corrupt"), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            log.warn("Engine snapshot 隔離失敗 (shard={}, file={}): {}", shardId, candidate.getFileName(), e.getMessage());
+        }
+    }
+
+    private void apply(UnsafeBuffer buf, int bodyLength, WalProgress progress, MsgProgress[] networkProgress,
+                       OrderProcessor orderProcessor, Ledger ledger) {
+        long msgSeq = buf.getLong(16);
+        progress.setLastProcessedMsgSeq(msgSeq);
+        progress.setLastProcessedIndex(buf.getLong(32));
+        progress.setOrderIdCounter(buf.getLong(40));
+        progress.setTradeIdCounter(buf.getLong(48));
+        networkProgress[0].setLastProcessedSeq(buf.getLong(24));
+
+        int offset = 64 + Integer.BYTES;
+        for (int g = 1; g < networkProgress.length; g++, offset += Long.BYTES) {
+            networkProgress[g].setLastProcessedSeq(buf.getLong(offset));
+        }
+        for (int g = 0; g < durableNetSeqs.length; g++) {
+            durableNetSeqs[g] = latestNetSeqs[g] = networkProgress[g].getLastProcessedSeq();
+        }
+        int count = buf.getInt(offset);
+        offset += Integer.BYTES;
+        List<Order> activeOrders = new ArrayList<>(count);
+        for (int i = 0; i < count; i++, offset += ORDER_BYTES) activeOrders.add(getOrder(buf, offset));
+        offset = ledger.restoreFromSnapshot(buf, offset);
+        orderProcessor.restoreFromSnapshot(activeOrders);
+        IdempotencyGuard guard = orderProcessor.getIdempotencyGuard();
+        offset = guard.restoreFromSnapshot(buf, offset);
+        offset = guard.restoreBloom(buf, offset);
+        if (offset != bodyLength) throw new IllegalStateException("Snapshot trailing bytes, offset=%d, length=%d".formatted(offset, bodyLength));
+
+        log.info("Engine snapshot 已載入 (shard={}, seq={}, orders={}, capturedAt={})", shardId, msgSeq, count, buf.getLong(56));
+    }
+
+    // ========== 序列化 ==========
+
+    private static int putOrder(MutableDirectBuffer buf, int offset, Order o) {
+        buf.putLong(offset, o.getOrderId());
+        buf.putLong(offset + 8, o.getUserId());
+        buf.putLong(offset + 16, o.getPrice());
+        buf.putLong(offset + 24, o.getQty());
+        buf.putLong(offset + 32, o.getFilled());
+        buf.putLong(offset + 40, o.getFrozen());
+        buf.putLong(offset + 48, o.getVersion());
+        buf.putLong(offset + 56, o.getTimestamp());
+        buf.putLong(offset + 64, o.getLastSeq());
+        buf.putLong(offset + 72, o.getClientOrderId());
+        buf.putInt(offset + 80, o.getSymbolId());
+        buf.putByte(offset + 84, o.getSide());
+        buf.putByte(offset + 85, o.getStatus());
+        return offset + ORDER_BYTES;
+    }
+
+    private static Order getOrder(DirectBuffer buf, int offset) {
+        Order o = new Order();
+        o.setOrderId(buf.getLong(offset));
+        o.setUserId(buf.getLong(offset + 8));
+        o.setPrice(buf.getLong(offset + 16));
+        o.setQty(buf.getLong(offset + 24));
+        o.setFilled(buf.getLong(offset + 32));
+        o.setFrozen(buf.getLong(offset + 40));
+        o.setVersion(buf.getLong(offset + 48));
+        o.setTimestamp(buf.getLong(offset + 56));
+        o.setLastSeq(buf.getLong(offset + 64));
+        o.setClientOrderId(buf.getLong(offset + 72));
+        o.setSymbolId(buf.getInt(offset + 80));
+        o.setSide(buf.getByte(offset + 84));
+        o.setStatus(buf.getByte(offset + 85));
+        return o;
+    }
+}
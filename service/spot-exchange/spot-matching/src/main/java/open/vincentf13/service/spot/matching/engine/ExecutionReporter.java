@@ -9,8 +9,10 @@ import open.vincentf13.service.spot.model.Trade;
 import open.vincentf13.service.spot.model.command.AbstractSbeModel;
 import open.vincentf13.service.spot.sbe.*;
 import org.agrona.MutableDirectBuffer;
-import org.springframework.stereotype.Component;
+import org.agrona.collections.Long2LongHashMap;
+import org.agrona.concurrent.UnsafeBuffer;
 
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 
 import static open.vincentf13.service.spot.infra.Constants.*;
@@ -23,16 +25,29 @@ import static open.vincentf13.service.spot.infra.aeron.AeronUtil.SEND_OK;
  * 將撮合結果以 SBE 編碼透過 Aeron 發送至 Gateway。
  * 使用 cur* field pattern（零分配）取代 per-call lambda。
  * Match report 合併 taker + maker 為一次 Aeron tryClaim（batch send）。
+ * 批次指令期間 ({@link #beginBatch} ~ {@link #endBatch}) 所有回報暫存於預配 staging，結束時單次 claim 送出。
+ *
+ * 多 Gateway：每個 gateway 一條回報流，依用戶最近一筆指令的來源 gateway ({@link #bindGateway}) 路由；
+ * 尚無歸屬的用戶（如重啟後未再下指令的掛單者）廣播至所有 gateway，由各 gateway 的 session 查找過濾。
+ * 回報 frame 原樣轉發給客戶端，格式不變。
  */
 @Slf4j
-@Component
 public class ExecutionReporter implements AutoCloseable {
 
     private static final int HEADER_SIZE = 20;
     private static final int SBE_HEADER_OFFSET = 12;
     private static final int MATCH_SINGLE_LEN = HEADER_SIZE + OrderMatchedEncoder.BLOCK_LENGTH;
+    /** 批次回報暫存上限，實際取 min(此值, publication.maxPayloadLength) 保證單一 fragment */
+    private static final int STAGING_CAPACITY = 8192;
+    private static final int BROADCAST = -1;
 
-    private Publication publication;
+    // index = gatewayId；單 gateway 時僅 [0]
+    private final Publication[] publications = new Publication[MatchingConfig.GATEWAY_COUNT];
+    private final boolean multiGateway = MatchingConfig.GATEWAY_COUNT > 1;
+    private final Long2LongHashMap userGateway = new Long2LongHashMap(BROADCAST);
+    private int curGateway, stagedGateway;
+    // 熱備 follower：狀態照常推進，回報不送出
+    private boolean muted;
 
     // SBE 編碼器 (單線程，matching thread 獨佔)
     private final MessageHeaderEncoder headerEncoder = new MessageHeaderEncoder();
@@ -62,10 +77,38 @@ public class ExecutionReporter implements AutoCloseable {
     private final AeronUtil.AeronHandler rejectedFiller = this::fillRejected;
     private final AeronUtil.AeronHandler canceledFiller = this::fillCanceled;
     private final AeronUtil.AeronHandler matchBatchFiller = this::fillMatchBatch;
+    private final AeronUtil.AeronHandler matchTakerFiller = this::fillMatchTaker;
+    private final AeronUtil.AeronHandler matchMakerFiller = this::fillMatchMaker;
+
+    // ===== 批次合併 =====
+    private final UnsafeBuffer staging = new UnsafeBuffer(ByteBuffer.allocateDirect(STAGING_CAPACITY));
+    private int stagingLimit = STAGING_CAPACITY;
+    private int stagedLen;
+    private boolean batching;
+    private final AeronUtil.AeronHandler stagingFiller = (buf, off) -> buf.putBytes(off, staging, 0, stagedLen);
 
     public void init() {
-        this.publication = AeronUtil.aeron().addPublication(AeronChannel.REPORT_FLOW, AeronChannel.REPORT_STREAM_ID);
-        log.info("ExecutionReporter 已初始化，Aeron report channel 就緒");
+        int maxPayload = Integer.MAX_VALUE;
+        for (int g = 0; g < publications.length; g++) {
+            publications[g] = AeronUtil.aeron().addPublication(AeronChannel.REPORT_FLOW, AeronChannel.reportStreamId(g));
+            maxPayload = Math.min(maxPayload, publications[g].maxPayloadLength());
+        }
+        this.stagingLimit = Math.min(STAGING_CAPACITY, maxPayload);
+        log.info("ExecutionReporter 已初始化，Aeron report channel 就緒 (gateways={})", publications.length);
+    }
+
+    /** 多 gateway：記錄用戶最近一筆指令的來源 gateway，後續回報（含作為 maker 的成交）送往該 gateway */
+    public void bindGateway(long userId, int gatewayId) {
+        userGateway.put(userId, gatewayId);
+    }
+
+    /** 熱備 follower 靜默；升主時解除 */
+    public void setMuted(boolean muted) {
+        this.muted = muted;
+    }
+
+    private int gatewayOf(long userId) {
+        return multiGateway ? (int) userGateway.get(userId) : 0;
     }
 
     public void reportAccepted(Order taker) {
@@ -74,6 +117,7 @@ public class ExecutionReporter implements AutoCloseable {
         curUserId = taker.getUserId();
         curOrderId = taker.getOrderId();
         curClientOrderId = taker.getClientOrderId();
+        curGateway = gatewayOf(curUserId);
         trySend(HEADER_SIZE + OrderAcceptedEncoder.BLOCK_LENGTH, acceptedFiller);
     }
 
@@ -82,6 +126,7 @@ public class ExecutionReporter implements AutoCloseable {
         rejectedCount++;
         curUserId = userId;
         curClientOrderId = clientOrderId;
+        curGateway = gatewayOf(userId);
         trySend(HEADER_SIZE + OrderRejectedEncoder.BLOCK_LENGTH, rejectedFiller);
     }
 
@@ -95,7 +140,18 @@ public class ExecutionReporter implements AutoCloseable {
         curMakerClientOrderId = maker.getClientOrderId(); curMakerCumQty = maker.getFilled();
         curMakerStatus = (short) maker.getStatus();
         curTradePrice = trade.getPrice(); curTradeQty = trade.getQty();
-        trySend(MATCH_SINGLE_LEN * 2, matchBatchFiller);
+        int takerGateway = gatewayOf(curTakerUserId);
+        int makerGateway = gatewayOf(curMakerUserId);
+        if (takerGateway == makerGateway) {
+            curGateway = takerGateway;
+            trySend(MATCH_SINGLE_LEN * 2, matchBatchFiller);
+            return;
+        }
+        // taker / maker 歸屬不同 gateway：拆為兩次 claim 各自路由
+        curGateway = takerGateway;
+        trySend(MATCH_SINGLE_LEN, matchTakerFiller);
+        curGateway = makerGateway;
+        trySend(MATCH_SINGLE_LEN, matchMakerFiller);
     }
 
     public void reportCanceled(Order order) {
@@ -104,11 +160,24 @@ public class ExecutionReporter implements AutoCloseable {
         curOrderId = order.getOrderId();
         curFilledQty = order.getFilled();
         curClientOrderId = order.getClientOrderId();
+        curGateway = gatewayOf(curUserId);
         trySend(HEADER_SIZE + OrderCanceledEncoder.BLOCK_LENGTH, canceledFiller);
     }
 
+    /** 開始批次：之後的回報僅寫入 staging，直到 endBatch 才送出 */
+    public void beginBatch() {
+        batching = true;
+    }
+
+    /** 結束批次：staging 內全部回報以單次 claim 送出 */
+    public void endBatch() {
+        batching = false;
+        flushStaged();
+    }
+
     public void reportAuth(long userId) {}
     public void reportDeposit(long userId, int assetId, long amount) {}
+    public void reportTransfer(long userId, int assetId, long amount, int fromShard, int toShard) {}
 
     // ===== Fill methods — 預分配，零分配 =====
 
@@ -134,7 +203,22 @@ public class ExecutionReporter implements AutoCloseable {
     /** Batch: 一次 claim 寫入 taker + maker 兩個 match report，共用單次 nanoTime */
     private void fillMatchBatch(MutableDirectBuffer buf, int off) {
         matchingEndNs = System.nanoTime();
-        // taker report
+        putTakerMatch(buf, off);
+        // maker report (共用同一個 matchingEndNs，省 1 次 System.nanoTime + RDTSC pipeline stall)
+        putMakerMatch(buf, off + MATCH_SINGLE_LEN);
+    }
+
+    private void fillMatchTaker(MutableDirectBuffer buf, int off) {
+        matchingEndNs = System.nanoTime();
+        putTakerMatch(buf, off);
+    }
+
+    /** 緊接 fillMatchTaker 呼叫，沿用同一個 matchingEndNs */
+    private void fillMatchMaker(MutableDirectBuffer buf, int off) {
+        putMakerMatch(buf, off);
+    }
+
+    private void putTakerMatch(MutableDirectBuffer buf, int off) {
         buf.putInt(off, MsgType.ORDER_MATCHED, ByteOrder.LITTLE_ENDIAN);
         buf.putLong(off + 4, matchingEndNs, ByteOrder.LITTLE_ENDIAN);
         matchedEncoder.wrapAndApplyHeader(buf, off + SBE_HEADER_OFFSET, headerEncoder)
@@ -142,11 +226,12 @@ public class ExecutionReporter implements AutoCloseable {
             .status(OrderStatus.get(curTakerStatus))
             .lastPrice(curTradePrice).lastQty(curTradeQty).cumQty(curTakerCumQty)
             .avgPrice(curTradePrice).clientOrderId(curTakerClientOrderId);
-        // maker report (共用同一個 matchingEndNs，省 1 次 System.nanoTime + RDTSC pipeline stall)
-        int off2 = off + MATCH_SINGLE_LEN;
-        buf.putInt(off2, MsgType.ORDER_MATCHED, ByteOrder.LITTLE_ENDIAN);
-        buf.putLong(off2 + 4, matchingEndNs, ByteOrder.LITTLE_ENDIAN);
-        matchedEncoder.wrapAndApplyHeader(buf, off2 + SBE_HEADER_OFFSET, headerEncoder)
+    }
+
+    private void putMakerMatch(MutableDirectBuffer buf, int off) {
+        buf.putInt(off, MsgType.ORDER_MATCHED, ByteOrder.LITTLE_ENDIAN);
+        buf.putLong(off + 4, matchingEndNs, ByteOrder.LITTLE_ENDIAN);
+        matchedEncoder.wrapAndApplyHeader(buf, off + SBE_HEADER_OFFSET, headerEncoder)
             .timestamp(matchingEndNs).userId(curMakerUserId).orderId(curMakerOrderId)
             .status(OrderStatus.get(curMakerStatus))
             .lastPrice(curTradePrice).lastQty(curTradeQty).cumQty(curMakerCumQty)
@@ -156,6 +241,31 @@ public class ExecutionReporter implements AutoCloseable {
     // ===== Aeron send =====
 
     private boolean trySend(int len, AeronUtil.AeronHandler handler) {
+        if (!batching) return route(curGateway, len, handler);
+        // staging 將滿或目標 gateway 改變時先送出已暫存部分（超大批次拆為多次 claim，每次仍為單一 fragment）
+        if (stagedLen + len > stagingLimit || (stagedLen > 0 && curGateway != stagedGateway)) flushStaged();
+        handler.onFill(staging, stagedLen);
+        stagedLen += len;
+        stagedGateway = curGateway;
+        return true;
+    }
+
+    private void flushStaged() {
+        if (stagedLen == 0) return;
+        route(stagedGateway, stagedLen, stagingFiller);
+        stagedLen = 0;
+    }
+
+    /** 送往指定 gateway；BROADCAST 時逐一送往所有 gateway（handler 重複填入同一內容） */
+    private boolean route(int gatewayId, int len, AeronUtil.AeronHandler handler) {
+        if (muted) return true;
+        if (gatewayId != BROADCAST) return sendNow(publications[gatewayId], len, handler);
+        boolean sent = true;
+        for (Publication pub : publications) sent &= sendNow(pub, len, handler);
+        return sent;
+    }
+
+    private boolean sendNow(Publication publication, int len, AeronUtil.AeronHandler handler) {
         int spins = 0;
         while (true) {
             int res = AeronUtil.send(publication, len, handler);
@@ -192,6 +302,6 @@ public class ExecutionReporter implements AutoCloseable {
     public void close() {
         log.info("ExecutionReporter closing: accepted={}, rejected={}, matched={}, canceled={}",
                 acceptedCount, rejectedCount, matchedCount, canceledCount);
-        if (publication != null) publication.close();
+        for (Publication pub : publications) if (pub != null) pub.close();
     }
 }
@@ -1,20 +1,37 @@
 package open.vincentf13.service.spot.matching.engine;
 
 import net.openhft.chronicle.map.ChronicleMap;
+import org.agrona.DirectBuffer;
+import org.agrona.MutableDirectBuffer;
 import org.agrona.collections.Long2LongHashMap;
+import open.vincentf13.service.spot.infra.Constants.MatchingConfig;
 import open.vincentf13.service.spot.infra.chronicle.LongValue;
 import open.vincentf13.service.spot.infra.chronicle.Storage;
+import open.vincentf13.service.spot.infra.util.ShardUtil;
 import open.vincentf13.service.spot.model.CidKey;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 /**
  * 冪等性守衛 (Idempotency Guard)
  *
- * 職責：透過記憶體環形緩衝 + 磁碟 CID Map 兩級去重。
+ * 職責：透過記憶體環形緩衝 + 磁碟 CID 世代段兩級去重。
+ *
+ * 世代化去重窗口：
+ * - 以 orderId 區間劃分世代 (每 {@link MatchingConfig#CID_GENERATION_ORDERS} 筆)，每世代一個 CID 段檔 + 獨立 Bloom filter
+ * - 僅檢查當前與前一世代，更舊的段由 flusher 於翻世代時整檔刪除、Bloom 陣列清零重用：記憶體與磁碟用量固定
+ * - 世代由 orderId 決定而非時間，重播 / follower 依同一指令流得到相同的去重結果
+ * - 超出窗口的重複 clientOrderId 視為新訂單（與交易所常見的 clientOrderId 有效期語意一致）
  *
  * 雙緩衝非同步落盤：
  * - matching thread 寫入 active 緩衝；當 active 滿時呼叫 rotate 翻轉指針
  * - flusher thread 透過 drainToDisk 將 draining 緩衝寫入 ChronicleMap
  * - isDuplicate 同時檢查兩個緩衝 + 磁碟，保證在途訂單不被誤判為重複
+ *
+ * 快照恢復：磁碟 CID Map 可能領先快照點（快照後已落盤的映射）。
+ * 這些映射的 orderId 必定 ≥ 恢復後的 orderId 計數器，重播時會以相同 orderId 重新寫入，
+ * 因此磁碟命中僅在 orderId 小於 nextOrderId 時視為重複。
  */
 public class IdempotencyGuard implements DiskSink {
     private static final int BUFFER_SIZE = 65536;
@@ -34,49 +51,97 @@ public class IdempotencyGuard implements DiskSink {
     private Buffer active = bufA;              // 只由 matching thread 寫入
     private volatile Buffer draining = null;   // 由 matching 寫入，flusher 讀後 null
 
-    private final ChronicleMap<CidKey, LongValue> diskMap = Storage.self().clientOrderIdMap();
+    /** 世代段：CID 段檔 + 覆蓋該段已落盤映射的 Bloom filter；不可變，翻世代時整體替換 */
+    private static final class Segment {
+        final long generation;
+        final ChronicleMap<CidKey, LongValue> map;
+        final long[] bloom;
+
+        Segment(long generation, ChronicleMap<CidKey, LongValue> map, long[] bloom) {
+            this.generation = generation;
+            this.map = map;
+            this.bloom = bloom;
+        }
+    }
+
+    // 槽位 = generation & 1：當前與前一世代各佔一槽。僅由 flusher（或啟動前的 recovery）替換，
+    // matching thread 經由 draining 的 volatile 交接取得可見性
+    private final Segment[] segments = new Segment[2];
+    private final int shardId;
+    private final long idBase;
 
-    // Bloom filter: 覆蓋所有已 flush 到 disk 的 clientOrderId。
+    // Bloom filter: 覆蓋世代段內已 flush 到 disk 的 clientOrderId。
     // "definitely not in disk" → 跳過 mmap 讀取（省 1-2μs）
     // "maybe in disk" → 仍查 disk（正確性保障）
-    private static final int BLOOM_BITS = 1 << 22; // 4M bits = 512KB
+    // 每筆約 8 bits、3 次探測，誤判率約 3%
+    private static final int BLOOM_BITS = (int) Math.min(1L << 30,
+            Math.max(1L << 20, (long) Integer.highestOneBit(MatchingConfig.CID_GENERATION_ORDERS) << 4));
     private static final int BLOOM_MASK = BLOOM_BITS - 1;
-    private final long[] bloom = new long[BLOOM_BITS >>> 6]; // 4M / 64 = 65536 longs
+    private static final int BLOOM_WORDS = BLOOM_BITS >>> 6;
+    /** 快照待落盤映射每筆 [uid][cid][oid] */
+    static final int SNAPSHOT_ENTRY_BYTES = 3 * Long.BYTES;
 
     // matching thread 專用 key/value（單執行緒，不競爭）
     private final CidKey matchingKey = new CidKey();
+    private final LongValue matchingValue = new LongValue();
 
     // flusher thread 專用 key/value
     private final CidKey flusherKey = new CidKey();
     private final LongValue flusherValue = new LongValue();
 
+    // recovery 路徑（單執行緒，flusher 未啟動）專用 key/value
+    private final CidKey recoveryKey = new CidKey();
+    private final LongValue recoveryValue = new LongValue();
+
+    public IdempotencyGuard(int shardId) {
+        this.shardId = shardId;
+        this.idBase = ShardUtil.idBase(shardId);
+    }
+
     private static long cidKey(long userId, long clientOrderId) { return userId ^ (clientOrderId * 0x9E3779B97F4A7C15L); }
 
-    private void bloomAdd(long hash) {
-        bloom[(int) ((hash >>> 0) & BLOOM_MASK) >>> 6] |= 1L << (hash & 63);
-        bloom[(int) ((hash >>> 16) & BLOOM_MASK) >>> 6] |= 1L << ((hash >>> 16) & 63);
-        bloom[(int) ((hash >>> 32) & BLOOM_MASK) >>> 6] |= 1L << ((hash >>> 32) & 63);
+    private long generationOf(long orderId) {
+        return (orderId - idBase) / MatchingConfig.CID_GENERATION_ORDERS;
     }
 
-    private boolean bloomMayContain(long hash) {
-        return (bloom[(int) ((hash >>> 0) & BLOOM_MASK) >>> 6] & (1L << (hash & 63))) != 0
-            && (bloom[(int) ((hash >>> 16) & BLOOM_MASK) >>> 6] & (1L << ((hash >>> 16) & 63))) != 0
-            && (bloom[(int) ((hash >>> 32) & BLOOM_MASK) >>> 6] & (1L << ((hash >>> 32) & 63))) != 0;
+    // 雙重雜湊 (Kirsch-Mitzenmacher)：由一次 64-bit 混合導出 3 個探測位置
+    private static void bloomAdd(long[] bloom, long key) {
+        long h = key * 0xBF58476D1CE4E5B9L;
+        h ^= h >>> 31;
+        int h1 = (int) h, h2 = (int) (h >>> 32) | 1;
+        for (int i = 0; i < 3; i++, h1 += h2) bloom[(h1 & BLOOM_MASK) >>> 6] |= 1L << h1;
+    }
+
+    private static boolean bloomMayContain(long[] bloom, long key) {
+        long h = key * 0xBF58476D1CE4E5B9L;
+        h ^= h >>> 31;
+        int h1 = (int) h, h2 = (int) (h >>> 32) | 1;
+        for (int i = 0; i < 3; i++, h1 += h2) {
+            if ((bloom[(h1 & BLOOM_MASK) >>> 6] & (1L << h1)) == 0) return false;
+        }
+        return true;
     }
 
-    /** 檢查是否為重複指令：O(1) HashMap + Bloom filter 前置，避免 mmap 讀取 */
-    public boolean isDuplicate(long userId, long clientOrderId) {
+    /** 檢查是否為重複指令：O(1) HashMap + 世代 Bloom filter 前置，避免 mmap 讀取；nextOrderId 決定去重窗口並排除快照點之後的殘留映射 */
+    public boolean isDuplicate(long userId, long clientOrderId, long nextOrderId) {
         long key = cidKey(userId, clientOrderId);
         // 1. O(1) 查 active buffer
         if (active.index.get(key) != MISSING) return true;
         // 2. O(1) 查 draining buffer
         Buffer d = draining;
         if (d != null && d.index.get(key) != MISSING) return true;
-        // 3. Bloom filter：若 "definitely not"，跳過 disk（省 1-2μs mmap）
-        if (!bloomMayContain(key)) return false;
-        // 4. Bloom filter 說 "maybe"，查 disk 確認
+        // 3. 當前與前一世代：Bloom filter "definitely not" 跳過 disk，"maybe" 才查 disk 確認
+        long generation = generationOf(nextOrderId);
+        return segmentContains(generation, key, userId, clientOrderId, nextOrderId)
+            || segmentContains(generation - 1, key, userId, clientOrderId, nextOrderId);
+    }
+
+    private boolean segmentContains(long generation, long key, long userId, long clientOrderId, long nextOrderId) {
+        Segment s = segments[(int) (generation & 1)];
+        if (s == null || s.generation != generation || s.map == null || !bloomMayContain(s.bloom, key)) return false;
         matchingKey.set(userId, clientOrderId);
-        return diskMap.containsKey(matchingKey);
+        LongValue orderId = s.map.getUsing(matchingKey, matchingValue);
+        return orderId != null && orderId.getValue() < nextOrderId;
     }
 
     /** 記錄新的冪等映射（matching thread 呼叫） */
@@ -108,21 +173,74 @@ public class IdempotencyGuard implements DiskSink {
     public void drainToDisk() {
         Buffer d = draining;
         if (d == null) return;
-        for (int i = 0; i < d.count; i++) {
-            flusherKey.set(d.uids[i], d.cids[i]);
-            flusherValue.set(d.oids[i]);
-            diskMap.put(flusherKey, flusherValue);
-            // 加入 Bloom filter，讓後續 isDuplicate 能跳過 disk check
-            bloomAdd(cidKey(d.uids[i], d.cids[i]));
-        }
+        for (int i = 0; i < d.count; i++) persist(d, i, flusherKey, flusherValue);
         d.count = 0;
         d.index.clear();
         draining = null;                         // volatile write，釋放給 matching
     }
 
+    /** 寫入所屬世代段並加入 Bloom filter，讓後續 isDuplicate 能跳過 disk check */
+    private void persist(Buffer b, int i, CidKey key, LongValue value) {
+        Segment s = writableSegment(generationOf(b.oids[i]));
+        if (s == null) return; // 已超出去重窗口
+        key.set(b.uids[i], b.cids[i]);
+        value.set(b.oids[i]);
+        s.map.put(key, value);
+        bloomAdd(s.bloom, cidKey(b.uids[i], b.cids[i]));
+    }
+
+    /**
+     * 取得世代的可寫段；槽位被兩代前的段佔用時整檔刪除並重用其 Bloom 陣列（此時 matching 的窗口已不含該世代）。
+     * 映射所屬世代早於槽位現有世代時回傳 null。
+     */
+    private Segment writableSegment(long generation) {
+        int slot = (int) (generation & 1);
+        Segment s = segments[slot];
+        if (s != null && s.generation == generation) return s;
+        if (s != null && s.generation > generation) return null;
+        long[] bloom;
+        if (s != null) {
+            Storage.self().dropCidSegment(shardId, s.generation);
+            bloom = s.bloom;
+            Arrays.fill(bloom, 0L);
+        } else {
+            bloom = new long[BLOOM_WORDS];
+        }
+        s = new Segment(generation, Storage.self().cidSegment(shardId, generation), bloom);
+        segments[slot] = s;
+        return s;
+    }
+
+    /**
+     * 冷啟動收尾（recovery 完成後、flusher 啟動前）：刪除早於前一世代的段，
+     * 開啟當前與前一世代；快照未帶回對應 Bloom 時掃描段檔重建
+     */
+    public void openGenerations(long nextOrderId) {
+        long current = generationOf(nextOrderId);
+        long[] onDisk = Storage.self().cidSegmentGenerations(shardId);
+        for (long generation : onDisk) {
+            if (generation < current - 1) Storage.self().dropCidSegment(shardId, generation);
+        }
+        for (long generation = current - 1; generation <= current; generation++) {
+            if (generation < 0) continue;
+            int slot = (int) (generation & 1);
+            Segment s = segments[slot];
+            boolean restored = s != null && s.generation == generation;
+            if (!restored && Arrays.binarySearch(onDisk, generation) < 0) {
+                segments[slot] = null;
+                continue;
+            }
+            long[] bloom = restored ? s.bloom : new long[BLOOM_WORDS];
+            ChronicleMap<CidKey, LongValue> map = Storage.self().cidSegment(shardId, generation);
+            if (!restored) map.forEach((k, v) -> bloomAdd(bloom, cidKey(k.getUserId(), k.getClientOrderId())));
+            segments[slot] = new Segment(generation, map, bloom);
+        }
+    }
+
     /** 冷啟動清空（recovery 路徑呼叫） */
     public void clearDisk() {
-        diskMap.clear();
+        for (long generation : Storage.self().cidSegmentGenerations(shardId)) Storage.self().dropCidSegment(shardId, generation);
+        segments[0] = segments[1] = null;
         active.count = 0;
         active.index.clear();
         Buffer d = draining;
@@ -134,14 +252,92 @@ public class IdempotencyGuard implements DiskSink {
     public void flushInlineForRecovery() {
         if (active.count == 0) return;
         // 使用獨立 key/value 避免與 flusher thread 共用 reusable 物件
-        CidKey recoveryKey = new CidKey();
-        LongValue recoveryValue = new LongValue();
-        for (int i = 0; i < active.count; i++) {
-            recoveryKey.set(active.uids[i], active.cids[i]);
-            recoveryValue.set(active.oids[i]);
-            diskMap.put(recoveryKey, recoveryValue);
+        for (int i = 0; i < active.count; i++) persist(active, i, recoveryKey, recoveryValue);
+        active.count = 0;
+        active.index.clear();
+    }
+
+    // ========== 快照 ==========
+
+    /** matching thread 呼叫：寫出尚未落盤的 active / draining 映射，回傳寫入後 offset */
+    public int snapshotTo(MutableDirectBuffer buf, int offset) {
+        Buffer d = draining;
+        int count = active.count + (d != null ? d.count : 0);
+        int countOffset = offset;
+        offset += Integer.BYTES;
+        int written = 0;
+        for (int i = 0; i < active.count; i++, written++) offset = putEntry(buf, offset, active, i);
+        // draining 可能正被 flusher 清空；漏寫的映射已由 flusher 寫入磁碟，不影響正確性
+        if (d != null) {
+            for (int i = 0, n = Math.min(d.count, count - written); i < n; i++, written++) offset = putEntry(buf, offset, d, i);
+        }
+        buf.putInt(countOffset, written);
+        return offset;
+    }
+
+    private static int putEntry(MutableDirectBuffer buf, int offset, Buffer b, int i) {
+        buf.putLong(offset, b.uids[i]);
+        buf.putLong(offset + 8, b.cids[i]);
+        buf.putLong(offset + 16, b.oids[i]);
+        return offset + SNAPSHOT_ENTRY_BYTES;
+    }
+
+    /**
+     * flusher thread 呼叫：世代段與 Bloom filter 僅由 flusher 寫入，於落盤快照時附加（超集不影響正確性）。
+     * 格式：[int 段數] 每段 [long generation][int words][words]
+     */
+    public void writeBloomTo(ByteBuffer out) {
+        int countPosition = out.position();
+        out.putInt(0);
+        int count = 0;
+        for (Segment s : segments) {
+            if (s == null) continue;
+            out.putLong(s.generation);
+            out.putInt(s.bloom.length);
+            for (long word : s.bloom) out.putLong(word);
+            count++;
         }
+        out.putInt(countPosition, count);
+    }
+
+    /** Bloom 區段上限（兩個世代段） */
+    public static int bloomBytes() {
+        return Integer.BYTES + 2 * (Long.BYTES + Integer.BYTES + BLOOM_WORDS * Long.BYTES);
+    }
+
+    /** 冷啟動：自快照恢復待落盤映射，回傳讀取後 offset（不清空磁碟 CID Map） */
+    public int restoreFromSnapshot(DirectBuffer buf, int offset) {
         active.count = 0;
+        active.index.clear();
+        draining = null;
+        int count = buf.getInt(offset);
+        offset += Integer.BYTES;
+        for (int i = 0; i < count; i++, offset += SNAPSHOT_ENTRY_BYTES) {
+            record(buf.getLong(offset), buf.getLong(offset + 8), buf.getLong(offset + 16));
+        }
+        return offset;
+    }
+
+    /**
+     * 冷啟動：自快照恢復各世代 Bloom filter，回傳讀取後 offset。
+     * 段檔於 {@link #openGenerations} 開啟；世代大小變更導致長度不符時捨棄，改由掃描段檔重建。
+     */
+    public int restoreBloom(DirectBuffer buf, int offset) {
+        segments[0] = segments[1] = null;
+        int count = buf.getInt(offset);
+        offset += Integer.BYTES;
+        for (int n = 0; n < count; n++) {
+            long generation = buf.getLong(offset);
+            int words = buf.getInt(offset + Long.BYTES);
+            offset += Long.BYTES + Integer.BYTES;
+            if (words == BLOOM_WORDS) {
+                long[] bloom = new long[words];
+                for (int i = 0; i < words; i++) bloom[i] = buf.getLong(offset + i * Long.BYTES);
+                segments[(int) (generation & 1)] = new Segment(generation, null, bloom);
+            }
+            offset += words * Long.BYTES;
+        }
+        return offset;
     }
 
     /** 緊急情況：active 寫滿但 flusher 尚未處理。spin 等 flusher 完成；極端超時才 fallback */
@@ -159,11 +355,8 @@ public class IdempotencyGuard implements DiskSink {
         // 極端 fallback：flusher 卡死才走到這裡。使用獨立 key 避免與 flusher 共用狀態
         CidKey fallbackKey = new CidKey();
         LongValue fallbackValue = new LongValue();
-        for (int i = 0; i < active.count; i++) {
-            fallbackKey.set(active.uids[i], active.cids[i]);
-            fallbackValue.set(active.oids[i]);
-            diskMap.put(fallbackKey, fallbackValue);
-        }
+        for (int i = 0; i < active.count; i++) persist(active, i, fallbackKey, fallbackValue);
         active.count = 0;
+        active.index.clear();
     }
 }
@@ -0,0 +1,120 @@
+package open.vincentf13.service.spot.matching.engine;
+
+import lombok.extern.slf4j.Slf4j;
+import net.openhft.chronicle.bytes.Bytes;
+import net.openhft.chronicle.queue.ChronicleQueue;
+import net.openhft.chronicle.queue.ExcerptAppender;
+import net.openhft.chronicle.queue.ExcerptTailer;
+import net.openhft.chronicle.wire.DocumentContext;
+import open.vincentf13.service.spot.infra.chronicle.Storage;
+import open.vincentf13.service.spot.model.MsgProgress;
+
+import static open.vincentf13.service.spot.infra.Constants.*;
+
+/**
+ * 多 Gateway 輸入定序器 (Ingress Sequencer)
+ *
+ * 各 gateway 的 walIndex 為獨立序號空間，不可直接作為帳本 / 訂單的冪等水位。
+ * 多 gateway 時 matching thread 於處理每筆指令前將 (gatewayId, gwSeq) 追加至分片專屬合併日誌，
+ * 以日誌 index 作為引擎序號：全分片單調遞增，格式與 WAL index 相同（cycle 邊界跳躍、transferId 編碼皆沿用）。
+ *
+ * 恢復：自狀態快照點之後，依日誌記錄的順序重播（{@link #replayGateway} 指示 receiver 只 poll 下一筆所屬 gateway），
+ * 重播指令取回原引擎序號，冪等判定與崩潰前一致；日誌耗盡後轉為即時追加。
+ *
+ * 單 gateway 時直接沿用 gwSeq，不建立日誌，行為與檔案佈局不變。僅由 matching thread 存取。
+ */
+@Slf4j
+class IngressSequencer {
+    private static final int NONE = -1;
+
+    private final int shardId;
+    private final ChronicleQueue journal;
+    private ExcerptAppender appender;
+    private ExcerptTailer replayTailer;
+
+    // 重播狀態：下一筆日誌記錄（已讀出未消費）
+    private final long[] appliedSeq = new long[MatchingConfig.GATEWAY_COUNT];
+    private boolean replaying;
+    private int nextGateway = NONE;
+    private long nextGwSeq, nextIndex;
+
+    IngressSequencer(int shardId) {
+        this.shardId = shardId;
+        this.journal = MatchingConfig.GATEWAY_COUNT > 1 ? Storage.self().ingressJournal(shardId) : null;
+    }
+
+    /**
+     * 冷啟動：定位至快照點 (engineSeq) 之後的第一筆日誌記錄。
+     * gateway 進度先於引擎序號落盤，日誌中 gwSeq ≤ 該 gateway 已恢復進度的記錄已作用於狀態，重播時略過。
+     */
+    void recover(long engineSeq, MsgProgress[] networkProgress) {
+        if (journal == null) return;
+        for (int i = 0; i < appliedSeq.length; i++) appliedSeq[i] = networkProgress[i].getLastProcessedSeq();
+        appender = journal.acquireAppender();
+        replayTailer = journal.createTailer();
+        if (engineSeq == MSG_SEQ_NONE || !replayTailer.moveToIndex(engineSeq)) {
+            replayTailer.toStart();
+        } else {
+            // moveToIndex 定位於快照點本身，跳過該筆
+            try (DocumentContext dc = replayTailer.readingDocument()) {
+                if (!dc.isPresent()) log.warn("IngressSequencer[shard={}] 快照點 {} 不在日誌內", shardId, engineSeq);
+            }
+        }
+        replaying = true;
+        advance();
+        if (replaying) log.info("IngressSequencer[shard={}] 依合併日誌重播，起點 index={}", shardId, nextIndex);
+    }
+
+    /** 重播中：下一筆日誌記錄所屬 gateway；已轉為即時模式時回傳 -1 */
+    int replayGateway() {
+        return replaying ? nextGateway : NONE;
+    }
+
+    /** 指令定序：回傳引擎序號（冪等水位使用） */
+    long sequence(int gatewayId, long gwSeq) {
+        if (journal == null) return gwSeq;
+        if (replaying) {
+            if (gatewayId == nextGateway && gwSeq == nextGwSeq) {
+                long index = nextIndex;
+                advance();
+                return index;
+            }
+            // gateway WAL 與日誌不符（如 bypass 模式重啟）：放棄重播，其後指令以新序號追加
+            log.warn("IngressSequencer[shard={}] 重播不一致，expected=({}, {}) actual=({}, {})，轉為即時定序",
+                    shardId, nextGateway, nextGwSeq, gatewayId, gwSeq);
+            replaying = false;
+        }
+        try (DocumentContext dc = appender.writingDocument()) {
+            Bytes<?> bytes = dc.wire().bytes();
+            bytes.writeInt(gatewayId);
+            bytes.writeLong(gwSeq);
+            return dc.index();
+        }
+    }
+
+    /** 讀出下一筆尚未作用於狀態的日誌記錄；日誌耗盡時結束重播 */
+    private void advance() {
+        while (true) {
+            try (DocumentContext dc = replayTailer.readingDocument()) {
+                if (!dc.isPresent()) break;
+                Bytes<?> bytes = dc.wire().bytes();
+                int gatewayId = bytes.readInt();
+                long gwSeq = bytes.readLong();
+                if (gatewayId >= appliedSeq.length) {
+                    log.warn("IngressSequencer[shard={}] 日誌含未配置的 gateway={}，結束重播", shardId, gatewayId);
+                    break;
+                }
+                long applied = appliedSeq[gatewayId];
+                if (applied != MSG_SEQ_NONE && gwSeq <= applied) continue;
+                nextGateway = gatewayId;
+                nextGwSeq = gwSeq;
+                nextIndex = dc.index();
+                return;
+            }
+        }
+        if (replaying) log.info("IngressSequencer[shard={}] 合併日誌重播完成，轉為即時定序", shardId);
+        replaying = false;
+        nextGateway = NONE;
+        replayTailer.close();
+    }
+}
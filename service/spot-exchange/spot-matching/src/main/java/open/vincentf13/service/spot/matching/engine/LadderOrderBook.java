@@ -0,0 +1,244 @@
+package open.vincentf13.service.spot.matching.engine;
+
+import open.vincentf13.service.spot.model.Order;
+
+import static open.vincentf13.service.spot.infra.Constants.*;
+
+/**
+ * 陣列價格階梯訂單簿 (LadderOrderBook)
+ *
+ * 適用 tick 範圍有界的交易對：價位以 (price - minPrice) / tick 直接索引扁平陣列，
+ * 每價位以 Order 上的侵入式雙向鏈結 (levelPrev / levelNext) 串成 FIFO，撤單 O(1) 且不借用 Deque；
+ * 非空價位記錄於 bitmap，最優買賣價游標失效時以 64-bit 字組掃描尋找下一個非空價位。
+ */
+class LadderOrderBook extends OrderBook {
+
+    private final long minPrice;
+    private final long tick;
+    private final int levels;
+
+    // 每價位 FIFO 首尾
+    private final Order[] bidHead, bidTail, askHead, askTail;
+    // 非空價位 bitmap（bit i = 價位 i 有掛單）
+    private final long[] bidBits, askBits;
+    // 最優價游標：bestBid = -1 / bestAsk = levels 表示該側無掛單
+    private int bestBid = -1;
+    private int bestAsk;
+
+    LadderOrderBook(int symbolId, int baseAssetId, int quoteAssetId, MatchingPool objectPool, StpMode stpMode,
+                    long minPrice, long tick, int levels) {
+        super(symbolId, baseAssetId, quoteAssetId, objectPool, stpMode);
+        this.minPrice = minPrice;
+        this.tick = tick;
+        this.levels = levels;
+        this.bidHead = new Order[levels];
+        this.bidTail = new Order[levels];
+        this.askHead = new Order[levels];
+        this.askTail = new Order[levels];
+        this.bidBits = new long[(levels + 63) >>> 6];
+        this.askBits = new long[(levels + 63) >>> 6];
+        this.bestAsk = levels;
+    }
+
+    @Override
+    public boolean acceptsPrice(long price) {
+        if (price <= 0 || price < minPrice) return false;
+        long offset = price - minPrice;
+        return offset % tick == 0 && offset / tick < levels;
+    }
+
+    private int indexOf(long price) { return (int) ((price - minPrice) / tick); }
+    private long priceAt(int idx) { return minPrice + idx * tick; }
+
+    // ========== 內部撮合邏輯 ==========
+
+    @Override
+    protected void match(Order taker, long gwSeq, long timestamp,
+                         open.vincentf13.service.spot.model.WalProgress progress, TradeFinalizer finalizer) {
+        if (taker.getSide() == OrderSide.BUY) {
+            for (int idx = bestAsk; idx < levels && canMatch(taker); idx = nextSet(askBits, idx + 1)) {
+                long price = priceAt(idx);
+                if (taker.getPrice() < price) break;
+                executeMatchAtLevel(taker, askHead[idx], price, gwSeq, timestamp, progress, finalizer);
+            }
+        } else {
+            for (int idx = bestBid; idx >= 0 && canMatch(taker); idx = prevSet(bidBits, idx - 1)) {
+                long price = priceAt(idx);
+                if (taker.getPrice() > price) break;
+                executeMatchAtLevel(taker, bidHead[idx], price, gwSeq, timestamp, progress, finalizer);
+            }
+        }
+    }
+
+    private void executeMatchAtLevel(Order taker, Order maker, long price, long gwSeq, long timestamp,
+                                     open.vincentf13.service.spot.model.WalProgress progress, TradeFinalizer finalizer) {
+        while (maker != null && canMatch(taker)) {
+            Order next = maker.getLevelNext();
+            if (maker.getUserId() == taker.getUserId()) {
+                // 自成交防護：撤銷時 O(1) 斷開鏈結，保留的 maker 不影響其後 maker 的時間優先
+                if (preventSelfTrade(taker, maker, gwSeq, finalizer)) {
+                    unlink(maker);
+                    cancelSelfTradeMaker(maker, gwSeq, finalizer);
+                }
+                maker = next;
+                continue;
+            }
+
+            if (executeFill(taker, maker, price, gwSeq, timestamp, progress, finalizer)) {
+                unlink(maker);
+                finalizeOrder(maker, gwSeq);
+                objectPool.releaseOrder(maker); // 已斷開鏈結，回池後不再被讀取
+                maker = next;
+            }
+            else { syncOrder(maker, gwSeq); break; }
+        }
+    }
+
+    @Override
+    public boolean wouldCross(byte side, long price) {
+        if (side == OrderSide.BUY) return bestAsk < levels && price >= priceAt(bestAsk);
+        return bestBid >= 0 && price <= priceAt(bestBid);
+    }
+
+    /** 依價格優先序累加；STP 會中止 taker 時遇到首筆自單即停止 */
+    @Override
+    public long availableQty(byte takerSide, long limitPrice, long takerUserId, long needed) {
+        boolean stopAtSelf = selfTradeStopsTaker();
+        long sum = 0;
+        if (takerSide == OrderSide.BUY) {
+            for (int idx = bestAsk; idx < levels && sum < needed && priceAt(idx) <= limitPrice; idx = nextSet(askBits, idx + 1)) {
+                for (Order n = askHead[idx]; n != null; n = n.getLevelNext()) {
+                    if (n.getUserId() != takerUserId) sum += n.remainingQty();
+                    else if (stopAtSelf) return Math.min(sum, needed);
+                }
+            }
+        } else {
+            for (int idx = bestBid; idx >= 0 && sum < needed && priceAt(idx) >= limitPrice; idx = prevSet(bidBits, idx - 1)) {
+                for (Order n = bidHead[idx]; n != null; n = n.getLevelNext()) {
+                    if (n.getUserId() != takerUserId) sum += n.remainingQty();
+                    else if (stopAtSelf) return Math.min(sum, needed);
+                }
+            }
+        }
+        return Math.min(sum, needed);
+    }
+
+    // ========== 價位結構 ==========
+
+    @Override
+    protected void addToLevel(Order order) {
+        int idx = indexOf(order.getPrice());
+        boolean buy = order.getSide() == OrderSide.BUY;
+        Order[] head = buy ? bidHead : askHead;
+        Order[] tail = buy ? bidTail : askTail;
+        Order last = tail[idx];
+        order.setLevelPrev(last);
+        order.setLevelNext(null);
+        if (last == null) {
+            head[idx] = order;
+            long[] bits = buy ? bidBits : askBits;
+            bits[idx >>> 6] |= 1L << idx;
+            if (buy) { if (idx > bestBid) bestBid = idx; }
+            else if (idx < bestAsk) bestAsk = idx;
+        } else {
+            last.setLevelNext(order);
+        }
+        tail[idx] = order;
+    }
+
+    @Override
+    protected void removeFromLevel(Order o) {
+        boolean buy = o.getSide() == OrderSide.BUY;
+        // 未掛在價位上（無前驅且非隊首）時直接忽略
+        if (o.getLevelPrev() == null && (buy ? bidHead : askHead)[indexOf(o.getPrice())] != o) return;
+        unlink(o);
+    }
+
+    private void unlink(Order o) {
+        int idx = indexOf(o.getPrice());
+        boolean buy = o.getSide() == OrderSide.BUY;
+        Order[] head = buy ? bidHead : askHead;
+        Order[] tail = buy ? bidTail : askTail;
+        Order prev = o.getLevelPrev();
+        Order next = o.getLevelNext();
+        if (prev == null) head[idx] = next; else prev.setLevelNext(next);
+        if (next == null) tail[idx] = prev; else next.setLevelPrev(prev);
+        o.setLevelPrev(null);
+        o.setLevelNext(null);
+
+        if (head[idx] == null) {
+            long[] bits = buy ? bidBits : askBits;
+            bits[idx >>> 6] &= ~(1L << idx);
+            if (buy) { if (idx == bestBid) bestBid = prevSet(bidBits, idx - 1); }
+            else if (idx == bestAsk) bestAsk = nextSet(askBits, idx + 1);
+        }
+    }
+
+    @Override
+    protected void collectTopPrices(byte side, int maxLevels, it.unimi.dsi.fastutil.longs.LongArrayList out) {
+        if (side == OrderSide.BUY) {
+            for (int idx = bestBid; idx >= 0 && out.size() < maxLevels; idx = prevSet(bidBits, idx - 1)) out.add(priceAt(idx));
+        } else {
+            for (int idx = bestAsk; idx < levels && out.size() < maxLevels; idx = nextSet(askBits, idx + 1)) out.add(priceAt(idx));
+        }
+    }
+
+    /** 自 from（含）往上找第一個非空價位；無則回傳 levels */
+    private int nextSet(long[] bits, int from) {
+        if (from >= levels) return levels;
+        int word = from >>> 6;
+        long w = bits[word] & (-1L << from);
+        while (true) {
+            if (w != 0) return (word << 6) + Long.numberOfTrailingZeros(w);
+            if (++word >= bits.length) return levels;
+            w = bits[word];
+        }
+    }
+
+    /** 自 from（含）往下找第一個非空價位；無則回傳 -1 */
+    private int prevSet(long[] bits, int from) {
+        if (from < 0) return -1;
+        int word = from >>> 6;
+        long w = bits[word] & (-1L >>> (63 - (from & 63)));
+        while (true) {
+            if (w != 0) return (word << 6) + 63 - Long.numberOfLeadingZeros(w);
+            if (--word < 0) return -1;
+            w = bits[word];
+        }
+    }
+
+    // ========== 狀態驗證 ==========
+
+    @Override
+    protected boolean isInLevel(Order o) {
+        if (!acceptsPrice(o.getPrice())) return false;
+        int idx = indexOf(o.getPrice());
+        for (Order n = (o.getSide() == OrderSide.BUY ? bidHead : askHead)[idx]; n != null; n = n.getLevelNext()) {
+            if (n == o) return true;
+        }
+        return false;
+    }
+
+    @Override
+    protected void validateLevels() {
+        validateSide(bidHead, bidTail, bidBits, OrderSide.BUY);
+        validateSide(askHead, askTail, askBits, OrderSide.SELL);
+        if (bestBid != prevSet(bidBits, levels - 1)) throw new IllegalStateException("Best bid cursor mismatch, idx=" + bestBid);
+        if (bestAsk != nextSet(askBits, 0)) throw new IllegalStateException("Best ask cursor mismatch, idx=" + bestAsk);
+    }
+
+    private void validateSide(Order[] head, Order[] tail, long[] bits, byte expectedSide) {
+        for (int idx = 0; idx < levels; idx++) {
+            boolean marked = (bits[idx >>> 6] & (1L << idx)) != 0;
+            if (marked != (head[idx] != null)) throw new IllegalStateException("Level bitmap mismatch, side=" + expectedSide + ", idx=" + idx);
+            Order prev = null;
+            for (Order n = head[idx]; n != null; n = n.getLevelNext()) {
+                if (n.getLevelPrev() != prev) throw new IllegalStateException("Broken level link, orderId=" + n.getOrderId());
+                if (!orderIndex.containsKey(n.getOrderId())) throw new IllegalStateException("Unindexed order in level, orderId=" + n.getOrderId());
+                validateLevelOrder(n, expectedSide, priceAt(idx));
+                prev = n;
+            }
+            if (tail[idx] != prev) throw new IllegalStateException("Level tail mismatch, side=" + expectedSide + ", idx=" + idx);
+        }
+    }
+}
@@ -7,13 +7,12 @@ import open.vincentf13.service.spot.infra.chronicle.Storage;
 import open.vincentf13.service.spot.infra.util.DecimalUtil;
 import open.vincentf13.service.spot.model.Balance;
 import open.vincentf13.service.spot.model.BalanceKey;
+import org.agrona.DirectBuffer;
+import org.agrona.ExpandableDirectByteBuffer;
+import org.agrona.MutableDirectBuffer;
 import org.agrona.collections.Long2LongHashMap;
-import org.agrona.collections.Long2ObjectHashMap;
-import org.springframework.stereotype.Service;
-import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
 
-import java.util.ArrayDeque;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -22,73 +21,94 @@ import static open.vincentf13.service.spot.infra.Constants.*;
 /**
  * 內存帳務處理器 (Ledger) - 零對象分配 & 二級緩存版
  * 職責：管理資產流轉，使用內存緩存徹底消除熱點帳戶的磁碟 I/O 與對象裝箱。
+ * 每個撮合分片持有獨立的帳本切片 (balances-sN)，跨分片資金僅能經由 transferOut / transferIn 交接。
+ *
+ * 二級緩存為 off-heap {@link BalanceTable}：帳戶數成長不增加堆上物件；
+ * 落盤以 off-heap 雙緩衝記錄（每輪每帳戶一筆 48-byte 副本）交給 flusher，不再借用 Balance 快照物件池。
  */
 @Slf4j
-@Service
 public class Ledger implements DiskSink {
-    private final ChronicleMap<BalanceKey, Balance> balancesDiskMap = Storage.self().balances();
-    private final ChronicleMap<LongValue, LongValue> userAssetBitmaskDiskMap = Storage.self().userAssets();
+    private final int shardId;
+    private final ChronicleMap<BalanceKey, Balance> balancesDiskMap;
+    private final ChronicleMap<LongValue, LongValue> userAssetBitmaskDiskMap;
 
     // 二級緩存：徹底消除 BalanceKey 對象分配與磁碟讀取
-    private final Long2ObjectHashMap<Balance> balanceCache = new Long2ObjectHashMap<>(100_000, 0.5f);
+    private final BalanceTable table = new BalanceTable(MatchingConfig.LEDGER_INITIAL_CAPACITY);
     private final Long2LongHashMap bitmaskCache = new Long2LongHashMap(100_000, 0.5f, 0L);
 
-    // 雙緩衝非同步落盤：matching 寫 active，flusher 讀 draining
-    private final Long2ObjectHashMap<Balance> dirtyBalancesA = new Long2ObjectHashMap<>(1024, 0.5f);
-    private final Long2ObjectHashMap<Balance> dirtyBalancesB = new Long2ObjectHashMap<>(1024, 0.5f);
+    // 雙緩衝非同步落盤：matching 寫 active，flusher 讀 draining（記錄佈局見 BalanceTable.copyRecord）
+    private final ExpandableDirectByteBuffer dirtyRecordsA = new ExpandableDirectByteBuffer(1024 * BalanceTable.RECORD_BYTES);
+    private final ExpandableDirectByteBuffer dirtyRecordsB = new ExpandableDirectByteBuffer(1024 * BalanceTable.RECORD_BYTES);
     private final Long2LongHashMap dirtyBitmasksA = new Long2LongHashMap(1024, 0.5f, -1L);
     private final Long2LongHashMap dirtyBitmasksB = new Long2LongHashMap(1024, 0.5f, -1L);
-    private final ArrayDeque<Balance> balanceSnapPoolA = new ArrayDeque<>(1024);
-    private final ArrayDeque<Balance> balanceSnapPoolB = new ArrayDeque<>(1024);
 
-    private Long2ObjectHashMap<Balance> activeDirtyBalances = dirtyBalancesA;
+    private ExpandableDirectByteBuffer activeDirtyRecords = dirtyRecordsA;
+    private int activeDirtyCount;
+    // 槽位記錄的 stagedRound 等於本值時，stagedIndex 指向 active 緩衝內的記錄，同輪重複變更原地覆寫
+    private int dirtyRound = 1;
     private Long2LongHashMap activeDirtyBitmasks = dirtyBitmasksA;
-    private volatile Long2ObjectHashMap<Balance> drainingDirtyBalances = null;
+    private int drainingDirtyCount;  // 於 volatile 發布前寫入
+    private volatile ExpandableDirectByteBuffer drainingDirtyRecords = null;
     private volatile Long2LongHashMap drainingDirtyBitmasks = null;
 
     private final BalanceKey reusableKey = new BalanceKey();                 // matching thread
     private final Balance reusableDiskBalance = new Balance();               // matching thread (getUsing)
     private final BalanceKey flusherBalanceKey = new BalanceKey();           // flusher thread
+    private final Balance flusherBalance = new Balance();                    // flusher thread
     private final LongValue flusherMaskKey = new LongValue();                // flusher thread
     private final LongValue flusherMaskValue = new LongValue();              // flusher thread
     private final LongValue recoveryMaskKey = new LongValue();               // recovery path
     private final LongValue recoveryMaskValue = new LongValue();             // recovery path
+    private final BalanceKey recoveryBalanceKey = new BalanceKey();          // recovery path
+    private final Balance recoveryBalance = new Balance();                   // recovery path
+    private QueryFeed queryFeed;                                             // flusher thread，未啟用為 null
+
+    public Ledger(int shardId) {
+        this.shardId = shardId;
+        this.balancesDiskMap = Storage.self().balances(shardId);
+        this.userAssetBitmaskDiskMap = Storage.self().userAssets(shardId);
+    }
+
+    /** 查詢副本資料流：落盤記錄同時發布，於 flusher 啟動 drain 前設定 */
+    public void setQueryFeed(QueryFeed queryFeed) {
+        this.queryFeed = queryFeed;
+    }
 
-    @PostConstruct
     public void init() {
-        log.info("Ledger 正在預加載帳務數據至二級緩存...");
+        log.info("Ledger[shard={}] 正在預加載帳務數據至二級緩存...", shardId);
         userAssetBitmaskDiskMap.forEach((k, v) -> bitmaskCache.put(k.getValue(), v.getValue()));
-        log.info("Ledger 初始化完成。");
+        log.info("Ledger[shard={}] 初始化完成。", shardId);
     }
 
     /** matching thread 呼叫：將 active dirty 緩衝翻轉為 draining */
     @Override
     public boolean rotate() {
-        if (drainingDirtyBalances != null) return false; // flusher 尚未完成
-        if (activeDirtyBalances.isEmpty() && activeDirtyBitmasks.isEmpty()) return false;
-        Long2ObjectHashMap<Balance> wB = activeDirtyBalances;
+        if (drainingDirtyRecords != null) return false; // flusher 尚未完成
+        if (activeDirtyCount == 0 && activeDirtyBitmasks.isEmpty()) return false;
+        ExpandableDirectByteBuffer wB = activeDirtyRecords;
         Long2LongHashMap wM = activeDirtyBitmasks;
-        activeDirtyBalances = (wB == dirtyBalancesA) ? dirtyBalancesB : dirtyBalancesA;
+        activeDirtyRecords = (wB == dirtyRecordsA) ? dirtyRecordsB : dirtyRecordsA;
         activeDirtyBitmasks = (wM == dirtyBitmasksA) ? dirtyBitmasksB : dirtyBitmasksA;
+        drainingDirtyCount = activeDirtyCount;
+        activeDirtyCount = 0;
+        if (++dirtyRound == 0) dirtyRound = 1; // 0 保留給新插入槽位
         drainingDirtyBitmasks = wM;
-        drainingDirtyBalances = wB;  // 最後設定，作為 happens-before 門檻
+        drainingDirtyRecords = wB;  // 最後設定，作為 happens-before 門檻
         return true;
     }
 
-    /** flusher thread 呼叫：將 draining dirty 寫入 ChronicleMap，snap 歸還對應 pool */
+    /** flusher thread 呼叫：將 draining 記錄逐筆寫入 ChronicleMap */
     @Override
     public void drainToDisk() {
-        Long2ObjectHashMap<Balance> dB = drainingDirtyBalances;
+        ExpandableDirectByteBuffer dB = drainingDirtyRecords;
         if (dB == null) return;
         Long2LongHashMap dM = drainingDirtyBitmasks;
-        ArrayDeque<Balance> retPool = (dB == dirtyBalancesA) ? balanceSnapPoolA : balanceSnapPoolB;
-        if (!dB.isEmpty()) {
-            dB.forEach((combinedKey, snap) -> {
-                flusherBalanceKey.set(combinedKey >>> 32, (int) (combinedKey & 0xFFFFFFFFL));
-                ChronicleMapUtil.putNoRead(balancesDiskMap, flusherBalanceKey, snap);
-                retPool.addLast(snap);
-            });
-            dB.clear();
+        if (queryFeed != null) queryFeed.publishBalances(shardId, dB, drainingDirtyCount);
+        for (int i = 0, off = 0; i < drainingDirtyCount; i++, off += BalanceTable.RECORD_BYTES) {
+            long combinedKey = dB.getLong(off);
+            flusherBalanceKey.set(combinedKey >>> 32, (int) (combinedKey & 0xFFFFFFFFL));
+            readRecord(dB, off, flusherBalance);
+            ChronicleMapUtil.putNoRead(balancesDiskMap, flusherBalanceKey, flusherBalance);
         }
         if (!dM.isEmpty()) {
             Long2LongHashMap.EntryIterator iter = dM.entrySet().iterator();
@@ -101,31 +121,45 @@ public class Ledger implements DiskSink {
             dM.clear();
         }
         drainingDirtyBitmasks = null;
-        drainingDirtyBalances = null;
+        drainingDirtyRecords = null;
     }
 
-    private long combine(long userId, int assetId) {
-        return (userId << 32) | (assetId & 0xFFFFFFFFL);
+    private static void readRecord(DirectBuffer buf, int off, Balance out) {
+        out.setAvailable(buf.getLong(off + 8));
+        out.setFrozen(buf.getLong(off + 16));
+        out.setVersion(buf.getLong(off + 24));
+        out.setLastSeq(buf.getLong(off + 32));
+        out.setLastTradeId(buf.getLong(off + 40));
     }
 
-    private Balance getOrCreateBalance(long userId, int assetId) {
-        final long combinedKey = combine(userId, assetId);
-        Balance b = balanceCache.get(combinedKey);
-        if (b == null) {
+    private static void writeRecord(MutableDirectBuffer buf, int off, Balance in) {
+        buf.putLong(off + 8, in.getAvailable());
+        buf.putLong(off + 16, in.getFrozen());
+        buf.putLong(off + 24, in.getVersion());
+        buf.putLong(off + 32, in.getLastSeq());
+        buf.putLong(off + 40, in.getLastTradeId());
+    }
+
+    /** 回傳槽位 offset（下一次 getOrCreate 前有效）；快取未命中時自磁碟載入 */
+    private int getOrCreateBalance(long userId, int assetId) {
+        final long combinedKey = BalanceTable.combine(userId, assetId);
+        int b = table.find(combinedKey);
+        if (b == BalanceTable.NONE) {
+            b = table.insert(combinedKey);
             reusableKey.set(userId, assetId);
-            Balance diskVal = balancesDiskMap.getUsing(reusableKey, reusableDiskBalance);
-            if (diskVal != null) {
-                b = new Balance();
-                b.copyFrom(reusableDiskBalance);
-            } else {
-                b = new Balance();
-                b.setLastSeq(-1);
-            }
-            balanceCache.put(combinedKey, b);
+            if (balancesDiskMap.getUsing(reusableKey, reusableDiskBalance) != null) loadBalance(b, reusableDiskBalance);
         }
         return b;
     }
 
+    private void loadBalance(int b, Balance src) {
+        table.available(b, src.getAvailable());
+        table.frozen(b, src.getFrozen());
+        table.version(b, src.getVersion());
+        table.lastSeq(b, src.getLastSeq());
+        table.lastTradeId(b, src.getLastTradeId());
+    }
+
     public void settleTrade(long mUid, long tUid, long tradePrice, long tradeQty, byte takerSide, long mFrozenDelta, long tFrozenDelta, long seq, int baseAssetId, int quoteAssetId, long tradeId) {
         if (tradePrice <= 0 || tradeQty <= 0) {
             throw new IllegalArgumentException("Invalid trade payload, price=%d, qty=%d".formatted(tradePrice, tradeQty));
@@ -157,101 +191,142 @@ public class Ledger implements DiskSink {
         applySeqChange(userId, assetId, amount, 0, seq);
     }
 
+    /**
+     * 跨分片劃出（來源分片）：以 gwSeq 冪等扣減 available。
+     * 重放時若已套用則直接視為成功，由呼叫端依劃轉日誌決定是否重新交接。
+     */
+    public boolean transferOut(long userId, int assetId, long amount, long seq) {
+        if (amount <= 0) return false;
+        int b = getOrCreateBalance(userId, assetId);
+        if (shouldSkipSeqChange(b, seq)) return true;
+        if (table.available(b) < amount) return false;
+        applyBalanceDelta(userId, assetId, b, -amount, 0, seq, 0);
+        markDirtyForSeq(userId, assetId, b, seq);
+        return true;
+    }
+
+    /**
+     * 跨分片劃入（目標分片）：不推進 lastSeq —— 來源 seq 屬於另一條 WAL，不可污染本分片的冪等水位。
+     * 冪等性由劃轉日誌狀態 (PENDING → CREDITED) 保證。
+     *
+     * @return 入帳後的 Balance.version，寫回日誌供冷啟動判斷是否已落盤
+     */
+    public long transferIn(long userId, int assetId, long amount) {
+        int b = getOrCreateBalance(userId, assetId);
+        applyBalanceDelta(userId, assetId, b, amount, 0, table.lastSeq(b), 0);
+        table.version(b, table.version(b) + 1);
+        enqueueDirty(b);
+        updateAssetIndex(userId, assetId);
+        return table.version(b);
+    }
+
+    /** 快取中的餘額版本（冷啟動後等同磁碟版本），不存在回傳 0 */
+    public long balanceVersion(long userId, int assetId) {
+        int b = table.find(BalanceTable.combine(userId, assetId));
+        return b == BalanceTable.NONE ? 0 : table.version(b);
+    }
+
     public boolean freezeBalance(long userId, int assetId, long amount, long seq) {
         if (amount <= 0) return true; // 零凍結視為成功但不操作
-        Balance b = getOrCreateBalance(userId, assetId);
+        int b = getOrCreateBalance(userId, assetId);
         if (shouldSkipSeqChange(b, seq)) return true;
-        if (b.getAvailable() < amount) return false;
+        if (table.available(b) < amount) return false;
 
-        b.setAvailable(b.getAvailable() - amount);
-        b.setFrozen(b.getFrozen() + amount);
+        table.available(b, table.available(b) - amount);
+        table.frozen(b, table.frozen(b) + amount);
         markDirtyForSeq(userId, assetId, b, seq);
         return true;
     }
 
     public void unfreezeBalance(long userId, int assetId, long amount, long seq) {
         if (amount <= 0) return; // 零解凍不操作
-        Balance b = getOrCreateBalance(userId, assetId);
+        int b = getOrCreateBalance(userId, assetId);
         if (shouldSkipSeqChange(b, seq)) return;
-        if (amount > b.getFrozen()) {
+        if (amount > table.frozen(b)) {
             throw new IllegalStateException(
                 "Unfreeze exceeds frozen balance, uid=%d, asset=%d, frozen=%d, amount=%d, seq=%d"
-                    .formatted(userId, assetId, b.getFrozen(), amount, seq)
+                    .formatted(userId, assetId, table.frozen(b), amount, seq)
             );
         }
 
-        b.setAvailable(b.getAvailable() + amount);
-        b.setFrozen(b.getFrozen() - amount);
+        table.available(b, table.available(b) + amount);
+        table.frozen(b, table.frozen(b) - amount);
         markDirtyForSeq(userId, assetId, b, seq);
     }
 
     private void applySeqChange(long userId, int assetId, long availDelta, long frozenDelta, long seq) {
-        Balance b = getOrCreateBalance(userId, assetId);
+        int b = getOrCreateBalance(userId, assetId);
         if (shouldSkipSeqChange(b, seq)) return;
         applyBalanceDelta(userId, assetId, b, availDelta, frozenDelta, seq, 0);
         markDirtyForSeq(userId, assetId, b, seq);
     }
 
     private void applyTradeChange(long userId, int assetId, long availDelta, long frozenDelta, long seq, long tradeId) {
-        Balance b = getOrCreateBalance(userId, assetId);
+        int b = getOrCreateBalance(userId, assetId);
         if (shouldSkipTradeChange(b, tradeId)) return;
-        if (seq < b.getLastSeq()) {
+        if (seq < table.lastSeq(b)) {
             throw new IllegalStateException(
                 "Trade sequence regressed, uid=%d, asset=%d, balanceSeq=%d, tradeSeq=%d, tradeId=%d"
-                    .formatted(userId, assetId, b.getLastSeq(), seq, tradeId)
+                    .formatted(userId, assetId, table.lastSeq(b), seq, tradeId)
             );
         }
         applyBalanceDelta(userId, assetId, b, availDelta, frozenDelta, seq, tradeId);
         markDirtyForTrade(userId, assetId, b, seq, tradeId);
     }
 
-    private void applyBalanceDelta(long userId, int assetId, Balance b, long availDelta, long frozenDelta, long seq, long tradeId) {
-        long nextAvailable = b.getAvailable() + availDelta;
-        long nextFrozen = b.getFrozen() + frozenDelta;
+    private void applyBalanceDelta(long userId, int assetId, int b, long availDelta, long frozenDelta, long seq, long tradeId) {
+        long nextAvailable = table.available(b) + availDelta;
+        long nextFrozen = table.frozen(b) + frozenDelta;
         if (nextAvailable < 0 || nextFrozen < 0) {
             throw new IllegalStateException(
                 "Negative balance state, uid=%d, asset=%d, avail=%d, frozen=%d, seq=%d, tradeId=%d"
                     .formatted(userId, assetId, nextAvailable, nextFrozen, seq, tradeId)
             );
         }
-        b.setAvailable(nextAvailable);
-        b.setFrozen(nextFrozen);
+        table.available(b, nextAvailable);
+        table.frozen(b, nextFrozen);
     }
 
-    private boolean shouldSkipSeqChange(Balance b, long seq) {
-        return b.getLastSeq() >= seq;
+    /**
+     * seq 冪等：lastSeq 已超過 seq 必為重播；等於 seq 時，僅當本進程在同一指令內已套用過才繼續
+     * （即時單剩餘解凍、批次內同一資產的多筆凍結 / 解凍），否則為已落盤指令的重播。
+     */
+    private boolean shouldSkipSeqChange(int b, long seq) {
+        long last = table.lastSeq(b);
+        return last > seq || (last == seq && table.appliedSeq(b) != seq);
     }
 
-    private boolean shouldSkipTradeChange(Balance b, long tradeId) {
-        return b.getLastTradeId() >= tradeId;
+    private boolean shouldSkipTradeChange(int b, long tradeId) {
+        return table.lastTradeId(b) >= tradeId;
     }
 
-    private void markDirtyForSeq(long userId, int assetId, Balance b, long seq) {
-        b.setVersion(b.getVersion() + 1);
-        b.setLastSeq(seq);
-        enqueueDirty(userId, assetId, b);
+    private void markDirtyForSeq(long userId, int assetId, int b, long seq) {
+        table.version(b, table.version(b) + 1);
+        table.lastSeq(b, seq);
+        table.appliedSeq(b, seq);
+        enqueueDirty(b);
         updateAssetIndex(userId, assetId);
     }
 
-    private void markDirtyForTrade(long userId, int assetId, Balance b, long seq, long tradeId) {
-        b.setVersion(b.getVersion() + 1);
-        if (seq > b.getLastSeq()) b.setLastSeq(seq);
-        b.setLastTradeId(tradeId);
-        enqueueDirty(userId, assetId, b);
+    private void markDirtyForTrade(long userId, int assetId, int b, long seq, long tradeId) {
+        table.version(b, table.version(b) + 1);
+        if (seq > table.lastSeq(b)) table.lastSeq(b, seq);
+        table.appliedSeq(b, seq); // 成交推進 lastSeq 後，同指令後續的凍結 / 解凍不可被視為重播
+        table.lastTradeId(b, tradeId);
+        enqueueDirty(b);
         updateAssetIndex(userId, assetId);
     }
 
-    private void enqueueDirty(long userId, int assetId, Balance live) {
-        long combinedKey = combine(userId, assetId);
-        // 從 active 緩衝專屬 snap pool 借取（或複用既有 snap 直接更新欄位）
-        ArrayDeque<Balance> pool = (activeDirtyBalances == dirtyBalancesA) ? balanceSnapPoolA : balanceSnapPoolB;
-        Balance snap = activeDirtyBalances.get(combinedKey);
-        if (snap == null) {
-            snap = pool.pollFirst();
-            if (snap == null) snap = new Balance();
-            activeDirtyBalances.put(combinedKey, snap);
+    /** 槽位持久化欄位複製至 active 落盤緩衝：本輪首次變更追加記錄，其後原地覆寫 */
+    private void enqueueDirty(int b) {
+        int index;
+        if (table.stagedRound(b) == dirtyRound) {
+            index = table.stagedIndex(b);
+        } else {
+            index = activeDirtyCount++;
+            table.staged(b, dirtyRound, index);
         }
-        snap.copyFrom(live);
+        table.copyRecord(b, activeDirtyRecords, index * BalanceTable.RECORD_BYTES);
     }
 
     private void updateAssetIndex(long userId, int assetId) {
@@ -265,18 +340,13 @@ public class Ledger implements DiskSink {
     }
 
     public void rebuildAssetIndexes() {
-        log.info("--- 執行帳本二級緩存預熱與索引重建 ---");
+        log.info("--- 執行帳本二級緩存預熱與索引重建 (shard={}) ---", shardId);
         bitmaskCache.clear();
-        balanceCache.clear();
-        activeDirtyBalances.clear();
-        activeDirtyBitmasks.clear();
+        clearCache();
         balancesDiskMap.forEach((key, diskVal) -> {
-            Balance b = new Balance();
-            b.copyFrom(diskVal);
-            b.setDirty(false);
-            balanceCache.put(combine(key.getUserId(), key.getAssetId()), b);
+            loadBalance(table.insert(BalanceTable.combine(key.getUserId(), key.getAssetId())), diskVal);
 
-            if (b.getAvailable() > 0 || b.getFrozen() > 0) {
+            if (diskVal.getAvailable() > 0 || diskVal.getFrozen() > 0) {
                 int assetId = key.getAssetId();
                 if (assetId >= 0 && assetId < 64) {
                     long mask = bitmaskCache.get(key.getUserId());
@@ -289,14 +359,81 @@ public class Ledger implements DiskSink {
             recoveryMaskValue.set(v);
             userAssetBitmaskDiskMap.put(recoveryMaskKey, recoveryMaskValue);
         });
-        log.info("Ledger 預熱完成，緩存帳戶數: {}", balanceCache.size());
+        log.info("Ledger 預熱完成，緩存帳戶數: {}", table.size());
+    }
+
+    /** 重建前清空二級緩存與 active 落盤緩衝（draining 由 flusher 照常寫完） */
+    private void clearCache() {
+        table.clear();
+        activeDirtyCount = 0;
+        activeDirtyBitmasks.clear();
+    }
+
+    // ========== 快照 ==========
+
+    // 快照記錄與落盤記錄同一佈局：key | available | frozen | version | lastSeq | lastTradeId
+    private static final int SNAPSHOT_ENTRY_BYTES = BalanceTable.RECORD_BYTES;
+
+    /** matching thread 呼叫：寫出完整二級緩存（即快照點的帳本狀態），回傳寫入後 offset */
+    public int snapshotTo(MutableDirectBuffer buf, int offset) {
+        buf.putInt(offset, table.size());
+        offset += Integer.BYTES;
+        for (int b = table.first(); b != BalanceTable.NONE; b = table.next(b)) {
+            table.copyRecord(b, buf, offset);
+            offset += SNAPSHOT_ENTRY_BYTES;
+        }
+        return offset;
+    }
+
+    /**
+     * 冷啟動：以快照覆寫帳本切片（磁碟可能領先快照點，重播前必須回到快照狀態），回傳讀取後 offset。
+     * 成本與帳戶數成正比，不隨歷史成交成長。
+     */
+    public int restoreFromSnapshot(DirectBuffer buf, int offset) {
+        log.info("--- 自快照恢復帳本 (shard={}) ---", shardId);
+        bitmaskCache.clear();
+        clearCache();
+        balancesDiskMap.clear();
+        userAssetBitmaskDiskMap.clear();
+
+        int count = buf.getInt(offset);
+        offset += Integer.BYTES;
+        for (int i = 0; i < count; i++, offset += SNAPSHOT_ENTRY_BYTES) {
+            long combinedKey = buf.getLong(offset);
+            table.loadRecord(table.insert(combinedKey), buf, offset);
+            readRecord(buf, offset, recoveryBalance);
+
+            long userId = combinedKey >>> 32;
+            int assetId = (int) combinedKey;
+            recoveryBalanceKey.set(userId, assetId);
+            balancesDiskMap.put(recoveryBalanceKey, recoveryBalance);
+            if ((recoveryBalance.getAvailable() > 0 || recoveryBalance.getFrozen() > 0) && assetId >= 0 && assetId < 64) {
+                bitmaskCache.put(userId, bitmaskCache.get(userId) | (1L << assetId));
+            }
+        }
+        bitmaskCache.forEach((k, v) -> {
+            recoveryMaskKey.set(k);
+            recoveryMaskValue.set(v);
+            userAssetBitmaskDiskMap.put(recoveryMaskKey, recoveryMaskValue);
+        });
+        log.info("帳本快照恢復完成，緩存帳戶數: {}", table.size());
+        return offset;
+    }
+
+    /** 熱備比對：全部帳戶 (key, available, frozen) 的順序無關雜湊，matching thread 呼叫 */
+    public long stateHash() {
+        long h = 0;
+        for (int b = table.first(); b != BalanceTable.NONE; b = table.next(b)) {
+            h += StateHash.entry(table.key(b), table.available(b), table.frozen(b));
+        }
+        return h;
     }
 
     public boolean hasAsset(long userId, int assetId) {
         if (assetId >= 0 && assetId < 64) {
             return (bitmaskCache.get(userId) & (1L << assetId)) != 0;
         }
-        return balanceCache.containsKey(combine(userId, assetId));
+        return table.find(BalanceTable.combine(userId, assetId)) != BalanceTable.NONE;
     }
 
     public void initAccount(long userId, int assetId, long seq) {
@@ -305,16 +442,17 @@ public class Ledger implements DiskSink {
 
     public void validateState() {
         Map<Long, Long> expectedMasks = new HashMap<>();
-        balanceCache.forEach((combinedKey, balance) -> {
-            if (balance.getAvailable() < 0 || balance.getFrozen() < 0) {
+        for (int b = table.first(); b != BalanceTable.NONE; b = table.next(b)) {
+            long combinedKey = table.key(b);
+            if (table.available(b) < 0 || table.frozen(b) < 0) {
                 throw new IllegalStateException("Negative balance cache state for key=" + combinedKey);
             }
             long userId = combinedKey >>> 32;
-            int assetId = (int) (long) combinedKey;
-            if ((balance.getAvailable() > 0 || balance.getFrozen() > 0) && assetId >= 0 && assetId < 64) {
+            int assetId = (int) combinedKey;
+            if ((table.available(b) > 0 || table.frozen(b) > 0) && assetId >= 0 && assetId < 64) {
                 expectedMasks.merge(userId, 1L << assetId, (l, r) -> l | r);
             }
-        });
+        }
 
         bitmaskCache.forEach((userId, mask) -> {
             long expected = expectedMasks.getOrDefault(userId, 0L);
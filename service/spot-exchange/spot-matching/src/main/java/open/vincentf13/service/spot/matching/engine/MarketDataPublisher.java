@@ -0,0 +1,191 @@
+package open.vincentf13.service.spot.matching.engine;
+
+import io.aeron.Publication;
+import lombok.extern.slf4j.Slf4j;
+import open.vincentf13.service.spot.infra.aeron.AeronUtil;
+import open.vincentf13.service.spot.infra.util.Clock;
+import open.vincentf13.service.spot.model.Trade;
+import open.vincentf13.service.spot.sbe.*;
+import org.agrona.concurrent.UnsafeBuffer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static open.vincentf13.service.spot.infra.Constants.*;
+import static open.vincentf13.service.spot.infra.aeron.AeronUtil.SEND_BACKPRESSURE;
+import static open.vincentf13.service.spot.infra.aeron.AeronUtil.SEND_OK;
+
+/**
+ * 公開行情發布器 (Market Data Publisher)
+ *
+ * 每筆指令結束後將各 OrderBook 累積的成交與 L2 價位變動編碼進預配 staging，單次 Aeron claim 送出
+ * （{@link AeronChannel#MARKET_DATA_STREAM_ID}，與私有回報流隔離）；
+ * 按 {@link MatchingConfig#MD_SNAPSHOT_INTERVAL_MS} 於 poll cycle 邊界發布 L2 快照，供 Gateway 服務晚加入的訂閱者。
+ *
+ * Frame 格式與 {@link ExecutionReporter} 相同：[0-3] msgType | [4-11] nanoTime | [12-19] SBE header | body。
+ * 公開行情不可阻塞撮合：背壓逾時即丟棄，訂閱端依 seq 缺口等待下一份快照重建。
+ */
+@Slf4j
+public class MarketDataPublisher implements OrderBook.MarketDataSink, AutoCloseable {
+
+    private static final int HEADER_SIZE = 20;
+    private static final int SBE_HEADER_OFFSET = 12;
+    private static final int GROUP_HEADER_SIZE = 4;
+    private static final int DEPTH_LEN = HEADER_SIZE + DepthUpdateEncoder.BLOCK_LENGTH;
+    private static final int TRADE_LEN = HEADER_SIZE + PublicTradeEncoder.BLOCK_LENGTH;
+    private static final int STAGING_CAPACITY = 8192;
+    private static final int MAX_BACKPRESSURE_SPINS = 1000;
+
+    private Publication publication;
+
+    private final MessageHeaderEncoder headerEncoder = new MessageHeaderEncoder();
+    private final DepthUpdateEncoder depthEncoder = new DepthUpdateEncoder();
+    private final PublicTradeEncoder tradeEncoder = new PublicTradeEncoder();
+    private final DepthSnapshotEncoder snapshotEncoder = new DepthSnapshotEncoder();
+
+    private final UnsafeBuffer staging = new UnsafeBuffer(ByteBuffer.allocateDirect(STAGING_CAPACITY));
+    private int stagingLimit = STAGING_CAPACITY;
+    private int stagedLen;
+    private final AeronUtil.AeronHandler stagingFiller = (buf, off) -> buf.putBytes(off, staging, 0, stagedLen);
+
+    // 快照收集：SBE group 需先寫入筆數，價位先暫存於預配陣列
+    private boolean snapshotting;
+    private int snapSymbolId;
+    private final byte[] snapSides = new byte[MatchingConfig.MD_SNAPSHOT_DEPTH * 2];
+    private final long[] snapPrices = new long[MatchingConfig.MD_SNAPSHOT_DEPTH * 2];
+    private final long[] snapQtys = new long[MatchingConfig.MD_SNAPSHOT_DEPTH * 2];
+    private int snapCount;
+    private long snapSeq;
+    private final it.unimi.dsi.fastutil.longs.LongArrayList snapScratch = new it.unimi.dsi.fastutil.longs.LongArrayList(MatchingConfig.MD_SNAPSHOT_DEPTH);
+
+    private long curTimestamp;
+    private long lastSnapshotMs;
+    private long publishedCount, droppedCount;
+
+    public void init() {
+        this.publication = AeronUtil.aeron().addPublication(AeronChannel.REPORT_FLOW, AeronChannel.MARKET_DATA_STREAM_ID);
+        this.stagingLimit = Math.min(STAGING_CAPACITY, publication.maxPayloadLength());
+        log.info("MarketDataPublisher 已初始化，Aeron market data channel 就緒");
+    }
+
+    // ========== 增量 (每指令) ==========
+
+    /** 指令結束後呼叫：發布所有有變動的交易對，合併為單次 claim */
+    public void publishChanges(OrderBooks books) {
+        OrderBook[] all = books.all();
+        curTimestamp = Clock.now();
+        for (OrderBook book : all) {
+            if (book.hasMarketData()) book.drainMarketData(this);
+        }
+        flushStaged();
+    }
+
+    @Override
+    public void onTrade(int symbolId, long seq, Trade trade, byte takerSide) {
+        if (stagedLen + TRADE_LEN > stagingLimit) flushStaged();
+        int off = stagedLen;
+        writeFrameHeader(off, MsgType.MD_TRADE);
+        tradeEncoder.wrapAndApplyHeader(staging, off + SBE_HEADER_OFFSET, headerEncoder)
+            .timestamp(trade.getTime()).symbolId(symbolId).seq(seq).tradeId(trade.getTradeId())
+            .price(trade.getPrice()).qty(trade.getQty()).takerSide(toSbe(takerSide));
+        stagedLen += TRADE_LEN;
+    }
+
+    @Override
+    public void onLevel(int symbolId, long seq, byte side, long price, long qty) {
+        if (snapshotting) {
+            snapSides[snapCount] = side;
+            snapPrices[snapCount] = price;
+            snapQtys[snapCount] = qty;
+            snapCount++;
+            return;
+        }
+        if (stagedLen + DEPTH_LEN > stagingLimit) flushStaged();
+        int off = stagedLen;
+        writeFrameHeader(off, MsgType.MD_DEPTH_UPDATE);
+        depthEncoder.wrapAndApplyHeader(staging, off + SBE_HEADER_OFFSET, headerEncoder)
+            .timestamp(curTimestamp).symbolId(symbolId).seq(seq).side(toSbe(side)).price(price).qty(qty);
+        stagedLen += DEPTH_LEN;
+    }
+
+    // ========== 快照 (poll cycle 邊界) ==========
+
+    public boolean isSnapshotDue(long nowMs) {
+        return MatchingConfig.MD_SNAPSHOT_INTERVAL_MS > 0 && nowMs - lastSnapshotMs >= MatchingConfig.MD_SNAPSHOT_INTERVAL_MS;
+    }
+
+    /** 發布本分片每個交易對的 L2 快照（每交易對一則訊息） */
+    public void publishSnapshots(OrderBooks books, long nowMs) {
+        lastSnapshotMs = nowMs;
+        curTimestamp = nowMs;
+        for (OrderBook book : books.all()) {
+            snapshotting = true;
+            snapCount = 0;
+            try {
+                book.snapshotDepth(MatchingConfig.MD_SNAPSHOT_DEPTH, snapScratch, this);
+            } finally {
+                snapshotting = false;
+            }
+            snapSymbolId = book.symbolId;
+            snapSeq = book.getMarketDataSeq();
+            stageSnapshot();
+        }
+        flushStaged();
+    }
+
+    private void stageSnapshot() {
+        int len = HEADER_SIZE + DepthSnapshotEncoder.BLOCK_LENGTH + GROUP_HEADER_SIZE
+                + snapCount * DepthSnapshotEncoder.LevelsEncoder.sbeBlockLength();
+        if (stagedLen + len > stagingLimit) flushStaged();
+        int off = stagedLen;
+        writeFrameHeader(off, MsgType.MD_SNAPSHOT);
+        DepthSnapshotEncoder.LevelsEncoder levels = snapshotEncoder
+            .wrapAndApplyHeader(staging, off + SBE_HEADER_OFFSET, headerEncoder)
+            .timestamp(curTimestamp).symbolId(snapSymbolId).seq(snapSeq)
+            .levelsCount(snapCount);
+        for (int i = 0; i < snapCount; i++) {
+            levels.next().side(toSbe(snapSides[i])).price(snapPrices[i]).qty(snapQtys[i]);
+        }
+        stagedLen += len;
+    }
+
+    // ========== Aeron send ==========
+
+    private void writeFrameHeader(int off, int msgType) {
+        staging.putInt(off, msgType, ByteOrder.LITTLE_ENDIAN);
+        staging.putLong(off + 4, System.nanoTime(), ByteOrder.LITTLE_ENDIAN);
+        publishedCount++;
+    }
+
+    private void flushStaged() {
+        if (stagedLen == 0) return;
+        int spins = 0;
+        while (true) {
+            int res = AeronUtil.send(publication, stagedLen, stagingFiller);
+            if (res == SEND_OK) break;
+            if (res != SEND_BACKPRESSURE || ++spins > MAX_BACKPRESSURE_SPINS) {
+                droppedCount++;
+                break;
+            }
+            Thread.onSpinWait();
+        }
+        stagedLen = 0;
+    }
+
+    /** 由 Engine.onPollCycle 批次 flush 發布計數 */
+    public long drainPublishedCount() {
+        long n = publishedCount;
+        publishedCount = 0;
+        return n;
+    }
+
+    private static Side toSbe(byte side) {
+        return side == OrderSide.BUY ? Side.BUY : Side.SELL;
+    }
+
+    @Override
+    public void close() {
+        log.info("MarketDataPublisher closing: dropped={}", droppedCount);
+        if (publication != null) publication.close();
+    }
+}
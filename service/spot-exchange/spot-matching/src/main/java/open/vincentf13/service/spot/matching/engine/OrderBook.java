@@ -9,15 +9,12 @@ import open.vincentf13.service.spot.model.Order;
 import open.vincentf13.service.spot.model.Trade;
 import open.vincentf13.service.spot.sbe.OrderStatus;
 import open.vincentf13.service.spot.sbe.Side;
-import org.agrona.collections.Int2ObjectHashMap;
+import org.agrona.collections.Long2LongHashMap;
 import org.agrona.collections.Long2ObjectHashMap;
 import org.agrona.collections.LongHashSet;
-import it.unimi.dsi.fastutil.longs.Long2ObjectRBTreeMap;
-import it.unimi.dsi.fastutil.longs.LongComparator;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Deque;
 
 import open.vincentf13.service.spot.infra.metrics.StaticMetricsHolder;
 import static open.vincentf13.service.spot.infra.Constants.*;
@@ -26,51 +23,54 @@ import static open.vincentf13.service.spot.infra.Constants.*;
  * 內存訂單簿 (OrderBook)
  *
  * 職責：價格優先-時間優先 (FIFO) 撮合邏輯 + 內存索引維護。
+ * 價位結構由子類實作：{@link TreeOrderBook}（RB-Tree + Deque，價格無界）、
+ * {@link LadderOrderBook}（陣列價格階梯，限定 tick 範圍）；依 {@link Symbol} 設定由 {@link #create} 選擇。
  * 物件池委派給 {@link MatchingPool}，持久化透過批次緩衝 + flush()。
+ * 實例由所屬分片的 {@link OrderBooks} 建立與持有。
+ *
+ * 自成交防護：同用戶 taker / maker 相遇時依交易對 {@link StpMode} 撤銷或減量，
+ * maker 當場移出價位與索引並釋放凍結、回報撤單，價位內不殘留失效訂單。
+ *
+ * 公開行情：同步維護每側價位聚合量 (L2)，並記錄本指令內的成交與變動價位，
+ * 指令結束後由 {@link #drainMarketData} 交給 {@link MarketDataPublisher}，同一價位多次變動合併為一筆增量。
  */
 @Slf4j
-public class OrderBook {
-
-    // ========== 靜態工廠 ==========
-
-    private static final Int2ObjectHashMap<OrderBook> INSTANCES = new Int2ObjectHashMap<>();
-    // volatile snapshot array：matching thread 新增 OrderBook 後原子發布，flusher thread 安全遍歷
-    private static volatile OrderBook[] INSTANCES_ARRAY = new OrderBook[0];
-
-    public static OrderBook get(int symbolId) {
-        OrderBook existing = INSTANCES.get(symbolId);
-        if (existing != null) return existing;
-        Symbol s = Symbol.of(symbolId);
-        if (s == null) throw new IllegalArgumentException("Unknown symbol: " + symbolId);
-        OrderBook book = new OrderBook(symbolId, s.getBaseAssetId(), s.getQuoteAssetId());
-        INSTANCES.put(symbolId, book);
-        // 重建 snapshot array（volatile 發布給 flusher thread）
-        INSTANCES_ARRAY = INSTANCES.values().toArray(new OrderBook[0]);
-        return book;
-    }
-
-    public static OrderBook[] getInstances() { return INSTANCES_ARRAY; }
-    public static void resetForRecovery() {
-        INSTANCES.clear();
-        INSTANCES_ARRAY = new OrderBook[0];
-    }
+public abstract class OrderBook {
 
     // ========== 回呼介面 ==========
 
     public interface TradeFinalizer {
         void onMatch(Trade trade, Order maker, Order taker, int baseAsset, int quoteAsset);
+
+        /** 非掛單型 taker（IOC / FOK / MARKET）或 STP 撤銷的 taker 未成交部分失效：釋放剩餘凍結，於快照落盤前呼叫 */
+        void onExpire(Order taker, long unfilledFrozen, int baseAsset, int quoteAsset);
+
+        /** STP 撤銷 maker（已移出價位，落盤前）：釋放剩餘凍結並歸零、回報撤單 */
+        void onSelfTradeCancel(Order maker, long gwSeq, int baseAsset, int quoteAsset);
+
+        /** STP 減量：order 數量減少 reduceQty（不產生成交），釋放對應凍結 */
+        void onSelfTradeReduce(Order order, long reduceQty, long gwSeq, int baseAsset, int quoteAsset);
+    }
+
+    /** 公開行情輸出：增量與快照共用；seq 為本交易對行情序號 */
+    public interface MarketDataSink {
+        void onTrade(int symbolId, long seq, Trade trade, byte takerSide);
+
+        /** qty = 0 表示價位移除 */
+        void onLevel(int symbolId, long seq, byte side, long price, long qty);
     }
 
     // ========== 實例狀態 ==========
 
-    private final int symbolId, baseAssetId, quoteAssetId;
+    protected final int symbolId, baseAssetId, quoteAssetId;
+    protected final MatchingPool objectPool;
+    protected final StpMode stpMode;
 
     // 磁碟映射
     private final ChronicleMap<LongValue, Order> ordersDisk = Storage.self().orders();
     private final ChronicleMap<LongValue, LongValue> activeDisk = Storage.self().activeOrders();
     /** 預配「永遠是 1」的 LongValue，每個 active put 共用 — 不分配。我們只關心 key 存在與否。 */
     private final LongValue ACTIVE_MARK_VALUE = new LongValue(1L);
-    private final ChronicleMap<LongValue, Trade> tradesDisk = Storage.self().trades();
 
     // 批次寫入緩衝（雙緩衝：matching 寫 active，flusher 讀 draining，改為 List 消除 Hash Cache Miss）
     private final ArrayList<Order> ordersBufA = new ArrayList<>(65536);
@@ -104,23 +104,38 @@ public class OrderBook {
     private final ArrayDeque<Trade> tradePoolA = new ArrayDeque<>(SNAP_POOL_CAPACITY);
     private final ArrayDeque<Trade> tradePoolB = new ArrayDeque<>(SNAP_POOL_CAPACITY);
 
-    // 撮合結構
-    private final Long2ObjectRBTreeMap<Deque<Order>> bids = new Long2ObjectRBTreeMap<>((LongComparator) (k1, k2) -> Long.compare(k2, k1));
-    private final Long2ObjectRBTreeMap<Deque<Order>> asks = new Long2ObjectRBTreeMap<>();
-    private final Long2ObjectHashMap<Deque<Order>> bidLevels = new Long2ObjectHashMap<>(MatchingConfig.INITIAL_BOOK_LEVEL_CAPACITY, 0.5f);
-    private final Long2ObjectHashMap<Deque<Order>> askLevels = new Long2ObjectHashMap<>(MatchingConfig.INITIAL_BOOK_LEVEL_CAPACITY, 0.5f);
-    private final Long2ObjectHashMap<Order> orderIndex = new Long2ObjectHashMap<>(MatchingConfig.INITIAL_BOOK_ORDER_COUNT, 0.5f);
+    // 訂單索引（價位結構由子類持有）
+    protected final Long2ObjectHashMap<Order> orderIndex = new Long2ObjectHashMap<>(MatchingConfig.INITIAL_BOOK_ORDER_COUNT, 0.5f);
     private final Long2ObjectHashMap<LongHashSet> userOrdersIndex = new Long2ObjectHashMap<>(4096, 0.5f);
 
+    // L2 聚合深度（價位 → 剩餘量總和，缺省 0）
+    private final Long2LongHashMap bidDepth = new Long2LongHashMap(MatchingConfig.INITIAL_BOOK_LEVEL_CAPACITY, 0.5f, 0L);
+    private final Long2LongHashMap askDepth = new Long2LongHashMap(MatchingConfig.INITIAL_BOOK_LEVEL_CAPACITY, 0.5f, 0L);
+    // 本指令待發布的行情：Trade 於下次 rotate 前不會回池，指令結束前可安全引用
+    private final it.unimi.dsi.fastutil.longs.LongArrayList changedBids = new it.unimi.dsi.fastutil.longs.LongArrayList(256);
+    private final it.unimi.dsi.fastutil.longs.LongArrayList changedAsks = new it.unimi.dsi.fastutil.longs.LongArrayList(256);
+    private final ArrayList<Trade> pendingTrades = new ArrayList<>(256);
+    private final it.unimi.dsi.fastutil.bytes.ByteArrayList pendingTakerSides = new it.unimi.dsi.fastutil.bytes.ByteArrayList(256);
+    private long marketDataSeq;
+
     // Flush 用可重用 Key（flusher thread 專用）
     private final LongValue fkO = new LongValue();
-    private final LongValue fkT = new LongValue();
     private final LongValue fkA = new LongValue();
 
-    private OrderBook(int symbolId, int baseAssetId, int quoteAssetId) {
+    /** 依交易對設定選擇價位結構實作 */
+    static OrderBook create(Symbol s, MatchingPool objectPool) {
+        return s.usesLadder()
+                ? new LadderOrderBook(s.getId(), s.getBaseAssetId(), s.getQuoteAssetId(), objectPool, s.getStpMode(),
+                                      s.getLadderMinPrice(), s.getLadderTick(), s.getLadderLevels())
+                : new TreeOrderBook(s.getId(), s.getBaseAssetId(), s.getQuoteAssetId(), objectPool, s.getStpMode());
+    }
+
+    OrderBook(int symbolId, int baseAssetId, int quoteAssetId, MatchingPool objectPool, StpMode stpMode) {
         this.symbolId = symbolId;
         this.baseAssetId = baseAssetId;
         this.quoteAssetId = quoteAssetId;
+        this.objectPool = objectPool;
+        this.stpMode = stpMode;
         // 預填 snap pool — 確保穩態下 syncOrder 永遠走 pool 路徑、不再 new Order()
         for (int i = 0; i < SNAP_POOL_CAPACITY; i++) {
             orderSnapPoolA.addLast(new Order());
@@ -132,14 +147,29 @@ public class OrderBook {
 
     // ========== 撮合核心 ==========
 
-    /** 下單入口：借取池物件 → 撮合 → 同步狀態 */
+    /**
+     * 下單入口：借取池物件 → 撮合 → 剩餘掛單或失效 → 同步狀態
+     * @param rest false 表示 IOC / FOK / MARKET：未成交部分不掛單，直接以 CANCELED 終局並釋放凍結
+     */
     public Order handleCreate(long orderId, long userId, int symbolId, long price, long qty, Side side, long clientOrderId,
-                              long timestamp, long gwSeq, long frozenAmount,
+                              long timestamp, long gwSeq, long frozenAmount, boolean rest,
                               open.vincentf13.service.spot.model.WalProgress progress, TradeFinalizer finalizer) {
-        Order taker = MatchingPool.borrowOrder();
+        Order taker = objectPool.borrowOrder();
         taker.fill(orderId, userId, symbolId, price, qty, (byte)(side == Side.BUY ? OrderSide.BUY : OrderSide.SELL),
                    clientOrderId, timestamp, gwSeq, frozenAmount);
         match(taker, gwSeq, timestamp, progress, finalizer);
+
+        // STP 撤銷的 taker 剩餘量必 > 0，與即時單剩餘同樣失效
+        if (taker.getStatus() == OrderStatus.CANCELED.value() || (!rest && taker.remainingQty() > 0)) {
+            long unfilledFrozen = taker.getFrozen();
+            taker.setFrozen(0);
+            taker.setStatus((byte) OrderStatus.CANCELED.value());
+            finalizer.onExpire(taker, unfilledFrozen, baseAssetId, quoteAssetId);
+        } else if (taker.remainingQty() == 0) {
+            taker.setStatus((byte) OrderStatus.FILLED.value());
+        } else {
+            addToBook(taker);
+        }
         syncOrder(taker, gwSeq);
         return taker;
     }
@@ -150,6 +180,7 @@ public class OrderBook {
         if (o == null || o.getUserId() != userId || o.isTerminal()) return null;
 
         removeFromLevel(o);
+        addDepth(o.getSide(), o.getPrice(), -o.remainingQty());
         o.setStatus((byte) OrderStatus.CANCELED.value());
         finalizeOrder(o, gwSeq);
         return o;
@@ -159,98 +190,142 @@ public class OrderBook {
     public void recoverOrder(Order o) {
         if (o == null || o.isTerminal()) return;
         o.validateState();
-        Order r = MatchingPool.borrowOrder();
+        if (!acceptsPrice(o.getPrice())) {
+            throw new IllegalStateException("Recovered order price outside book range, orderId=%d, price=%d".formatted(o.getOrderId(), o.getPrice()));
+        }
+        Order r = objectPool.borrowOrder();
         r.copyFrom(o);
         addToBook(r);
     }
 
-    // ========== 內部撮合邏輯 ==========
+    // ========== 價位結構 (子類實作) ==========
 
-    private void match(Order taker, long gwSeq, long timestamp,
-                       open.vincentf13.service.spot.model.WalProgress progress, TradeFinalizer finalizer) {
-        boolean isBuy = taker.getSide() == OrderSide.BUY;
-        Long2ObjectRBTreeMap<Deque<Order>> counters = isBuy ? asks : bids;
+    /** 價格是否可掛入本訂單簿（階梯訂單簿要求落在 tick 範圍內） */
+    public boolean acceptsPrice(long price) { return price > 0; }
 
-        while (taker.remainingQty() > 0 && !counters.isEmpty()) {
-            long bestPrice = counters.firstLongKey();
-            if (isBuy ? (taker.getPrice() < bestPrice) : (taker.getPrice() > bestPrice)) break;
-            executeMatchAtLevel(taker, bestPrice, counters, getLevels(!isBuy), gwSeq, timestamp, progress, finalizer);
-        }
+    /** 掛單價格是否會與對手方最優價成交（POST_ONLY 檢查） */
+    public abstract boolean wouldCross(byte side, long price);
+
+    /**
+     * FOK 預掃描：taker 於 limitPrice 內可成交的對手方數量，達到 needed 即提前返回。
+     * 與 match 使用相同的 STP 規則（{@link #selfTradeStopsTaker}），保證預掃描足量時 match 必定完全成交；不分配物件。
+     */
+    public abstract long availableQty(byte takerSide, long limitPrice, long takerUserId, long needed);
+
+    /** 撮合 taker；剩餘部分由 handleCreate 決定掛單或失效 */
+    protected abstract void match(Order taker, long gwSeq, long timestamp,
+                                  open.vincentf13.service.spot.model.WalProgress progress, TradeFinalizer finalizer);
+
+    /** 將訂單掛入價位結構（僅價位，不含索引） */
+    protected abstract void addToLevel(Order order);
+
+    /** 將訂單從價位結構移除（僅價位，不含索引） */
+    protected abstract void removeFromLevel(Order o);
+
+    /** 訂單是否位於其價位佇列中（驗證用） */
+    protected abstract boolean isInLevel(Order o);
+
+    /** 價位結構自檢（驗證用） */
+    protected abstract void validateLevels();
 
-        if (taker.remainingQty() > 0) addToBook(taker);
-        else taker.setStatus((byte) OrderStatus.FILLED.value());
+    /** 依價格優先序回傳該側前 maxLevels 檔價位至 out（快照用，僅於 poll cycle 邊界呼叫） */
+    protected abstract void collectTopPrices(byte side, int maxLevels, it.unimi.dsi.fastutil.longs.LongArrayList out);
+
+    // ========== 撮合共用邏輯 ==========
+
+    /** taker 是否仍可繼續撮合（STP 撤銷後即停止） */
+    protected static boolean canMatch(Order taker) {
+        return taker.remainingQty() > 0 && taker.getStatus() != OrderStatus.CANCELED.value();
+    }
+
+    /** 依價格優先序遇到同用戶 maker 時 taker 是否無法再完全成交：僅 CANCEL_OLDEST 會越過自己的掛單繼續撮合 */
+    protected final boolean selfTradeStopsTaker() {
+        return stpMode != StpMode.CANCEL_OLDEST;
     }
 
-    private void executeMatchAtLevel(Order taker, long price, Long2ObjectRBTreeMap<Deque<Order>> counters,
-                                     Long2ObjectHashMap<Deque<Order>> levels, long gwSeq, long timestamp,
-                                     open.vincentf13.service.spot.model.WalProgress progress, TradeFinalizer finalizer) {
-        Deque<Order> makers = levels.get(price);
-        if (makers == null || makers.isEmpty()) { cleanupEmptyLevel(price, counters, levels, makers); return; }
-
-        while (!makers.isEmpty() && taker.remainingQty() > 0) {
-            Order maker = makers.peekFirst();
-            if (!orderIndex.containsKey(maker.getOrderId())) { makers.pollFirst(); continue; }
-            if (maker.getUserId() == taker.getUserId()) { makers.pollFirst(); continue; } // 防止自成交
-
-            long matchQty = Math.min(taker.remainingQty(), maker.remainingQty());
-            ArrayDeque<Trade> tPool = (activeTrades == tradesBufA) ? tradePoolA : tradePoolB;
-            Trade t = tPool.pollFirst();
-            if (t == null) t = new Trade();
-            t.setTradeId(progress.nextTradeId()); t.setOrderId(maker.getOrderId());
-            t.setPrice(price); t.setQty(matchQty); t.setTime(timestamp); t.setLastSeq(gwSeq);
-            activeTrades.add(t);
-
-            maker.setFilled(maker.getFilled() + matchQty);
-            taker.setFilled(taker.getFilled() + matchQty);
-            StaticMetricsHolder.addCounter(MetricsKey.MATCH_COUNT, 1);
-            finalizer.onMatch(t, maker, taker, baseAssetId, quoteAssetId);
-
-            if (maker.remainingQty() == 0) {
-                finalizeOrder(maker, gwSeq); makers.pollFirst();
-                MatchingPool.releaseOrder(maker); // maker 終局後不再被 match 迴圈讀取，安全回池
+    /**
+     * 自成交防護：taker 與同用戶 maker 相遇，依 STP 模式處理且不產生成交。
+     * 撤銷 taker 僅標記 CANCELED，剩餘凍結由 handleCreate 統一釋放。
+     * @return maker 是否需撤銷：呼叫端須先自價位結構斷開 maker，再呼叫 {@link #cancelSelfTradeMaker}
+     */
+    protected final boolean preventSelfTrade(Order taker, Order maker, long gwSeq, TradeFinalizer finalizer) {
+        StaticMetricsHolder.addCounter(MetricsKey.SELF_TRADE_PREVENTED_COUNT, 1);
+        switch (stpMode) {
+            case CANCEL_NEWEST:
+                taker.setStatus((byte) OrderStatus.CANCELED.value());
+                return false;
+            case CANCEL_OLDEST:
+                return true;
+            case CANCEL_BOTH:
+                taker.setStatus((byte) OrderStatus.CANCELED.value());
+                return true;
+            default: {
+                // DECREMENT：減至 0 的一方改為撤銷（數量不可減為 0），另一方縮量後保留
+                long reduceQty = Math.min(taker.remainingQty(), maker.remainingQty());
+                boolean makerOut = maker.remainingQty() == reduceQty;
+                if (taker.remainingQty() == reduceQty) taker.setStatus((byte) OrderStatus.CANCELED.value());
+                else finalizer.onSelfTradeReduce(taker, reduceQty, gwSeq, baseAssetId, quoteAssetId);
+                if (!makerOut) {
+                    finalizer.onSelfTradeReduce(maker, reduceQty, gwSeq, baseAssetId, quoteAssetId);
+                    addDepth(maker.getSide(), maker.getPrice(), -reduceQty);
+                    syncOrder(maker, gwSeq);
+                }
+                return makerOut;
             }
-            else { syncOrder(maker, gwSeq); break; }
         }
-        if (makers.isEmpty()) cleanupEmptyLevel(price, counters, levels, makers);
+    }
+
+    /** STP 撤銷 maker：呼叫前已自價位結構斷開；移除索引、釋放凍結、回報並回池 */
+    protected final void cancelSelfTradeMaker(Order maker, long gwSeq, TradeFinalizer finalizer) {
+        addDepth(maker.getSide(), maker.getPrice(), -maker.remainingQty());
+        maker.setStatus((byte) OrderStatus.CANCELED.value());
+        finalizer.onSelfTradeCancel(maker, gwSeq, baseAssetId, quoteAssetId);
+        finalizeOrder(maker, gwSeq);
+        objectPool.releaseOrder(maker); // 已斷開價位與索引，回池後不再被讀取
+    }
+
+    /** 單筆成交：產生 Trade、更新雙方 filled、回呼結算；回傳 maker 是否已完全成交 */
+    protected final boolean executeFill(Order taker, Order maker, long price, long gwSeq, long timestamp,
+                                        open.vincentf13.service.spot.model.WalProgress progress, TradeFinalizer finalizer) {
+        long matchQty = Math.min(taker.remainingQty(), maker.remainingQty());
+        ArrayDeque<Trade> tPool = (activeTrades == tradesBufA) ? tradePoolA : tradePoolB;
+        Trade t = tPool.pollFirst();
+        if (t == null) t = new Trade();
+        t.setTradeId(progress.nextTradeId()); t.setOrderId(maker.getOrderId());
+        t.setPrice(price); t.setQty(matchQty); t.setTime(timestamp); t.setLastSeq(gwSeq);
+        activeTrades.add(t);
+        pendingTrades.add(t);
+        pendingTakerSides.add(taker.getSide());
+        addDepth(maker.getSide(), maker.getPrice(), -matchQty);
+
+        maker.setFilled(maker.getFilled() + matchQty);
+        taker.setFilled(taker.getFilled() + matchQty);
+        StaticMetricsHolder.addCounter(MetricsKey.MATCH_COUNT, 1);
+        finalizer.onMatch(t, maker, taker, baseAssetId, quoteAssetId);
+        return maker.remainingQty() == 0;
     }
 
     // ========== 索引與狀態管理 ==========
 
-    private void addToBook(Order order) {
-        long price = order.getPrice();
-        Long2ObjectHashMap<Deque<Order>> levels = getLevels(order.getSide() == OrderSide.BUY);
-        Deque<Order> level = levels.get(price);
-        if (level == null) {
-            level = MatchingPool.borrowDeque();
-            getTree(order.getSide() == OrderSide.BUY).put(price, level);
-            levels.put(price, level);
-        }
-        level.addLast(order);
+    protected final void addToBook(Order order) {
+        addToLevel(order);
+        addDepth(order.getSide(), order.getPrice(), order.remainingQty());
         orderIndex.put(order.getOrderId(), order);
         // 容量 64：active orders / user 多半 < 50，避免從 16 起 resize 觸發內部 long[] 重新分配
         userOrdersIndex.computeIfAbsent(order.getUserId(), k -> new LongHashSet(64)).add(order.getOrderId());
     }
 
-    private void removeFromLevel(Order o) {
-        Long2ObjectHashMap<Deque<Order>> levels = getLevels(o.getSide() == OrderSide.BUY);
-        Deque<Order> level = levels.get(o.getPrice());
-        if (level != null) {
-            level.remove(o);
-            if (level.isEmpty()) cleanupEmptyLevel(o.getPrice(), getTree(o.getSide() == OrderSide.BUY), levels, level);
-        }
-    }
-
-    private void finalizeOrder(Order o, long gwSeq) {
+    protected final void finalizeOrder(Order o, long gwSeq) {
         syncOrder(o, gwSeq);
         orderIndex.remove(o.getOrderId());
         LongHashSet set = userOrdersIndex.get(o.getUserId());
         if (set != null) set.remove(o.getOrderId());
         // 不移除空 set — 移除後下次 add 又會 new LongHashSet 觸發 alloc，留著 reuse 即可
-        // 池回收：由呼叫端在讀完 `o` 後執行 MatchingPool.releaseOrder(o)，
+        // 池回收：由呼叫端在讀完 `o` 後執行 MatchingPool#releaseOrder(o)，
         // 避免 cancel 路徑中 caller 繼續讀取已回池物件的風險。
     }
 
-    private void syncOrder(Order o, long gwSeq) {
+    protected final void syncOrder(Order o, long gwSeq) {
         if (o.getStatus() != OrderStatus.CANCELED.value()) {
             o.setStatus((byte) (o.remainingQty() == 0
                     ? OrderStatus.FILLED.value()
@@ -268,15 +343,65 @@ public class OrderBook {
         else { activeRemovals.add(o.getOrderId()); }
     }
 
-    private void cleanupEmptyLevel(long price, Long2ObjectRBTreeMap<Deque<Order>> counters,
-                                   Long2ObjectHashMap<Deque<Order>> levels, Deque<Order> deque) {
-        counters.remove(price);
-        Deque<Order> removed = levels.remove(price);
-        MatchingPool.releaseDeque(removed != null ? removed : deque);
+    // ========== 公開行情 ==========
+
+    private void addDepth(byte side, long price, long delta) {
+        if (delta == 0) return;
+        boolean buy = side == OrderSide.BUY;
+        Long2LongHashMap depth = buy ? bidDepth : askDepth;
+        long qty = depth.get(price) + delta;
+        if (qty == 0) depth.remove(price); else depth.put(price, qty);
+        // 同一指令常反覆觸及少數價位（掃單 / 批次），線性去重成本低於額外集合
+        it.unimi.dsi.fastutil.longs.LongArrayList changed = buy ? changedBids : changedAsks;
+        if (!changed.contains(price)) changed.add(price);
+    }
+
+    /** 指令結束後呼叫：依序輸出本指令成交與變動價位（最終聚合量），並清空待發布狀態 */
+    public void drainMarketData(MarketDataSink sink) {
+        for (int i = 0, n = pendingTrades.size(); i < n; i++) {
+            sink.onTrade(symbolId, ++marketDataSeq, pendingTrades.get(i), pendingTakerSides.getByte(i));
+        }
+        for (int i = 0, n = changedBids.size(); i < n; i++) {
+            long price = changedBids.getLong(i);
+            sink.onLevel(symbolId, ++marketDataSeq, OrderSide.BUY, price, bidDepth.get(price));
+        }
+        for (int i = 0, n = changedAsks.size(); i < n; i++) {
+            long price = changedAsks.getLong(i);
+            sink.onLevel(symbolId, ++marketDataSeq, OrderSide.SELL, price, askDepth.get(price));
+        }
+        discardMarketData();
+    }
+
+    public boolean hasMarketData() {
+        return !pendingTrades.isEmpty() || !changedBids.isEmpty() || !changedAsks.isEmpty();
+    }
+
+    /** 冷啟動重建後丟棄累積的變動：訂閱端改以其後的快照同步 */
+    public void discardMarketData() {
+        pendingTrades.clear();
+        pendingTakerSides.clear();
+        changedBids.clear();
+        changedAsks.clear();
     }
 
-    private Long2ObjectRBTreeMap<Deque<Order>> getTree(boolean buy) { return buy ? bids : asks; }
-    private Long2ObjectHashMap<Deque<Order>> getLevels(boolean buy) { return buy ? bidLevels : askLevels; }
+    /** L2 快照：每側前 maxLevels 檔，共用當前 seq；scratch 由呼叫端預配 */
+    public void snapshotDepth(int maxLevels, it.unimi.dsi.fastutil.longs.LongArrayList scratch, MarketDataSink sink) {
+        snapshotSide(OrderSide.BUY, bidDepth, maxLevels, scratch, sink);
+        snapshotSide(OrderSide.SELL, askDepth, maxLevels, scratch, sink);
+    }
+
+    private void snapshotSide(byte side, Long2LongHashMap depth, int maxLevels,
+                              it.unimi.dsi.fastutil.longs.LongArrayList scratch, MarketDataSink sink) {
+        scratch.clear();
+        collectTopPrices(side, maxLevels, scratch);
+        for (int i = 0, n = scratch.size(); i < n; i++) {
+            long price = scratch.getLong(i);
+            long qty = depth.get(price);
+            if (qty > 0) sink.onLevel(symbolId, marketDataSeq, side, price, qty);
+        }
+    }
+
+    public long getMarketDataSeq() { return marketDataSeq; }
 
     // ========== 持久化 ==========
 
@@ -303,6 +428,16 @@ public class OrderBook {
         return true;
     }
 
+    /** flusher thread 呼叫：待落盤成交（依 tradeId 遞增），無 draining 時回傳 null */
+    public ArrayList<Trade> getDrainingTrades() {
+        return drainingOrders != null ? drainingTrades : null; // 先讀 orders 取得 happens-before
+    }
+
+    /** flusher thread 呼叫：待落盤訂單快照（依變更順序），無 draining 時回傳 null */
+    public ArrayList<Order> getDrainingOrders() {
+        return drainingOrders;
+    }
+
     /** flusher thread 呼叫：將 draining 緩衝寫入 ChronicleMap，完成後釋放 */
     public void drainToDisk() {
         ArrayList<Order> dO = drainingOrders;
@@ -324,12 +459,8 @@ public class OrderBook {
             dO.clear();
         }
         if (!dT.isEmpty()) {
-            for (int i = 0, size = dT.size(); i < size; i++) {
-                Trade t = dT.get(i);
-                fkT.set(t.getTradeId());
-                ChronicleMapUtil.putNoRead(tradesDisk, fkT, t);
-                retTradePool.addLast(t);
-            }
+            // 成交已由 Engine 合併寫入 TradeJournal，此處僅回池
+            for (int i = 0, size = dT.size(); i < size; i++) retTradePool.addLast(dT.get(i));
             dT.clear();
         }
         if (!dAdd.isEmpty()) {
@@ -358,35 +489,63 @@ public class OrderBook {
     // ========== Accessors ==========
 
     public int getBaseAssetId() { return baseAssetId; }
+    /** 活躍掛單（matching thread 專用，快照擷取用） */
+    public Iterable<Order> activeOrders() { return orderIndex.values(); }
+
+    /** 熱備比對：掛單 (orderId, userId, 價格, 剩餘量, 方向) 的順序無關雜湊 */
+    public long stateHash() {
+        long h = 0;
+        for (Order o : orderIndex.values()) {
+            h += StateHash.entry(o.getOrderId(), o.getUserId() ^ ((long) o.getSide() << 62),
+                    StateHash.mix(o.getPrice()) ^ (o.getQty() - o.getFilled()));
+        }
+        return h;
+    }
+    /** 以 orderId 查詢活躍掛單，不存在回傳 null */
+    public Order findActive(long orderId) { return orderIndex.get(orderId); }
+    /** 全撤用：將 userId 的活躍 orderId 複製至 out（撤單會修改索引集合，不可邊迭代邊撤） */
+    public void collectUserOrders(long userId, it.unimi.dsi.fastutil.longs.LongArrayList out) {
+        LongHashSet set = userOrdersIndex.get(userId);
+        if (set == null) return;
+        for (LongHashSet.LongIterator it = set.iterator(); it.hasNext(); ) out.add(it.nextValue());
+    }
     public int getQuoteAssetId() { return quoteAssetId; }
 
     // ========== 狀態驗證 (冷啟動 / 測試用) ==========
 
     public void validateState() {
-        validateLevels(bidLevels, OrderSide.BUY);
-        validateLevels(askLevels, OrderSide.SELL);
+        validateLevels();
 
         final int[] indexedCount = new int[1];
         orderIndex.forEach((orderId, order) -> {
             indexedCount[0]++;
             if (order.isTerminal()) throw new IllegalStateException("Terminal order indexed, orderId=" + orderId);
-            Deque<Order> level = getLevels(order.getSide() == OrderSide.BUY).get(order.getPrice());
-            if (level == null || !level.contains(order)) throw new IllegalStateException("Order missing from level, orderId=" + orderId);
+            if (!isInLevel(order)) throw new IllegalStateException("Order missing from level, orderId=" + orderId);
             LongHashSet userOrders = userOrdersIndex.get(order.getUserId());
             if (userOrders == null || !userOrders.contains(orderId)) throw new IllegalStateException("Order missing from user index, orderId=" + orderId);
         });
         if (indexedCount[0] != orderIndex.size()) throw new IllegalStateException("Order index iteration mismatch");
+        validateDepth(OrderSide.BUY, bidDepth);
+        validateDepth(OrderSide.SELL, askDepth);
     }
 
-    private void validateLevels(Long2ObjectHashMap<Deque<Order>> levels, byte expectedSide) {
-        levels.forEach((price, queue) -> {
-            if (queue == null || queue.isEmpty()) throw new IllegalStateException("Empty level, side=" + expectedSide + ", price=" + price);
-            for (Order order : queue) {
-                if (order.getSide() != expectedSide) throw new IllegalStateException("Side mismatch, orderId=" + order.getOrderId());
-                if (order.getPrice() != price) throw new IllegalStateException("Price mismatch, orderId=" + order.getOrderId());
-                if (order.isTerminal()) throw new IllegalStateException("Terminal in level, orderId=" + order.getOrderId());
-                order.validateState();
-            }
+    /** 聚合深度須等於該側各價位掛單剩餘量總和 */
+    private void validateDepth(byte side, Long2LongHashMap depth) {
+        Long2LongHashMap expected = new Long2LongHashMap(0L);
+        orderIndex.forEach((orderId, order) -> {
+            if (order.getSide() == side) expected.put(order.getPrice(), expected.get(order.getPrice()) + order.remainingQty());
         });
+        if (expected.size() != depth.size()) throw new IllegalStateException("Depth level count mismatch, side=" + side);
+        expected.forEachLong((price, qty) -> {
+            if (depth.get(price) != qty) throw new IllegalStateException("Depth mismatch, side=" + side + ", price=" + price);
+        });
+    }
+
+    /** 價位內單筆訂單自檢（子類 validateLevels 共用） */
+    protected static void validateLevelOrder(Order order, byte expectedSide, long price) {
+        if (order.getSide() != expectedSide) throw new IllegalStateException("Side mismatch, orderId=" + order.getOrderId());
+        if (order.getPrice() != price) throw new IllegalStateException("Price mismatch, orderId=" + order.getOrderId());
+        if (order.isTerminal()) throw new IllegalStateException("Terminal in level, orderId=" + order.getOrderId());
+        order.validateState();
     }
 }
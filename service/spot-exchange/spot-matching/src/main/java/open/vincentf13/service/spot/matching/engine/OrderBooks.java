@@ -0,0 +1,67 @@
+package open.vincentf13.service.spot.matching.engine;
+
+import open.vincentf13.service.spot.infra.util.ShardUtil;
+import open.vincentf13.service.spot.model.Order;
+import org.agrona.collections.Int2ObjectHashMap;
+
+import static open.vincentf13.service.spot.infra.Constants.Symbol;
+
+/**
+ * 分片訂單簿註冊表 (Per-Shard OrderBook Registry)
+ *
+ * 取代原先全域 static INSTANCES：每個撮合分片只持有自己負責的交易對，
+ * matching thread 獨佔寫入，flusher thread 透過 volatile snapshot array 安全遍歷。
+ */
+public class OrderBooks {
+    private final int shardId;
+    private final MatchingPool pool;
+    private final Int2ObjectHashMap<OrderBook> books = new Int2ObjectHashMap<>();
+    // volatile snapshot array：matching thread 新增 OrderBook 後原子發布，flusher thread 安全遍歷
+    private volatile OrderBook[] booksArray = new OrderBook[0];
+
+    public OrderBooks(int shardId, MatchingPool pool) {
+        this.shardId = shardId;
+        this.pool = pool;
+    }
+
+    /** 取得（或建立）本分片的訂單簿；未知或不屬本分片的交易對拋 IllegalArgumentException */
+    public OrderBook get(int symbolId) {
+        OrderBook existing = books.get(symbolId);
+        if (existing != null) return existing;
+        Symbol s = Symbol.of(symbolId);
+        if (s == null) throw new IllegalArgumentException("Unknown symbol: " + symbolId);
+        if (ShardUtil.shardOfSymbol(symbolId) != shardId) {
+            throw new IllegalArgumentException("Symbol %d not owned by shard %d".formatted(symbolId, shardId));
+        }
+        OrderBook book = OrderBook.create(s, pool);
+        books.put(symbolId, book);
+        // 重建 snapshot array（volatile 發布給 flusher thread）
+        booksArray = books.values().toArray(new OrderBook[0]);
+        return book;
+    }
+
+    /** 預先建立本分片負責的所有交易對，避免運行時首單觸發 snap pool 預填 */
+    public void initOwnedSymbols() {
+        for (Symbol s : Symbol.values()) {
+            if (ShardUtil.shardOfSymbol(s.getId()) == shardId) get(s.getId());
+        }
+    }
+
+    public OrderBook[] all() { return booksArray; }
+
+    /** 跨本分片所有交易對查詢活躍掛單，不存在回傳 null */
+    public Order findActive(long orderId) {
+        for (OrderBook book : booksArray) {
+            Order o = book.findActive(orderId);
+            if (o != null) return o;
+        }
+        return null;
+    }
+
+    public MatchingPool pool() { return pool; }
+
+    public void resetForRecovery() {
+        books.clear();
+        booksArray = new OrderBook[0];
+    }
+}
@@ -1,19 +1,27 @@
 package open.vincentf13.service.spot.matching.engine;
 
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import net.openhft.chronicle.map.ChronicleMap;
 import open.vincentf13.service.spot.infra.Constants;
+import open.vincentf13.service.spot.infra.Constants.MatchingConfig;
 import open.vincentf13.service.spot.infra.chronicle.LongValue;
 import open.vincentf13.service.spot.infra.chronicle.Storage;
 import open.vincentf13.service.spot.infra.metrics.StaticMetricsHolder;
 import open.vincentf13.service.spot.infra.util.DecimalUtil;
+import open.vincentf13.service.spot.infra.util.ShardUtil;
 import open.vincentf13.service.spot.model.Order;
 import open.vincentf13.service.spot.model.Trade;
 import open.vincentf13.service.spot.model.WalProgress;
+import open.vincentf13.service.spot.sbe.OrderCancelBatchDecoder;
+import open.vincentf13.service.spot.sbe.OrderCreateBatchDecoder;
 import open.vincentf13.service.spot.infra.Constants.OrderSide;
+import open.vincentf13.service.spot.sbe.OrderStatus;
+import open.vincentf13.service.spot.sbe.OrderType;
 import open.vincentf13.service.spot.sbe.Side;
-import org.springframework.stereotype.Component;
+import open.vincentf13.service.spot.sbe.TimeInForce;
+
+import java.util.Comparator;
+import java.util.List;
 
 /**
  * 訂單處理器 (Order Processor)
@@ -23,35 +31,46 @@ import org.springframework.stereotype.Component;
  * 資產凍結委派給 {@link Ledger}，回報委派給 {@link ExecutionReporter}。
  */
 @Slf4j
-@Component
-@RequiredArgsConstructor
 public class OrderProcessor implements OrderBook.TradeFinalizer {
 
     private final ChronicleMap<LongValue, Order> orders = Storage.self().orders();
     private final ChronicleMap<LongValue, LongValue> activeOrdersDiskMap = Storage.self().activeOrders();
 
+    private final int shardId;
+    private final OrderBooks books;
     private final Ledger ledger;
     private final ExecutionReporter reporter;
-    private final IdempotencyGuard idempotencyGuard = new IdempotencyGuard();
-
-    private final LongValue reusableOrderKey = new LongValue();
-    private final Order reusableDiskOrder = new Order();
+    private final IdempotencyGuard idempotencyGuard;
+    // 全撤用 orderId 暫存（matching thread 獨佔，重用不分配）
+    private final it.unimi.dsi.fastutil.longs.LongArrayList massCancelIds = new it.unimi.dsi.fastutil.longs.LongArrayList(256);
+
+    public OrderProcessor(int shardId, OrderBooks books, Ledger ledger, ExecutionReporter reporter) {
+        this.shardId = shardId;
+        this.books = books;
+        this.ledger = ledger;
+        this.reporter = reporter;
+        this.idempotencyGuard = new IdempotencyGuard(shardId);
+    }
 
     // ========== 公開 API ==========
 
     /** 暴露給 Engine 註冊至 AsyncDiskFlusher */
     public IdempotencyGuard getIdempotencyGuard() { return idempotencyGuard; }
 
-    /** 冷啟動：全量磁碟掃描恢復 OrderBook + IdempotencyGuard */
+    /**
+     * 冷啟動：全量磁碟掃描恢復 OrderBook + IdempotencyGuard
+     * orders / active-orders 為各分片共用的 Map：僅處理本分片配發的 orderId，
+     * 多分片時不做全表 clear，避免與其他分片並行恢復時互相抹除。
+     */
     public long coldStartRebuild() {
-        log.warn("未檢測到有效內存快照，正在執行全量磁碟掃描恢復...");
+        log.warn("未檢測到有效內存快照，正在執行全量磁碟掃描恢復 (shard={})...", shardId);
         idempotencyGuard.clearDisk();
-        activeOrdersDiskMap.clear();
-        OrderBook.resetForRecovery();
+        if (MatchingConfig.SHARD_COUNT == 1) activeOrdersDiskMap.clear();
+        books.resetForRecovery();
 
         final long[] maxOrderId = new long[1];
         orders.forEach((orderIdKey, diskOrder) -> {
-            if (diskOrder == null) return;
+            if (diskOrder == null || !ShardUtil.ownsId(shardId, diskOrder.getOrderId())) return;
 
             Order order = new Order();
             order.copyFrom(diskOrder);
@@ -61,41 +80,124 @@ public class OrderProcessor implements OrderBook.TradeFinalizer {
             if (order.getClientOrderId() > 0) {
                 idempotencyGuard.record(order.getUserId(), order.getClientOrderId(), order.getOrderId());
             }
+            // recovery 路徑非 hot path，這裡仍 new 是 OK
             if (!order.isTerminal()) {
-                activeOrdersDiskMap.put(new LongValue(order.getOrderId()), new LongValue(1L)); // recovery 路徑非 hot path，這裡仍 new 是 OK
-                OrderBook.get(order.getSymbolId()).recoverOrder(order);
+                activeOrdersDiskMap.put(new LongValue(order.getOrderId()), new LongValue(1L));
+                books.get(order.getSymbolId()).recoverOrder(order);
+            } else if (MatchingConfig.SHARD_COUNT > 1) {
+                activeOrdersDiskMap.remove(new LongValue(order.getOrderId()));
             }
         });
         idempotencyGuard.flushInlineForRecovery();
         return maxOrderId[0];
     }
 
+    /**
+     * 快照恢復：依 orderId 升序重新掛單，orderId 即同價位的到達順序，保留時間優先。
+     * 不掃描 orders / active-orders 磁碟 Map，成本僅與活躍掛單數成正比。
+     */
+    public void restoreFromSnapshot(List<Order> activeOrders) {
+        books.resetForRecovery();
+        activeOrders.sort(Comparator.comparingLong(Order::getOrderId));
+        for (Order order : activeOrders) books.get(order.getSymbolId()).recoverOrder(order);
+        log.info("自快照恢復活躍掛單 {} 筆 (shard={})", activeOrders.size(), shardId);
+    }
+
     // ========== 指令處理 ==========
 
     public void processCreateCommand(long userId, int symbolId, long price, long qty, Side side,
+                                     OrderType orderType, TimeInForce timeInForce,
                                      long clientOrderId, long gatewaySequence, long timestamp, WalProgress progress) {
-        if (userId <= 0 || clientOrderId <= 0 || qty <= 0 || price <= 0) {
+        if (userId <= 0 || clientOrderId <= 0 || qty <= 0 || !isValidType(price, side, orderType, timeInForce)) {
             reporter.reportRejected(userId, clientOrderId);
             return;
         }
 
-        if (idempotencyGuard.isDuplicate(userId, clientOrderId)) {
+        if (idempotencyGuard.isDuplicate(userId, clientOrderId, progress.getOrderIdCounter())) {
             StaticMetricsHolder.addCounter(Constants.MetricsKey.ORDER_DUPLICATE_COUNT, 1);
             return;
         }
 
-        handleOrderCreate(userId, symbolId, price, qty, side, clientOrderId, gatewaySequence, timestamp, progress);
+        handleOrderCreate(userId, symbolId, price, qty, side, orderType, timeInForce, clientOrderId, gatewaySequence, timestamp, progress);
+    }
+
+    /**
+     * 單型與價格組合檢查：
+     * LIMIT 需 price > 0；MARKET 的 price 為保護價，BUY 必填（決定凍結額），SELL 可為 0（不設下限）。
+     * MARKET 不可搭配 POST_ONLY。
+     */
+    private static boolean isValidType(long price, Side side, OrderType orderType, TimeInForce timeInForce) {
+        if (side == null || side == Side.NULL_VAL) return false;
+        if (orderType == null || orderType == OrderType.NULL_VAL || timeInForce == null || timeInForce == TimeInForce.NULL_VAL) return false;
+        if (orderType == OrderType.LIMIT) return price > 0;
+        if (timeInForce == TimeInForce.POST_ONLY) return false;
+        return side == Side.BUY ? price > 0 : price >= 0;
     }
 
     public void processCancelCommand(long userId, long orderId, long gatewaySequence) {
-        if (userId <= 0 || orderId <= 0) return;
+        if (userId <= 0 || orderId <= 0 || !ShardUtil.ownsId(shardId, orderId)) return;
+
+        // 查內存索引而非磁碟：磁碟可能落後（尚未 flush）或領先（快照恢復後重播），皆會使撤單結果失準
+        Order order = books.findActive(orderId);
+        if (order == null || order.getUserId() != userId) return;
+
+        cancelOrder(books.get(order.getSymbolId()), orderId, userId, gatewaySequence);
+    }
+
+    // ========== 批次指令 ==========
+    // 批次內各筆共用同一 gatewaySequence（Ledger 以同指令規則處理同 seq 的多次變更），
+    // 回報於 reporter.beginBatch ~ endBatch 間合併為單次 Aeron claim。
+
+    public void processCreateBatch(long userId, int symbolId, OrderCreateBatchDecoder.OrdersDecoder orders,
+                                   long gatewaySequence, long timestamp, WalProgress progress) {
+        reporter.beginBatch();
+        try {
+            while (orders.hasNext()) {
+                orders.next();
+                processCreateCommand(userId, symbolId, orders.price(), orders.qty(), orders.side(),
+                        orders.orderType(), orders.timeInForce(), orders.clientOrderId(), gatewaySequence, timestamp, progress);
+            }
+        } finally {
+            reporter.endBatch();
+        }
+    }
+
+    public void processCancelBatch(long userId, OrderCancelBatchDecoder.OrdersDecoder orders, long gatewaySequence) {
+        reporter.beginBatch();
+        try {
+            while (orders.hasNext()) processCancelCommand(userId, orders.next().orderId(), gatewaySequence);
+        } finally {
+            reporter.endBatch();
+        }
+    }
+
+    /** 全撤：symbolId = 0 撤銷本分片所有交易對，經 OrderBook 的用戶索引定位，不掃描價位 */
+    public void processCancelAll(long userId, int symbolId, long gatewaySequence) {
+        if (userId <= 0) return;
+        reporter.beginBatch();
+        try {
+            if (symbolId == 0) {
+                for (OrderBook book : books.all()) cancelAllInBook(book, userId, gatewaySequence);
+            } else {
+                OrderBook book;
+                try { book = books.get(symbolId); }
+                catch (IllegalArgumentException ex) { return; }
+                cancelAllInBook(book, userId, gatewaySequence);
+            }
+        } finally {
+            reporter.endBatch();
+        }
+    }
 
-        reusableOrderKey.set(orderId);
-        Order order = orders.getUsing(reusableOrderKey, reusableDiskOrder);
-        if (order == null || order.getUserId() != userId || !order.isActive()) return;
-        order.validateState();
+    private void cancelAllInBook(OrderBook book, long userId, long gatewaySequence) {
+        massCancelIds.clear();
+        book.collectUserOrders(userId, massCancelIds);
+        for (int i = 0, n = massCancelIds.size(); i < n; i++) {
+            cancelOrder(book, massCancelIds.getLong(i), userId, gatewaySequence);
+        }
+    }
 
-        OrderBook book = OrderBook.get(order.getSymbolId());
+    private void cancelOrder(OrderBook book, long orderId, long userId, long gatewaySequence) {
         Order canceled = book.cancel(orderId, userId, gatewaySequence);
         if (canceled == null) return;
 
@@ -106,7 +208,7 @@ public class OrderProcessor implements OrderBook.TradeFinalizer {
         canceled.validateState();
         reporter.reportCanceled(canceled);
         // 取消後 working order 已終局且無人參照，回池供重用
-        MatchingPool.releaseOrder(canceled);
+        books.pool().releaseOrder(canceled);
     }
 
     // ========== TradeFinalizer ==========
@@ -147,13 +249,67 @@ public class OrderProcessor implements OrderBook.TradeFinalizer {
         reporter.reportMatch(taker, maker, trade);
     }
 
+    /** 即時單未成交部分釋放凍結；與凍結同 seq，重播時兩者皆被 seq 冪等跳過 */
+    @Override
+    public void onExpire(Order taker, long unfilledFrozen, int baseAsset, int quoteAsset) {
+        int assetId = (taker.getSide() == OrderSide.BUY) ? quoteAsset : baseAsset;
+        ledger.unfreezeBalance(taker.getUserId(), assetId, unfilledFrozen, taker.getLastSeq());
+    }
+
+    /** STP 撤銷 maker：與撤單相同的凍結釋放與回報，以 taker 指令的 seq 記帳 */
+    @Override
+    public void onSelfTradeCancel(Order maker, long gwSeq, int baseAsset, int quoteAsset) {
+        int assetId = (maker.getSide() == OrderSide.BUY) ? quoteAsset : baseAsset;
+        ledger.unfreezeBalance(maker.getUserId(), assetId, maker.getFrozen(), gwSeq);
+        maker.setFrozen(0);
+        maker.validateState();
+        reporter.reportCanceled(maker);
+    }
+
+    /** STP 減量：凍結依縮減後剩餘量重算，規則同 onMatch（買單 mulCeil、賣單等量） */
+    @Override
+    public void onSelfTradeReduce(Order order, long reduceQty, long gwSeq, int baseAsset, int quoteAsset) {
+        order.setQty(order.getQty() - reduceQty);
+        long released;
+        int assetId;
+        if (order.getSide() == OrderSide.BUY) {
+            long nextFrozen = DecimalUtil.mulCeil(order.getPrice(), order.remainingQty());
+            released = order.getFrozen() - nextFrozen;
+            order.setFrozen(nextFrozen);
+            assetId = quoteAsset;
+        } else {
+            released = reduceQty;
+            order.setFrozen(order.getFrozen() - reduceQty);
+            assetId = baseAsset;
+        }
+        if (released < 0) throw new IllegalStateException("Negative STP release, orderId=" + order.getOrderId());
+        ledger.unfreezeBalance(order.getUserId(), assetId, released, gwSeq);
+    }
+
     // ========== 內部方法 ==========
 
     private void handleOrderCreate(long userId, int symbolId, long price, long quantity, Side side,
+                                   OrderType orderType, TimeInForce timeInForce,
                                    long clientOrderId, long gatewaySequence, long timestamp, WalProgress progress) {
         OrderBook book;
-        try { book = OrderBook.get(symbolId); }
+        try { book = books.get(symbolId); }
         catch (IllegalArgumentException ex) { reporter.reportRejected(userId, clientOrderId); return; }
+        // 僅會掛單的訂單受價格範圍限制；即時單（MARKET / IOC / FOK）不入簿
+        boolean rest = orderType == OrderType.LIMIT
+                && (timeInForce == TimeInForce.GTC || timeInForce == TimeInForce.POST_ONLY);
+        // 價格不在訂單簿可接受範圍（階梯訂單簿的 tick / 區間限制）時於凍結前拒單
+        if (rest && !book.acceptsPrice(price)) { reporter.reportRejected(userId, clientOrderId); return; }
+
+        byte sideByte = (side == Side.BUY) ? OrderSide.BUY : OrderSide.SELL;
+        // POST_ONLY 會吃單、FOK 深度不足：於凍結與配號前拒單，不產生任何狀態變更
+        if (timeInForce == TimeInForce.POST_ONLY && book.wouldCross(sideByte, price)) {
+            reporter.reportRejected(userId, clientOrderId);
+            return;
+        }
+        if (timeInForce == TimeInForce.FOK && book.availableQty(sideByte, price, userId, quantity) < quantity) {
+            reporter.reportRejected(userId, clientOrderId);
+            return;
+        }
 
         int assetId = (side == Side.BUY) ? book.getQuoteAssetId() : book.getBaseAssetId();
         long freezeAmount = (side == Side.BUY) ? DecimalUtil.mulCeil(price, quantity) : quantity;
@@ -165,22 +321,25 @@ public class OrderProcessor implements OrderBook.TradeFinalizer {
 
         long orderId = progress.nextOrderId();
         Order taker = book.handleCreate(orderId, userId, symbolId, price, quantity, side, clientOrderId,
-                timestamp, gatewaySequence, freezeAmount, progress, this);
+                timestamp, gatewaySequence, freezeAmount, rest, progress, this);
         taker.validateState();
         idempotencyGuard.record(userId, clientOrderId, orderId);
-        // 有成交時 match report 已包含 orderId，不需要額外發 accepted (省 1 次 Aeron tryClaim)
-        if (taker.getFilled() == 0) {
+        if (taker.getStatus() == OrderStatus.CANCELED.value()) {
+            // 即時單未成交部分失效：以撤單回報告知 filled 與終局
+            reporter.reportCanceled(taker);
+        } else if (taker.getFilled() == 0) {
+            // 有成交時 match report 已包含 orderId，不需要額外發 accepted (省 1 次 Aeron tryClaim)
             reporter.reportAccepted(taker);
         }
         // taker 若完全成交（FILLED in match），此時 snap 已在 buffer，working order 可回池
-        if (taker.isTerminal()) MatchingPool.releaseOrder(taker);
+        if (taker.isTerminal()) books.pool().releaseOrder(taker);
     }
 
     private void validateMatchInputs(Trade trade, Order maker, Order taker) {
         if (trade.getQty() <= 0 || trade.getPrice() <= 0) throw new IllegalStateException("Invalid trade, tradeId=" + trade.getTradeId());
         if (maker.getSide() == taker.getSide()) throw new IllegalStateException("Same side match, maker=%d, taker=%d".formatted(maker.getOrderId(), taker.getOrderId()));
         if (!maker.isActive() || !taker.isActive()) throw new IllegalStateException("Terminal match, maker=%d, taker=%d".formatted(maker.getOrderId(), taker.getOrderId()));
-        // Note: filled 已在 OrderBook.executeMatchAtLevel 中更新，remainingQty() 為撮合後的值。
+        // Note: filled 已在 OrderBook.executeFill 中更新，remainingQty() 為撮合後的值。
         // 撮合前的 qty 保證由 OrderBook 的 Math.min(taker.remaining, maker.remaining) 確保正確。
     }
 
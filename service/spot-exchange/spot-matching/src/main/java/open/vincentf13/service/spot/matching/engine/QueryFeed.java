@@ -0,0 +1,228 @@
+package open.vincentf13.service.spot.matching.engine;
+
+import io.aeron.Publication;
+import io.aeron.Subscription;
+import io.aeron.logbuffer.FragmentHandler;
+import lombok.extern.slf4j.Slf4j;
+import open.vincentf13.service.spot.infra.aeron.AeronUtil;
+import open.vincentf13.service.spot.infra.aeron.QueryFeedLayout;
+import open.vincentf13.service.spot.infra.chronicle.Storage;
+import open.vincentf13.service.spot.infra.metrics.StaticMetricsHolder;
+import open.vincentf13.service.spot.model.Order;
+import org.agrona.DirectBuffer;
+import org.agrona.concurrent.UnsafeBuffer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+import static open.vincentf13.service.spot.infra.Constants.*;
+
+/**
+ * 查詢副本資料流發布器 (Query Feed, Matching 端)
+ *
+ * 增量由 {@link AsyncDiskFlusher} 的 flusher thread 發布：每輪落盤的訂單快照與餘額記錄在寫入 ChronicleMap 的同時
+ * 批次發布至查詢流，matching thread 不感知。訊息佈局見 {@link QueryFeedLayout}。
+ *
+ * 全量重送：連線建立、查詢端送出 RESYNC、或發送失敗後，由下一輪 tick 起點交給專用 resync thread 遍歷
+ * orders / balances ChronicleMap（Map 支援並行讀取，flusher 照常落盤），結束時發 QUERY_SYNCED。
+ * 待重送期間的增量直接略過：其 Map 寫入早於重送開始，將包含於遍歷結果；重送開始後的增量照常發布，
+ * 與遍歷結果交錯時由查詢端依 version 取新者。重送中途再次發送失敗則不發 QUERY_SYNCED，結束後再重送一次。
+ * 增量遇背壓不等待，立即轉為待重送，flusher 的落盤節奏不受查詢端消費速度影響。
+ * 各分片冷啟動恢復（快照覆寫 Map）完成前不重送，避免讀到恢復中途的狀態。
+ */
+@Slf4j
+public class QueryFeed implements AutoCloseable {
+    private static final int MAX_BACKPRESSURE_WAITS = 1000;
+    private static final long BACKPRESSURE_WAIT_NS = 100_000;
+    private static final int CONTROL_POLL_LIMIT = 16;
+    private static final int ORDER_RESYNC_SHARD = -1;
+
+    private Publication publication;
+    private Subscription control;
+    private int maxPayload;
+    private final FragmentHandler controlHandler = this::onControl;
+    private final BooleanSupplier recovered;
+    private final ExecutorService resyncExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "query-feed-resync");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // 由 flusher、控制流與 resync thread 置位，僅 flusher 於啟動重送時清除
+    private volatile boolean resyncPending = true;
+    private final AtomicBoolean resyncRunning = new AtomicBoolean();
+    private Batch increments;   // flusher thread 獨佔
+    private Batch snapshot;     // resync thread 獨佔
+
+    /** @param recovered 所有分片冷啟動恢復完成 */
+    public QueryFeed(BooleanSupplier recovered) {
+        this.recovered = recovered;
+    }
+
+    public void init() {
+        publication = AeronUtil.aeron().addPublication(AeronChannel.QUERY_FLOW, AeronChannel.QUERY_STREAM_ID);
+        control = AeronUtil.aeron().addSubscription(AeronChannel.QUERY_CONTROL_FLOW, AeronChannel.QUERY_CONTROL_STREAM_ID);
+        maxPayload = publication.maxPayloadLength();
+        increments = new Batch(false);
+        snapshot = new Batch(true);
+        log.info("QueryFeed 已初始化，stream={}，maxPayload={}", AeronChannel.QUERY_STREAM_ID, maxPayload);
+    }
+
+    /** flusher tick 起點：處理 RESYNC 請求；未連線時標記待重送，連線中且待重送時交由 resync thread 發布全量 */
+    void onTick() {
+        control.poll(controlHandler, CONTROL_POLL_LIMIT);
+        if (!publication.isConnected()) {
+            resyncPending = true;
+            return;
+        }
+        if (resyncPending && recovered.getAsBoolean() && resyncRunning.compareAndSet(false, true)) {
+            // 於 flusher 上清除：此前略過的增量皆已寫入 Map，之後的增量照常發布
+            resyncPending = false;
+            try {
+                resyncExecutor.execute(this::resync);
+            } catch (RejectedExecutionException e) {
+                resyncRunning.set(false);
+            }
+        }
+    }
+
+    private void onControl(DirectBuffer buffer, int offset, int length, io.aeron.logbuffer.Header header) {
+        if (length >= QueryFeedLayout.RESYNC_SIGNAL_LENGTH
+                && buffer.getInt(offset, ByteOrder.LITTLE_ENDIAN) == MsgType.QUERY_RESYNC) {
+            resyncPending = true;
+        }
+    }
+
+    /** OrderBook draining 快照（依變更順序），於 ChronicleMap 寫入前呼叫 */
+    void publishOrders(int shardId, ArrayList<Order> orders) {
+        if (resyncPending || orders.isEmpty()) return;
+        for (int i = 0, n = orders.size(); i < n && !resyncPending; i++) increments.appendOrder(shardId, orders.get(i));
+        increments.flush();
+    }
+
+    /** 帳本 draining 記錄（佈局同 BalanceTable.copyRecord，native order） */
+    void publishBalances(int shardId, DirectBuffer records, int count) {
+        if (resyncPending || count == 0) return;
+        for (int i = 0, off = 0; i < count && !resyncPending; i++, off += BalanceTable.RECORD_BYTES) {
+            int at = increments.reserve(MsgType.QUERY_BALANCES, shardId, QueryFeedLayout.BALANCE_RECORD_LENGTH);
+            QueryFeedLayout.putBalance(increments.frame, at, records.getLong(off), records.getLong(off + 8), records.getLong(off + 16),
+                    records.getLong(off + 24), records.getLong(off + 32), records.getLong(off + 40));
+        }
+        increments.flush();
+    }
+
+    /** resync thread：與 flusher 並行讀取 Map，遇 resyncPending（發送失敗 / 新的 RESYNC）即中止 */
+    private void resync() {
+        try {
+            long start = System.nanoTime();
+            Storage storage = Storage.self();
+            for (int shard = 0; shard < MatchingConfig.SHARD_COUNT && !resyncPending; shard++) {
+                final int s = shard;
+                storage.balances(shard).forEach((k, b) -> {
+                    if (resyncPending) return;
+                    int at = snapshot.reserve(MsgType.QUERY_BALANCES, s, QueryFeedLayout.BALANCE_RECORD_LENGTH);
+                    QueryFeedLayout.putBalance(snapshot.frame, at, BalanceTable.combine(k.getUserId(), k.getAssetId()),
+                            b.getAvailable(), b.getFrozen(), b.getVersion(), b.getLastSeq(), b.getLastTradeId());
+                });
+            }
+            storage.orders().forEach((k, o) -> {
+                if (!resyncPending) snapshot.appendOrder(ORDER_RESYNC_SHARD, o);
+            });
+            snapshot.flush();
+            if (resyncPending) return;  // 中途發送失敗，下一輪 tick 重來
+
+            QueryFeedLayout.putHeader(snapshot.frame, MsgType.QUERY_SYNCED, ORDER_RESYNC_SHARD, 0);
+            if (!snapshot.send(QueryFeedLayout.HEADER_LENGTH)) return;
+            StaticMetricsHolder.addCounter(MetricsKey.QUERY_FEED_RESYNC_COUNT, 1);
+            log.info("QueryFeed 全量重送完成，耗時 {} ms", (System.nanoTime() - start) / 1_000_000);
+        } catch (Exception e) {
+            log.error("QueryFeed 全量重送失敗: {}", e.getMessage(), e);
+            resyncPending = true;
+        } finally {
+            snapshot.count = 0;
+            resyncRunning.set(false);
+        }
+    }
+
+    /** 單一 thread 使用的發送批次：增量與全量重送各持一份 frame，經同一條 concurrent publication 發送 */
+    private final class Batch {
+        final UnsafeBuffer frame = new UnsafeBuffer(ByteBuffer.allocateDirect(maxPayload));
+        final boolean parkOnBackpressure;
+        int type, shard, count, length;
+
+        Batch(boolean parkOnBackpressure) {
+            this.parkOnBackpressure = parkOnBackpressure;
+        }
+
+        void appendOrder(int shardId, Order o) {
+            QueryFeedLayout.putOrder(frame, reserve(MsgType.QUERY_ORDERS, shardId, QueryFeedLayout.ORDER_RECORD_LENGTH), o);
+        }
+
+        /** 預留一筆記錄位置：類型 / 分片改變或超過 MTU 時先送出目前批次 */
+        int reserve(int recordType, int shardId, int recordLength) {
+            if (count > 0 && (recordType != type || shardId != shard || length + recordLength > maxPayload)) {
+                flush();
+            }
+            if (count == 0) {
+                type = recordType;
+                shard = shardId;
+                length = QueryFeedLayout.HEADER_LENGTH;
+            }
+            int at = length;
+            length += recordLength;
+            count++;
+            return at;
+        }
+
+        void flush() {
+            if (count == 0) return;
+            int n = count;
+            count = 0;
+            if (resyncPending) return;
+            QueryFeedLayout.putHeader(frame, type, shard, n);
+            if (send(length)) StaticMetricsHolder.addCounter(MetricsKey.QUERY_FEED_RECORD_COUNT, n);
+        }
+
+        /**
+         * 增量：背壓即轉為待重送，不佔用 flusher；
+         * 全量重送：於 resync thread 上 park 等待，逾時或斷線即轉為待重送
+         */
+        boolean send(int len) {
+            int waits = 0;
+            long res;
+            while ((res = publication.offer(frame, 0, len)) < 0) {
+                if (!parkOnBackpressure
+                        || (res != Publication.BACK_PRESSURED && res != Publication.ADMIN_ACTION)
+                        || ++waits > MAX_BACKPRESSURE_WAITS) {
+                    log.warn("QueryFeed 發送失敗 res={}，連線恢復後全量重送", res);
+                    StaticMetricsHolder.addCounter(MetricsKey.QUERY_FEED_DROP_COUNT, 1);
+                    resyncPending = true;
+                    return false;
+                }
+                LockSupport.parkNanos(BACKPRESSURE_WAIT_NS);
+            }
+            return true;
+        }
+    }
+
+    @Override
+    public void close() {
+        resyncPending = true;  // 令進行中的遍歷儘早結束
+        resyncExecutor.shutdown();
+        try {
+            resyncExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (control != null) control.close();
+        if (publication != null) publication.close();
+    }
+}
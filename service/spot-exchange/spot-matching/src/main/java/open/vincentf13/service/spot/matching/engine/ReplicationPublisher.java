@@ -0,0 +1,98 @@
+package open.vincentf13.service.spot.matching.engine;
+
+import io.aeron.Publication;
+import lombok.extern.slf4j.Slf4j;
+import open.vincentf13.service.spot.infra.aeron.AeronConstants;
+import open.vincentf13.service.spot.infra.aeron.AeronUtil;
+import open.vincentf13.service.spot.infra.metrics.StaticMetricsHolder;
+import org.agrona.DirectBuffer;
+import org.agrona.MutableDirectBuffer;
+
+import java.nio.ByteOrder;
+
+import static open.vincentf13.service.spot.infra.Constants.*;
+import static open.vincentf13.service.spot.infra.aeron.AeronUtil.SEND_BACKPRESSURE;
+import static open.vincentf13.service.spot.infra.aeron.AeronUtil.SEND_OK;
+
+/**
+ * 熱備複製流發布器 (Replication Publisher, Leader 端)
+ *
+ * 每筆已處理指令原樣轉發（含 gateway header），follower 依同一順序套用：多 gateway 合併後的順序由 leader 決定，
+ * follower 不需自行合併即可確定性重現。週期性附加 STATE_HASH 訊號，follower 於相同流位置比對狀態。
+ *
+ * 無 follower 連線時直接略過；背壓逾時丟棄並計數，follower 偵測到序號空洞後轉為 stale（升主時由 gateway WAL 補齊）。
+ * 僅由 matching thread 存取。
+ */
+@Slf4j
+class ReplicationPublisher implements AutoCloseable {
+    private static final int MAX_BACKPRESSURE_SPINS = 1000;
+
+    private final int shardId;
+    private Publication publication;
+    private long lastHashMs;
+    private long droppedCount;
+
+    // 轉發來源（避免 per-message lambda 捕獲）
+    private DirectBuffer srcBuffer;
+    private int srcOffset, srcLength;
+    private long curHash;
+    private final AeronUtil.AeronHandler copyFiller = (buf, off) -> buf.putBytes(off, srcBuffer, srcOffset, srcLength);
+    private final AeronUtil.AeronHandler hashFiller = this::fillHash;
+
+    ReplicationPublisher(int shardId) {
+        this.shardId = shardId;
+    }
+
+    void init() {
+        publication = AeronUtil.aeron().addPublication(AeronChannel.REPLICATION_FLOW, AeronChannel.replicationStreamId(shardId));
+        log.info("ReplicationPublisher[shard={}] 已初始化，複製流 stream={}", shardId, AeronChannel.replicationStreamId(shardId));
+    }
+
+    /** 指令處理後呼叫：原樣轉發 */
+    void forward(DirectBuffer buffer, int offset, int length) {
+        if (!publication.isConnected()) return;
+        srcBuffer = buffer;
+        srcOffset = offset;
+        srcLength = length;
+        send(length, copyFiller);
+        srcBuffer = null;
+    }
+
+    boolean isHashDue(long nowMs) {
+        return MatchingConfig.REPLICA_HASH_INTERVAL_MS > 0 && nowMs - lastHashMs >= MatchingConfig.REPLICA_HASH_INTERVAL_MS;
+    }
+
+    /** poll cycle 邊界呼叫：其前所有指令皆已轉發，follower 於同一位置計算並比對 */
+    void publishHash(long hash, long nowMs) {
+        lastHashMs = nowMs;
+        if (!publication.isConnected()) return;
+        curHash = hash;
+        send(AeronConstants.STATE_HASH_SIGNAL_LENGTH, hashFiller);
+    }
+
+    private void fillHash(MutableDirectBuffer buf, int off) {
+        buf.putInt(off, MsgType.STATE_HASH, ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(off + 4, shardId, ByteOrder.LITTLE_ENDIAN);
+        buf.putLong(off + AeronConstants.MSG_SEQ_OFFSET, curHash, ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void send(int len, AeronUtil.AeronHandler handler) {
+        int spins = 0;
+        while (true) {
+            int res = AeronUtil.send(publication, len, handler);
+            if (res == SEND_OK) return;
+            if (res != SEND_BACKPRESSURE || ++spins > MAX_BACKPRESSURE_SPINS) {
+                if (droppedCount++ == 0) log.warn("ReplicationPublisher[shard={}] 複製流發送失敗 res={}，follower 將轉為 stale", shardId, res);
+                StaticMetricsHolder.addCounter(MetricsKey.REPLICA_FORWARD_DROP_COUNT, 1);
+                return;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (droppedCount > 0) log.warn("ReplicationPublisher[shard={}] 累計丟棄 {} 筆", shardId, droppedCount);
+        if (publication != null) publication.close();
+    }
+}
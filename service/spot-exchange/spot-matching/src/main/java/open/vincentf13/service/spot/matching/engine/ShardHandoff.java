@@ -0,0 +1,40 @@
+package open.vincentf13.service.spot.matching.engine;
+
+import org.agrona.DirectBuffer;
+import org.agrona.concurrent.MessageHandler;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.agrona.concurrent.ringbuffer.ManyToOneRingBuffer;
+import org.agrona.concurrent.ringbuffer.RingBufferDescriptor;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 跨分片交接信箱 (Shard Handoff Inbox)
+ *
+ * 每個分片一個 off-heap MPSC RingBuffer：任意分片 write，僅目標分片的 matching thread read。
+ * 只傳遞 8-byte transferId，劃轉內容以 shard-transfers 日誌為準，信箱遺失可由冷啟動掃描日誌補回。
+ */
+public class ShardHandoff {
+    private static final int INBOX_CAPACITY = 1 << 20; // 1MB ≈ 64K 筆在途劃轉
+    private static final int MSG_TYPE_TRANSFER = 1;
+
+    private final ManyToOneRingBuffer[] inboxes;
+
+    public ShardHandoff(int shardCount) {
+        this.inboxes = new ManyToOneRingBuffer[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            inboxes[i] = new ManyToOneRingBuffer(new UnsafeBuffer(
+                ByteBuffer.allocateDirect(INBOX_CAPACITY + RingBufferDescriptor.TRAILER_LENGTH)));
+        }
+    }
+
+    /** 投遞至目標分片；信箱滿時回傳 false，由呼叫端暫存重試（不可 spin，避免兩分片互等） */
+    public boolean offer(int toShard, DirectBuffer src, int length) {
+        return inboxes[toShard].write(MSG_TYPE_TRANSFER, src, 0, length);
+    }
+
+    /** 目標分片 matching thread 呼叫 */
+    public int drain(int shardId, MessageHandler handler, int limit) {
+        return inboxes[shardId].read(handler, limit);
+    }
+}
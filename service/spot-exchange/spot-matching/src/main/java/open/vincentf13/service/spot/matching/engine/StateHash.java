@@ -0,0 +1,22 @@
+package open.vincentf13.service.spot.matching.engine;
+
+/**
+ * 熱備狀態雜湊 (Replica State Hash)
+ *
+ * 每筆實體（訂單 / 帳戶）各自混合為 64-bit 後相加：與雜湊表迭代順序無關，leader / follower 容量不同亦一致。
+ * 只納入業務欄位，不含 lastSeq / 時間戳等隨定序或環境變動的欄位。
+ */
+final class StateHash {
+    private StateHash() {}
+
+    /** SplitMix64 finalizer */
+    static long mix(long x) {
+        x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+        x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+        return x ^ (x >>> 31);
+    }
+
+    static long entry(long a, long b, long c) {
+        return mix(mix(mix(a) ^ b) ^ c);
+    }
+}
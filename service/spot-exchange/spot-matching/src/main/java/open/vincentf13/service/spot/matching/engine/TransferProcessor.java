@@ -0,0 +1,149 @@
+package open.vincentf13.service.spot.matching.engine;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import lombok.extern.slf4j.Slf4j;
+import net.openhft.chronicle.map.ChronicleMap;
+import open.vincentf13.service.spot.infra.chronicle.LongValue;
+import open.vincentf13.service.spot.infra.chronicle.Storage;
+import open.vincentf13.service.spot.infra.metrics.StaticMetricsHolder;
+import open.vincentf13.service.spot.infra.util.ShardUtil;
+import open.vincentf13.service.spot.model.ShardTransfer;
+import org.agrona.MutableDirectBuffer;
+import org.agrona.concurrent.MessageHandler;
+import org.agrona.concurrent.UnsafeBuffer;
+
+import java.nio.ByteBuffer;
+
+import static open.vincentf13.service.spot.infra.Constants.*;
+
+/**
+ * 跨分片資金劃轉處理器 (TransferProcessor)
+ *
+ * 交接協議 (exactly-once)：
+ * 1. 來源分片：transferOut 以 gwSeq 冪等扣款 → 日誌寫入 PENDING（inline，已存在則不覆寫）→ 投遞 transferId
+ * 2. 目標分片：讀取日誌，僅 PENDING 才 transferIn 入帳 → 日誌改為 CREDITED 並記錄入帳後版本
+ * 3. 冷啟動：目標分片掃描日誌，補入 PENDING；CREDITED 但磁碟餘額版本落後者視為入帳未落盤，重新入帳
+ *
+ * transferId = 來源分片 ID 空間 | gwSeq，WAL 重放時產生相同 ID，不會重複建立劃轉。
+ */
+@Slf4j
+public class TransferProcessor {
+    private static final int DRAIN_LIMIT = 64;
+
+    private final int shardId;
+    private final Ledger ledger;
+    private final ExecutionReporter reporter;
+    private final ShardHandoff handoff;
+    private final ChronicleMap<LongValue, ShardTransfer> journal = Storage.self().shardTransfers();
+
+    // matching thread 專用，零分配
+    private final LongValue journalKey = new LongValue();
+    private final ShardTransfer journalEntry = new ShardTransfer();
+    private final UnsafeBuffer offerBuffer = new UnsafeBuffer(ByteBuffer.allocateDirect(Long.BYTES));
+    /** 信箱滿時暫存 (transferId, toShard) 對，下一輪 poll 重試 */
+    private final LongArrayList pendingOffers = new LongArrayList(64);
+    private final MessageHandler inboxHandler = this::onInboxMessage;
+
+    public TransferProcessor(int shardId, Ledger ledger, ExecutionReporter reporter, ShardHandoff handoff) {
+        this.shardId = shardId;
+        this.ledger = ledger;
+        this.reporter = reporter;
+        this.handoff = handoff;
+    }
+
+    // ========== 來源分片 ==========
+
+    public void handleTransfer(long userId, int assetId, long amount, int fromShard, int toShard, long gwSeq) {
+        if (userId <= 0 || amount <= 0 || Asset.of(assetId) == null || fromShard != shardId
+                || toShard == shardId || toShard < 0 || toShard >= MatchingConfig.SHARD_COUNT) {
+            log.warn("忽略非法劃轉請求: uid={}, aid={}, amt={}, {}->{}, seq={}", userId, assetId, amount, fromShard, toShard, gwSeq);
+            StaticMetricsHolder.addCounter(MetricsKey.SHARD_TRANSFER_REJECTED_COUNT, 1);
+            return;
+        }
+        if (!ledger.transferOut(userId, assetId, amount, gwSeq)) {
+            StaticMetricsHolder.addCounter(MetricsKey.SHARD_TRANSFER_REJECTED_COUNT, 1);
+            return;
+        }
+
+        long transferId = ShardUtil.idBase(shardId) | gwSeq;
+        journalKey.set(transferId);
+        ShardTransfer existing = journal.getUsing(journalKey, journalEntry);
+        if (existing == null) {
+            // 低頻路徑：inline 寫日誌，保證扣款落盤前交接記錄已存在
+            journalEntry.fill(transferId, userId, assetId, amount, shardId, toShard);
+            journal.put(journalKey, journalEntry);
+        } else if (existing.getStatus() == ShardTransfer.CREDITED) {
+            return; // WAL 重放：目標分片已入帳
+        }
+        offer(transferId, toShard);
+        reporter.reportTransfer(userId, assetId, amount, shardId, toShard);
+    }
+
+    private void offer(long transferId, int toShard) {
+        offerBuffer.putLong(0, transferId);
+        if (!handoff.offer(toShard, offerBuffer, Long.BYTES)) {
+            pendingOffers.add(transferId);
+            pendingOffers.add(toShard);
+        }
+    }
+
+    // ========== 目標分片 ==========
+
+    /** matching thread 每輪 poll 呼叫：重試暫存投遞 + 排空本分片信箱 */
+    public int pollHandoff() {
+        int work = 0;
+        if (!pendingOffers.isEmpty()) work += retryPendingOffers();
+        return work + handoff.drain(shardId, inboxHandler, DRAIN_LIMIT);
+    }
+
+    private int retryPendingOffers() {
+        int size = pendingOffers.size(), kept = 0;
+        for (int i = 0; i < size; i += 2) {
+            long transferId = pendingOffers.getLong(i);
+            int toShard = (int) pendingOffers.getLong(i + 1);
+            offerBuffer.putLong(0, transferId);
+            if (!handoff.offer(toShard, offerBuffer, Long.BYTES)) {
+                pendingOffers.set(kept++, transferId);
+                pendingOffers.set(kept++, toShard);
+            }
+        }
+        pendingOffers.size(kept);
+        return (size - kept) >> 1;
+    }
+
+    private void onInboxMessage(int msgTypeId, MutableDirectBuffer buffer, int index, int length) {
+        journalKey.set(buffer.getLong(index));
+        ShardTransfer t = journal.getUsing(journalKey, journalEntry);
+        if (t == null || t.getToShard() != shardId || t.getStatus() != ShardTransfer.PENDING) return;
+        credit(journalKey, t);
+    }
+
+    private void credit(LongValue key, ShardTransfer t) {
+        long version = ledger.transferIn(t.getUserId(), t.getAssetId(), t.getAmount());
+        t.setStatus(ShardTransfer.CREDITED);
+        t.setCreditVersion(version);
+        journal.put(key, t);
+        StaticMetricsHolder.addCounter(MetricsKey.SHARD_TRANSFER_COUNT, 1);
+    }
+
+    // ========== 冷啟動 ==========
+
+    /** 於 Ledger 重建後呼叫：補入未完成或未落盤的入帳 */
+    public void recoverIncoming() {
+        LongArrayList toCredit = new LongArrayList();
+        journal.forEach((k, t) -> {
+            if (t == null || t.getToShard() != shardId) return;
+            if (t.getStatus() == ShardTransfer.PENDING
+                    || ledger.balanceVersion(t.getUserId(), t.getAssetId()) < t.getCreditVersion()) {
+                toCredit.add(k.getValue());
+            }
+        });
+        LongValue key = new LongValue();
+        ShardTransfer t = new ShardTransfer();
+        for (int i = 0; i < toCredit.size(); i++) {
+            key.set(toCredit.getLong(i));
+            if (journal.getUsing(key, t) != null) credit(key, t);
+        }
+        if (!toCredit.isEmpty()) log.info("shard={} 冷啟動補入跨分片劃轉 {} 筆", shardId, toCredit.size());
+    }
+}
@@ -0,0 +1,175 @@
+package open.vincentf13.service.spot.matching.engine;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectRBTreeMap;
+import it.unimi.dsi.fastutil.longs.LongComparator;
+import open.vincentf13.service.spot.model.Order;
+import org.agrona.collections.Long2ObjectHashMap;
+
+import java.util.Deque;
+
+import static open.vincentf13.service.spot.infra.Constants.*;
+
+/**
+ * RB-Tree 訂單簿 (TreeOrderBook)
+ *
+ * 價位以 RB-Tree 排序、Long2ObjectHashMap 直接定位，每價位一個 FIFO Deque。
+ * 價格範圍無界，適用未設定價格階梯的交易對。
+ */
+class TreeOrderBook extends OrderBook {
+
+    // 撮合結構
+    private final Long2ObjectRBTreeMap<Deque<Order>> bids = new Long2ObjectRBTreeMap<>((LongComparator) (k1, k2) -> Long.compare(k2, k1));
+    private final Long2ObjectRBTreeMap<Deque<Order>> asks = new Long2ObjectRBTreeMap<>();
+    private final Long2ObjectHashMap<Deque<Order>> bidLevels = new Long2ObjectHashMap<>(MatchingConfig.INITIAL_BOOK_LEVEL_CAPACITY, 0.5f);
+    private final Long2ObjectHashMap<Deque<Order>> askLevels = new Long2ObjectHashMap<>(MatchingConfig.INITIAL_BOOK_LEVEL_CAPACITY, 0.5f);
+
+    TreeOrderBook(int symbolId, int baseAssetId, int quoteAssetId, MatchingPool objectPool, StpMode stpMode) {
+        super(symbolId, baseAssetId, quoteAssetId, objectPool, stpMode);
+    }
+
+    // ========== 內部撮合邏輯 ==========
+
+    @Override
+    protected void match(Order taker, long gwSeq, long timestamp,
+                         open.vincentf13.service.spot.model.WalProgress progress, TradeFinalizer finalizer) {
+        boolean isBuy = taker.getSide() == OrderSide.BUY;
+        Long2ObjectRBTreeMap<Deque<Order>> counters = isBuy ? asks : bids;
+
+        while (canMatch(taker) && !counters.isEmpty()) {
+            long bestPrice = counters.firstLongKey();
+            if (isBuy ? (taker.getPrice() < bestPrice) : (taker.getPrice() > bestPrice)) break;
+            executeMatchAtLevel(taker, bestPrice, counters, getLevels(!isBuy), gwSeq, timestamp, progress, finalizer);
+        }
+    }
+
+    private void executeMatchAtLevel(Order taker, long price, Long2ObjectRBTreeMap<Deque<Order>> counters,
+                                     Long2ObjectHashMap<Deque<Order>> levels, long gwSeq, long timestamp,
+                                     open.vincentf13.service.spot.model.WalProgress progress, TradeFinalizer finalizer) {
+        Deque<Order> makers = levels.get(price);
+        if (makers == null || makers.isEmpty()) { cleanupEmptyLevel(price, counters, levels, makers); return; }
+
+        while (!makers.isEmpty() && canMatch(taker)) {
+            Order maker = makers.peekFirst();
+            if (maker.getUserId() == taker.getUserId()) {
+                // 自成交防護：maker 位於隊首，撤銷時 pollFirst O(1) 移出
+                if (preventSelfTrade(taker, maker, gwSeq, finalizer)) {
+                    makers.pollFirst();
+                    cancelSelfTradeMaker(maker, gwSeq, finalizer);
+                }
+                continue;
+            }
+
+            if (executeFill(taker, maker, price, gwSeq, timestamp, progress, finalizer)) {
+                finalizeOrder(maker, gwSeq); makers.pollFirst();
+                objectPool.releaseOrder(maker); // maker 終局後不再被 match 迴圈讀取，安全回池
+            }
+            else { syncOrder(maker, gwSeq); break; }
+        }
+        if (makers.isEmpty()) cleanupEmptyLevel(price, counters, levels, makers);
+    }
+
+    @Override
+    public boolean wouldCross(byte side, long price) {
+        if (side == OrderSide.BUY) return !asks.isEmpty() && price >= asks.firstLongKey();
+        return !bids.isEmpty() && price <= bids.firstLongKey();
+    }
+
+    /**
+     * 依價格順序走訪對手方 RB-Tree，超出限價或數量已足額即停，成本與觸及的價位數成正比而非整本深度。
+     * STP 會中止 taker 時遇自單即停（與 executeMatchAtLevel 一致）；RB-Tree 迭代器每次呼叫分配一次。
+     */
+    @Override
+    public long availableQty(byte takerSide, long limitPrice, long takerUserId, long needed) {
+        boolean isBuy = takerSide == OrderSide.BUY;
+        depthScan.reset(takerUserId, selfTradeStopsTaker());
+        for (Deque<Order> level : getTree(!isBuy).values()) {
+            if (depthScan.sum >= needed || depthScan.hitSelf) break;
+            long price = level.peekFirst().getPrice();
+            if (isBuy ? price > limitPrice : price < limitPrice) break;
+            level.forEach(depthScan);
+        }
+        return Math.min(depthScan.sum, needed);
+    }
+
+    private final DepthScan depthScan = new DepthScan();
+
+    /** 可重用的跨價位累加器：規則與 executeMatchAtLevel 的 STP 處理一致 */
+    private static final class DepthScan implements java.util.function.Consumer<Order> {
+        long userId, sum;
+        boolean stopAtSelf, hitSelf;
+        void reset(long userId, boolean stopAtSelf) { this.userId = userId; this.stopAtSelf = stopAtSelf; this.sum = 0; this.hitSelf = false; }
+        @Override public void accept(Order maker) {
+            if (hitSelf) return;
+            if (maker.getUserId() == userId) { hitSelf = stopAtSelf; return; }
+            sum += maker.remainingQty();
+        }
+    }
+
+    // ========== 價位結構 ==========
+
+    @Override
+    protected void addToLevel(Order order) {
+        long price = order.getPrice();
+        Long2ObjectHashMap<Deque<Order>> levels = getLevels(order.getSide() == OrderSide.BUY);
+        Deque<Order> level = levels.get(price);
+        if (level == null) {
+            level = objectPool.borrowDeque();
+            getTree(order.getSide() == OrderSide.BUY).put(price, level);
+            levels.put(price, level);
+        }
+        level.addLast(order);
+    }
+
+    @Override
+    protected void removeFromLevel(Order o) {
+        Long2ObjectHashMap<Deque<Order>> levels = getLevels(o.getSide() == OrderSide.BUY);
+        Deque<Order> level = levels.get(o.getPrice());
+        if (level != null) {
+            level.remove(o);
+            if (level.isEmpty()) cleanupEmptyLevel(o.getPrice(), getTree(o.getSide() == OrderSide.BUY), levels, level);
+        }
+    }
+
+    private void cleanupEmptyLevel(long price, Long2ObjectRBTreeMap<Deque<Order>> counters,
+                                   Long2ObjectHashMap<Deque<Order>> levels, Deque<Order> deque) {
+        counters.remove(price);
+        Deque<Order> removed = levels.remove(price);
+        objectPool.releaseDeque(removed != null ? removed : deque);
+    }
+
+    /** RB-Tree key 迭代器每次快照分配一次，僅於 poll cycle 邊界發生 */
+    @Override
+    protected void collectTopPrices(byte side, int maxLevels, it.unimi.dsi.fastutil.longs.LongArrayList out) {
+        for (it.unimi.dsi.fastutil.longs.LongIterator it = getTree(side == OrderSide.BUY).keySet().iterator();
+             it.hasNext() && out.size() < maxLevels; ) {
+            out.add(it.nextLong());
+        }
+    }
+
+    private Long2ObjectRBTreeMap<Deque<Order>> getTree(boolean buy) { return buy ? bids : asks; }
+    private Long2ObjectHashMap<Deque<Order>> getLevels(boolean buy) { return buy ? bidLevels : askLevels; }
+
+    // ========== 狀態驗證 ==========
+
+    @Override
+    protected boolean isInLevel(Order o) {
+        Deque<Order> level = getLevels(o.getSide() == OrderSide.BUY).get(o.getPrice());
+        return level != null && level.contains(o);
+    }
+
+    @Override
+    protected void validateLevels() {
+        validateLevels(bidLevels, OrderSide.BUY);
+        validateLevels(askLevels, OrderSide.SELL);
+    }
+
+    private void validateLevels(Long2ObjectHashMap<Deque<Order>> levels, byte expectedSide) {
+        levels.forEach((price, queue) -> {
+            if (queue == null || queue.isEmpty()) throw new IllegalStateException("Empty level, side=" + expectedSide + ", price=" + price);
+            for (Order order : queue) {
+                if (!orderIndex.containsKey(order.getOrderId())) throw new IllegalStateException("Unindexed order in level, orderId=" + order.getOrderId());
+                validateLevelOrder(order, expectedSide, price);
+            }
+        });
+    }
+}
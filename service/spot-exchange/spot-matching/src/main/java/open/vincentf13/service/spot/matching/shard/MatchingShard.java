@@ -0,0 +1,37 @@
+package open.vincentf13.service.spot.matching.shard;
+
+import lombok.Getter;
+import open.vincentf13.service.spot.matching.aeron.MatchingReceiver;
+import open.vincentf13.service.spot.matching.engine.*;
+
+/**
+ * 單一撮合分片的組件裝配 (Matching Shard Wiring)
+ *
+ * 分片內所有組件皆由同一條 matching thread 獨佔：物件池、訂單簿、帳本切片、回報器、進度。
+ * 分片之間唯一的共享點是 {@link ShardHandoff} 信箱與 shard-transfers 日誌。
+ */
+@Getter
+public class MatchingShard {
+    private final int shardId;
+    private final Ledger ledger;
+    private final OrderBooks books;
+    private final Engine engine;
+    private final MatchingReceiver receiver;
+
+    public MatchingShard(int shardId, ShardHandoff handoff) {
+        this.shardId = shardId;
+        this.books = new OrderBooks(shardId, new MatchingPool());
+        this.ledger = new Ledger(shardId);
+        ledger.init();
+
+        ExecutionReporter reporter = new ExecutionReporter();
+        OrderProcessor orderProcessor = new OrderProcessor(shardId, books, ledger, reporter);
+        TransferProcessor transferProcessor = new TransferProcessor(shardId, ledger, reporter, handoff);
+        CommandRouter router = new CommandRouter(orderProcessor,
+                new AuthProcessor(ledger, reporter), new DepositProcessor(ledger, reporter), transferProcessor);
+
+        this.engine = new Engine(shardId, router, orderProcessor, ledger, books, transferProcessor, reporter,
+                new MarketDataPublisher(), new CoreStateValidator(ledger, books));
+        this.receiver = new MatchingReceiver(engine);
+    }
+}
@@ -0,0 +1,60 @@
+package open.vincentf13.service.spot.matching.shard;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import open.vincentf13.service.spot.matching.engine.AsyncDiskFlusher;
+import open.vincentf13.service.spot.matching.engine.QueryFeed;
+import open.vincentf13.service.spot.matching.engine.ShardHandoff;
+import org.springframework.stereotype.Component;
+
+import static open.vincentf13.service.spot.infra.Constants.MatchingConfig;
+
+/**
+ * 撮合分片管理器 (Matching Shards)
+ *
+ * 依 -Dspot.matching.shards 建立 N 個分片，每個分片一條綁核 MatchingReceiver thread。
+ * 交易對依 ShardUtil.shardOfSymbol 分配，Gateway 以同一規則將指令送入分片專屬 Aeron stream。
+ * SHARD_COUNT=1 時與未分片前完全相同（同 stream、同 metadata key、同檔名）。
+ * 啟用查詢副本 (-Dspot.query.enabled) 時建立單一 {@link QueryFeed} 掛到共用 flusher。
+ */
+@Slf4j
+@Component
+public class MatchingShards {
+    private final MatchingShard[] shards;
+    private final AsyncDiskFlusher diskFlusher;
+
+    /** @param aeron 僅用於建立 Spring Bean 依賴順序 */
+    public MatchingShards(@SuppressWarnings("unused") io.aeron.Aeron aeron, AsyncDiskFlusher diskFlusher) {
+        this.diskFlusher = diskFlusher;
+        ShardHandoff handoff = new ShardHandoff(MatchingConfig.SHARD_COUNT);
+        this.shards = new MatchingShard[MatchingConfig.SHARD_COUNT];
+        for (int i = 0; i < shards.length; i++) shards[i] = new MatchingShard(i, handoff);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (MatchingConfig.QUERY_FEED_ENABLED) {
+            QueryFeed feed = new QueryFeed(this::allRecovered);
+            feed.init();
+            diskFlusher.attachQueryFeed(feed);
+        }
+        for (MatchingShard shard : shards) shard.getEngine().registerDiskSinks(diskFlusher);
+        // 依序啟動：Worker.start 會等待綁核完成，確保 shard 0 拿到 pool 第一個核心
+        for (MatchingShard shard : shards) shard.getReceiver().start();
+        log.info("撮合分片啟動完成，shards={}", shards.length);
+    }
+
+    @PreDestroy
+    public void stop() {
+        for (MatchingShard shard : shards) shard.getReceiver().stop();
+    }
+
+    private boolean allRecovered() {
+        for (MatchingShard shard : shards) if (!shard.getEngine().isRecovered()) return false;
+        return true;
+    }
+
+    public MatchingShard shard(int shardId) { return shards[shardId]; }
+    public int size() { return shards.length; }
+}
@@ -0,0 +1,20 @@
+package open.vincentf13.service.spot.query;
+
+import open.vincentf13.service.spot.infra.aeron.AeronConfig;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.Import;
+
+/**
+ * 現貨查詢副本 (Query Replica)
+ *
+ * 只引入 Aeron client，不掃描 spot.infra：不初始化 Storage、不開啟撮合的 ChronicleMap，
+ * 讀取模型完全由查詢流建立。撮合端需以 -Dspot.query.enabled=true 啟動。
+ */
+@SpringBootApplication
+@Import(AeronConfig.class)
+public class QueryApp {
+    public static void main(String[] args) {
+        SpringApplication.run(QueryApp.class, args);
+    }
+}
@@ -0,0 +1,59 @@
+package open.vincentf13.service.spot.query;
+
+import org.springframework.web.bind.annotation.*;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 查詢 API：餘額、活躍掛單、訂單歷史。金額與數量皆為 SCALE 後的原始單位。
+ */
+@RestController
+@RequestMapping("/api/query")
+public class QueryController {
+    private static final int MAX_HISTORY_LIMIT = 1000;
+
+    private final QueryStore store;
+
+    public QueryController(QueryStore store) {
+        this.store = store;
+    }
+
+    @GetMapping("/balances")
+    public List<QueryStore.BalanceView> getBalances(@RequestParam long userId) {
+        return store.balances(userId);
+    }
+
+    @GetMapping("/orders/open")
+    public List<QueryStore.OrderView> getOpenOrders(@RequestParam long userId,
+                                                    @RequestParam(defaultValue = "0") int symbolId) {
+        return store.openOrders(userId, symbolId);
+    }
+
+    /** from / to 為下單 timestamp（含端點），新到舊 */
+    @GetMapping("/orders/history")
+    public List<QueryStore.OrderView> getOrderHistory(@RequestParam long userId,
+                                                      @RequestParam(defaultValue = "0") long from,
+                                                      @RequestParam(defaultValue = "" + Long.MAX_VALUE) long to,
+                                                      @RequestParam(defaultValue = "100") int limit) {
+        return store.orderHistory(userId, from, to, Math.max(1, Math.min(limit, MAX_HISTORY_LIMIT)));
+    }
+
+    @GetMapping("/orders/{orderId}")
+    public QueryStore.OrderView getOrder(@PathVariable long orderId) {
+        return store.order(orderId);
+    }
+
+    /** synced=false：尚未完成全量同步，結果可能缺漏 */
+    @GetMapping("/status")
+    public Map<String, Object> getStatus() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("synced", store.isSynced());
+        m.put("last_update_ms", store.lastUpdateMs());
+        m.put("applied_records", store.appliedRecords());
+        m.put("users", store.userCount());
+        m.put("orders", store.orderCount());
+        return m;
+    }
+}
@@ -0,0 +1,110 @@
+package open.vincentf13.service.spot.query;
+
+import io.aeron.Aeron;
+import io.aeron.Image;
+import io.aeron.Publication;
+import io.aeron.Subscription;
+import io.aeron.logbuffer.FragmentHandler;
+import io.aeron.logbuffer.Header;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import open.vincentf13.service.spot.infra.aeron.AeronConstants;
+import open.vincentf13.service.spot.infra.aeron.QueryFeedLayout;
+import org.agrona.DirectBuffer;
+import org.agrona.concurrent.BackoffIdleStrategy;
+import org.agrona.concurrent.IdleStrategy;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteOrder;
+
+import static open.vincentf13.service.spot.infra.Constants.*;
+
+/**
+ * 查詢流接收器 (Query Receiver)
+ *
+ * 單一背景 thread 訂閱撮合 flusher 的查詢流並套用至 {@link QueryStore}。查詢副本不在交易關鍵路徑：
+ * 不綁核、以 backoff idle 讓出 CPU（與 AsyncDiskFlusher 同樣不做效率優化）。
+ *
+ * 每當查詢流出現新 image（本進程啟動、撮合重啟、網路中斷恢復）即經控制流送出 RESYNC，
+ * 撮合端重送全量後以 QUERY_SYNCED 標示讀取模型已完整。
+ */
+@Slf4j
+@Component
+public class QueryReceiver implements Runnable {
+    private static final IdleStrategy IDLE = new BackoffIdleStrategy(100, 10, 1_000, 1_000_000);
+
+    private final Aeron aeron;
+    private final QueryStore store;
+    private final FragmentHandler handler = this::onFragment;
+    private final UnsafeBuffer resyncSignal = new UnsafeBuffer(new byte[QueryFeedLayout.RESYNC_SIGNAL_LENGTH]);
+
+    private Subscription subscription;
+    private Publication control;
+    private volatile boolean resyncRequested;
+    private volatile boolean running;
+    private Thread thread;
+
+    public QueryReceiver(Aeron aeron, QueryStore store) {
+        this.aeron = aeron;
+        this.store = store;
+        resyncSignal.putInt(0, MsgType.QUERY_RESYNC, ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @PostConstruct
+    public void start() {
+        control = aeron.addPublication(AeronChannel.QUERY_CONTROL_FLOW, AeronChannel.QUERY_CONTROL_STREAM_ID);
+        subscription = aeron.addSubscription(AeronChannel.QUERY_FLOW, AeronChannel.QUERY_STREAM_ID,
+                this::onImageAvailable, image -> log.warn("查詢流 image 中斷：{}", image.sourceIdentity()));
+        running = true;
+        thread = new Thread(this, "query-receiver");
+        thread.setDaemon(true);
+        thread.start();
+        log.info("QueryReceiver 已啟動，stream={}", AeronChannel.QUERY_STREAM_ID);
+    }
+
+    private void onImageAvailable(Image image) {
+        log.info("查詢流 image 建立：{}，請求全量重送", image.sourceIdentity());
+        store.markResyncing();
+        resyncRequested = true;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            int work = subscription.poll(handler, AeronConstants.AERON_POLL_LIMIT);
+            if (resyncRequested && control.offer(resyncSignal, 0, QueryFeedLayout.RESYNC_SIGNAL_LENGTH) > 0) {
+                resyncRequested = false;
+                work++;
+            }
+            IDLE.idle(work);
+        }
+    }
+
+    private void onFragment(DirectBuffer buffer, int offset, int length, Header header) {
+        if (length < QueryFeedLayout.HEADER_LENGTH) return;
+        int type = buffer.getInt(offset, ByteOrder.LITTLE_ENDIAN);
+        int shard = buffer.getInt(offset + QueryFeedLayout.SHARD_OFFSET, ByteOrder.LITTLE_ENDIAN);
+        int count = buffer.getInt(offset + QueryFeedLayout.COUNT_OFFSET, ByteOrder.LITTLE_ENDIAN);
+        switch (type) {
+            case MsgType.QUERY_ORDERS -> store.applyOrders(buffer, offset, count);
+            case MsgType.QUERY_BALANCES -> store.applyBalances(buffer, offset, shard, count);
+            case MsgType.QUERY_SYNCED -> {
+                store.markSynced();
+                log.info("查詢副本全量同步完成，訂單 {} 筆", store.orderCount());
+            }
+            default -> log.warn("未知查詢流訊息 type={}", type);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (thread != null) {
+            try { thread.join(1000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        }
+        if (subscription != null) subscription.close();
+        if (control != null) control.close();
+    }
+}
@@ -0,0 +1,189 @@
+package open.vincentf13.service.spot.query;
+
+import open.vincentf13.service.spot.infra.aeron.QueryFeedLayout;
+import org.agrona.DirectBuffer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * 查詢讀取模型 (Query Store)
+ *
+ * 單寫者（{@link QueryReceiver} thread）套用查詢流記錄，多讀者（REST thread）無鎖讀取：
+ * 索引皆為 concurrent 容器，值為不可變 record，讀者看到的每筆皆為某一時點的完整狀態。
+ *
+ * 索引：
+ * - 餘額：userId → (assetId, shard) 切片，查詢時跨分片加總
+ * - 活躍掛單：userId → orderId → 訂單
+ * - 訂單歷史：userId → (timestamp, orderId) → 訂單，每用戶保留最近 {@code query.history-per-user} 筆，
+ *   超出時自最舊的終態訂單淘汰（活躍掛單不淘汰）
+ *
+ * 新舊判斷以 version 為準（≥ 才覆寫）：全量重送與增量重疊、或撮合冷啟動回到較舊快照時，讀取模型不回退。
+ */
+@Component
+public class QueryStore {
+
+    public record OrderView(long orderId, long userId, int symbolId, long price, long qty, long filled,
+                            byte side, byte status, long clientOrderId, long timestamp, long version) {
+        /** FILLED / CANCELED */
+        public boolean isTerminal() { return status >= 2; }
+    }
+
+    public record BalanceView(int assetId, long available, long frozen) {}
+
+    private record BalanceSlice(int assetId, int shard, long available, long frozen, long version) {}
+
+    private record HistoryKey(long timestamp, long orderId) implements Comparable<HistoryKey> {
+        @Override public int compareTo(HistoryKey o) {
+            int c = Long.compare(timestamp, o.timestamp);
+            return c != 0 ? c : Long.compare(orderId, o.orderId);
+        }
+    }
+
+    private static final class UserOrders {
+        final ConcurrentSkipListMap<Long, OrderView> open = new ConcurrentSkipListMap<>();
+        final ConcurrentSkipListMap<HistoryKey, OrderView> history = new ConcurrentSkipListMap<>();
+    }
+
+    private static final ByteOrder LE = ByteOrder.LITTLE_ENDIAN;
+
+    private final int historyPerUser;
+    private final ConcurrentHashMap<Long, ConcurrentHashMap<Long, BalanceSlice>> balances = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, OrderView> ordersById = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, UserOrders> ordersByUser = new ConcurrentHashMap<>();
+
+    private volatile boolean synced;
+    private volatile long lastUpdateMs;
+    private volatile long appliedRecords;
+
+    public QueryStore(@Value("${query.history-per-user:1000}") int historyPerUser) {
+        this.historyPerUser = Math.max(1, historyPerUser);
+    }
+
+    // ========== 寫入（receiver thread） ==========
+
+    void applyOrders(DirectBuffer buf, int offset, int count) {
+        for (int i = 0, off = offset + QueryFeedLayout.HEADER_LENGTH; i < count; i++, off += QueryFeedLayout.ORDER_RECORD_LENGTH) {
+            applyOrder(new OrderView(
+                    buf.getLong(off + QueryFeedLayout.ORDER_ID, LE),
+                    buf.getLong(off + QueryFeedLayout.ORDER_USER_ID, LE),
+                    buf.getInt(off + QueryFeedLayout.ORDER_SYMBOL_ID, LE),
+                    buf.getLong(off + QueryFeedLayout.ORDER_PRICE, LE),
+                    buf.getLong(off + QueryFeedLayout.ORDER_QTY, LE),
+                    buf.getLong(off + QueryFeedLayout.ORDER_FILLED, LE),
+                    buf.getByte(off + QueryFeedLayout.ORDER_SIDE),
+                    buf.getByte(off + QueryFeedLayout.ORDER_STATUS),
+                    buf.getLong(off + QueryFeedLayout.ORDER_CLIENT_ORDER_ID, LE),
+                    buf.getLong(off + QueryFeedLayout.ORDER_TIMESTAMP, LE),
+                    buf.getLong(off + QueryFeedLayout.ORDER_VERSION, LE)));
+        }
+        touch(count);
+    }
+
+    private void applyOrder(OrderView o) {
+        OrderView prev = ordersById.get(o.orderId());
+        if (prev != null && prev.version() > o.version()) return;
+        ordersById.put(o.orderId(), o);
+        UserOrders user = ordersByUser.computeIfAbsent(o.userId(), k -> new UserOrders());
+        user.history.put(new HistoryKey(o.timestamp(), o.orderId()), o);
+        if (o.isTerminal()) user.open.remove(o.orderId());
+        else user.open.put(o.orderId(), o);
+        if (prev == null) trimHistory(user);
+    }
+
+    private void trimHistory(UserOrders user) {
+        int excess = user.history.size() - historyPerUser;
+        if (excess <= 0) return;
+        Iterator<Map.Entry<HistoryKey, OrderView>> it = user.history.entrySet().iterator();
+        while (excess > 0 && it.hasNext()) {
+            OrderView o = it.next().getValue();
+            if (!o.isTerminal()) continue;
+            it.remove();
+            ordersById.remove(o.orderId());
+            excess--;
+        }
+    }
+
+    void applyBalances(DirectBuffer buf, int offset, int shard, int count) {
+        for (int i = 0, off = offset + QueryFeedLayout.HEADER_LENGTH; i < count; i++, off += QueryFeedLayout.BALANCE_RECORD_LENGTH) {
+            long key = buf.getLong(off + QueryFeedLayout.BALANCE_KEY, LE);
+            long userId = key >>> 32;
+            int assetId = (int) key;
+            BalanceSlice slice = new BalanceSlice(assetId, shard,
+                    buf.getLong(off + QueryFeedLayout.BALANCE_AVAILABLE, LE),
+                    buf.getLong(off + QueryFeedLayout.BALANCE_FROZEN, LE),
+                    buf.getLong(off + QueryFeedLayout.BALANCE_VERSION, LE));
+            ConcurrentHashMap<Long, BalanceSlice> slices = balances.computeIfAbsent(userId, k -> new ConcurrentHashMap<>());
+            long sliceKey = ((long) assetId << 8) | shard;
+            BalanceSlice prev = slices.get(sliceKey);
+            if (prev == null || prev.version() <= slice.version()) slices.put(sliceKey, slice);
+        }
+        touch(count);
+    }
+
+    /** 要求全量重送後至收到 QUERY_SYNCED 前，讀取結果可能缺漏 */
+    void markResyncing() { synced = false; }
+
+    void markSynced() { synced = true; }
+
+    private void touch(int count) {
+        appliedRecords += count;
+        lastUpdateMs = System.currentTimeMillis();
+    }
+
+    // ========== 查詢（任意 thread） ==========
+
+    /** 各資產跨分片加總，依 assetId 排序 */
+    public List<BalanceView> balances(long userId) {
+        ConcurrentHashMap<Long, BalanceSlice> slices = balances.get(userId);
+        if (slices == null) return List.of();
+        TreeMap<Integer, BalanceView> byAsset = new TreeMap<>();
+        for (BalanceSlice s : slices.values()) {
+            byAsset.merge(s.assetId(), new BalanceView(s.assetId(), s.available(), s.frozen()),
+                    (a, b) -> new BalanceView(a.assetId(), a.available() + b.available(), a.frozen() + b.frozen()));
+        }
+        return new ArrayList<>(byAsset.values());
+    }
+
+    /** 活躍掛單，依 orderId 遞增；symbolId ≤ 0 表示不過濾 */
+    public List<OrderView> openOrders(long userId, int symbolId) {
+        UserOrders user = ordersByUser.get(userId);
+        if (user == null) return List.of();
+        List<OrderView> out = new ArrayList<>();
+        for (OrderView o : user.open.values()) if (symbolId <= 0 || o.symbolId() == symbolId) out.add(o);
+        return out;
+    }
+
+    /** 訂單歷史：timestamp ∈ [from, to]，新到舊，至多 limit 筆 */
+    public List<OrderView> orderHistory(long userId, long from, long to, int limit) {
+        UserOrders user = ordersByUser.get(userId);
+        if (user == null || from > to) return List.of();
+        NavigableMap<HistoryKey, OrderView> range = user.history.subMap(
+                new HistoryKey(from, Long.MIN_VALUE), true, new HistoryKey(to, Long.MAX_VALUE), true).descendingMap();
+        List<OrderView> out = new ArrayList<>(Math.min(limit, 256));
+        for (OrderView o : range.values()) {
+            if (out.size() >= limit) break;
+            out.add(o);
+        }
+        return out;
+    }
+
+    public OrderView order(long orderId) {
+        return ordersById.get(orderId);
+    }
+
+    public boolean isSynced() { return synced; }
+    public long lastUpdateMs() { return lastUpdateMs; }
+    public long appliedRecords() { return appliedRecords; }
+    public int userCount() { return ordersByUser.size(); }
+    public int orderCount() { return ordersById.size(); }
+}
@@ -1,23 +1,21 @@
 package open.vincentf13.service.spot.ws.aeron;
 
 import com.lmax.disruptor.EventPoller;
-import com.lmax.disruptor.RingBuffer;
 import io.aeron.Publication;
 import io.aeron.Subscription;
 import io.aeron.logbuffer.FragmentHandler;
-import jakarta.annotation.PostConstruct;
-import jakarta.annotation.PreDestroy;
+import io.aeron.logbuffer.Header;
 import lombok.extern.slf4j.Slf4j;
 import open.vincentf13.service.spot.infra.aeron.*;
 import open.vincentf13.service.spot.infra.aeron.AeronConstants.AeronState;
 import open.vincentf13.service.spot.infra.metrics.StaticMetricsHolder;
 import open.vincentf13.service.spot.infra.thread.Worker;
+import open.vincentf13.service.spot.infra.util.ShardUtil;
 import open.vincentf13.service.spot.model.command.AbstractSbeModel;
 import open.vincentf13.service.spot.sbe.*;
 import open.vincentf13.service.spot.ws.wal.*;
+import org.agrona.DirectBuffer;
 import org.agrona.MutableDirectBuffer;
-import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
-import org.springframework.stereotype.Component;
 
 import java.nio.ByteOrder;
 
@@ -30,18 +28,25 @@ import static open.vincentf13.service.spot.infra.aeron.AeronUtil.*;
  * Bypass 模式 (預設，-Dspot.wal.bypass=true)：Disruptor → Aeron 直送，零 WAL 開銷。
  * WAL 模式：由 {@link WalSender} 繼承並覆寫事件處理方法。
  *
- * Bypass 模式下此類直接作為 @Component 實例化（單一具體類，無繼承），
+ * Bypass 模式下只實例化此具體類（WalSender 不會被載入），
  * 讓 JIT 能完整 inline 整條 doWork → processEvents → sendFromEvent 熱路徑。
+ *
+ * 分片模式：每個撮合分片一個 sender（由 {@link GatewaySenders} 建立），共用同一組 {@link IngressRings}，
+ * 各自以獨立 poller 讀取全部事件，只轉發 {@link #accepts} 判定屬於本分片的指令至分片專屬 Aeron stream。
+ * 批次撤單的 orderId 可跨分片：各 sender 只編碼本分片擁有的筆數 ({@link #ownsCancel})。
+ *
+ * 多 Gateway：frame header 帶本 gateway ID ({@link MatchingConfig#GATEWAY_ID})，指令流與 RESUME 皆以 (shard, gateway) 區分，
+ * 各 gateway 的 walIndex 為獨立序號空間，由撮合端合併。
  */
 @Slf4j
-// 顯式 bean 名稱與 WalSender 對齊，NettyServer @DependsOn("gatewaySender") 在兩種模式都成立
-@Component("gatewaySender")
-@ConditionalOnProperty(name = "spot.wal.bypass", havingValue = "true")
 public class GatewaySender extends Worker {
 
-    // ===== Disruptor =====
-    protected final RingBuffer<WalEvent> ringBuffer;
-    protected final EventPoller<WalEvent> poller;
+    // ===== Disruptor：每個 ingress ring 一個 poller，round-robin 合併 =====
+    protected final IngressRings ingressRings;
+    private final EventPoller<WalEvent>[] pollers;
+
+    // ===== 分片 =====
+    protected final int shardId;
 
     // ===== Aeron =====
     protected Publication publication;
@@ -54,13 +59,21 @@ public class GatewaySender extends Worker {
     private final OrderCancelEncoder orderCancelEncoder = new OrderCancelEncoder();
     private final DepositEncoder depositEncoder = new DepositEncoder();
     private final AuthEncoder authEncoder = new AuthEncoder();
+    private final TransferEncoder transferEncoder = new TransferEncoder();
+    private final OrderCreateBatchEncoder orderCreateBatchEncoder = new OrderCreateBatchEncoder();
+    private final OrderCancelBatchEncoder orderCancelBatchEncoder = new OrderCancelBatchEncoder();
+    private final CancelAllEncoder cancelAllEncoder = new CancelAllEncoder();
 
     // ===== 當前訊息狀態 (單線程，用 fields 取代 per-call lambda 捕獲) =====
     private int curMsgType;
     private long curWalIndex, curGwTime, curTimestamp, curUserId;
     private int curSymbolId, curAssetId;
     private long curPrice, curQty, curClientOrderId, curOrderId, curAmount;
-    private byte curSide;
+    private byte curSide, curOrderType, curTimeInForce, curFromShard, curToShard;
+    // 批次：live 指向事件 slot，replay 指向 replayBatch；curBatchCount 為本分片實際編碼筆數
+    private WalOrderBatch curBatch;
+    private int curBatchCount;
+    private final WalOrderBatch replayBatch = new WalOrderBatch();
 
     // ===== Metrics =====
     protected int pollCount;
@@ -78,27 +91,31 @@ public class GatewaySender extends Worker {
     protected static final boolean DIAGNOSE = Boolean.getBoolean("spot.diagnose");
     protected long sendDoneNs;
 
-    @org.springframework.beans.factory.annotation.Autowired
-    public GatewaySender(@SuppressWarnings("unused") io.aeron.Aeron aeron, RingBuffer<WalEvent> ringBuffer) {
-        this("gateway-sender",
-             MetricsKey.CPU_ID_WAL_SENDER, MetricsKey.CPU_ID_CURRENT_WAL_SENDER,
-             MetricsKey.GATEWAY_WAL_SENDER_DUTY_CYCLE, ringBuffer);
-    }
+    // 延遲記錄器：每個 sender 執行緒各自持有（單寫者），快照時按 key 合併
+    protected final StaticMetricsHolder.LatencyRecorder gatewayTotalLatency = StaticMetricsHolder.latencyRecorder(MetricsKey.LATENCY_GATEWAY_TOTAL);
+    private final StaticMetricsHolder.LatencyRecorder controlPollLatency = StaticMetricsHolder.latencyRecorder(MetricsKey.LATENCY_CONTROL_POLL);
+    private final StaticMetricsHolder.LatencyRecorder nettyProcessLatency = StaticMetricsHolder.latencyRecorder(MetricsKey.LATENCY_NETTY_PROCESS);
+    private final StaticMetricsHolder.LatencyRecorder disruptorWaitLatency = StaticMetricsHolder.latencyRecorder(MetricsKey.LATENCY_DISRUPTOR_WAIT);
+    private final StaticMetricsHolder.LatencyRecorder senderEncodeLatency = StaticMetricsHolder.latencyRecorder(MetricsKey.LATENCY_SENDER_ENCODE);
 
-    protected GatewaySender(String name, long cpuIdKey, long currentCpuIdKey, long dutyCycleKey,
-                            RingBuffer<WalEvent> ringBuffer) {
-        super(name, cpuIdKey, currentCpuIdKey, dutyCycleKey);
-        this.ringBuffer = ringBuffer;
-        this.poller = ringBuffer.newPoller();
-        ringBuffer.addGatingSequences(poller.getSequence());
+    public GatewaySender(IngressRings ingressRings, int shardId) {
+        this("gateway-sender", ingressRings, shardId);
     }
 
-    @PostConstruct @Override public void start() { super.start(); }
-    @PreDestroy @Override public void stop() { super.stop(); }
+    protected GatewaySender(String name, IngressRings ingressRings, int shardId) {
+        super(shardId == 0 ? name : name + "-" + shardId,
+              MetricsKey.forShard(MetricsKey.CPU_ID_WAL_SENDER, shardId),
+              MetricsKey.forShard(MetricsKey.CPU_ID_CURRENT_WAL_SENDER, shardId),
+              MetricsKey.forShard(MetricsKey.GATEWAY_WAL_SENDER_DUTY_CYCLE, shardId));
+        this.shardId = shardId;
+        this.ingressRings = ingressRings;
+        this.pollers = ingressRings.newPollers();
+    }
 
     @Override
     protected void onStart() {
-        this.publication = AeronUtil.aeron().addPublication(AeronChannel.MATCHING_FLOW, AeronChannel.DATA_STREAM_ID);
+        this.publication = AeronUtil.aeron().addPublication(AeronChannel.MATCHING_FLOW,
+                AeronChannel.dataStreamId(shardId, MatchingConfig.GATEWAY_ID));
         this.controlSub = AeronUtil.aeron().addSubscription(AeronChannel.REPORT_FLOW, AeronChannel.CONTROL_STREAM_ID);
         onSenderStart();
         log.info("[{}] 初始化完成", Thread.currentThread().getName());
@@ -120,7 +137,7 @@ public class GatewaySender extends Worker {
                 } else {
                     long beforeControl = DIAGNOSE ? System.nanoTime() : 0;
                     work += controlSub.poll(resumeHandler, AeronConstants.AERON_POLL_LIMIT);
-                    if (DIAGNOSE) StaticMetricsHolder.recordLatency(MetricsKey.LATENCY_CONTROL_POLL, System.nanoTime() - beforeControl);
+                    if (DIAGNOSE) controlPollLatency.record(System.nanoTime() - beforeControl);
                 }
             }
             return work;
@@ -129,11 +146,42 @@ public class GatewaySender extends Worker {
         // WAITING state 路徑 (低頻)
         long beforeControl = DIAGNOSE ? System.nanoTime() : 0;
         int work = controlSub.poll(resumeHandler, AeronConstants.AERON_POLL_LIMIT);
-        if (DIAGNOSE) StaticMetricsHolder.recordLatency(MetricsKey.LATENCY_CONTROL_POLL, System.nanoTime() - beforeControl);
+        if (DIAGNOSE) controlPollLatency.record(System.nanoTime() - beforeControl);
         work += drainWhileWaiting();
         return work;
     }
 
+    // ===== 分片路由 =====
+
+    /**
+     * 事件是否屬於本分片：下單依交易對、撤單依 orderId 高位、劃轉依來源分片、
+     * 充值固定送資金分片、AUTH 廣播至所有分片（各分片帳本切片皆需開戶）。
+     */
+    protected final boolean accepts(WalEvent e) {
+        if (MatchingConfig.SHARD_COUNT == 1) return true;
+        return switch (e.msgType) {
+            case MsgType.ORDER_CREATE -> ShardUtil.shardOfSymbol(e.orderCreate.symbolId) == shardId;
+            case MsgType.ORDER_CANCEL -> ShardUtil.shardOfOrder(e.orderCancel.orderId) == shardId;
+            case MsgType.TRANSFER -> e.transfer.fromShard == shardId;
+            case MsgType.AUTH -> true;
+            case MsgType.ORDER_CREATE_BATCH -> ShardUtil.shardOfSymbol(e.orderBatch.symbolId) == shardId;
+            case MsgType.ORDER_CANCEL_BATCH -> ownedCancelCount(e.orderBatch) > 0;
+            case MsgType.CANCEL_ALL -> e.cancelAll.symbolId == 0 || ShardUtil.shardOfSymbol(e.cancelAll.symbolId) == shardId;
+            default -> shardId == MatchingConfig.FUNDING_SHARD;
+        };
+    }
+
+    /** 批次撤單第 i 筆是否屬於本分片 */
+    protected final boolean ownsCancel(WalOrderBatch batch, int i) {
+        return MatchingConfig.SHARD_COUNT == 1 || ShardUtil.shardOfOrder(batch.orderId[i]) == shardId;
+    }
+
+    protected final int ownedCancelCount(WalOrderBatch batch) {
+        int owned = 0;
+        for (int i = 0; i < batch.count; i++) if (ownsCancel(batch, i)) owned++;
+        return owned;
+    }
+
     // ===== Bypass: WAITING 丟棄 (防 Disruptor 堆積) =====
 
     private final EventPoller.Handler<WalEvent> discardHandler = (event, sequence, endOfBatch) -> {
@@ -143,18 +191,19 @@ public class GatewaySender extends Worker {
 
     protected int drainWhileWaiting() {
         pollCount = 0;
-        try { poller.poll(discardHandler); } catch (Exception ignored) {}
+        pollRings(discardHandler, null);
         return pollCount;
     }
 
     // ===== Bypass: SENDING Disruptor → Aeron 直送 =====
 
     private final EventPoller.Handler<WalEvent> bypassHandler = (event, sequence, endOfBatch) -> {
+        if (!accepts(event)) return true;
         long pollTimeNs = DIAGNOSE ? System.nanoTime() : 0;
         sendFromEvent(event, ++bypassSeq);
         StaticMetricsHolder.addCounter(MetricsKey.AERON_SEND_COUNT, 1);
         // 常駐量測 gateway 內部全程（Netty entry → Aeron commit done），對應 transport - aeron_propagate
-        StaticMetricsHolder.recordLatency(MetricsKey.LATENCY_GATEWAY_TOTAL, System.nanoTime() - event.arrivalTimeNs);
+        gatewayTotalLatency.record(System.nanoTime() - event.arrivalTimeNs);
         if (DIAGNOSE) recordTransportSubLatencies(event, pollTimeNs, System.nanoTime());
         pollCount++;
         return true;
@@ -162,23 +211,45 @@ public class GatewaySender extends Worker {
 
     protected int processEvents() {
         pollCount = 0;
-        try { poller.poll(bypassHandler); } catch (Exception e) { log.error("[BYPASS-SENDER] failed", e); }
+        pollRings(bypassHandler, "[BYPASS-SENDER] failed");
         if (pollCount > 0) localWriteCount += pollCount;
         return pollCount;
     }
 
+    /**
+     * 依序 poll 每個 ingress ring（每 ring 一個批次），shared 模式僅一個 ring。
+     * 單一 ring 失敗不影響其餘 ring；errorMessage 為 null 時靜默忽略。
+     */
+    protected final void pollRings(EventPoller.Handler<WalEvent> handler, String errorMessage) {
+        for (EventPoller<WalEvent> poller : pollers) {
+            try { poller.poll(handler); }
+            catch (Exception e) { if (errorMessage != null) log.error(errorMessage, e); }
+        }
+    }
+
     // ===== RESUME 握手 =====
 
-    private final FragmentHandler resumeHandler = (buffer, offset, length, header) -> {
-        if (buffer.getInt(offset, ByteOrder.LITTLE_ENDIAN) == MsgType.RESUME && currentState == AeronState.WAITING) {
-            long walIndex = buffer.getLong(offset + AeronConstants.MSG_SEQ_OFFSET, ByteOrder.LITTLE_ENDIAN);
+    private final FragmentHandler resumeHandler = this::onControlFragment;
+
+    private void onControlFragment(DirectBuffer buffer, int offset, int length, Header header) {
+        // 控制流由所有撮合分片與 gateway 共用，只響應發給本分片、本 gateway 的 RESUME / WAL_ACK
+        if (buffer.getInt(offset + AeronConstants.RESUME_SHARD_OFFSET, ByteOrder.LITTLE_ENDIAN) != shardId
+                || buffer.getInt(offset + AeronConstants.RESUME_GATEWAY_OFFSET, ByteOrder.LITTLE_ENDIAN) != MatchingConfig.GATEWAY_ID) return;
+        int type = buffer.getInt(offset, ByteOrder.LITTLE_ENDIAN);
+        long walIndex = buffer.getLong(offset + AeronConstants.MSG_SEQ_OFFSET, ByteOrder.LITTLE_ENDIAN);
+        if (type == MsgType.RESUME && currentState == AeronState.WAITING) {
             onResume(walIndex);
             currentState = AeronState.SENDING;
+        } else if (type == MsgType.WAL_ACK) {
+            onWalAck(walIndex);
         }
-    };
+    }
+
+    /** 撮合已持久化至 walIndex：bypass 模式無 WAL，忽略 */
+    protected void onWalAck(long walIndex) {}
 
     protected void onResume(long walIndex) {
-        log.info("[BYPASS-SENDER] RESUME 握手成功，起始序號: {}", walIndex);
+        log.info("[BYPASS-SENDER] shard={} RESUME 握手成功，起始序號: {}", shardId, walIndex);
         bypassSeq = (walIndex == WAL_INDEX_NONE || walIndex == MSG_SEQ_NONE) ? 0 : walIndex;
     }
 
@@ -195,9 +266,20 @@ public class GatewaySender extends Worker {
                 WalOrderCreate oc = e.orderCreate;
                 curSymbolId = oc.symbolId; curPrice = oc.price; curQty = oc.qty;
                 curSide = oc.side; curClientOrderId = oc.clientOrderId;
+                curOrderType = oc.orderType; curTimeInForce = oc.timeInForce;
             }
             case MsgType.ORDER_CANCEL -> curOrderId = e.orderCancel.orderId;
             case MsgType.DEPOSIT -> { curAssetId = e.deposit.assetId; curAmount = e.deposit.amount; }
+            case MsgType.TRANSFER -> {
+                WalTransfer t = e.transfer;
+                curAssetId = t.assetId; curAmount = t.amount;
+                curFromShard = t.fromShard; curToShard = t.toShard;
+            }
+            case MsgType.ORDER_CREATE_BATCH -> {
+                curBatch = e.orderBatch; curSymbolId = curBatch.symbolId; curBatchCount = curBatch.count;
+            }
+            case MsgType.ORDER_CANCEL_BATCH -> { curBatch = e.orderBatch; curBatchCount = ownedCancelCount(curBatch); }
+            case MsgType.CANCEL_ALL -> curSymbolId = e.cancelAll.symbolId;
         }
         trySend(sbeBodyLength(e.msgType));
     }
@@ -217,12 +299,44 @@ public class GatewaySender extends Worker {
                 curQty = bytes.readLong();
                 curSide = bytes.readByte();
                 curClientOrderId = bytes.readLong();
+                // 舊版 WAL 紀錄無 orderType / timeInForce，缺省 LIMIT + GTC
+                boolean extended = bytes.readRemaining() >= 2;
+                curOrderType = extended ? bytes.readByte() : 0;
+                curTimeInForce = extended ? bytes.readByte() : 0;
             }
             case MsgType.ORDER_CANCEL -> curOrderId = bytes.readLong();
             case MsgType.DEPOSIT -> {
                 curAssetId = bytes.readInt();
                 curAmount = bytes.readLong();
             }
+            case MsgType.TRANSFER -> {
+                curAssetId = bytes.readInt();
+                curAmount = bytes.readLong();
+                curFromShard = bytes.readByte();
+                curToShard = bytes.readByte();
+            }
+            case MsgType.ORDER_CREATE_BATCH -> {
+                WalOrderBatch ob = replayBatch;
+                ob.symbolId = bytes.readInt();
+                ob.count = bytes.readInt();
+                for (int i = 0; i < ob.count; i++) {
+                    ob.price[i] = bytes.readLong();
+                    ob.qty[i] = bytes.readLong();
+                    ob.side[i] = bytes.readByte();
+                    ob.clientOrderId[i] = bytes.readLong();
+                    ob.orderType[i] = bytes.readByte();
+                    ob.timeInForce[i] = bytes.readByte();
+                }
+                curBatch = ob; curSymbolId = ob.symbolId; curBatchCount = ob.count;
+            }
+            case MsgType.ORDER_CANCEL_BATCH -> {
+                // WAL 只記錄本分片擁有的 orderId
+                WalOrderBatch ob = replayBatch;
+                ob.count = bytes.readInt();
+                for (int i = 0; i < ob.count; i++) ob.orderId[i] = bytes.readLong();
+                curBatch = ob; curBatchCount = ob.count;
+            }
+            case MsgType.CANCEL_ALL -> curSymbolId = bytes.readInt();
             default -> { return true; }
         }
         return trySend(sbeBodyLength(curMsgType));
@@ -234,6 +348,14 @@ public class GatewaySender extends Worker {
             case MsgType.ORDER_CANCEL -> OrderCancelEncoder.BLOCK_LENGTH;
             case MsgType.DEPOSIT -> DepositEncoder.BLOCK_LENGTH;
             case MsgType.AUTH -> AuthEncoder.BLOCK_LENGTH;
+            case MsgType.TRANSFER -> TransferEncoder.BLOCK_LENGTH;
+            case MsgType.ORDER_CREATE_BATCH -> OrderCreateBatchEncoder.BLOCK_LENGTH
+                    + OrderCreateBatchEncoder.OrdersEncoder.sbeHeaderSize()
+                    + curBatchCount * OrderCreateBatchEncoder.OrdersEncoder.sbeBlockLength();
+            case MsgType.ORDER_CANCEL_BATCH -> OrderCancelBatchEncoder.BLOCK_LENGTH
+                    + OrderCancelBatchEncoder.OrdersEncoder.sbeHeaderSize()
+                    + curBatchCount * OrderCancelBatchEncoder.OrdersEncoder.sbeBlockLength();
+            case MsgType.CANCEL_ALL -> CancelAllEncoder.BLOCK_LENGTH;
             default -> 0;
         };
     }
@@ -242,7 +364,7 @@ public class GatewaySender extends Worker {
 
     private void fillAeronBuffer(MutableDirectBuffer buf, int off) {
         buf.putInt(off + AbstractSbeModel.TYPE_OFFSET, curMsgType, ByteOrder.LITTLE_ENDIAN);
-        buf.putInt(off + 4, 0, ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(off + AbstractSbeModel.GATEWAY_ID_OFFSET, MatchingConfig.GATEWAY_ID, ByteOrder.LITTLE_ENDIAN);
         buf.putLong(off + AbstractSbeModel.SEQ_OFFSET, curWalIndex, ByteOrder.LITTLE_ENDIAN);
         buf.putLong(off + AbstractSbeModel.GATEWAY_TIME_OFFSET, curGwTime, ByteOrder.LITTLE_ENDIAN);
 
@@ -251,7 +373,8 @@ public class GatewaySender extends Worker {
             case MsgType.ORDER_CREATE ->
                 orderCreateEncoder.wrapAndApplyHeader(buf, sbeOff, sbeHeaderEncoder)
                     .timestamp(curTimestamp).userId(curUserId).symbolId(curSymbolId)
-                    .price(curPrice).qty(curQty).side(Side.get((short) curSide)).clientOrderId(curClientOrderId);
+                    .price(curPrice).qty(curQty).side(Side.get((short) curSide)).clientOrderId(curClientOrderId)
+                    .orderType(OrderType.get((short) curOrderType)).timeInForce(TimeInForce.get((short) curTimeInForce));
             case MsgType.ORDER_CANCEL ->
                 orderCancelEncoder.wrapAndApplyHeader(buf, sbeOff, sbeHeaderEncoder)
                     .timestamp(curTimestamp).userId(curUserId).orderId(curOrderId);
@@ -261,6 +384,33 @@ public class GatewaySender extends Worker {
             case MsgType.AUTH ->
                 authEncoder.wrapAndApplyHeader(buf, sbeOff, sbeHeaderEncoder)
                     .timestamp(curTimestamp).userId(curUserId);
+            case MsgType.TRANSFER ->
+                transferEncoder.wrapAndApplyHeader(buf, sbeOff, sbeHeaderEncoder)
+                    .timestamp(curTimestamp).userId(curUserId).assetId(curAssetId).amount(curAmount)
+                    .fromShard((short) (curFromShard & 0xFF)).toShard((short) (curToShard & 0xFF));
+            case MsgType.ORDER_CREATE_BATCH -> {
+                OrderCreateBatchEncoder.OrdersEncoder g = orderCreateBatchEncoder.wrapAndApplyHeader(buf, sbeOff, sbeHeaderEncoder)
+                    .timestamp(curTimestamp).userId(curUserId).symbolId(curSymbolId)
+                    .ordersCount(curBatchCount);
+                WalOrderBatch ob = curBatch;
+                for (int i = 0; i < ob.count; i++) {
+                    g.next().price(ob.price[i]).qty(ob.qty[i]).side(Side.get((short) ob.side[i]))
+                        .clientOrderId(ob.clientOrderId[i])
+                        .orderType(OrderType.get((short) ob.orderType[i])).timeInForce(TimeInForce.get((short) ob.timeInForce[i]));
+                }
+            }
+            case MsgType.ORDER_CANCEL_BATCH -> {
+                OrderCancelBatchEncoder.OrdersEncoder g = orderCancelBatchEncoder.wrapAndApplyHeader(buf, sbeOff, sbeHeaderEncoder)
+                    .timestamp(curTimestamp).userId(curUserId)
+                    .ordersCount(curBatchCount);
+                WalOrderBatch ob = curBatch;
+                for (int i = 0; i < ob.count; i++) {
+                    if (ownsCancel(ob, i)) g.next().orderId(ob.orderId[i]);
+                }
+            }
+            case MsgType.CANCEL_ALL ->
+                cancelAllEncoder.wrapAndApplyHeader(buf, sbeOff, sbeHeaderEncoder)
+                    .timestamp(curTimestamp).userId(curUserId).symbolId(curSymbolId);
         }
     }
 
@@ -283,16 +433,17 @@ public class GatewaySender extends Worker {
     // ===== Diagnose 延遲記錄 =====
 
     protected void recordTransportSubLatencies(WalEvent e, long pollTimeNs, long doneNs) {
-        StaticMetricsHolder.recordLatency(MetricsKey.LATENCY_NETTY_PROCESS, e.publishTimeNs - e.arrivalTimeNs);
-        StaticMetricsHolder.recordLatency(MetricsKey.LATENCY_DISRUPTOR_WAIT, pollTimeNs - e.publishTimeNs);
-        StaticMetricsHolder.recordLatency(MetricsKey.LATENCY_SENDER_ENCODE, doneNs - pollTimeNs);
-        StaticMetricsHolder.recordLatency(MetricsKey.LATENCY_GATEWAY_TOTAL, sendDoneNs - e.arrivalTimeNs);
+        nettyProcessLatency.record(e.publishTimeNs - e.arrivalTimeNs);
+        disruptorWaitLatency.record(pollTimeNs - e.publishTimeNs);
+        senderEncodeLatency.record(doneNs - pollTimeNs);
+        gatewayTotalLatency.record(sendDoneNs - e.arrivalTimeNs);
     }
 
     // ===== Metrics =====
 
     @Override
     protected void onMetricsReport() {
+        if (shardId == 0) ingressRings.reportDepth();
         if (localWriteCount > 0) {
             StaticMetricsHolder.addCounter(MetricsKey.GATEWAY_WAL_WRITE_COUNT, localWriteCount);
             localWriteCount = 0;
@@ -312,6 +463,6 @@ public class GatewaySender extends Worker {
     }
 
     protected void onSenderStop() {
-        try { poller.poll(discardHandler); } catch (Exception ignored) {}
+        pollRings(discardHandler, null);
     }
 }
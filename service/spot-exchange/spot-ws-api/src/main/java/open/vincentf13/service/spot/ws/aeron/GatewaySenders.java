@@ -0,0 +1,57 @@
+package open.vincentf13.service.spot.ws.aeron;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import open.vincentf13.service.spot.ws.wal.IngressRings;
+import open.vincentf13.service.spot.ws.wal.WalRetention;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import static open.vincentf13.service.spot.infra.Constants.MatchingConfig;
+
+/**
+ * Gateway 發送器組 (Per-Shard Senders)
+ *
+ * 每個撮合分片一個 sender Worker（獨立綁核），依 spot.wal.bypass 決定具體類：
+ * - bypass=true：{@link GatewaySender}，Disruptor → Aeron 直送
+ * - bypass=false (預設)：{@link WalSender}，先寫分片專屬 WAL 再送 Aeron
+ * 同一進程只會實例化其中一種具體類，保持 JIT 單態 inline。
+ * WAL 模式另啟動 {@link WalRetention}，依撮合 WAL_ACK 釋放舊 cycle（spot.wal.retention=keep|delete|archive）。
+ */
+@Slf4j
+// 顯式 bean 名稱：NettyServer @DependsOn("gatewaySender") 不分模式引用
+@Component("gatewaySender")
+public class GatewaySenders {
+    private final GatewaySender[] senders;
+    private final WalRetention retention;
+
+    /** @param aeron 僅用於建立 Spring Bean 依賴順序 */
+    public GatewaySenders(@SuppressWarnings("unused") io.aeron.Aeron aeron, IngressRings ingressRings,
+                          @Value("${spot.wal.bypass:false}") boolean bypass,
+                          @Value("${spot.wal.retention:archive}") String retentionPolicy,
+                          @Value("${spot.wal.retain-cycles:1}") int retainCycles,
+                          @Value("${spot.wal.retention-check-ms:10000}") long retentionCheckMs,
+                          @Value("${spot.wal.archive-dir:}") String archiveDir) {
+        this.retention = bypass ? null : new WalRetention(WalRetention.Policy.valueOf(retentionPolicy.trim().toUpperCase()),
+                retainCycles, retentionCheckMs, archiveDir);
+        this.senders = new GatewaySender[MatchingConfig.SHARD_COUNT];
+        for (int i = 0; i < senders.length; i++) {
+            senders[i] = bypass ? new GatewaySender(ingressRings, i) : new WalSender(ingressRings, i, retention);
+        }
+        log.info("Gateway sender 模式: {}，shards={}", bypass ? "bypass" : "wal", senders.length);
+    }
+
+    @PostConstruct
+    public void start() {
+        // 依序啟動：Worker.start 會等待綁核完成，shard 0 拿到 pool 第一個核心
+        for (GatewaySender sender : senders) sender.start();
+        if (retention != null) retention.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        for (GatewaySender sender : senders) sender.stop();
+        if (retention != null) retention.stop();
+    }
+}
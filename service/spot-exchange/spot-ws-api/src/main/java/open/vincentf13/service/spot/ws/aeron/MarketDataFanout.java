@@ -0,0 +1,231 @@
+package open.vincentf13.service.spot.ws.aeron;
+
+import io.aeron.Subscription;
+import io.aeron.logbuffer.FragmentHandler;
+import io.aeron.logbuffer.Header;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import lombok.extern.slf4j.Slf4j;
+import open.vincentf13.service.spot.infra.aeron.AeronConstants;
+import open.vincentf13.service.spot.infra.aeron.AeronUtil;
+import open.vincentf13.service.spot.infra.metrics.StaticMetricsHolder;
+import open.vincentf13.service.spot.sbe.DepthSnapshotEncoder;
+import open.vincentf13.service.spot.sbe.DepthUpdateEncoder;
+import open.vincentf13.service.spot.sbe.PublicTradeEncoder;
+import org.agrona.DirectBuffer;
+import org.agrona.ExpandableDirectByteBuffer;
+import org.agrona.MutableDirectBuffer;
+import org.agrona.collections.Int2ObjectHashMap;
+import org.agrona.concurrent.ManyToOneConcurrentLinkedQueue;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteOrder;
+
+import static open.vincentf13.service.spot.infra.Constants.*;
+
+/**
+ * 公開行情扇出 (Market Data Fan-out)
+ *
+ * 訂閱 Matching 的公開行情流（L2 增量 / 成交 / 快照），按交易對原樣推送給已訂閱的 WebSocket 連線。
+ * 由 {@link ReportReceiver} 的 busy-spin 執行緒驅動，不額外佔用綁核 Worker。
+ *
+ * 晚加入的訂閱者：每交易對保留最新一份 L2 快照與其後的增量 (backlog)，訂閱時先補送兩者再接續即時流；
+ * Matching 週期性快照同時轉發給所有訂閱者，供偵測到 seq 缺口的客戶端重建。
+ * backlog 超過上限或出現 seq 缺口時停用，新訂閱者改等下一份快照。
+ * 超過 outbound 高水位的訂閱者略過本輪推送：客戶端依 seq 偵測缺口後以下一份快照重建，不為慢速連線累積行情。
+ *
+ * 執行緒：訂閱請求由 Netty worker 投遞至 MPSC 佇列，其餘狀態僅由 receiver 執行緒存取。
+ */
+@Slf4j
+@Component
+public class MarketDataFanout {
+
+    private static final PooledByteBufAllocator ALLOC = PooledByteBufAllocator.DEFAULT;
+    private static final int HEADER_SIZE = 20;               // MarketDataPublisher.HEADER_SIZE
+    private static final int BODY_OFFSET = HEADER_SIZE;      // 20-byte header 已含 SBE header
+    // 三種行情訊息 body 皆以 timestamp | symbolId | seq 開頭，共用偏移
+    private static final int SYMBOL_ID_OFFSET = BODY_OFFSET + DepthUpdateEncoder.symbolIdEncodingOffset();
+    private static final int SEQ_OFFSET = BODY_OFFSET + DepthUpdateEncoder.seqEncodingOffset();
+    private static final int DEPTH_LEN = HEADER_SIZE + DepthUpdateEncoder.BLOCK_LENGTH;
+    private static final int TRADE_LEN = HEADER_SIZE + PublicTradeEncoder.BLOCK_LENGTH;
+    private static final int SNAPSHOT_GROUP_OFFSET = HEADER_SIZE + DepthSnapshotEncoder.BLOCK_LENGTH;
+    private static final int GROUP_HEADER_SIZE = 4;
+    private static final int MAX_FRAME_SIZE = 60_000;        // 同 ReportReceiver：< 65536 WebSocket 預設上限
+    private static final int MAX_BACKLOG_BYTES = 4 << 20;
+
+    private Subscription subscription;
+    private final FragmentHandler fragmentHandler = this::onMarketData;
+    private final Int2ObjectHashMap<Feed> feeds = new Int2ObjectHashMap<>();
+    private final ManyToOneConcurrentLinkedQueue<SubscriptionRequest> requests = new ManyToOneConcurrentLinkedQueue<>();
+    private long fanoutCount;
+
+    /** 每交易對狀態：訂閱者、最新快照、快照後增量、本輪 poll 待推送 */
+    private static final class Feed {
+        final ChannelGroup subscribers = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+        final ExpandableDirectByteBuffer snapshot = new ExpandableDirectByteBuffer(4096);
+        final ExpandableDirectByteBuffer backlog = new ExpandableDirectByteBuffer(64 * 1024);
+        final ExpandableDirectByteBuffer pending = new ExpandableDirectByteBuffer(MAX_FRAME_SIZE);
+        int snapshotLen, backlogLen, pendingLen;
+        boolean backlogValid;
+        long lastSeq = -1;
+    }
+
+    private record SubscriptionRequest(Channel channel, int symbolId, boolean subscribe) {}
+
+    // ========== 生命週期 (receiver thread) ==========
+
+    void onStart() {
+        subscription = AeronUtil.aeron().addSubscription(AeronChannel.REPORT_FLOW, AeronChannel.MARKET_DATA_STREAM_ID);
+        log.info("MarketDataFanout 已啟動，訂閱公開行情流");
+    }
+
+    void onStop() {
+        if (subscription != null) subscription.close();
+        for (Feed feed : feeds.values()) feed.subscribers.close();
+    }
+
+    /** receiver thread 每輪呼叫：先處理訂閱（補送快照 + backlog），再 poll 行情並推送 */
+    int poll() {
+        int work = drainRequests();
+        work += subscription.poll(fragmentHandler, AeronConstants.AERON_POLL_LIMIT);
+        if (work > 0) flushPending();
+        if (fanoutCount > 0) {
+            StaticMetricsHolder.addCounter(MetricsKey.MD_FANOUT_COUNT, fanoutCount);
+            fanoutCount = 0;
+        }
+        return work;
+    }
+
+    // ========== 訂閱 (Netty worker → receiver thread) ==========
+
+    /** Netty worker 呼叫：未知交易對直接忽略 */
+    public void requestSubscription(Channel channel, int symbolId, boolean subscribe) {
+        if (Symbol.of(symbolId) == null) return;
+        requests.offer(new SubscriptionRequest(channel, symbolId, subscribe));
+    }
+
+    private int drainRequests() {
+        int n = 0;
+        SubscriptionRequest req;
+        while ((req = requests.poll()) != null) {
+            n++;
+            Feed feed = feed(req.symbolId());
+            if (!req.subscribe()) { feed.subscribers.remove(req.channel()); continue; }
+            if (!req.channel().isActive() || !feed.subscribers.add(req.channel())) continue;
+            // 補送基準：最新快照 + 其後增量；尚無快照或 backlog 失效時等待下一份快照
+            if (feed.snapshotLen > 0 && feed.backlogValid) {
+                writeChunked(req.channel(), feed.snapshot, feed.snapshotLen);
+                writeChunked(req.channel(), feed.backlog, feed.backlogLen);
+                req.channel().flush();
+            }
+        }
+        return n;
+    }
+
+    // ========== 行情處理 (receiver thread) ==========
+
+    private void onMarketData(DirectBuffer buffer, int offset, int length, Header header) {
+        int pos = offset;
+        int end = offset + length;
+        while (pos + HEADER_SIZE <= end) {
+            int frameLen = frameLength(buffer, pos, end);
+            if (frameLen <= 0 || pos + frameLen > end) break;
+            onFrame(buffer, pos, frameLen);
+            pos += frameLen;
+        }
+    }
+
+    private static int frameLength(DirectBuffer buffer, int pos, int end) {
+        int msgType = buffer.getInt(pos, ByteOrder.LITTLE_ENDIAN);
+        return switch (msgType) {
+            case MsgType.MD_DEPTH_UPDATE -> DEPTH_LEN;
+            case MsgType.MD_TRADE -> TRADE_LEN;
+            case MsgType.MD_SNAPSHOT -> {
+                if (pos + SNAPSHOT_GROUP_OFFSET + GROUP_HEADER_SIZE > end) yield -1;
+                int blockLength = buffer.getShort(pos + SNAPSHOT_GROUP_OFFSET, ByteOrder.LITTLE_ENDIAN) & 0xFFFF;
+                int count = buffer.getShort(pos + SNAPSHOT_GROUP_OFFSET + 2, ByteOrder.LITTLE_ENDIAN) & 0xFFFF;
+                yield SNAPSHOT_GROUP_OFFSET + GROUP_HEADER_SIZE + blockLength * count;
+            }
+            default -> -1; // 未知類型，停止解析
+        };
+    }
+
+    private void onFrame(DirectBuffer buffer, int pos, int frameLen) {
+        int msgType = buffer.getInt(pos, ByteOrder.LITTLE_ENDIAN);
+        int symbolId = buffer.getInt(pos + SYMBOL_ID_OFFSET, ByteOrder.LITTLE_ENDIAN);
+        long seq = buffer.getLong(pos + SEQ_OFFSET, ByteOrder.LITTLE_ENDIAN);
+        Feed feed = feed(symbolId);
+
+        if (msgType == MsgType.MD_SNAPSHOT) {
+            // 快照重置基準（含 Matching 重啟後 seq 歸零）
+            feed.snapshot.putBytes(0, buffer, pos, frameLen);
+            feed.snapshotLen = frameLen;
+            feed.backlogLen = 0;
+            feed.backlogValid = true;
+            feed.lastSeq = seq;
+        } else {
+            if (seq != feed.lastSeq + 1) feed.backlogValid = false; // 缺口：backlog 無法重建完整深度
+            feed.lastSeq = seq;
+            if (feed.backlogValid) {
+                if (feed.backlogLen + frameLen > MAX_BACKLOG_BYTES) feed.backlogValid = false;
+                else { feed.backlog.putBytes(feed.backlogLen, buffer, pos, frameLen); feed.backlogLen += frameLen; }
+            }
+        }
+
+        if (feed.subscribers.isEmpty()) return;
+        if (feed.pendingLen + frameLen > MAX_FRAME_SIZE) flush(feed);
+        feed.pending.putBytes(feed.pendingLen, buffer, pos, frameLen);
+        feed.pendingLen += frameLen;
+        fanoutCount++;
+    }
+
+    private void flushPending() {
+        for (Feed feed : feeds.values()) {
+            if (feed.pendingLen > 0) flush(feed);
+        }
+    }
+
+    /** 每交易對本輪行情合併為單一 WebSocket frame，ChannelGroup 以 retainedDuplicate 共用同一份 ByteBuf */
+    private void flush(Feed feed) {
+        BinaryWebSocketFrame frame = copy(feed.pending, 0, feed.pendingLen);
+        feed.pendingLen = 0;
+        feed.subscribers.writeAndFlush(frame, Channel::isWritable);
+    }
+
+    /** 依 frame 邊界切分為不超過 MAX_FRAME_SIZE 的 WebSocket frame 寫入（不 flush） */
+    private static void writeChunked(Channel ch, MutableDirectBuffer src, int len) {
+        int start = 0;
+        int pos = 0;
+        while (pos < len) {
+            int frameLen = frameLength(src, pos, len);
+            if (frameLen <= 0) break;
+            if (pos + frameLen - start > MAX_FRAME_SIZE && pos > start) {
+                ch.write(copy(src, start, pos - start));
+                start = pos;
+            }
+            pos += frameLen;
+        }
+        if (pos > start) ch.write(copy(src, start, pos - start));
+    }
+
+    private static BinaryWebSocketFrame copy(MutableDirectBuffer src, int offset, int len) {
+        ByteBuf buf = ALLOC.directBuffer(len, len);
+        src.getBytes(offset, buf.nioBuffer(0, len), len);
+        buf.writerIndex(len);
+        return new BinaryWebSocketFrame(buf);
+    }
+
+    private Feed feed(int symbolId) {
+        Feed feed = feeds.get(symbolId);
+        if (feed == null) {
+            feed = new Feed();
+            feeds.put(symbolId, feed);
+        }
+        return feed;
+    }
+}
@@ -8,6 +8,7 @@ import io.netty.buffer.ByteBuf;
 import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.Channel;
 import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.util.AttributeKey;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
@@ -18,9 +19,13 @@ import open.vincentf13.service.spot.infra.thread.Worker;
 import open.vincentf13.service.spot.sbe.*;
 import open.vincentf13.service.spot.ws.ws.WsSessionManager;
 import org.agrona.DirectBuffer;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import static open.vincentf13.service.spot.infra.Constants.*;
 
@@ -32,6 +37,12 @@ import static open.vincentf13.service.spot.infra.Constants.*;
  *
  * 優化策略：每輪 poll 收集所有回報到預分配陣列，按 Channel 分組後
  * 提交單次 EventLoop task 批量寫入，避免 per-message 的跨線程 WriteTask 分配。
+ *
+ * 同一執行緒兼驅動 {@link MarketDataFanout}（公開行情扇出），不另佔綁核 slot；私有回報先於行情處理。
+ *
+ * 慢速連線：Channel 超過 outbound 高水位（netty.write-buffer.*）即不再直寫，回報改入該連線的 {@link SessionOutbox}，
+ * 依 spot.report.slow-policy（conflate | drop | disconnect）合併或丟棄，每輪 doWork 於回到可寫時補送；
+ * 單一慢速客戶端只佔用自身有界佇列，不拖累其他連線的回報延遲。
  */
 @Slf4j
 @Component
@@ -39,8 +50,12 @@ public class ReportReceiver extends Worker {
 
     private static final int USER_ID_OFFSET = 28;
     private static final PooledByteBufAllocator ALLOC = PooledByteBufAllocator.DEFAULT;
+    private static final AttributeKey<SessionOutbox> OUTBOX_KEY = AttributeKey.valueOf("reportOutbox");
 
     private final WsSessionManager sessionManager;
+    private final MarketDataFanout marketDataFanout;
+    private final StaticMetricsHolder.LatencyRecorder reportDeliveryLatency = StaticMetricsHolder.latencyRecorder(MetricsKey.LATENCY_REPORT_DELIVERY);
+    private final StaticMetricsHolder.LatencyRecorder fanoutLatency = StaticMetricsHolder.latencyRecorder(MetricsKey.LATENCY_FANOUT);
     private Subscription subscription;
     private FragmentHandler fragmentHandler;
 
@@ -56,16 +71,28 @@ public class ReportReceiver extends Worker {
     private final ByteBuf[][] channelBufs = new ByteBuf[AeronConstants.AERON_POLL_LIMIT * 2][AeronConstants.AERON_POLL_LIMIT * 2];
     private final long[][] channelEntryNs = new long[AeronConstants.AERON_POLL_LIMIT * 2][AeronConstants.AERON_POLL_LIMIT * 2];
 
+    // 慢速連線：receiver 執行緒增刪（僅於進入 / 解除慢速時），監控端點讀取
+    private final SessionOutbox.Policy slowPolicy;
+    private final int maxPending;
+    private final CopyOnWriteArrayList<SessionOutbox> slowSessions = new CopyOnWriteArrayList<>();
+    private long localConflated, localDropped, localDisconnected;
+
     public ReportReceiver(@SuppressWarnings("unused") Aeron aeron,
                           WsSessionManager sessionManager,
-                          @SuppressWarnings("unused") GatewaySender gatewaySender) {
+                          MarketDataFanout marketDataFanout,
+                          @SuppressWarnings("unused") GatewaySenders gatewaySenders,
+                          @Value("${spot.report.slow-policy:conflate}") String slowPolicy,
+                          @Value("${spot.report.max-pending:1024}") int maxPending) {
         super("gateway-receiver",
               MetricsKey.CPU_ID_REPORT_RECEIVER, MetricsKey.CPU_ID_CURRENT_REPORT_RECEIVER,
               MetricsKey.GATEWAY_REPORT_RECEIVER_DUTY_CYCLE);
-        // gatewaySender 注入只是為了強制 @PostConstruct 順序：
-        // GatewaySender (或 WalSender) 先 bind 到 P-core pool 第一個 slot，
-        // ReportReceiver 再 bind 到第二個 slot。確保 WAL 模式下 WalSender 拿 P1。
+        // gatewaySenders 注入只是為了強制 @PostConstruct 順序：
+        // GatewaySender (或 WalSender) 先 bind 到 P-core pool 前 N 個 slot（N = 分片數），
+        // ReportReceiver 再 bind 到下一個 slot。確保 WAL 模式下 WalSender 拿 P1。
         this.sessionManager = sessionManager;
+        this.marketDataFanout = marketDataFanout;
+        this.slowPolicy = SessionOutbox.Policy.valueOf(slowPolicy.trim().toUpperCase());
+        this.maxPending = maxPending;
     }
 
     @PostConstruct @Override public void start() { super.start(); }
@@ -73,9 +100,11 @@ public class ReportReceiver extends Worker {
 
     @Override
     protected void onStart() {
-        subscription = AeronUtil.aeron().addSubscription(AeronChannel.REPORT_FLOW, AeronChannel.REPORT_STREAM_ID);
+        // 撮合端依用戶所屬 gateway 路由回報，本 gateway 只訂閱自己的回報流
+        subscription = AeronUtil.aeron().addSubscription(AeronChannel.REPORT_FLOW, AeronChannel.reportStreamId(MatchingConfig.GATEWAY_ID));
         // reports are always single-fragment (<100B), skip FragmentAssembler overhead
         fragmentHandler = this::onReport;
+        marketDataFanout.onStart();
         log.info("ReportReceiver 已啟動，訂閱回報流");
     }
 
@@ -85,6 +114,8 @@ public class ReportReceiver extends Worker {
         if (batchCount > 0) {
             flushBatch();
         }
+        if (!slowSessions.isEmpty()) work += drainSlowSessions();
+        work += marketDataFanout.poll();
         return work;
     }
 
@@ -98,7 +129,7 @@ public class ReportReceiver extends Worker {
     private static final int CANCELED_LEN = REPORT_HEADER_SIZE + OrderCanceledEncoder.BLOCK_LENGTH;  // 20+40=60
 
     private void onReport(DirectBuffer buffer, int offset, int length, Header header) {
-        // 支援 batch message：一個 Aeron fragment 可能包含多個 report（match taker + maker）
+        // 支援 batch message：一個 Aeron fragment 可能包含多個 report（match taker + maker、批次指令合併回報）
         int pos = offset;
         int end = offset + length;
         while (pos + REPORT_HEADER_SIZE <= end) {
@@ -121,6 +152,8 @@ public class ReportReceiver extends Worker {
     }
 
     private void processOneReport(DirectBuffer buffer, int offset, int length) {
+        // 批次指令的合併回報可超過預分配容量：先送出已收集部分再繼續
+        if (batchCount == batchChannels.length) flushBatch();
         long entryNs = System.nanoTime();
         long userId = buffer.getLong(offset + USER_ID_OFFSET, ByteOrder.LITTLE_ENDIAN);
         long matchingSendNs = buffer.getLong(offset + MATCHING_END_NS_OFFSET, ByteOrder.LITTLE_ENDIAN);
@@ -139,7 +172,7 @@ public class ReportReceiver extends Worker {
         batchCount++;
 
         if (matchingSendNs > 0) {
-            StaticMetricsHolder.recordLatency(MetricsKey.LATENCY_REPORT_DELIVERY, entryNs - matchingSendNs);
+            reportDeliveryLatency.record(entryNs - matchingSendNs);
         }
     }
 
@@ -206,6 +239,11 @@ public class ReportReceiver extends Worker {
     private static final int MAX_FRAME_SIZE = 60_000; // < 65536 WebSocket default max
 
     private void sendMerged(Channel ch, ByteBuf[] bufs, long[] entryNs, int count) {
+        SessionOutbox outbox = ch.attr(OUTBOX_KEY).get();
+        if (outbox != null || !ch.isWritable()) {
+            enqueueSlow(ch, outbox, bufs, count);
+            return;
+        }
         int totalLen = 0;
         for (int i = 0; i < count; i++) totalLen += bufs[i].readableBytes();
 
@@ -215,7 +253,7 @@ public class ReportReceiver extends Worker {
             BinaryWebSocketFrame frame = new BinaryWebSocketFrame(combined);
             // fan-out 量測：到 writeAndFlush 前一刻為止（不含跨 EventLoop schedule + socket write）
             long now = System.nanoTime();
-            for (int i = 0; i < count; i++) StaticMetricsHolder.recordLatency(MetricsKey.LATENCY_FANOUT, now - entryNs[i]);
+            for (int i = 0; i < count; i++) fanoutLatency.record(now - entryNs[i]);
             ch.writeAndFlush(frame);
         } else {
             // 分片：每個 frame 不超過 MAX_FRAME_SIZE，逐一 write，最後一片 flush
@@ -230,12 +268,98 @@ public class ReportReceiver extends Worker {
                 bufs[i].release();
             }
             long now = System.nanoTime();
-            for (int i = 0; i < count; i++) StaticMetricsHolder.recordLatency(MetricsKey.LATENCY_FANOUT, now - entryNs[i]);
+            for (int i = 0; i < count; i++) fanoutLatency.record(now - entryNs[i]);
             if (current.readableBytes() > 0) ch.writeAndFlush(new BinaryWebSocketFrame(current));
             else { current.release(); ch.flush(); }
         }
     }
 
+    // ===== 慢速連線 =====
+
+    /** 已有待送佇列時一律排入（保持順序），再嘗試補送 */
+    private void enqueueSlow(Channel ch, SessionOutbox outbox, ByteBuf[] bufs, int count) {
+        if (outbox == null) {
+            outbox = new SessionOutbox(ch, maxPending);
+            ch.attr(OUTBOX_KEY).set(outbox);
+            slowSessions.add(outbox);
+            log.warn("[REPORT] 連線 {} (user={}) 超過 outbound 高水位，回報改入待送佇列，策略={}",
+                    ch.id().asShortText(), ch.attr(WsSessionManager.USER_ID_KEY).get(), slowPolicy);
+        }
+        for (int i = 0; i < count; i++) {
+            switch (outbox.offer(bufs[i], slowPolicy)) {
+                case CONFLATED -> localConflated++;
+                case DROPPED -> localDropped++;
+                case OVERFLOW -> {
+                    for (int j = i; j < count; j++) bufs[j].release();
+                    disconnect(outbox);
+                    return;
+                }
+                case QUEUED -> { }
+            }
+        }
+        outbox.drain(MAX_FRAME_SIZE);
+    }
+
+    private int drainSlowSessions() {
+        int work = 0;
+        for (int i = slowSessions.size() - 1; i >= 0; i--) {
+            SessionOutbox outbox = slowSessions.get(i);
+            if (!outbox.channel.isActive()) {
+                outbox.clear();
+                release(outbox);
+                continue;
+            }
+            work += outbox.drain(MAX_FRAME_SIZE);
+            if (outbox.isEmpty()) release(outbox);
+        }
+        return work;
+    }
+
+    /** 佇列滿載仍有終態回報：斷線，客戶端重連後以查詢補齊 */
+    private void disconnect(SessionOutbox outbox) {
+        localDisconnected++;
+        log.warn("[REPORT] 連線 {} (user={}) 待送佇列已滿 ({} 筆)，斷線", outbox.channel.id().asShortText(),
+                outbox.channel.attr(WsSessionManager.USER_ID_KEY).get(), outbox.pendingCount);
+        outbox.clear();
+        release(outbox);
+        outbox.channel.close();
+    }
+
+    /** 佇列排空或連線關閉：解除慢速狀態，回到直寫路徑 */
+    private void release(SessionOutbox outbox) {
+        outbox.channel.attr(OUTBOX_KEY).set(null);
+        slowSessions.remove(outbox);
+    }
+
+    /** 監控：各慢速連線的待送回報數 / bytes 與 Netty outbound 尚需排出的 bytes */
+    public List<SessionBacklog> sessionBacklogs() {
+        List<SessionBacklog> result = new ArrayList<>();
+        for (SessionOutbox outbox : slowSessions) {
+            Channel ch = outbox.channel;
+            result.add(new SessionBacklog(ch.id().asShortText(), ch.attr(WsSessionManager.USER_ID_KEY).get(),
+                    outbox.pendingCount, outbox.pendingBytes, ch.bytesBeforeWritable()));
+        }
+        return result;
+    }
+
+    public record SessionBacklog(String channelId, Long userId, int pendingReports, long pendingBytes, long outboundBytes) {}
+
+    @Override
+    protected void onMetricsReport() {
+        long total = 0, max = 0;
+        for (int i = 0; i < slowSessions.size(); i++) {
+            long pending = slowSessions.get(i).pendingCount;
+            total += pending;
+            max = Math.max(max, pending);
+        }
+        StaticMetricsHolder.setGauge(MetricsKey.REPORT_SLOW_SESSIONS, slowSessions.size());
+        StaticMetricsHolder.setGauge(MetricsKey.REPORT_BACKLOG_TOTAL, total);
+        StaticMetricsHolder.setGauge(MetricsKey.REPORT_BACKLOG_MAX, max);
+        if (localConflated > 0) { StaticMetricsHolder.addCounter(MetricsKey.REPORT_CONFLATED_COUNT, localConflated); localConflated = 0; }
+        if (localDropped > 0) { StaticMetricsHolder.addCounter(MetricsKey.REPORT_DROPPED_COUNT, localDropped); localDropped = 0; }
+        if (localDisconnected > 0) { StaticMetricsHolder.addCounter(MetricsKey.REPORT_SLOW_DISCONNECT_COUNT, localDisconnected); localDisconnected = 0; }
+    }
+
     private void clearRefs(int count) {
         for (int i = 0; i < count; i++) {
             batchChannels[i] = null;
@@ -246,5 +370,8 @@ public class ReportReceiver extends Worker {
     @Override
     protected void onStop() {
         if (subscription != null) subscription.close();
+        for (SessionOutbox outbox : slowSessions) outbox.clear();
+        slowSessions.clear();
+        marketDataFanout.onStop();
     }
 }
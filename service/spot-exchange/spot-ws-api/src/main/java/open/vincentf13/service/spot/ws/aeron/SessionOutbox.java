@@ -0,0 +1,150 @@
+package open.vincentf13.service.spot.ws.aeron;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import open.vincentf13.service.spot.sbe.OrderMatchedEncoder;
+import open.vincentf13.service.spot.sbe.OrderStatus;
+import org.agrona.BitUtil;
+import org.agrona.collections.Long2LongHashMap;
+
+import static open.vincentf13.service.spot.infra.Constants.MsgType;
+
+/**
+ * 慢速連線待送佇列 (Session Outbox)
+ *
+ * Channel 超過 outbound 高水位後，該連線的回報改入此有界佇列，待 Netty 回到可寫再由 {@link ReportReceiver} 合併送出，
+ * 避免單一慢速客戶端使 Netty outbound buffer 無上限成長。佇列排空後即解除，回到直寫路徑。
+ *
+ * 壓力策略 ({@link Policy})：
+ * - CONFLATE：同一 orderId 尚未送出的非終態回報被最新一筆取代（OrderMatched 帶 cumQty / avgPrice，最新一筆即累積狀態），
+ *   保留原佇列位置；不同訂單間的相對順序可能因此提前
+ * - DROP：慢速期間直接丟棄非終態回報（ACCEPTED、部分成交），只排入終態
+ * - DISCONNECT：全部排入，不做合併
+ * 佇列已滿時：DISCONNECT 任何回報皆無法排入即斷線（保證不漏送）；CONFLATE / DROP 丟棄非終態回報，
+ * 終態回報無法排入則斷線。斷線後由客戶端重連查詢補齊。
+ *
+ * 執行緒：僅由 receiver 執行緒存取；pendingCount / pendingBytes 供監控端點讀取。
+ */
+final class SessionOutbox {
+
+    enum Policy { CONFLATE, DROP, DISCONNECT }
+
+    enum Offer { QUEUED, CONFLATED, DROPPED, OVERFLOW }
+
+    private static final PooledByteBufAllocator ALLOC = PooledByteBufAllocator.DEFAULT;
+    private static final int REPORT_HEADER_SIZE = 20; // ExecutionReporter.HEADER_SIZE
+    // ACCEPTED / CANCELED / MATCHED 的 orderId 皆位於 body offset 16
+    private static final int ORDER_ID_OFFSET = REPORT_HEADER_SIZE + OrderMatchedEncoder.orderIdEncodingOffset();
+    private static final int STATUS_OFFSET = REPORT_HEADER_SIZE + OrderMatchedEncoder.statusEncodingOffset();
+    private static final long NO_ORDER = -1L;
+
+    final Channel channel;
+    private final ByteBuf[] reports;
+    private final long[] orderIds;
+    private final boolean[] terminal;
+    private final int mask;
+    // orderId → 佇列序號（僅非終態、尚未送出的回報）
+    private final Long2LongHashMap pendingByOrder = new Long2LongHashMap(NO_ORDER);
+    private long head, tail;
+    volatile int pendingCount;
+    volatile long pendingBytes;
+
+    SessionOutbox(Channel channel, int maxPending) {
+        int capacity = BitUtil.findNextPositivePowerOfTwo(Math.max(2, maxPending));
+        this.channel = channel;
+        this.reports = new ByteBuf[capacity];
+        this.orderIds = new long[capacity];
+        this.terminal = new boolean[capacity];
+        this.mask = capacity - 1;
+    }
+
+    boolean isEmpty() {
+        return head == tail;
+    }
+
+    /** 排入一筆回報；除 OVERFLOW 外 report 的所有權移交本佇列（丟棄時已 release） */
+    Offer offer(ByteBuf report, Policy policy) {
+        int msgType = report.getIntLE(0);
+        boolean isTerminal = isTerminal(report, msgType);
+        long orderId = msgType == MsgType.ORDER_REJECTED ? NO_ORDER : report.getLongLE(ORDER_ID_OFFSET);
+
+        if (!isTerminal && policy == Policy.DROP) { report.release(); return Offer.DROPPED; }
+        if (policy == Policy.CONFLATE && orderId != NO_ORDER) {
+            long seq = pendingByOrder.get(orderId);
+            if (seq != NO_ORDER) {
+                int slot = (int) (seq & mask);
+                pendingBytes += report.readableBytes() - reports[slot].readableBytes();
+                reports[slot].release();
+                reports[slot] = report;
+                terminal[slot] = isTerminal;
+                if (isTerminal) pendingByOrder.remove(orderId);
+                return Offer.CONFLATED;
+            }
+        }
+        if (tail - head > mask) {
+            if (isTerminal || policy == Policy.DISCONNECT) return Offer.OVERFLOW;
+            report.release();
+            return Offer.DROPPED;
+        }
+        int slot = (int) (tail & mask);
+        reports[slot] = report;
+        orderIds[slot] = orderId;
+        terminal[slot] = isTerminal;
+        if (policy == Policy.CONFLATE && !isTerminal && orderId != NO_ORDER) pendingByOrder.put(orderId, tail);
+        tail++;
+        pendingCount = (int) (tail - head);
+        pendingBytes += report.readableBytes();
+        return Offer.QUEUED;
+    }
+
+    /** Channel 可寫時依序合併為不超過 maxFrameSize 的 frame 送出，回到不可寫即停止；回傳送出筆數 */
+    int drain(int maxFrameSize) {
+        int sent = 0;
+        while (head != tail && channel.isWritable()) {
+            int frameLen = 0;
+            long end = head;
+            while (end != tail && (frameLen == 0 || frameLen + reports[(int) (end & mask)].readableBytes() <= maxFrameSize)) {
+                frameLen += reports[(int) (end & mask)].readableBytes();
+                end++;
+            }
+            ByteBuf combined = ALLOC.directBuffer(frameLen);
+            for (; head != end; head++) {
+                int slot = (int) (head & mask);
+                combined.writeBytes(reports[slot]);
+                reports[slot].release();
+                reports[slot] = null;
+                if (!terminal[slot] && orderIds[slot] != NO_ORDER) pendingByOrder.remove(orderIds[slot]);
+                sent++;
+            }
+            channel.write(new BinaryWebSocketFrame(combined));
+            pendingBytes -= frameLen;
+        }
+        if (sent > 0) {
+            channel.flush();
+            pendingCount = (int) (tail - head);
+        }
+        return sent;
+    }
+
+    /** 斷線或連線已關閉：釋放所有待送回報 */
+    void clear() {
+        for (; head != tail; head++) {
+            int slot = (int) (head & mask);
+            reports[slot].release();
+            reports[slot] = null;
+        }
+        pendingByOrder.clear();
+        pendingCount = 0;
+        pendingBytes = 0;
+    }
+
+    private static boolean isTerminal(ByteBuf report, int msgType) {
+        return switch (msgType) {
+            case MsgType.ORDER_REJECTED, MsgType.ORDER_CANCELED -> true;
+            case MsgType.ORDER_MATCHED -> report.getUnsignedByte(STATUS_OFFSET) >= OrderStatus.FILLED.value();
+            default -> false;
+        };
+    }
+}
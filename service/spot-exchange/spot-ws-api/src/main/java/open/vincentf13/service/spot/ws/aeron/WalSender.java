@@ -1,9 +1,6 @@
 package open.vincentf13.service.spot.ws.aeron;
 
 import com.lmax.disruptor.EventPoller;
-import com.lmax.disruptor.RingBuffer;
-import jakarta.annotation.PostConstruct;
-import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import net.openhft.chronicle.bytes.Bytes;
 import net.openhft.chronicle.queue.ChronicleQueue;
@@ -15,8 +12,6 @@ import open.vincentf13.service.spot.infra.chronicle.Storage;
 import open.vincentf13.service.spot.infra.chronicle.WalField;
 import open.vincentf13.service.spot.infra.metrics.StaticMetricsHolder;
 import open.vincentf13.service.spot.ws.wal.*;
-import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
-import org.springframework.stereotype.Component;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -29,29 +24,25 @@ import static open.vincentf13.service.spot.infra.Constants.*;
  * Netty → Disruptor → WalSender (寫 WAL + 送 Aeron) → Matching Engine
  * 寫入順序保證：先寫 WAL 拿到 walIndex，再送 Aeron。
  * RESUME 握手後從 WAL replay 追趕，再切換到 live 模式。
+ * 分片模式下每個分片一份獨立 WAL (gw-sender-sN)，walIndex 在分片內連續，撮合端空洞檢查不受影響。
+ * 撮合回報的 WAL_ACK 轉交 {@link WalRetention}，由其背景釋放已確認的舊 cycle。
  */
 @Slf4j
-// 顯式同名 bean："gatewaySender" 在 bypass / WAL 模式下都存在，NettyServer @DependsOn 可不分模式引用
-@Component("gatewaySender")
-@ConditionalOnProperty(name = "spot.wal.bypass", havingValue = "false", matchIfMissing = true)
 public class WalSender extends GatewaySender {
 
     private final ChronicleQueue wal;
+    private final WalRetention retention;
     private ExcerptAppender appender;
     private ExcerptTailer replayTailer;
     private long resumeSkipIndex = Long.MIN_VALUE;
     private boolean replaying = false;
 
-    public WalSender(@SuppressWarnings("unused") io.aeron.Aeron aeron, RingBuffer<WalEvent> ringBuffer) {
-        super("wal-sender",
-              MetricsKey.CPU_ID_WAL_SENDER, MetricsKey.CPU_ID_CURRENT_WAL_SENDER,
-              MetricsKey.GATEWAY_WAL_SENDER_DUTY_CYCLE, ringBuffer);
-        this.wal = Storage.self().gatewaySenderWal();
+    public WalSender(IngressRings ingressRings, int shardId, WalRetention retention) {
+        super("wal-sender", ingressRings, shardId);
+        this.wal = Storage.self().gatewaySenderWal(shardId);
+        this.retention = retention;
     }
 
-    @PostConstruct @Override public void start() { super.start(); }
-    @PreDestroy @Override public void stop() { super.stop(); }
-
     @Override
     protected final void onSenderStart() {
         this.appender = wal.acquireAppender();
@@ -61,6 +52,7 @@ public class WalSender extends GatewaySender {
     // ===== WAITING：只寫 WAL (防 Disruptor 堆積) =====
 
     private final EventPoller.Handler<WalEvent> walOnlyHandler = (event, sequence, endOfBatch) -> {
+        if (!accepts(event)) return true;
         writeToWal(event);
         pollCount++;
         return true;
@@ -69,7 +61,7 @@ public class WalSender extends GatewaySender {
     @Override
     protected final int drainWhileWaiting() {
         pollCount = 0;
-        try { poller.poll(walOnlyHandler); } catch (Exception e) { log.error("[WAL-SENDER] WAL write failed", e); }
+        pollRings(walOnlyHandler, "[WAL-SENDER] WAL write failed");
         if (pollCount > 0) localWriteCount += pollCount;
         return pollCount;
     }
@@ -112,13 +104,14 @@ public class WalSender extends GatewaySender {
     // ===== LIVE：Disruptor → WAL → Aeron =====
 
     private final EventPoller.Handler<WalEvent> liveHandler = (event, sequence, endOfBatch) -> {
+        if (!accepts(event)) return true;
         long pollTimeNs = DIAGNOSE ? System.nanoTime() : 0;
         long walIndex = writeToWal(event);
         if (walIndex >= 0) {
             sendFromEvent(event, walIndex);
             StaticMetricsHolder.addCounter(MetricsKey.AERON_SEND_COUNT, 1);
             // 常駐量測 gateway 內部全程（Netty entry → Aeron commit done），含 WAL fsync
-            StaticMetricsHolder.recordLatency(MetricsKey.LATENCY_GATEWAY_TOTAL, System.nanoTime() - event.arrivalTimeNs);
+            gatewayTotalLatency.record(System.nanoTime() - event.arrivalTimeNs);
             if (DIAGNOSE) recordTransportSubLatencies(event, pollTimeNs, System.nanoTime());
         }
         pollCount++;
@@ -127,15 +120,15 @@ public class WalSender extends GatewaySender {
 
     private int processLive() {
         pollCount = 0;
-        try { poller.poll(liveHandler); } catch (Exception e) { log.error("[WAL-SENDER] live processing failed", e); }
+        pollRings(liveHandler, "[WAL-SENDER] live processing failed");
         if (pollCount > 0) localWriteCount += pollCount;
         return pollCount;
     }
 
     // ===== WAL 寫入 (binary format, 跳過 Wire key-value 開銷) =====
 
-    /** 預分配 write buffer，單線程獨佔，零分配 */
-    private final byte[] walArr = new byte[128];
+    /** 預分配 write buffer，單線程獨佔，零分配；容量涵蓋滿載批次下單 (每筆 27B) */
+    private final byte[] walArr = new byte[64 + MatchingConfig.MAX_BATCH_SIZE * 32];
     private final ByteBuffer walBuf = ByteBuffer.wrap(walArr).order(ByteOrder.LITTLE_ENDIAN);
 
     private long writeToWal(WalEvent e) {
@@ -152,6 +145,8 @@ public class WalSender extends GatewaySender {
                 walBuf.putLong(oc.qty);
                 walBuf.put(oc.side);
                 walBuf.putLong(oc.clientOrderId);
+                walBuf.put(oc.orderType);
+                walBuf.put(oc.timeInForce);
             }
             case MsgType.ORDER_CANCEL -> walBuf.putLong(e.orderCancel.orderId);
             case MsgType.DEPOSIT -> {
@@ -159,6 +154,35 @@ public class WalSender extends GatewaySender {
                 walBuf.putInt(d.assetId);
                 walBuf.putLong(d.amount);
             }
+            case MsgType.TRANSFER -> {
+                WalTransfer t = e.transfer;
+                walBuf.putInt(t.assetId);
+                walBuf.putLong(t.amount);
+                walBuf.put(t.fromShard);
+                walBuf.put(t.toShard);
+            }
+            case MsgType.ORDER_CREATE_BATCH -> {
+                WalOrderBatch ob = e.orderBatch;
+                walBuf.putInt(ob.symbolId);
+                walBuf.putInt(ob.count);
+                for (int i = 0; i < ob.count; i++) {
+                    walBuf.putLong(ob.price[i]);
+                    walBuf.putLong(ob.qty[i]);
+                    walBuf.put(ob.side[i]);
+                    walBuf.putLong(ob.clientOrderId[i]);
+                    walBuf.put(ob.orderType[i]);
+                    walBuf.put(ob.timeInForce[i]);
+                }
+            }
+            case MsgType.ORDER_CANCEL_BATCH -> {
+                // 分片 WAL 只保留本分片擁有的 orderId，replay 時無需再過濾
+                WalOrderBatch ob = e.orderBatch;
+                walBuf.putInt(ownedCancelCount(ob));
+                for (int i = 0; i < ob.count; i++) {
+                    if (ownsCancel(ob, i)) walBuf.putLong(ob.orderId[i]);
+                }
+            }
+            case MsgType.CANCEL_ALL -> walBuf.putInt(e.cancelAll.symbolId);
         }
         int len = walBuf.position();
         try (var dc = appender.writingDocument()) {
@@ -171,8 +195,12 @@ public class WalSender extends GatewaySender {
 
     @Override
     protected final void onResume(long walIndex) {
-        log.info("[WAL-SENDER] RESUME 握手成功，恢復位點: {}", walIndex);
+        log.info("[WAL-SENDER] shard={} RESUME 握手成功，恢復位點: {}", shardId, walIndex);
         if (walIndex == WAL_INDEX_NONE || walIndex == MSG_SEQ_NONE || !replayTailer.moveToIndex(walIndex)) {
+            if (walIndex != WAL_INDEX_NONE && walIndex < wal.firstIndex()) {
+                log.error("[WAL-SENDER] shard={} RESUME 位點 {} 早於保留的 WAL 起點 {}（cycle 已釋放），自保留起點重播",
+                        shardId, walIndex, wal.firstIndex());
+            }
             replayTailer.toStart();
             resumeSkipIndex = Long.MIN_VALUE;
         } else {
@@ -181,8 +209,13 @@ public class WalSender extends GatewaySender {
         replaying = true;
     }
 
+    @Override
+    protected final void onWalAck(long walIndex) {
+        retention.acknowledge(shardId, walIndex);
+    }
+
     @Override
     protected final void onSenderStop() {
-        try { poller.poll(walOnlyHandler); } catch (Exception e) { log.warn("[WAL-SENDER] drain failed", e); }
+        pollRings(walOnlyHandler, "[WAL-SENDER] drain failed");
     }
 }
@@ -5,11 +5,11 @@ import io.netty.buffer.ByteBuf;
 import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.codec.http.*;
 import io.netty.handler.codec.http.websocketx.*;
+import open.vincentf13.service.spot.ws.ws.NettyTransport;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import org.HdrHistogram.ConcurrentHistogram;
 import org.HdrHistogram.Histogram;
 
@@ -31,6 +31,9 @@ import java.util.concurrent.locks.LockSupport;
  * clientOrderId = nanoTime 攜帶發送時間戳，收到 report 後計算 round-trip。
  *
  * Usage: java -cp ... BenchmarkTool [rate/sec] [duration_sec] [warmup_sec]
+ *
+ * 客戶端傳輸：-Dbench.transport=nio|epoll|io_uring|auto（預設 nio），比較 gateway 端 netty.transport 時
+ * 保持客戶端不變，差異只來自伺服器端；-Dbench.server-transport 僅作結果標籤，與客戶端設定一併印出供對照。
  */
 public class BenchmarkTool {
 
@@ -59,6 +62,7 @@ public class BenchmarkTool {
     private static final AtomicLong canceledCount = new AtomicLong();
     private static final AtomicLong unknownCount = new AtomicLong();
     private static volatile boolean measuring = false;
+    private static NettyTransport transport;
 
     public static void main(String[] args) throws Exception {
         if (args.length >= 1) targetRate = Integer.parseInt(args[0]);
@@ -66,16 +70,19 @@ public class BenchmarkTool {
         if (args.length >= 3) warmupSec = Integer.parseInt(args[2]);
         if (args.length >= 4) connections = Math.max(1, Integer.parseInt(args[3]));
 
+        transport = NettyTransport.resolve(System.getProperty("bench.transport", "nio"));
         int ratePerConn = targetRate / connections;
         System.out.printf("Benchmark: rate=%d/sec, duration=%ds, warmup=%ds, connections=%d (%d/sec each)%n",
                 targetRate, durationSec, warmupSec, connections, ratePerConn);
         System.out.printf("User pairs: buyer=%d..%d / seller=%d..%d, redeposit every %d orders%n",
                 BUYER_ID_BASE, BUYER_ID_BASE + 2 * (connections - 1),
                 BUYER_ID_BASE + 1, BUYER_ID_BASE + 1 + 2 * (connections - 1), REDEPOSIT_INTERVAL);
+        System.out.printf("Transport: client=%s, server=%s (gateway netty.transport)%n",
+                transport, System.getProperty("bench.server-transport", "?"));
 
         // 共享 EventLoopGroup：N 條 channel 自動 round-robin 到 N 個 worker thread，
         // 達成多條 connection 並行 read/decode 與並行 server-side flush。
-        EventLoopGroup group = new NioEventLoopGroup(connections);
+        EventLoopGroup group = transport.newEventLoopGroup(connections, new DefaultThreadFactory("bench-client"), false);
         List<Channel> channels = new ArrayList<>(connections);
 
         try {
@@ -88,7 +95,7 @@ public class BenchmarkTool {
 
                 Channel ch = new Bootstrap()
                         .group(group)
-                        .channel(NioSocketChannel.class)
+                        .channel(transport.socketChannelClass())
                         .option(ChannelOption.TCP_NODELAY, true)
                         .handler(new ChannelInitializer<SocketChannel>() {
                             @Override protected void initChannel(SocketChannel sc) {
@@ -237,8 +244,9 @@ public class BenchmarkTool {
 
     private static void printResults() {
         System.out.println("\n=== Benchmark Results ===");
-        System.out.printf("Sent: %,d | Throughput: %,d orders/sec | Connections: %d%n",
-                sentCount.get(), sentCount.get() / Math.max(durationSec, 1), connections);
+        System.out.printf("Sent: %,d | Throughput: %,d orders/sec | Connections: %d | Transport: client=%s, server=%s%n",
+                sentCount.get(), sentCount.get() / Math.max(durationSec, 1), connections,
+                transport, System.getProperty("bench.server-transport", "?"));
         System.out.printf("Reports: accepted=%,d, matched=%,d, rejected=%,d, canceled=%,d, unknown=%,d%n",
                 acceptedCount.get(), matchedCount.get(), rejectedCount.get(), canceledCount.get(), unknownCount.get());
         System.out.printf("Latency samples (measuring phase): %,d (%.1f%% of sent)%n",
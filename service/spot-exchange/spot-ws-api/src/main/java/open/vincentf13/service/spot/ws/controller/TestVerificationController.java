@@ -1,11 +1,20 @@
 package open.vincentf13.service.spot.ws.controller;
 
+import io.aeron.Publication;
+import open.vincentf13.service.spot.infra.aeron.AeronConstants;
+import open.vincentf13.service.spot.infra.aeron.AeronUtil;
 import open.vincentf13.service.spot.infra.chronicle.LongValue;
 import open.vincentf13.service.spot.infra.chronicle.Storage;
+import open.vincentf13.service.spot.infra.metrics.MetricsWriter;
 import open.vincentf13.service.spot.infra.metrics.StaticMetricsHolder;
+import open.vincentf13.service.spot.infra.util.ShardUtil;
 import open.vincentf13.service.spot.model.*;
+import open.vincentf13.service.spot.ws.aeron.ReportReceiver;
+import org.HdrHistogram.Histogram;
+import org.agrona.concurrent.UnsafeBuffer;
 import org.springframework.web.bind.annotation.*;
 
+import java.nio.ByteOrder;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
@@ -32,6 +41,12 @@ public class TestVerificationController {
         new CpuMetric("netty_worker_4",          MetricsKey.CPU_ID_NETTY_WORKER_4,  MetricsKey.CPU_ID_CURRENT_NETTY_WORKER_4)
     );
 
+    private final ReportReceiver reportReceiver;
+
+    public TestVerificationController(ReportReceiver reportReceiver) {
+        this.reportReceiver = reportReceiver;
+    }
+
     @GetMapping("/metrics/tps")
     public List<Map<String, Object>> getTpsHistory() {
         TreeMap<Long, Long> sorted = new TreeMap<>();
@@ -59,10 +74,11 @@ public class TestVerificationController {
         s.tpsHistory().clear();
         s.dutyCycleHistory().clear();
         s.gcEventHistory().clear();
+        s.latencyHistogramHistory().clear();
         // 重置累計計數器
         StaticMetricsHolder.values().forEach((k, v) -> v.set(0));
-        // 排空 in-memory latency window
-        StaticMetricsHolder.snapshotLatencyAndReset();
+        // 排空 in-memory 延遲記錄器的當前區間
+        StaticMetricsHolder.drainLatency((key, histogram) -> {});
         return Map.of("status", "ok", "time", TIME.format(java.time.Instant.now()));
     }
 
@@ -90,6 +106,20 @@ public class TestVerificationController {
         target.put("order_rejected", get(MetricsKey.ORDER_REJECTED_COUNT));
         target.put("order_duplicate", get(MetricsKey.ORDER_DUPLICATE_COUNT));
         target.put("report_recv", get(MetricsKey.REPORT_RECV_COUNT));
+        target.put("report_conflated", get(MetricsKey.REPORT_CONFLATED_COUNT));
+        target.put("report_dropped", get(MetricsKey.REPORT_DROPPED_COUNT));
+        target.put("report_slow_disconnect", get(MetricsKey.REPORT_SLOW_DISCONNECT_COUNT));
+    }
+
+    /** 慢速連線：各連線待送回報與 Netty outbound 積壓（僅列出目前超過高水位者） */
+    @GetMapping("/metrics/report-backlog")
+    public Map<String, Object> getReportBacklog() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("slow_sessions", get(MetricsKey.REPORT_SLOW_SESSIONS));
+        m.put("backlog_total", get(MetricsKey.REPORT_BACKLOG_TOTAL));
+        m.put("backlog_max", get(MetricsKey.REPORT_BACKLOG_MAX));
+        m.put("sessions", reportReceiver.sessionBacklogs());
+        return m;
     }
 
     private void putJvmMetrics(Map<String, Object> target) {
@@ -314,15 +344,79 @@ public class TestVerificationController {
         target.put(label, sorted);
     }
 
+    /** 合併最近 seconds 秒（含跨節點寫入同一 Map 的）完整直方圖，重算分位數 */
+    @GetMapping("/metrics/latency/merged")
+    public Map<String, Object> getMergedLatency(@RequestParam long metric, @RequestParam(defaultValue = "60") int seconds) {
+        long nowSec = System.currentTimeMillis() / 1000;
+        Histogram merged = null;
+        for (long sec = nowSec - seconds; sec <= nowSec; sec++) {
+            byte[] encoded = Storage.self().latencyHistogramHistory().get(metric * MetricsWriter.HISTOGRAM_KEY_UNIT + sec);
+            if (encoded == null) continue;
+            Histogram h = StaticMetricsHolder.decodeHistogram(encoded);
+            if (merged == null) merged = h; else merged.add(h);
+        }
+        if (merged == null) return Map.of("count", 0);
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("count", merged.getTotalCount());
+        m.put("p50", merged.getValueAtPercentile(50.0) + " ns");
+        m.put("p90", merged.getValueAtPercentile(90.0) + " ns");
+        m.put("p99", merged.getValueAtPercentile(99.0) + " ns");
+        m.put("p999", merged.getValueAtPercentile(99.9) + " ns");
+        m.put("p9999", merged.getValueAtPercentile(99.99) + " ns");
+        m.put("max", merged.getMaxValue() + " ns");
+        return m;
+    }
+
+    /** 分片模式下帳本按分片切分，回傳各分片切片加總 */
     @GetMapping("/balance")
     public Map<String, Object> getBalance(@RequestParam long userId, @RequestParam int assetId) {
-        Balance b = Storage.self().balances().getUsing(new BalanceKey(userId, assetId), new Balance());
-        return b == null ? Map.of("available", 0, "frozen", 0) : Map.of("available", b.getAvailable(), "frozen", b.getFrozen());
+        BalanceKey key = new BalanceKey(userId, assetId);
+        Balance reusable = new Balance();
+        long available = 0, frozen = 0;
+        for (int shard = 0; shard < MatchingConfig.SHARD_COUNT; shard++) {
+            Balance b = Storage.self().balances(shard).getUsing(key, reusable);
+            if (b == null) continue;
+            available += b.getAvailable();
+            frozen += b.getFrozen();
+        }
+        return Map.of("available", available, "frozen", frozen);
     }
 
     @GetMapping("/order_by_cid")
     public Order getOrderByCid(@RequestParam long userId, @RequestParam long cid) {
-        LongValue orderId = Storage.self().clientOrderIdMap().get(new CidKey(userId, cid));
-        return orderId == null ? null : Storage.self().orders().get(orderId);
+        CidKey key = new CidKey(userId, cid);
+        for (int shard = 0; shard < MatchingConfig.SHARD_COUNT; shard++) {
+            LongValue orderId = Storage.self().findClientOrderId(shard, key);
+            if (orderId != null) return Storage.self().orders().get(orderId);
+        }
+        return null;
+    }
+
+    /** tradeId 高位即分片，僅查詢該分片成交日誌（稀疏索引定位後順掃） */
+    @GetMapping("/trade")
+    public Trade getTrade(@RequestParam long tradeId) {
+        Trade trade = new Trade();
+        return Storage.self().tradeJournal(ShardUtil.shardOfOrder(tradeId)).find(tradeId, trade) ? trade : null;
+    }
+
+    /**
+     * 熱備升主：向同機 follower matching 發送 PROMOTE（shard=-1 為全部分片）。
+     * follower 訂閱失敗控制流前無接收端，等待連線至多 2 秒；force=true 忽略雜湊不一致。
+     */
+    @PostMapping("/matching/promote")
+    public Map<String, Object> promoteFollower(@RequestParam(defaultValue = "-1") int shard,
+                                               @RequestParam(defaultValue = "false") boolean force) throws InterruptedException {
+        UnsafeBuffer msg = new UnsafeBuffer(new byte[AeronConstants.PROMOTE_SIGNAL_LENGTH]);
+        msg.putInt(0, MsgType.PROMOTE, ByteOrder.LITTLE_ENDIAN);
+        msg.putInt(AeronConstants.PROMOTE_SHARD_OFFSET, shard, ByteOrder.LITTLE_ENDIAN);
+        msg.putInt(AeronConstants.PROMOTE_FORCE_OFFSET, force ? 1 : 0, ByteOrder.LITTLE_ENDIAN);
+        try (Publication pub = AeronUtil.aeron().addPublication(AeronChannel.REPORT_FLOW, AeronChannel.FAILOVER_CONTROL_STREAM_ID)) {
+            long deadline = System.currentTimeMillis() + 2000;
+            long res;
+            while ((res = pub.offer(msg, 0, AeronConstants.PROMOTE_SIGNAL_LENGTH)) < 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            return Map.of("status", res > 0 ? "sent" : "no_follower", "shard", shard, "force", force);
+        }
     }
 }
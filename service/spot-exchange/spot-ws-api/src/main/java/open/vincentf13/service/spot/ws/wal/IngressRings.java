@@ -0,0 +1,109 @@
+package open.vincentf13.service.spot.ws.wal;
+
+import com.lmax.disruptor.BusySpinWaitStrategy;
+import com.lmax.disruptor.EventPoller;
+import com.lmax.disruptor.RingBuffer;
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoop;
+import io.netty.util.AttributeKey;
+import lombok.extern.slf4j.Slf4j;
+import open.vincentf13.service.spot.infra.metrics.StaticMetricsHolder;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import static open.vincentf13.service.spot.infra.Constants.MetricsKey;
+
+/**
+ * Gateway 入口 RingBuffer 組 (Ingress Rings)
+ *
+ * - shared（預設）：所有 Netty worker 共用單一 RingBuffer，worker > 1 時為 multi-producer（發布需 CAS 搶序號）
+ * - per-worker (spot.ingress.per-worker=true)：每個 Netty EventLoop 獨佔一個 single-producer RingBuffer，發布免 CAS；
+ *   sender 以 round-robin 逐一 poll 各 ring 合併，bypassSeq / WAL index 仍由單一 sender 執行緒分配
+ *
+ * Channel 終生綁定單一 EventLoop，同一連線的指令必落同一 ring，FIFO 不變；不同連線之間本無全序。
+ * per-worker 容量：Disruptor ring 須為 2 的冪，總量無法恆等於 TOTAL_SLOTS；每 ring 取 ⌈TOTAL_SLOTS / rings⌉ 向上取 2 的冪、
+ * 且不低於 MIN_RING_SLOTS，總背壓容量不低於 shared 模式，實際總量 = rings × slots/ring
+ * （例：2 / 4 worker → 16384，3 worker → 3 × 8192 = 24576，6 worker → 6 × 4096 = 24576，8 worker → 8 × 4096 = 32768）。
+ */
+@Slf4j
+public class IngressRings {
+    private static final int TOTAL_SLOTS = 1 << 14; // 16384
+    private static final int MIN_RING_SLOTS = 1 << 12;
+    private static final AttributeKey<Lane> LANE_KEY = AttributeKey.valueOf("ingressLane");
+
+    /** 生產端持有的 ring 與其索引（索引用於分 ring 指標） */
+    public record Lane(RingBuffer<WalEvent> ring, int index) {}
+
+    private final Lane[] lanes;
+    private final boolean perWorker;
+    // EventLoop → Lane：僅於連線首筆訊息時查詢，之後快取於 Channel attribute
+    private final Map<EventLoop, Lane> assigned = new IdentityHashMap<>();
+
+    public IngressRings(int workerCount, boolean perWorker) {
+        this.perWorker = perWorker && workerCount > 1;
+        int count = this.perWorker ? workerCount : 1;
+        int slots = this.perWorker ? Math.max(MIN_RING_SLOTS, ceilPowerOfTwo((TOTAL_SLOTS + count - 1) / count)) : TOTAL_SLOTS;
+        this.lanes = new Lane[count];
+        for (int i = 0; i < count; i++) {
+            RingBuffer<WalEvent> ring = (this.perWorker || workerCount == 1)
+                    ? RingBuffer.createSingleProducer(WalEvent::new, slots, new BusySpinWaitStrategy())
+                    : RingBuffer.createMultiProducer(WalEvent::new, slots, new BusySpinWaitStrategy());
+            lanes[i] = new Lane(ring, i);
+        }
+        log.info("Gateway ingress 模式: {}，rings={}，slots/ring={}，total={}", this.perWorker ? "per-worker" : "shared", count, slots, count * slots);
+    }
+
+    private static int ceilPowerOfTwo(int n) {
+        return n <= 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+    }
+
+    /** Netty worker 呼叫：取得本連線所屬 EventLoop 的 ring（首次查詢後快取於 Channel） */
+    public Lane laneFor(Channel channel) {
+        Lane lane = channel.attr(LANE_KEY).get();
+        if (lane == null) {
+            lane = perWorker ? assign(channel.eventLoop()) : lanes[0];
+            channel.attr(LANE_KEY).set(lane);
+        }
+        return lane;
+    }
+
+    private synchronized Lane assign(EventLoop loop) {
+        Lane lane = assigned.get(loop);
+        if (lane != null) return lane;
+        // 每個 EventLoop 必須獨佔 ring，否則 single-producer 序號會被並發破壞
+        if (assigned.size() == lanes.length) {
+            throw new IllegalStateException("More Netty event loops than ingress rings: " + lanes.length);
+        }
+        lane = lanes[assigned.size()];
+        assigned.put(loop, lane);
+        return lane;
+    }
+
+    /** sender 呼叫：為每個 ring 建立 poller 並註冊 gating sequence */
+    public EventPoller<WalEvent>[] newPollers() {
+        @SuppressWarnings("unchecked")
+        EventPoller<WalEvent>[] pollers = new EventPoller[lanes.length];
+        for (int i = 0; i < lanes.length; i++) {
+            RingBuffer<WalEvent> ring = lanes[i].ring();
+            pollers[i] = ring.newPoller();
+            ring.addGatingSequences(pollers[i].getSequence());
+        }
+        return pollers;
+    }
+
+    /** 生產端 ring 滿載丟棄 */
+    public static void recordDrop(Lane lane) {
+        StaticMetricsHolder.addCounter(MetricsKey.GATEWAY_WAL_DROP_COUNT, 1);
+        StaticMetricsHolder.addCounter(MetricsKey.forShard(MetricsKey.GATEWAY_INGRESS_DROP_COUNT, lane.index()), 1);
+    }
+
+    /** 週期回報各 ring 積壓深度（已發布未被最慢 sender 消費的 slot 數） */
+    public void reportDepth() {
+        for (Lane lane : lanes) {
+            RingBuffer<WalEvent> ring = lane.ring();
+            StaticMetricsHolder.setGauge(MetricsKey.forShard(MetricsKey.GATEWAY_INGRESS_RING_DEPTH, lane.index()),
+                    ring.getBufferSize() - ring.remainingCapacity());
+        }
+    }
+}
@@ -0,0 +1,6 @@
+package open.vincentf13.service.spot.ws.wal;
+
+/** WAL 全撤指令業務欄位 (pre-allocated per Disruptor slot)；symbolId = 0 表示所有交易對 */
+public class WalCancelAll {
+    public int symbolId;
+}
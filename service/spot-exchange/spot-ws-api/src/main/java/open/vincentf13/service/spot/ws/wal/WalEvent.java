@@ -20,5 +20,8 @@ public class WalEvent {
     public final WalOrderCreate orderCreate = new WalOrderCreate();
     public final WalOrderCancel orderCancel = new WalOrderCancel();
     public final WalDeposit deposit = new WalDeposit();
+    public final WalTransfer transfer = new WalTransfer();
+    public final WalOrderBatch orderBatch = new WalOrderBatch(); // ORDER_CREATE_BATCH / ORDER_CANCEL_BATCH 共用
+    public final WalCancelAll cancelAll = new WalCancelAll();
     // AUTH: 僅需 userId，無額外欄位
 }
@@ -0,0 +1,21 @@
+package open.vincentf13.service.spot.ws.wal;
+
+import static open.vincentf13.service.spot.infra.Constants.MatchingConfig.MAX_BATCH_SIZE;
+
+/**
+ * WAL 批次下單 / 批次撤單業務欄位 (pre-allocated per Disruptor slot)
+ *
+ * 以平行陣列預配 MAX_BATCH_SIZE 筆，count 為有效筆數；
+ * 批次下單使用 price ~ timeInForce，批次撤單只使用 orderId。
+ */
+public class WalOrderBatch {
+    public int symbolId;
+    public int count;
+    public final long[] price = new long[MAX_BATCH_SIZE];
+    public final long[] qty = new long[MAX_BATCH_SIZE];
+    public final byte[] side = new byte[MAX_BATCH_SIZE];
+    public final long[] clientOrderId = new long[MAX_BATCH_SIZE];
+    public final byte[] orderType = new byte[MAX_BATCH_SIZE];
+    public final byte[] timeInForce = new byte[MAX_BATCH_SIZE];
+    public final long[] orderId = new long[MAX_BATCH_SIZE];
+}
@@ -7,4 +7,6 @@ public class WalOrderCreate {
     public long qty;
     public byte side;
     public long clientOrderId;
+    public byte orderType;   // 0=LIMIT, 1=MARKET
+    public byte timeInForce; // 0=GTC, 1=IOC, 2=FOK, 3=POST_ONLY
 }
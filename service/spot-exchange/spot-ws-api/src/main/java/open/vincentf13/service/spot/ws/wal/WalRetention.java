@@ -0,0 +1,158 @@
+package open.vincentf13.service.spot.ws.wal;
+
+import lombok.extern.slf4j.Slf4j;
+import net.openhft.chronicle.queue.impl.single.SingleChronicleQueue;
+import open.vincentf13.service.spot.infra.chronicle.Storage;
+import open.vincentf13.service.spot.infra.metrics.StaticMetricsHolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.zip.GZIPOutputStream;
+
+import static open.vincentf13.service.spot.infra.Constants.*;
+
+/**
+ * Gateway WAL 保留策略 (WAL Retention)
+ *
+ * 撮合端經控制流回報 WAL_ACK（已持久化的接收進度，冷啟動 RESUME 不會早於此位點），
+ * 本類於背景執行緒釋放整段早於確認位點所在 cycle 的 WAL 檔：
+ * - KEEP：不釋放，只更新指標
+ * - DELETE：直接刪除
+ * - ARCHIVE (預設)：gzip 壓縮至歸檔目錄後刪除原檔
+ *
+ * 確認位點所在 cycle 之前另保留 retainCycles 個完整 cycle，涵蓋落後的熱備 follower 升主後的 RESUME。
+ * 當前寫入中的 cycle 永不釋放。sender thread 只寫入確認位點，檔案 I/O 不進熱路徑。
+ */
+@Slf4j
+public class WalRetention {
+    public enum Policy { KEEP, DELETE, ARCHIVE }
+
+    private final Policy policy;
+    private final int retainCycles;
+    private final long checkIntervalMs;
+    private final File archiveDir;
+    // 各分片 WAL 的撮合確認位點（sender thread 寫入，retention thread 讀取）
+    private final AtomicLongArray ackedIndex = new AtomicLongArray(MatchingConfig.SHARD_COUNT);
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "wal-retention");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public WalRetention(Policy policy, int retainCycles, long checkIntervalMs, String archiveDir) {
+        this.policy = policy;
+        this.retainCycles = Math.max(0, retainCycles);
+        this.checkIntervalMs = Math.max(1_000L, checkIntervalMs);
+        this.archiveDir = new File(archiveDir.isBlank() ? ChronicleMapEnum.WAL_BASE_DIR + "archive/" : archiveDir);
+        for (int i = 0; i < ackedIndex.length(); i++) ackedIndex.set(i, WAL_INDEX_NONE);
+    }
+
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::tick, checkIntervalMs, checkIntervalMs, TimeUnit.MILLISECONDS);
+        log.info("WAL retention 啟動: policy={}, retainCycles={}, archiveDir={}", policy, retainCycles, archiveDir.getAbsolutePath());
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    /** sender thread 呼叫：撮合確認的 walIndex，只前進不後退 */
+    public void acknowledge(int shardId, long walIndex) {
+        if (walIndex > ackedIndex.get(shardId)) ackedIndex.lazySet(shardId, walIndex);
+    }
+
+    private void tick() {
+        for (int shard = 0; shard < ackedIndex.length(); shard++) {
+            try {
+                SingleChronicleQueue wal = (SingleChronicleQueue) Storage.self().gatewaySenderWal(shard);
+                long acked = ackedIndex.get(shard);
+                if (acked != WAL_INDEX_NONE && policy != Policy.KEEP) release(shard, wal, acked);
+                updateMetrics(shard, wal, acked);
+            } catch (Exception e) {
+                log.error("WAL retention 失敗 (shard={})", shard, e);
+            }
+        }
+    }
+
+    /** 釋放早於 (確認位點所在 cycle - retainCycles) 的完整 cycle；當前 cycle 不在範圍內 */
+    private void release(int shard, SingleChronicleQueue wal, long acked) {
+        int releaseBefore = Math.min(wal.rollCycle().toCycle(acked), wal.cycle()) - retainCycles;
+        int first = wal.firstCycle();
+        if (first == Integer.MAX_VALUE || first >= releaseBefore) return;
+        int released = 0;
+        for (Long cycle : wal.listCyclesBetween(first, releaseBefore - 1)) {
+            File file = cycleFile(wal, cycle.intValue());
+            if (!file.exists()) continue;
+            if (policy == Policy.ARCHIVE && !archive(file, wal.file().getName())) continue;
+            try {
+                Files.delete(file.toPath());
+                released++;
+            } catch (IOException e) {
+                // Windows 下仍被映射的檔案無法刪除：下一輪重試
+                log.warn("WAL cycle 刪除失敗，下輪重試: {} ({})", file.getAbsolutePath(), e.getMessage());
+            }
+        }
+        if (released == 0) return;
+        wal.refreshDirectoryListing();
+        StaticMetricsHolder.addCounter(MetricsKey.forShard(MetricsKey.GATEWAY_WAL_RELEASED_CYCLES, shard), released);
+        log.info("WAL 已釋放 {} 個 cycle (shard={}, policy={}, ackedIndex={})", released, shard, policy, acked);
+    }
+
+    /** 壓縮至 archiveDir/{queue}/{cycle}.cq4.gz，先寫暫存檔再原子 rename；已歸檔則略過 */
+    private boolean archive(File file, String queueName) {
+        File dir = new File(archiveDir, queueName);
+        File target = new File(dir, file.getName() + ".gz");
+        if (target.exists()) return true;
+        File tmp = new File(dir, file.getName() + ".gz.tmp");
+        try {
+            Files.createDirectories(dir.toPath());
+            try (InputStream in = Files.newInputStream(file.toPath());
+                 OutputStream out = new GZIPOutputStream(Files.newOutputStream(tmp.toPath()), 1 << 16)) {
+                in.transferTo(out);
+            }
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } catch (IOException e) {
+            log.error("WAL cycle 歸檔失敗，保留原檔: {}", file.getAbsolutePath(), e);
+            return false;
+        }
+    }
+
+    private void updateMetrics(int shard, SingleChronicleQueue wal, long acked) {
+        long bytes = 0;
+        File[] files = wal.file().listFiles((dir, name) -> name.endsWith(SingleChronicleQueue.SUFFIX));
+        if (files != null) for (File f : files) bytes += f.length();
+        StaticMetricsHolder.setGauge(MetricsKey.forShard(MetricsKey.GATEWAY_WAL_DISK_BYTES, shard), bytes);
+
+        long last = wal.lastIndex();
+        if (acked == WAL_INDEX_NONE || last == WAL_INDEX_NONE) return;
+        long lag = 0;
+        if (last > acked) {
+            try {
+                lag = wal.countExcerpts(acked, last);
+            } catch (IllegalStateException e) {
+                return; // 確認位點所在 cycle 已不在本地（如手動清理），略過本輪
+            }
+        }
+        StaticMetricsHolder.setGauge(MetricsKey.forShard(MetricsKey.GATEWAY_WAL_REPLAY_LAG, shard), lag);
+    }
+
+    /** cycle 檔名與 Chronicle Queue 相同：rollCycle 格式 (UTC) + .cq4 */
+    private static File cycleFile(SingleChronicleQueue wal, int cycle) {
+        String name = DateTimeFormatter.ofPattern(wal.rollCycle().format()).withZone(ZoneOffset.UTC)
+                .format(Instant.ofEpochMilli((long) cycle * wal.rollCycle().lengthInMillis() + wal.epoch()));
+        return new File(wal.file(), name + SingleChronicleQueue.SUFFIX);
+    }
+}
@@ -0,0 +1,9 @@
+package open.vincentf13.service.spot.ws.wal;
+
+/** WAL 跨分片劃轉指令業務欄位 (pre-allocated per Disruptor slot) */
+public class WalTransfer {
+    public int assetId;
+    public long amount;
+    public byte fromShard;
+    public byte toShard;
+}
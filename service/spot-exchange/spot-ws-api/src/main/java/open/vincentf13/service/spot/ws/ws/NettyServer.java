@@ -5,9 +5,10 @@ import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollMode;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.HttpServerCodec;
 import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
@@ -46,6 +47,29 @@ public class NettyServer {
     @Value("${netty.worker.count:2}")
     private int workerCount;
 
+    /** 每連線 outbound 水位：超過 high 即 isWritable=false，ReportReceiver 改入待送佇列，降至 low 後恢復 */
+    @Value("${netty.write-buffer.low:262144}")
+    private int writeBufferLow;
+
+    @Value("${netty.write-buffer.high:1048576}")
+    private int writeBufferHigh;
+
+    /** 傳輸層：auto | nio | epoll | io_uring，不可用時降級，見 {@link NettyTransport} */
+    @Value("${netty.transport:auto}")
+    private String transportName;
+
+    /** epoll 限定：SO_BUSY_POLL 微秒數，0 = 關閉（需 net.core.busy_read 允許或 CAP_NET_ADMIN） */
+    @Value("${netty.epoll.busy-poll-us:0}")
+    private int epollBusyPollUs;
+
+    /** epoll 限定：edge-triggered 模式，每次就緒事件讀到 EAGAIN，減少 epoll_wait 回報次數 */
+    @Value("${netty.epoll.edge-triggered:true}")
+    private boolean epollEdgeTriggered;
+
+    /** epoll 限定：worker 以 busy-wait 取代 epoll_wait 阻塞，worker 綁核時換取喚醒延遲 */
+    @Value("${netty.busy-wait-loops:false}")
+    private boolean busyWaitLoops;
+
     private final WsCommandInboundHandler wsHandler;
     private EventLoopGroup bossGroup;
     private EventLoopGroup workerGroup;
@@ -60,19 +84,22 @@ public class NettyServer {
         if (!started.compareAndSet(false, true)) return;
 
         new Thread(() -> {
-            // bossGroup 處理連線接收，壓力小，不綁定核心
-            bossGroup = new NioEventLoopGroup(1, (java.util.concurrent.ThreadFactory) r -> new Thread(r, "netty-boss"));
+            NettyTransport transport = NettyTransport.resolve(transportName);
+            // boss / worker 必須同一傳輸（epoll channel 只能註冊到 epoll event loop）
+            // bossGroup 處理連線接收，壓力小，不綁定核心、不 busy-wait
+            bossGroup = transport.newEventLoopGroup(1, r -> new Thread(r, "netty-boss"), false);
 
             // workerGroup 處理命令編解碼與業務邏輯，維持核心綁定
             // chooserFactory：保留 Netty 預設 round-robin（PowerOfTwoEventExecutorChooser 當 N=2^k，否則
             // GenericEventExecutorChooser），第 1 條連線必落 workerGroup[0]。我們的 affinity pool 第 3 順位
             // 是 P-core（spot.affinity.cores 第 3 個元素），因此 workerGroup[0] = P-core netty worker。
             // 這保證「第一條建立的 WebSocket 連線」走最低延遲路徑；後續連線依序 round-robin 到 E-core worker。
-            workerGroup = new NioEventLoopGroup(workerCount, AffinityUtil.newThreadFactory("netty-worker",
+            workerGroup = transport.newEventLoopGroup(workerCount, AffinityUtil.newThreadFactory("netty-worker",
                     new long[]{MetricsKey.CPU_ID_NETTY_WORKER_1, MetricsKey.CPU_ID_NETTY_WORKER_2,
                                MetricsKey.CPU_ID_NETTY_WORKER_3, MetricsKey.CPU_ID_NETTY_WORKER_4},
                     new long[]{MetricsKey.CPU_ID_CURRENT_NETTY_WORKER_1, MetricsKey.CPU_ID_CURRENT_NETTY_WORKER_2,
-                               MetricsKey.CPU_ID_CURRENT_NETTY_WORKER_3, MetricsKey.CPU_ID_CURRENT_NETTY_WORKER_4}));
+                               MetricsKey.CPU_ID_CURRENT_NETTY_WORKER_3, MetricsKey.CPU_ID_CURRENT_NETTY_WORKER_4}),
+                    busyWaitLoops);
 
             scheduleCpuMetrics(bossGroup,
                     new long[]{MetricsKey.CPU_ID_NETTY_BOSS},
@@ -84,14 +111,24 @@ public class NettyServer {
                                MetricsKey.CPU_ID_CURRENT_NETTY_WORKER_3, MetricsKey.CPU_ID_CURRENT_NETTY_WORKER_4});
 
             try {
-                new ServerBootstrap()
+                ServerBootstrap bootstrap = new ServerBootstrap()
                     .group(bossGroup, workerGroup)
-                    .channel(NioServerSocketChannel.class)
+                    .channel(transport.serverChannelClass());
+                if (transport == NettyTransport.EPOLL) {
+                    bootstrap.childOption(EpollChannelOption.EPOLL_MODE,
+                            epollEdgeTriggered ? EpollMode.EDGE_TRIGGERED : EpollMode.LEVEL_TRIGGERED);
+                    if (epollBusyPollUs > 0) bootstrap.childOption(EpollChannelOption.SO_BUSY_POLL, epollBusyPollUs);
+                }
+                log.info("[WS] Netty transport={} (configured {}), busyWait={}, epollBusyPollUs={}, edgeTriggered={}",
+                        transport, transportName, busyWaitLoops && transport == NettyTransport.EPOLL,
+                        epollBusyPollUs, epollEdgeTriggered);
+                bootstrap
                     .option(ChannelOption.SO_BACKLOG, 8192)
                     .option(ChannelOption.SO_REUSEADDR, true)
                     .childOption(ChannelOption.TCP_NODELAY, true)
                     .childOption(ChannelOption.SO_KEEPALIVE, true)
                     .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                    .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(writeBufferLow, writeBufferHigh))
                     .childHandler(new ChannelInitializer<SocketChannel>() {
                         @Override protected void initChannel(SocketChannel ch) {
                             // 紀錄 channel→worker 對應，事後可從 gw stdout 驗證 round-robin 結果
@@ -0,0 +1,121 @@
+package open.vincentf13.service.spot.ws.ws;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SelectStrategy;
+import io.netty.channel.SelectStrategyFactory;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Netty 傳輸層選擇 (NIO / epoll / io_uring)
+ *
+ * 設定值 auto | nio | epoll | io_uring；auto 依 io_uring → epoll → nio 順序取第一個可用者，
+ * 指定的傳輸不可用時（非 Linux、native library 載入失敗、io_uring 未打包）依同順序降級並記錄原因。
+ * io_uring 為 Netty incubator 模組，僅於 -Pio_uring 建置時打包，故以反射載入，不形成編譯期依賴。
+ *
+ * busy-wait：epoll event loop 以 SelectStrategy.BUSY_WAIT 取代 epoll_wait 阻塞，搭配綁核 worker 使用；
+ * NIO 不支援（Netty 以一般 select 處理），io_uring incubator 亦無此選項。
+ */
+@Slf4j
+public enum NettyTransport {
+    NIO, EPOLL, IO_URING;
+
+    private static final String IO_URING_PACKAGE = "io.netty.incubator.channel.uring.";
+
+    /** 解析設定並降級至可用傳輸 */
+    public static NettyTransport resolve(String configured) {
+        String name = configured.trim().toUpperCase().replace('-', '_');
+        boolean auto = name.equals("AUTO");
+        NettyTransport transport = auto ? IO_URING : valueOf(name);
+        while (!transport.isAvailable()) {
+            NettyTransport fallback = values()[transport.ordinal() - 1];
+            if (!auto) log.warn("[WS] Netty 傳輸 {} 不可用，降級為 {}：{}", transport, fallback, transport.unavailabilityCause());
+            transport = fallback;
+        }
+        return transport;
+    }
+
+    public boolean isAvailable() {
+        return switch (this) {
+            case NIO -> true;
+            case EPOLL -> Epoll.isAvailable();
+            case IO_URING -> {
+                try {
+                    yield (Boolean) ioUringClass("IOUring").getMethod("isAvailable").invoke(null);
+                } catch (ReflectiveOperationException | LinkageError e) {
+                    yield false;
+                }
+            }
+        };
+    }
+
+    private Object unavailabilityCause() {
+        return switch (this) {
+            case NIO -> null;
+            case EPOLL -> Epoll.unavailabilityCause();
+            case IO_URING -> {
+                try {
+                    yield ioUringClass("IOUring").getMethod("unavailabilityCause").invoke(null);
+                } catch (ReflectiveOperationException | LinkageError e) {
+                    yield "未打包 netty-incubator-transport-native-io_uring (-Pio_uring)";
+                }
+            }
+        };
+    }
+
+    /** @param busyWait 僅 epoll 生效 */
+    public EventLoopGroup newEventLoopGroup(int threads, ThreadFactory threadFactory, boolean busyWait) {
+        return switch (this) {
+            case NIO -> new NioEventLoopGroup(threads, threadFactory);
+            case EPOLL -> busyWait ? new EpollEventLoopGroup(threads, threadFactory, BUSY_WAIT)
+                                   : new EpollEventLoopGroup(threads, threadFactory);
+            case IO_URING -> {
+                try {
+                    yield (EventLoopGroup) ioUringClass("IOUringEventLoopGroup")
+                            .getConstructor(int.class, ThreadFactory.class).newInstance(threads, threadFactory);
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalStateException("io_uring EventLoopGroup 建立失敗", e);
+                }
+            }
+        };
+    }
+
+    public Class<? extends ServerChannel> serverChannelClass() {
+        return switch (this) {
+            case NIO -> NioServerSocketChannel.class;
+            case EPOLL -> EpollServerSocketChannel.class;
+            case IO_URING -> ioUringClass("IOUringServerSocketChannel").asSubclass(ServerChannel.class);
+        };
+    }
+
+    /** 客戶端 channel 類型（BenchmarkTool） */
+    public Class<? extends SocketChannel> socketChannelClass() {
+        return switch (this) {
+            case NIO -> NioSocketChannel.class;
+            case EPOLL -> EpollSocketChannel.class;
+            case IO_URING -> ioUringClass("IOUringSocketChannel").asSubclass(SocketChannel.class);
+        };
+    }
+
+    /** 有待執行 task 時照常 selectNow，否則不進入 epoll_wait 阻塞 */
+    private static final SelectStrategyFactory BUSY_WAIT = () -> (selectSupplier, hasTasks) ->
+            hasTasks ? selectSupplier.get() : SelectStrategy.BUSY_WAIT;
+
+    private static Class<?> ioUringClass(String simpleName) {
+        try {
+            return Class.forName(IO_URING_PACKAGE + simpleName);
+        } catch (ClassNotFoundException e) {
+            throw new NoClassDefFoundError(IO_URING_PACKAGE + simpleName);
+        }
+    }
+}
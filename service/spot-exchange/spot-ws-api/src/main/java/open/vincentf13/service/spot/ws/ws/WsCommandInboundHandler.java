@@ -11,10 +11,18 @@ import io.netty.util.ReferenceCountUtil;
 import lombok.extern.slf4j.Slf4j;
 import open.vincentf13.service.spot.infra.metrics.StaticMetricsHolder;
 import open.vincentf13.service.spot.sbe.AuthEncoder;
+import open.vincentf13.service.spot.sbe.CancelAllEncoder;
 import open.vincentf13.service.spot.sbe.DepositEncoder;
+import open.vincentf13.service.spot.sbe.MarketDataSubscribeEncoder;
+import open.vincentf13.service.spot.sbe.OrderCancelBatchEncoder;
 import open.vincentf13.service.spot.sbe.OrderCancelEncoder;
+import open.vincentf13.service.spot.sbe.OrderCreateBatchEncoder;
 import open.vincentf13.service.spot.sbe.OrderCreateEncoder;
+import open.vincentf13.service.spot.sbe.TransferEncoder;
+import open.vincentf13.service.spot.ws.aeron.MarketDataFanout;
+import open.vincentf13.service.spot.ws.wal.IngressRings;
 import open.vincentf13.service.spot.ws.wal.WalEvent;
+import open.vincentf13.service.spot.ws.wal.WalOrderBatch;
 import org.springframework.stereotype.Component;
 
 import static open.vincentf13.service.spot.infra.Constants.*;
@@ -22,8 +30,11 @@ import static open.vincentf13.service.spot.infra.Constants.*;
 /**
  * 網關 WebSocket 指令處理器
  *
- * Netty worker 解碼 SBE → 填入 WalEvent 結構欄位 → CAS 投遞 Disruptor RingBuffer。
+ * Netty worker 解碼 SBE → 填入 WalEvent 結構欄位 → 投遞本連線所屬的 {@link IngressRings} ring
+ * （shared 模式 CAS 搶序號；per-worker 模式每個 EventLoop 獨佔 single-producer ring，免 CAS）。
  * SBE 欄位偏移來自 generated encoder，確保 schema 變更時自動同步。
+ * 批次指令（repeating group）整批佔用單一 slot，於搶佔 slot 前檢查筆數與長度，不合法整批丟棄。
+ * 行情訂閱不進入撮合：直接交由 {@link MarketDataFanout} 處理，不佔用 RingBuffer。
  */
 @Slf4j
 @Component
@@ -34,14 +45,19 @@ public class WsCommandInboundHandler extends SimpleChannelInboundHandler<BinaryW
     private static final int MIN_COMMAND_LENGTH = OLD_HEADER_SIZE;
     /** SBE body 在客戶端幀中的起始偏移 (= OLD_HEADER_SIZE) */
     private static final int SBE_BODY_START = OLD_HEADER_SIZE;
+    /** SBE groupSizeEncoding 長度 (blockLength 2 + numInGroup 2) */
+    private static final int GROUP_HEADER_SIZE = 4;
     private static final boolean DIAGNOSE = Boolean.getBoolean("spot.diagnose");
 
-    private final RingBuffer<WalEvent> ringBuffer;
+    private final IngressRings ingressRings;
     private final WsSessionManager sessionManager;
+    private final MarketDataFanout marketDataFanout;
 
-    public WsCommandInboundHandler(RingBuffer<WalEvent> ringBuffer, WsSessionManager sessionManager) {
-        this.ringBuffer = ringBuffer;
+    public WsCommandInboundHandler(IngressRings ingressRings, WsSessionManager sessionManager,
+                                   MarketDataFanout marketDataFanout) {
+        this.ingressRings = ingressRings;
         this.sessionManager = sessionManager;
+        this.marketDataFanout = marketDataFanout;
     }
 
     @Override
@@ -55,14 +71,21 @@ public class WsCommandInboundHandler extends SimpleChannelInboundHandler<BinaryW
 
         int ri = content.readerIndex();
         int msgType = content.getIntLE(ri);
+        if (msgType == MsgType.MD_SUBSCRIBE) {
+            onMarketDataSubscribe(ctx, content, ri, length);
+            return;
+        }
+        if (!isWellFormedBatch(content, ri, length, msgType)) return;
         Long existingUserId = ctx.channel().attr(WsSessionManager.USER_ID_KEY).get();
 
-        // CAS 搶佔 RingBuffer slot (無鎖)
+        // 搶佔 RingBuffer slot (無鎖；per-worker 模式為單一生產者，無 CAS 競爭)
+        IngressRings.Lane lane = ingressRings.laneFor(ctx.channel());
+        RingBuffer<WalEvent> ringBuffer = lane.ring();
         long seq;
         try {
             seq = ringBuffer.tryNext();
         } catch (InsufficientCapacityException e) {
-            StaticMetricsHolder.addCounter(MetricsKey.GATEWAY_WAL_DROP_COUNT, 1);
+            IngressRings.recordDrop(lane);
             return;
         }
 
@@ -71,7 +94,7 @@ public class WsCommandInboundHandler extends SimpleChannelInboundHandler<BinaryW
             WalEvent event = ringBuffer.get(seq);
             event.msgType = msgType;
             event.arrivalTimeNs = arrivalTimeNs;
-            decodeSbeBody(content, ri, msgType, event);
+            decodeSbeBody(content, ri, length, msgType, event);
             userId = event.userId;
             if (DIAGNOSE) event.publishTimeNs = System.nanoTime();
         } finally {
@@ -84,11 +107,20 @@ public class WsCommandInboundHandler extends SimpleChannelInboundHandler<BinaryW
         }
     }
 
+    /** 公開行情訂閱無需認證 */
+    private void onMarketDataSubscribe(ChannelHandlerContext ctx, ByteBuf content, int ri, int length) {
+        if (length < SBE_BODY_START + MarketDataSubscribeEncoder.BLOCK_LENGTH) return;
+        int b = ri + SBE_BODY_START;
+        int symbolId = content.getIntLE(b + MarketDataSubscribeEncoder.symbolIdEncodingOffset());
+        boolean subscribe = content.getByte(b + MarketDataSubscribeEncoder.subscribeEncodingOffset()) != 0;
+        marketDataFanout.requestSubscription(ctx.channel(), symbolId, subscribe);
+    }
+
     /**
      * 從客戶端 ByteBuf 解碼 SBE body 欄位至 WalEvent 結構。
      * 偏移常數來自 SBE generated encoder，保證與 schema 一致。
      */
-    private static void decodeSbeBody(ByteBuf buf, int ri, int msgType, WalEvent e) {
+    private static void decodeSbeBody(ByteBuf buf, int ri, int length, int msgType, WalEvent e) {
         int b = ri + SBE_BODY_START; // SBE body fields 起始位址
 
         switch (msgType) {
@@ -100,6 +132,10 @@ public class WsCommandInboundHandler extends SimpleChannelInboundHandler<BinaryW
                 e.orderCreate.qty           = buf.getLongLE(b + OrderCreateEncoder.qtyEncodingOffset());
                 e.orderCreate.side          = buf.getByte(b + OrderCreateEncoder.sideEncodingOffset());
                 e.orderCreate.clientOrderId = buf.getLongLE(b + OrderCreateEncoder.clientOrderIdEncodingOffset());
+                // 尾端追加欄位：舊版 body 未攜帶時缺省為 LIMIT + GTC
+                boolean extended = length >= SBE_BODY_START + OrderCreateEncoder.BLOCK_LENGTH;
+                e.orderCreate.orderType   = extended ? buf.getByte(b + OrderCreateEncoder.orderTypeEncodingOffset()) : 0;
+                e.orderCreate.timeInForce = extended ? buf.getByte(b + OrderCreateEncoder.timeInForceEncodingOffset()) : 0;
             }
             case MsgType.ORDER_CANCEL -> {
                 e.timestamp = buf.getLongLE(b + OrderCancelEncoder.timestampEncodingOffset());
@@ -112,11 +148,78 @@ public class WsCommandInboundHandler extends SimpleChannelInboundHandler<BinaryW
                 e.deposit.assetId = buf.getIntLE(b + DepositEncoder.assetIdEncodingOffset());
                 e.deposit.amount  = buf.getLongLE(b + DepositEncoder.amountEncodingOffset());
             }
+            case MsgType.TRANSFER -> {
+                e.timestamp = buf.getLongLE(b + TransferEncoder.timestampEncodingOffset());
+                e.userId    = buf.getLongLE(b + TransferEncoder.userIdEncodingOffset());
+                e.transfer.assetId   = buf.getIntLE(b + TransferEncoder.assetIdEncodingOffset());
+                e.transfer.amount    = buf.getLongLE(b + TransferEncoder.amountEncodingOffset());
+                e.transfer.fromShard = buf.getByte(b + TransferEncoder.fromShardEncodingOffset());
+                e.transfer.toShard   = buf.getByte(b + TransferEncoder.toShardEncodingOffset());
+            }
             case MsgType.AUTH -> {
                 e.timestamp = buf.getLongLE(b + AuthEncoder.timestampEncodingOffset());
                 e.userId    = buf.getLongLE(b + AuthEncoder.userIdEncodingOffset());
             }
+            case MsgType.ORDER_CREATE_BATCH -> {
+                e.timestamp = buf.getLongLE(b + OrderCreateBatchEncoder.timestampEncodingOffset());
+                e.userId    = buf.getLongLE(b + OrderCreateBatchEncoder.userIdEncodingOffset());
+                WalOrderBatch ob = e.orderBatch;
+                ob.symbolId = buf.getIntLE(b + OrderCreateBatchEncoder.symbolIdEncodingOffset());
+                int g = b + OrderCreateBatchEncoder.BLOCK_LENGTH;
+                int stride = buf.getUnsignedShortLE(g);
+                ob.count = buf.getUnsignedShortLE(g + 2);
+                int p = g + GROUP_HEADER_SIZE;
+                for (int i = 0; i < ob.count; i++, p += stride) {
+                    ob.price[i]         = buf.getLongLE(p + OrderCreateBatchEncoder.OrdersEncoder.priceEncodingOffset());
+                    ob.qty[i]           = buf.getLongLE(p + OrderCreateBatchEncoder.OrdersEncoder.qtyEncodingOffset());
+                    ob.side[i]          = buf.getByte(p + OrderCreateBatchEncoder.OrdersEncoder.sideEncodingOffset());
+                    ob.clientOrderId[i] = buf.getLongLE(p + OrderCreateBatchEncoder.OrdersEncoder.clientOrderIdEncodingOffset());
+                    ob.orderType[i]     = buf.getByte(p + OrderCreateBatchEncoder.OrdersEncoder.orderTypeEncodingOffset());
+                    ob.timeInForce[i]   = buf.getByte(p + OrderCreateBatchEncoder.OrdersEncoder.timeInForceEncodingOffset());
+                }
+            }
+            case MsgType.ORDER_CANCEL_BATCH -> {
+                e.timestamp = buf.getLongLE(b + OrderCancelBatchEncoder.timestampEncodingOffset());
+                e.userId    = buf.getLongLE(b + OrderCancelBatchEncoder.userIdEncodingOffset());
+                WalOrderBatch ob = e.orderBatch;
+                int g = b + OrderCancelBatchEncoder.BLOCK_LENGTH;
+                int stride = buf.getUnsignedShortLE(g);
+                ob.count = buf.getUnsignedShortLE(g + 2);
+                int p = g + GROUP_HEADER_SIZE;
+                for (int i = 0; i < ob.count; i++, p += stride) {
+                    ob.orderId[i] = buf.getLongLE(p + OrderCancelBatchEncoder.OrdersEncoder.orderIdEncodingOffset());
+                }
+            }
+            case MsgType.CANCEL_ALL -> {
+                e.timestamp = buf.getLongLE(b + CancelAllEncoder.timestampEncodingOffset());
+                e.userId    = buf.getLongLE(b + CancelAllEncoder.userIdEncodingOffset());
+                e.cancelAll.symbolId = buf.getIntLE(b + CancelAllEncoder.symbolIdEncodingOffset());
+            }
+        }
+    }
+
+    /**
+     * 批次指令的 group 標頭檢查：1 ~ MAX_BATCH_SIZE 筆、每筆長度不小於 schema 定義、幀長度足以容納全部筆數。
+     * 非批次指令直接通過。stride 取客戶端宣告的 blockLength，容許較新 schema 於 group 尾端追加欄位。
+     */
+    private static boolean isWellFormedBatch(ByteBuf buf, int ri, int length, int msgType) {
+        int g, minStride;
+        switch (msgType) {
+            case MsgType.ORDER_CREATE_BATCH -> {
+                g = SBE_BODY_START + OrderCreateBatchEncoder.BLOCK_LENGTH;
+                minStride = OrderCreateBatchEncoder.OrdersEncoder.sbeBlockLength();
+            }
+            case MsgType.ORDER_CANCEL_BATCH -> {
+                g = SBE_BODY_START + OrderCancelBatchEncoder.BLOCK_LENGTH;
+                minStride = OrderCancelBatchEncoder.OrdersEncoder.sbeBlockLength();
+            }
+            default -> { return true; }
         }
+        if (length < g + GROUP_HEADER_SIZE) return false;
+        int stride = buf.getUnsignedShortLE(ri + g);
+        int count = buf.getUnsignedShortLE(ri + g + 2);
+        return stride >= minStride && count > 0 && count <= MatchingConfig.MAX_BATCH_SIZE
+                && length >= g + GROUP_HEADER_SIZE + count * stride;
     }
 
     @Override